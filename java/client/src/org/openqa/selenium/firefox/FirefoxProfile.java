@@ -17,8 +17,10 @@ limitations under the License.
 package org.openqa.selenium.firefox;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
 import com.google.common.collect.Maps;
 import com.google.common.io.Closeables;
+import com.google.common.io.Files;
 import com.google.common.io.Resources;
 
 import org.openqa.selenium.Beta;
@@ -28,9 +30,12 @@ import org.openqa.selenium.WebDriverException;
 import org.openqa.selenium.firefox.internal.ClasspathExtension;
 import org.openqa.selenium.firefox.internal.Extension;
 import org.openqa.selenium.firefox.internal.FileExtension;
+import org.openqa.selenium.firefox.internal.ProfileCache;
+import org.openqa.selenium.internal.Base64Encoder;
 import org.openqa.selenium.io.FileHandler;
 import org.openqa.selenium.io.TemporaryFilesystem;
 import org.openqa.selenium.io.Zip;
+import org.openqa.selenium.remote.CachedCapability;
 
 import java.io.File;
 import java.io.FileWriter;
@@ -46,9 +51,25 @@ import static org.openqa.selenium.firefox.FirefoxDriver.ASSUME_UNTRUSTED_ISSUER;
 import static org.openqa.selenium.firefox.FirefoxDriver.DEFAULT_ENABLE_NATIVE_EVENTS;
 
 
-public class FirefoxProfile {
+public class FirefoxProfile implements CachedCapability {
   public static final String PORT_PREFERENCE = "webdriver_firefox_port";
 
+  /**
+   * The system property which, set to true, has a profile sent to a server as its preferences and
+   * the hash of the rest of the profile, which the server keeps unpacked from the sessions the
+   * profile was sent in full to. A server which doesn't have it answers so, and the profile is sent
+   * in full. Only for servers which know of it: an older server fails the session.
+   */
+  public static final String SEND_BY_REFERENCE_PROPERTY =
+      "webdriver.firefox.profile.sendByReference";
+
+  // the JSON form of a profile sent by reference is this, the hash of its template, ':' and its
+  // user.js in base64, none of which can be mistaken for the base64 of a zip.
+  private static final String TEMPLATE_REFERENCE = "template:";
+
+  // starts the message of the failure of a server which doesn't have a template.
+  private static final String UNKNOWN_TEMPLATE = "Unknown profile template: ";
+
   private static final String defaultPrefs = "/org/openqa/selenium/firefox/webdriver_prefs.json";
 
   private Preferences additionalPrefs;
@@ -59,6 +80,8 @@ public class FirefoxProfile {
   private boolean acceptUntrustedCerts;
   private boolean untrustedCertIssuer;
   private File model;
+  private volatile boolean sentByReference;
+  private volatile boolean sendInFull;
   private static final String ENABLE_NATIVE_EVENTS_PREF = "webdriver_enable_native_events";
   private static final String ACCEPT_UNTRUSTED_CERTS_PREF = "webdriver_accept_untrusted_certs";
   private static final String ASSUME_UNTRUSTED_ISSUER_PREF = "webdriver_assume_untrusted_issuer";
@@ -407,14 +430,64 @@ public class FirefoxProfile {
 
   public String toJson() throws IOException {
     File generatedProfile = layoutOnDisk();
+    try {
+      if (!Boolean.getBoolean(SEND_BY_REFERENCE_PROPERTY)) {
+        return new Zip().zip(generatedProfile);
+      }
+
+      if (!sendInFull) {
+        sentByReference = true;
+        String template = ProfileCache.hashTemplate(generatedProfile);
+        byte[] userPrefs = Files.toByteArray(new File(generatedProfile, "user.js"));
+        return TEMPLATE_REFERENCE + template + ":" + new Base64Encoder().encode(userPrefs);
+      }
 
-    return new Zip().zip(generatedProfile);
+      sentByReference = false;
+      sendInFull = false;
+      return new Zip().zip(generatedProfile);
+    } finally {
+      clean(generatedProfile);
+    }
   }
 
+  public boolean sendInFull(WebDriverException failure) {
+    if (!sentByReference || !isUnknownTemplate(failure)) {
+      return false;
+    }
+    sendInFull = true;
+    return true;
+  }
+
+  private static boolean isUnknownTemplate(Throwable failure) {
+    // the failure of the server may come wrapped, or as the message of another exception.
+    for (Throwable t = failure; t != null; t = t.getCause()) {
+      if (t.getMessage() != null && t.getMessage().contains(UNKNOWN_TEMPLATE)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Unpacks a profile sent by {@link #toJson()}. A profile sent in full has its template kept in
+   * the {@link ProfileCache}, from which a profile sent by reference is laid out.
+   *
+   * @throws WebDriverException if the profile is sent by reference to a template which is not
+   *     kept here.
+   */
   public static FirefoxProfile fromJson(String json) throws IOException {
     File dir = TemporaryFilesystem.getDefaultTmpFS().createTempDir("webdriver", "duplicated");
 
-    new Zip().unzip(json, dir);
+    if (json.startsWith(TEMPLATE_REFERENCE)) {
+      String[] reference = json.substring(TEMPLATE_REFERENCE.length()).split(":", 2);
+      String userPrefs = new String(new Base64Encoder().decode(reference[1]), Charsets.UTF_8);
+      if (!ProfileCache.getInstance().copyTo(reference[0], userPrefs, dir)) {
+        throw new WebDriverException(UNKNOWN_TEMPLATE + reference[0]);
+      }
+    } else {
+      new Zip().unzip(json, dir);
+      ProfileCache.getInstance().add(ProfileCache.hashTemplate(dir), dir);
+    }
 
     return new FirefoxProfile(dir);
   }
@@ -0,0 +1,211 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.openqa.selenium.firefox.internal;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.io.FileHandler;
+import org.openqa.selenium.io.TemporaryFilesystem;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The profiles a server has been sent, unpacked on disk and named by the hash of their template,
+ * so that a later session can refer to one instead of sending it again.
+ *
+ * The template of a profile is all of it but its user.js: two profiles differing only by their
+ * preferences share the same one. Only the templates used the most recently are kept, up to
+ * {@link #SIZE_PROPERTY}.
+ *
+ * The templates are copied outside of the lock of the cache, a template being copied from is only
+ * deleted once that copy is done.
+ */
+public class ProfileCache {
+
+  /**
+   * The system property setting the number of templates kept.
+   */
+  public static final String SIZE_PROPERTY = "webdriver.firefox.profileCache.size";
+
+  private static final int DEFAULT_SIZE = 10;
+  private static final String USER_PREFS = "user.js";
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private static ProfileCache instance;
+
+  private final File root;
+  private final Map<String, Template> templates;
+  private int copies;
+
+  public ProfileCache(File root, final int size) {
+    this.root = root;
+    this.templates = new LinkedHashMap<String, Template>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Template> eldest) {
+        if (size() <= size) {
+          return false;
+        }
+        Template template = eldest.getValue();
+        template.evicted = true;
+        if (template.users == 0) {
+          FileHandler.delete(template.dir);
+        }
+        return true;
+      }
+    };
+  }
+
+  public static synchronized ProfileCache getInstance() {
+    if (instance == null) {
+      File root = TemporaryFilesystem.getDefaultTmpFS().createTempDir("webdriver", "profiles");
+      instance = new ProfileCache(root, Integer.getInteger(SIZE_PROPERTY, DEFAULT_SIZE));
+    }
+    return instance;
+  }
+
+  /**
+   * @return the hash of the template of the profile, the same wherever it is unpacked.
+   */
+  public static String hashTemplate(File profileDir) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new WebDriverException(e);
+    }
+    hash(digest, profileDir, "");
+
+    byte[] bytes = digest.digest();
+    char[] hex = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      hex[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+      hex[2 * i + 1] = HEX[bytes[i] & 0xf];
+    }
+    return new String(hex);
+  }
+
+  private static void hash(MessageDigest digest, File dir, String path) throws IOException {
+    File[] files = dir.listFiles();
+    if (files == null) {
+      return;
+    }
+    Arrays.sort(files);
+    byte[] buffer = new byte[16384];
+    for (File file : files) {
+      String name = path + file.getName();
+      if (file.isDirectory()) {
+        hash(digest, file, name + "/");
+        continue;
+      }
+      if (USER_PREFS.equals(name)) {
+        continue;
+      }
+      digest.update(name.getBytes(Charsets.UTF_8));
+      digest.update((byte) 0);
+      InputStream in = new FileInputStream(file);
+      try {
+        for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+          digest.update(buffer, 0, read);
+        }
+      } finally {
+        in.close();
+      }
+      digest.update((byte) 0);
+    }
+  }
+
+  /**
+   * Keeps a copy of the template of the profile, unless there is one already.
+   */
+  public void add(String hash, File profileDir) throws IOException {
+    File copy;
+    synchronized (this) {
+      if (templates.containsKey(hash)) {
+        return;
+      }
+      // two sessions may send the same template at once, each copies it to its own directory.
+      copy = new File(root, hash + "." + copies++);
+    }
+    FileHandler.copy(profileDir, copy);
+    new File(copy, USER_PREFS).delete();
+
+    synchronized (this) {
+      if (!templates.containsKey(hash)) {
+        templates.put(hash, new Template(copy));
+        return;
+      }
+    }
+    FileHandler.delete(copy);
+  }
+
+  /**
+   * Lays a profile out from a template.
+   *
+   * @param userPrefs the content of the user.js of the profile.
+   * @return false if the template is not kept here.
+   */
+  public boolean copyTo(String hash, String userPrefs, File profileDir) throws IOException {
+    Template template;
+    synchronized (this) {
+      template = templates.get(hash);
+      if (template == null) {
+        return false;
+      }
+      template.users++;
+    }
+    try {
+      FileHandler.copy(template.dir, profileDir);
+    } finally {
+      release(template);
+    }
+    Files.write(userPrefs, new File(profileDir, USER_PREFS), Charsets.UTF_8);
+    return true;
+  }
+
+  private synchronized void release(Template template) {
+    template.users--;
+    if (template.users == 0 && template.evicted) {
+      FileHandler.delete(template.dir);
+    }
+  }
+
+  /**
+   * A template on disk, guarded by the lock of the cache.
+   */
+  private static class Template {
+    private final File dir;
+    // the profiles being laid out from it.
+    private int users;
+    private boolean evicted;
+
+    Template(File dir) {
+      this.dir = dir;
+    }
+  }
+}
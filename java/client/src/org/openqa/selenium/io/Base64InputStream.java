@@ -0,0 +1,100 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.openqa.selenium.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+
+/**
+ * Reads the bytes encoded as base64 by the characters of a reader, as they are read. Like
+ * {@link org.openqa.selenium.internal.Base64Encoder#decode(String)}, the characters which are not
+ * part of the encoding are skipped, and the bytes end with the first padding character.
+ */
+public class Base64InputStream extends InputStream {
+
+  private static final int[] VALUES = new int[128];
+
+  static {
+    String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+    for (int i = 0; i < alphabet.length(); i++) {
+      VALUES[alphabet.charAt(i)] = i + 1;
+    }
+  }
+
+  private final Reader in;
+  private final char[] chars = new char[8192];
+  private int position;
+  private int limit;
+  private int bits;
+  private int bitCount;
+  private boolean ended;
+
+  public Base64InputStream(Reader in) {
+    this.in = in;
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] b = new byte[1];
+    return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    int read = 0;
+    while (read < len) {
+      if (ended || (position == limit && !fill())) {
+        break;
+      }
+      char c = chars[position++];
+      if (c == '=') {
+        ended = true;
+        break;
+      }
+      int value = c < VALUES.length ? VALUES[c] : 0;
+      if (value == 0) {
+        continue;
+      }
+      bits = (bits << 6) | (value - 1);
+      bitCount += 6;
+      if (bitCount >= 8) {
+        bitCount -= 8;
+        b[off + read++] = (byte) (bits >> bitCount);
+      }
+    }
+    return read == 0 && len > 0 ? -1 : read;
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+
+  private boolean fill() throws IOException {
+    position = 0;
+    limit = in.read(chars);
+    if (limit == -1) {
+      limit = 0;
+      ended = true;
+      return false;
+    }
+    return true;
+  }
+}
@@ -0,0 +1,103 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.openqa.selenium.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * Writes the bytes written to it as base64, in the same form as
+ * {@link org.openqa.selenium.internal.Base64Encoder#encode(byte[])}, without holding more than a
+ * few KB of them: the padding is written on close.
+ */
+public class Base64OutputStream extends OutputStream {
+
+  private static final char[] SIXTY_FOUR_CHARS =
+      "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+  private static final int LINE_LENGTH = 76;
+
+  private final Writer out;
+  private final char[] chars = new char[8192];
+  private int charCount;
+  private int lineLength;
+  private int bits;
+  private int byteCount;
+  private boolean closed;
+
+  public Base64OutputStream(Writer out) {
+    this.out = out;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    bits = (bits << 8) | (b & 0xff);
+    if (++byteCount == 3) {
+      encode(4);
+    }
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    for (int i = off; i < off + len; i++) {
+      write(b[i]);
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    out.write(chars, 0, charCount);
+    charCount = 0;
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    if (byteCount > 0) {
+      int significant = byteCount + 1;
+      bits <<= 8 * (3 - byteCount);
+      encode(significant);
+    }
+    flush();
+    out.close();
+  }
+
+  /**
+   * Writes the 24 bits collected, as many characters as significant and padding for the others.
+   */
+  private void encode(int significant) throws IOException {
+    if (charCount + 5 > chars.length) {
+      out.write(chars, 0, charCount);
+      charCount = 0;
+    }
+    for (int i = 0; i < 4; i++) {
+      chars[charCount++] = i < significant ? SIXTY_FOUR_CHARS[0x3f & bits >> 6 * (3 - i)] : '=';
+    }
+    if ((lineLength += 4) == LINE_LENGTH) {
+      chars[charCount++] = '\n';
+      lineLength = 0;
+    }
+    bits = 0;
+    byteCount = 0;
+  }
+}
@@ -20,17 +20,15 @@ package org.openqa.selenium.io;
 
 import com.google.common.io.Closeables;
 
-import org.openqa.selenium.internal.Base64Encoder;
-
 import java.io.BufferedOutputStream;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
@@ -54,38 +52,37 @@ public class Zip {
     }
   }
 
+  /**
+   * @return the zip of the directory in base64, encoded as it is zipped.
+   */
   public String zip(File inputDir) throws IOException {
-    ByteArrayOutputStream bos = new ByteArrayOutputStream();
-
-    try {
-      zip(inputDir, bos);
-      return new Base64Encoder().encode(bos.toByteArray());
-    } finally {
-      Closeables.closeQuietly(bos);
-    }
+    StringWriter writer = new StringWriter();
+    zip(inputDir, new Base64OutputStream(writer));
+    return writer.toString();
   }
 
+  /**
+   * @return the zip of the file in base64, encoded as it is zipped.
+   */
   public String zipFile(File baseDir, File fileToCompress) throws IOException {
     checkArgument(fileToCompress.isFile(), "File should be a file: " + fileToCompress);
 
-    ByteArrayOutputStream bos = new ByteArrayOutputStream();
-    ZipOutputStream zos = new ZipOutputStream(bos);
-
+    StringWriter writer = new StringWriter();
+    ZipOutputStream zos = new ZipOutputStream(new Base64OutputStream(writer));
     try {
       addToZip(baseDir.getAbsolutePath(), zos, fileToCompress);
-      return new Base64Encoder().encode(bos.toByteArray());
+      zos.close();
     } finally {
       Closeables.closeQuietly(zos);
-      Closeables.closeQuietly(bos);
     }
-
+    return writer.toString();
   }
 
   private void zip(File inputDir, OutputStream writeTo) throws IOException {
-    ZipOutputStream zos = null;
+    ZipOutputStream zos = new ZipOutputStream(writeTo);
     try {
-      zos = new ZipOutputStream(writeTo);
       addToZip(inputDir.getAbsolutePath(), zos, inputDir);
+      zos.close();
     } finally {
       Closeables.closeQuietly(zos);
     }
@@ -114,16 +111,11 @@ public class Zip {
     }
   }
 
+  /**
+   * Unzips a zip in base64, decoded as it is unzipped.
+   */
   public void unzip(String source, File outputDir) throws IOException {
-    byte[] bytes = new Base64Encoder().decode(source);
-
-    ByteArrayInputStream bis = null;
-    try {
-      bis = new ByteArrayInputStream(bytes);
-      unzip(bis, outputDir);
-    } finally {
-      Closeables.closeQuietly(bis);
-    }
+    unzip(new Base64InputStream(new StringReader(source)), outputDir);
   }
 
   public void unzip(File source, File outputDir) throws IOException {
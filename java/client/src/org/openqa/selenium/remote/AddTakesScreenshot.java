@@ -16,6 +16,8 @@ limitations under the License.
 
 package org.openqa.selenium.remote;
 
+import com.google.common.collect.ImmutableMap;
+
 import org.openqa.selenium.OutputType;
 import org.openqa.selenium.TakesScreenshot;
 
@@ -24,6 +26,9 @@ import java.lang.reflect.Method;
 // Deliberately package level visibility
 class AddTakesScreenshot implements AugmenterProvider {
 
+  // The first bytes of any png. Some drivers send base64 with an image/png content type.
+  private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+
   public Class<?> getDescribedInterface() {
     return TakesScreenshot.class;
   }
@@ -33,12 +38,18 @@ class AddTakesScreenshot implements AugmenterProvider {
     return new InterfaceImplementation() {
       public Object invoke(ExecuteMethod executeMethod, Object self, Method method, Object... args) {
         OutputType<?> outputType = ((OutputType<?>) args[0]);
-        Object result = executeMethod.execute(DriverCommand.SCREENSHOT, null);
+        Object result = executeMethod.execute(DriverCommand.SCREENSHOT,
+            ImmutableMap.of(HttpCommandExecutor.ACCEPT_PNG, true));
         if (result instanceof String) {
           String base64EncodedPng = (String) result;
           return outputType.convertFromBase64Png(base64EncodedPng);
         } else if (result instanceof byte[]) {
-          String base64EncodedPng = new String((byte[]) result);
+          byte[] bytes = (byte[]) result;
+          if (isPng(bytes)) {
+            // sent as image/png by a server asked for it, never encoded in base64.
+            return outputType.convertFromPngBytes(bytes);
+          }
+          String base64EncodedPng = new String(bytes);
           return outputType.convertFromBase64Png(base64EncodedPng);
         } else {
           throw new RuntimeException("Unexpected result for " + DriverCommand.SCREENSHOT +
@@ -47,4 +58,16 @@ class AddTakesScreenshot implements AugmenterProvider {
       }
     };
   }
+
+  static boolean isPng(byte[] bytes) {
+    if (bytes.length < PNG_SIGNATURE.length) {
+      return false;
+    }
+    for (int i = 0; i < PNG_SIGNATURE.length; i++) {
+      if (bytes[i] != PNG_SIGNATURE[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
 }
@@ -0,0 +1,159 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.openqa.selenium.remote;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+import org.openqa.selenium.Beta;
+import org.openqa.selenium.WebDriverException;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sends several commands to the remote server in a single request, the server running them one
+ * after the other on the session. Reading a table cell by cell this way costs one round trip
+ * instead of one per cell:
+ *
+ * <pre>
+ * BatchExecutor batch = driver.newBatch();
+ * BatchExecutor.Result cells = batch.add(DriverCommand.FIND_ELEMENTS,
+ *     ImmutableMap.of("using", "css selector", "value", "td"));
+ * for (int i = 0; i &lt; 50; i++) {
+ *   batch.add(DriverCommand.GET_ELEMENT_TEXT, ImmutableMap.of("id", cells.get(i)));
+ * }
+ * List&lt;Object&gt; values = batch.execute();
+ * </pre>
+ *
+ * The parameters are the ones of the wire protocol, an element being given by its id. A
+ * {@link Result} stands for what an earlier command of the batch returned, and may be used as a
+ * parameter of the commands added after it: the server puts the value in its place before
+ * running the command, the id of the element when the value is one.
+ *
+ * The server stops at the first command which fails, and {@link #execute()} throws the exception
+ * this command would have thrown on its own.
+ */
+@Beta
+public class BatchExecutor {
+
+  private final RemoteWebDriver driver;
+  private final List<Command> commands = Lists.newArrayList();
+
+  BatchExecutor(RemoteWebDriver driver) {
+    this.driver = driver;
+  }
+
+  /**
+   * @param driverCommand one of the {@link DriverCommand}s.
+   * @param parameters the parameters of the command, which may contain {@link Result}s.
+   * @return what the command will return, for the commands added after it.
+   */
+  public Result add(String driverCommand, Map<String, ?> parameters) {
+    commands.add(new Command(driver.getSessionId(), driverCommand, parameters));
+    return new Result(commands.size() - 1, ImmutableList.of());
+  }
+
+  public Result add(String driverCommand) {
+    return add(driverCommand, ImmutableMap.<String, Object>of());
+  }
+
+  /**
+   * @return the number of commands in the batch.
+   */
+  public int size() {
+    return commands.size();
+  }
+
+  /**
+   * Runs the commands of the batch, which is emptied.
+   *
+   * @return the values returned by the commands, in the order they were added.
+   */
+  public List<Object> execute() {
+    if (commands.isEmpty()) {
+      return Lists.newArrayList();
+    }
+
+    List<Command> toSend = ImmutableList.copyOf(commands);
+    commands.clear();
+    Response batch = driver.execute(DriverCommand.EXECUTE_BATCH,
+        ImmutableMap.of("commands", toSend));
+
+    List<?> responses = (List<?>) batch.getValue();
+    List<Object> values = Lists.newArrayListWithCapacity(responses.size());
+    for (Object raw : responses) {
+      Map<?, ?> map = (Map<?, ?>) raw;
+      Response response = new Response();
+      response.setSessionId((String) map.get("sessionId"));
+      response.setStatus(((Number) map.get("status")).intValue());
+      response.setValue(map.get("value"));
+      driver.getErrorHandler().throwIfResponseFailed(response, 0);
+      values.add(response.getValue());
+    }
+
+    if (values.size() != toSend.size()) {
+      throw new WebDriverException(String.format(
+          "The server ran %d of the %d commands of the batch", values.size(), toSend.size()));
+    }
+    return values;
+  }
+
+  /**
+   * What a command of a batch returns, or a part of it.
+   */
+  public static class Result {
+
+    private final int index;
+    private final List<Object> select;
+
+    private Result(int index, List<Object> select) {
+      this.index = index;
+      this.select = select;
+    }
+
+    /**
+     * @return the element at the given index of the list this stands for.
+     */
+    public Result get(int listIndex) {
+      return select(listIndex);
+    }
+
+    /**
+     * @return the value of the given key of the map this stands for.
+     */
+    public Result get(String key) {
+      return select(key);
+    }
+
+    private Result select(Object key) {
+      return new Result(index, ImmutableList.builder().addAll(select).add(key).build());
+    }
+
+    public Map<String, Object> toJson() {
+      return ImmutableMap.<String, Object>of("batchResult", index, "select", select);
+    }
+
+    @Override
+    public String toString() {
+      return "[batch result " + index + " " + select + "]";
+    }
+  }
+}
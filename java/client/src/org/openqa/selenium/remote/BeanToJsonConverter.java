@@ -17,8 +17,8 @@ limitations under the License.
 package org.openqa.selenium.remote;
 
 import org.json.JSONArray;
-import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONString;
 import org.openqa.selenium.Capabilities;
 import org.openqa.selenium.Cookie;
 import org.openqa.selenium.WebDriverException;
@@ -28,16 +28,14 @@ import org.openqa.selenium.logging.LoggingPreferences;
 import org.openqa.selenium.logging.SessionLogs;
 
 import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Array;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -47,6 +45,19 @@ public class BeanToJsonConverter {
 
   private static final int MAX_DEPTH = 5;
 
+  // the toJson methods by class, NO_TO_JSON standing for the classes without one.
+  private static final Map<Class<?>, Method> toJsonMethods =
+      new ConcurrentHashMap<Class<?>, Method>();
+  private static final Method NO_TO_JSON;
+
+  static {
+    try {
+      NO_TO_JSON = Object.class.getMethod("toString");
+    } catch (NoSuchMethodException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
   /**
    * Convert an object that may or may not be a JSONArray or JSONObject into its JSON string
    * representation, handling the case where it is neither in a graceful way.
@@ -59,196 +70,299 @@ public class BeanToJsonConverter {
       return null;
     }
 
+    StringBuilder json = new StringBuilder();
     try {
-      Object converted = convertObject(object, MAX_DEPTH);
-      if (converted instanceof JSONObject
-          || converted instanceof JSONArray
-          || converted instanceof String
-          || converted instanceof Number) {
-        return converted.toString();
-      }
-
-      return String.valueOf(object);
-    } catch (Exception e) {
+      convert(object, json);
+    } catch (IOException e) {
+      // A StringBuilder doesn't throw any
       throw new WebDriverException("Unable to convert: " + object, e);
     }
+    return json.toString();
   }
 
   /**
-   * Convert a JSON[Array|Object] into the equivalent Java Collection type (that is, List|Map)
-   * returning other objects untouched. This method is used for preparing values for use by the
-   * HttpCommandExecutor
+   * Same as {@link #convert(Object)}, but writes the JSON as it is produced rather than building
+   * it in memory first: the writer can be the stream of a request or of a response. A null object
+   * is written as null.
    *
-   * @param o Object to convert
-   * @return a Map, List or the unconverted Object
+   * @param object which needs conversion
+   * @param appendable where to write the JSON string representation of object
+   * @throws IOException if writing to the appendable fails
    */
-  private Object convertUnknownObjectFromJson(Object o) {
-    if (o instanceof JSONArray) {
-      return convertJsonArray((JSONArray) o);
-    }
-
-    if (o instanceof JSONObject) {
-      return convertJsonObject((JSONObject) o);
+  public void convert(Object object, Appendable appendable) throws IOException {
+    try {
+      if (object == null) {
+        appendable.append("null");
+      } else if (isWrittenAsItIs(object)) {
+        appendable.append(String.valueOf(object));
+      } else if (object instanceof Date) {
+        appendable.append(String.valueOf(toSeconds((Date) object)));
+      } else if (object instanceof File) {
+        appendable.append(((File) object).getAbsolutePath());
+      } else if (!isStructured(object) && getToJsonMethod(object) != null) {
+        Object converted = invokeToJson(object);
+        if (converted instanceof JSONObject
+            || converted instanceof JSONArray
+            || converted instanceof String
+            || converted instanceof Number) {
+          appendable.append(converted.toString());
+        } else {
+          appendable.append(String.valueOf(object));
+        }
+      } else if (!write(new JsonOutput(appendable), object, MAX_DEPTH)) {
+        appendable.append(String.valueOf(object));
+      }
+    } catch (IOException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new WebDriverException("Unable to convert: " + object, e);
     }
-
-    return o;
   }
 
-  private Map<String, Object> convertJsonObject(JSONObject jsonObject) {
-    Map<String, Object> toReturn = new HashMap<String, Object>();
-    Iterator<?> allKeys = jsonObject.keys();
-    while (allKeys.hasNext()) {
-      String key = (String) allKeys.next();
-
-      try {
-        toReturn.put(key, convertUnknownObjectFromJson(jsonObject.get(key)));
-      } catch (JSONException e) {
-        throw new IllegalStateException("Unable to access key: " + key, e);
-      }
-    }
-    return toReturn;
+  private boolean isWrittenAsItIs(Object object) {
+    return object instanceof Boolean
+           || object instanceof CharSequence
+           || object instanceof Number
+           || object.getClass().isEnum()
+           || object instanceof Enum;
   }
 
-  private List<Object> convertJsonArray(JSONArray jsonArray) {
-    List<Object> toReturn = new ArrayList<Object>();
-    for (int i = 0; i < jsonArray.length(); i++) {
-      try {
-        toReturn.add(convertUnknownObjectFromJson(jsonArray.get(i)));
-      } catch (JSONException e) {
-        throw new IllegalStateException("Cannot convert object at index: " + i, e);
-      }
-    }
-    return toReturn;
+  private boolean isStructured(Object object) {
+    return object instanceof LoggingPreferences
+           || object instanceof SessionLogs
+           || object instanceof LogEntries
+           || object instanceof Map
+           || object instanceof JSONObject
+           || object instanceof JSONArray
+           || object instanceof Collection
+           || object.getClass().isArray()
+           || object instanceof SessionId
+           || object instanceof Capabilities
+           || object instanceof DoNotUseProxyPac;
   }
 
+  /**
+   * Writes the JSON representation of toConvert.
+   *
+   * @return false if nothing was written, because toConvert is nested too deep or converts to
+   *         nothing.
+   */
   @SuppressWarnings("unchecked")
-  private Object convertObject(Object toConvert, int maxDepth) throws Exception {
+  private boolean write(JsonOutput out, Object toConvert, int maxDepth) throws Exception {
     if (toConvert == null) {
-      return JSONObject.NULL;
+      out.nullValue();
+      return true;
+    }
+
+    if (toConvert instanceof Boolean) {
+      out.value(((Boolean) toConvert).booleanValue());
+      return true;
+    }
+
+    if (toConvert instanceof CharSequence) {
+      out.value(toConvert.toString());
+      return true;
     }
 
-    if (toConvert instanceof Boolean ||
-        toConvert instanceof CharSequence ||
-        toConvert instanceof Number) {
-      return toConvert;
+    if (toConvert instanceof Number) {
+      out.value((Number) toConvert);
+      return true;
     }
 
     if (toConvert.getClass().isEnum() || toConvert instanceof Enum) {
-      return toConvert.toString();
+      out.value(toConvert.toString());
+      return true;
     }
 
     if (toConvert instanceof LoggingPreferences) {
       LoggingPreferences prefs = (LoggingPreferences) toConvert;
-      JSONObject converted = new JSONObject();
+      out.beginObject();
       for (String logType : prefs.getEnabledLogTypes()) {
-        converted.put(logType, prefs.getLevel(logType));
+        out.name(logType).value(String.valueOf(prefs.getLevel(logType)));
       }
-      return converted;
+      out.endObject();
+      return true;
     }
-    
+
     if (toConvert instanceof SessionLogs) {
-      return convertObject(((SessionLogs)toConvert).getAll(), maxDepth - 1);
+      return write(out, ((SessionLogs) toConvert).getAll(), maxDepth - 1);
     }
 
     if (toConvert instanceof LogEntries) {
-      return convertObject(((LogEntries)toConvert).getAll(), maxDepth - 1);
+      return write(out, ((LogEntries) toConvert).getAll(), maxDepth - 1);
     }
 
     if (toConvert instanceof Map) {
-      JSONObject converted = new JSONObject();
+      out.beginObject();
       for (Object objectEntry : ((Map) toConvert).entrySet()) {
         Map.Entry<String, Object> entry = (Map.Entry) objectEntry;
-        converted.put(entry.getKey(), convertObject(entry.getValue(), maxDepth - 1));
+        out.name(entry.getKey());
+        if (!write(out, entry.getValue(), maxDepth - 1)) {
+          out.skipValue();
+        }
       }
-      return converted;
+      out.endObject();
+      return true;
     }
 
-    if (toConvert instanceof JSONObject) {
-      return toConvert;
+    if (toConvert instanceof JSONObject || toConvert instanceof JSONArray) {
+      out.rawValue(toConvert.toString());
+      return true;
     }
 
     if (toConvert instanceof Collection) {
-      JSONArray array = new JSONArray();
+      out.beginArray();
       for (Object o : (Collection) toConvert) {
-        array.put(convertObject(o, maxDepth - 1));
+        writeElement(out, o, maxDepth - 1);
       }
-      return array;
+      out.endArray();
+      return true;
     }
 
     if (toConvert.getClass().isArray()) {
-      JSONArray converted = new JSONArray();
+      out.beginArray();
       int length = Array.getLength(toConvert);
       for (int i = 0; i < length; i++) {
-        converted.put(convertObject(Array.get(toConvert, i), maxDepth - 1));
+        writeElement(out, Array.get(toConvert, i), maxDepth - 1);
       }
-      return converted;
+      out.endArray();
+      return true;
     }
 
     if (toConvert instanceof SessionId) {
-      JSONObject converted = new JSONObject();
-      converted.put("value", toConvert.toString());
-      return converted;
+      out.beginObject().name("value").value(toConvert.toString()).endObject();
+      return true;
     }
 
     if (toConvert instanceof Capabilities) {
-      return convertObject(((Capabilities) toConvert).asMap(), maxDepth - 1);
+      return write(out, ((Capabilities) toConvert).asMap(), maxDepth - 1);
     }
 
     if (toConvert instanceof DoNotUseProxyPac) {
-      return convertObject(((DoNotUseProxyPac) toConvert).asMap(), maxDepth - 1);
+      return write(out, ((DoNotUseProxyPac) toConvert).asMap(), maxDepth - 1);
     }
 
     if (toConvert instanceof Date) {
-      return TimeUnit.MILLISECONDS.toSeconds(((Date) toConvert).getTime());
+      out.value(toSeconds((Date) toConvert));
+      return true;
     }
 
     if (toConvert instanceof File) {
-      return ((File) toConvert).getAbsolutePath();
+      out.value(((File) toConvert).getAbsolutePath());
+      return true;
     }
 
-    Method toJson = getToJsonMethod(toConvert);
-    if (toJson != null) {
-      try {
-        return toJson.invoke(toConvert);
-      } catch (IllegalArgumentException e) {
-        throw new WebDriverException(e);
-      } catch (IllegalAccessException e) {
-        throw new WebDriverException(e);
-      } catch (InvocationTargetException e) {
-        throw new WebDriverException(e);
+    if (getToJsonMethod(toConvert) != null) {
+      Object converted = invokeToJson(toConvert);
+      if (converted == null) {
+        return false;
       }
+      writeJsonValue(out, converted);
+      return true;
     }
 
     try {
-      return mapObject(toConvert, maxDepth - 1, toConvert instanceof Cookie);
+      return mapObject(out, toConvert, maxDepth - 1, toConvert instanceof Cookie);
     } catch (Exception e) {
       throw new WebDriverException(e);
     }
   }
 
+  private void writeElement(JsonOutput out, Object element, int maxDepth) throws Exception {
+    if (!write(out, element, maxDepth)) {
+      out.nullValue();
+    }
+  }
+
+  /**
+   * Writes what a toJson method returned the way org.json would.
+   */
+  private void writeJsonValue(JsonOutput out, Object value) throws IOException {
+    if (value == null || value.equals(null)) {
+      out.nullValue();
+    } else if (value instanceof JSONString) {
+      out.rawValue(((JSONString) value).toJSONString());
+    } else if (value instanceof Number) {
+      out.value((Number) value);
+    } else if (value instanceof Boolean
+               || value instanceof JSONObject
+               || value instanceof JSONArray) {
+      out.rawValue(value.toString());
+    } else if (value instanceof Map) {
+      out.beginObject();
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        out.name(String.valueOf(entry.getKey()));
+        writeJsonValue(out, entry.getValue());
+      }
+      out.endObject();
+    } else if (value instanceof Collection) {
+      out.beginArray();
+      for (Object element : (Collection<?>) value) {
+        writeJsonValue(out, element);
+      }
+      out.endArray();
+    } else if (value.getClass().isArray()) {
+      out.beginArray();
+      int length = Array.getLength(value);
+      for (int i = 0; i < length; i++) {
+        writeJsonValue(out, Array.get(value, i));
+      }
+      out.endArray();
+    } else {
+      out.value(value.toString());
+    }
+  }
+
+  private static long toSeconds(Date date) {
+    return TimeUnit.MILLISECONDS.toSeconds(date.getTime());
+  }
+
+  private Object invokeToJson(Object toConvert) {
+    try {
+      return getToJsonMethod(toConvert).invoke(toConvert);
+    } catch (IllegalArgumentException e) {
+      throw new WebDriverException(e);
+    } catch (IllegalAccessException e) {
+      throw new WebDriverException(e);
+    } catch (InvocationTargetException e) {
+      throw new WebDriverException(e);
+    }
+  }
+
   private Method getToJsonMethod(Object toConvert) {
+    Class<?> clazz = toConvert.getClass();
+    Method toJson = toJsonMethods.get(clazz);
+    if (toJson == null) {
+      toJson = findToJsonMethod(clazz);
+      toJsonMethods.put(clazz, toJson);
+    }
+    return toJson == NO_TO_JSON ? null : toJson;
+  }
+
+  private Method findToJsonMethod(Class<?> clazz) {
     try {
-      return toConvert.getClass().getMethod("toJson");
+      return clazz.getMethod("toJson");
     } catch (SecurityException e) {
       // fall through
     } catch (NoSuchMethodException e) {
       // fall through
     }
 
-    return null;
+    return NO_TO_JSON;
   }
 
-  private Object mapObject(Object toConvert, int maxDepth, boolean skipNulls) throws Exception {
+  private boolean mapObject(JsonOutput out, Object toConvert, int maxDepth, boolean skipNulls)
+      throws Exception {
     if (maxDepth == 0) {
-      return null;
+      return false;
     }
 
     // Raw object via reflection? Nope, not needed
-    JSONObject mapped = new JSONObject();
+    out.beginObject();
     for (SimplePropertyDescriptor pd : SimplePropertyDescriptor
         .getPropertyDescriptors(toConvert.getClass())) {
       if ("class".equals(pd.getName())) {
-        mapped.put("class", toConvert.getClass().getName());
+        out.name("class").value(toConvert.getClass().getName());
         continue;
       }
 
@@ -264,13 +378,17 @@ public class BeanToJsonConverter {
       readMethod.setAccessible(true);
 
       Object result = readMethod.invoke(toConvert);
-      result = convertObject(result, maxDepth - 1);
-      if (!skipNulls || result != JSONObject.NULL) {
-        mapped.put(pd.getName(), result);
+      if (skipNulls && result == null) {
+        continue;
+      }
+      out.name(pd.getName());
+      if (!write(out, result, maxDepth - 1)) {
+        out.skipValue();
       }
     }
+    out.endObject();
 
-    return mapped;
+    return true;
   }
 
 }
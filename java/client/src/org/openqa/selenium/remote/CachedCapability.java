@@ -0,0 +1,41 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.openqa.selenium.remote;
+
+import org.openqa.selenium.Beta;
+import org.openqa.selenium.WebDriverException;
+
+/**
+ * A capability which may be sent to the server by reference, to a copy the server kept from an
+ * earlier session. Should the new session fail because the server has no such copy, the session
+ * is asked for once more with the capabilities sent in full.
+ */
+@Beta
+public interface CachedCapability {
+
+  /**
+   * Has the next JSON form of the capability be the full one, if the new session failed because
+   * the server didn't know the reference.
+   *
+   * @param failure why the new session failed.
+   * @return false if the last form was already the full one, or the failure has nothing to do
+   *     with it, and asking again would make no difference.
+   */
+  boolean sendInFull(WebDriverException failure);
+}
@@ -161,4 +161,7 @@ public interface DriverCommand {
   String GET_AVAILABLE_LOG_TYPES = "getAvailableLogTypes";
   String GET_LOG = "getLog";
   String GET_SESSION_LOGS = "getSessionLogs";
+
+  // Runs several commands in a single request, see BatchExecutor.
+  String EXECUTE_BATCH = "executeBatch";
 }
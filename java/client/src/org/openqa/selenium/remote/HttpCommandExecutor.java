@@ -16,8 +16,12 @@ limitations under the License.
 
 package org.openqa.selenium.remote;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
 
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
@@ -33,7 +37,8 @@ import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.params.HttpClientParams;
-import org.apache.http.entity.StringEntity;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.CoreConnectionPNames;
@@ -51,13 +56,23 @@ import org.openqa.selenium.logging.profiler.HttpProfilerLogEntry;
 import org.openqa.selenium.net.Urls;
 import org.openqa.selenium.remote.internal.HttpClientFactory;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
 import java.io.UnsupportedEncodingException;
 import java.net.BindException;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.List;
 import java.util.Map;
 
 import static org.apache.http.protocol.ExecutionContext.HTTP_TARGET_HOST;
@@ -67,6 +82,13 @@ public class HttpCommandExecutor implements CommandExecutor, NeedsLocalLogs {
 
   private static final int MAX_REDIRECTS = 10;
 
+  /**
+   * A parameter of {@link DriverCommand#SCREENSHOT} asking the server for the png itself rather
+   * than base64 in JSON. The value of the response is then a byte[] if the server can send it, a
+   * base64 String otherwise. Only used to pick the Accept header, never sent.
+   */
+  static final String ACCEPT_PNG = "acceptPng";
+
   private final HttpHost targetHost;
   private final URL remoteServer;
   private final Map<String, CommandInfo> nameToUrl;
@@ -261,6 +283,8 @@ public class HttpCommandExecutor implements CommandExecutor, NeedsLocalLogs {
 
         .put(STATUS, get("/status"))
 
+        .put(EXECUTE_BATCH, post("/session/:sessionId/batch"))
+
         .build();
   }
 
@@ -281,13 +305,23 @@ public class HttpCommandExecutor implements CommandExecutor, NeedsLocalLogs {
 
     CommandInfo info = nameToUrl.get(command.getName());
     try {
+      if (EXECUTE_BATCH.equals(command.getName())) {
+        command = toBatchOnTheWire(command);
+      }
+
       HttpUriRequest httpMethod = info.getMethod(remoteServer, command);
 
-      setAcceptHeader(httpMethod);
+      if (SCREENSHOT.equals(command.getName())
+          && Boolean.TRUE.equals(command.getParameters().get(ACCEPT_PNG))) {
+        // Servers which can send the png itself rather than base64 in JSON only do it when asked
+        // first. The others send JSON anyway.
+        httpMethod.addHeader("Accept", "image/png, application/json");
+      } else {
+        setAcceptHeader(httpMethod);
+      }
 
       if (httpMethod instanceof HttpPost) {
-        String payload = new BeanToJsonConverter().convert(command.getParameters());
-        ((HttpPost) httpMethod).setEntity(new StringEntity(payload, "utf-8"));
+        ((HttpPost) httpMethod).setEntity(new JsonEntity(command.getParameters()));
         httpMethod.addHeader("Content-Type", "application/json; charset=utf-8");
       }
 
@@ -302,9 +336,7 @@ public class HttpCommandExecutor implements CommandExecutor, NeedsLocalLogs {
 
       response = followRedirects(client, context, response, /* redirect count */0);
 
-      final EntityWithEncoding entityWithEncoding = new EntityWithEncoding(response.getEntity());
-
-      return createResponse(response, context, entityWithEncoding);
+      return createResponse(response, context);
     } catch (UnsupportedCommandException e) {
       if (e.getMessage() == null || "".equals(e.getMessage())) {
         throw new UnsupportedOperationException(
@@ -323,6 +355,30 @@ public class HttpCommandExecutor implements CommandExecutor, NeedsLocalLogs {
     }
   }
 
+  /**
+   * Replaces the commands of a batch by the method, path and parameters each would be sent with
+   * on its own. The segments of the path which stand for a {@link BatchExecutor.Result} are left
+   * for the server to fill.
+   */
+  @VisibleForTesting
+  Command toBatchOnTheWire(Command batch) {
+    @SuppressWarnings("unchecked")
+    List<Command> commands = (List<Command>) batch.getParameters().get("commands");
+    List<Map<String, ?>> onTheWire = Lists.newArrayListWithCapacity(commands.size());
+    for (Command command : commands) {
+      CommandInfo info = nameToUrl.get(command.getName());
+      if (info == null) {
+        throw new UnsupportedCommandException(command.getName());
+      }
+      onTheWire.add(ImmutableMap.of(
+          "method", info.verb.name(),
+          "path", info.getPath(command),
+          "parameters", command.getParameters()));
+    }
+    return new Command(batch.getSessionId(), batch.getName(),
+        ImmutableMap.of("commands", onTheWire));
+  }
+
   private HttpResponse fallBackExecute(HttpContext context, HttpUriRequest httpMethod)
       throws IOException {
     try {
@@ -406,6 +462,55 @@ public class HttpCommandExecutor implements CommandExecutor, NeedsLocalLogs {
            && response.containsHeader("location");
   }
 
+  /**
+   * The parameters of a command, written as JSON straight into the bytes sent. They are not
+   * streamed as they are written: the length of the content is sent upfront, as some of the
+   * drivers don't support chunked requests.
+   */
+  private static class JsonEntity extends AbstractHttpEntity {
+
+    private final Buffer content = new Buffer();
+
+    JsonEntity(Object parameters) throws IOException {
+      Writer writer = new OutputStreamWriter(content, Charsets.UTF_8);
+      new BeanToJsonConverter().convert(parameters, writer);
+      writer.close();
+      setContentType("application/json; charset=utf-8");
+    }
+
+    public boolean isRepeatable() {
+      return true;
+    }
+
+    public long getContentLength() {
+      return content.size();
+    }
+
+    public InputStream getContent() {
+      return content.getInputStream();
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+      content.writeTo(out);
+    }
+
+    public boolean isStreaming() {
+      return false;
+    }
+  }
+
+  // gives the bytes written without copying them.
+  private static class Buffer extends ByteArrayOutputStream {
+
+    Buffer() {
+      super(1024);
+    }
+
+    InputStream getInputStream() {
+      return new ByteArrayInputStream(buf, 0, count);
+    }
+  }
+
   class EntityWithEncoding {
 
     private final String charSet;
@@ -414,7 +519,7 @@ public class HttpCommandExecutor implements CommandExecutor, NeedsLocalLogs {
     EntityWithEncoding(HttpEntity entity) throws IOException {
       try {
         if (entity != null) {
-          content = EntityUtils.toByteArray(entity);
+          content = toByteArray(entity);
           charSet = EntityUtils.getContentCharSet(entity);
         } else {
           content = new byte[0];
@@ -425,6 +530,28 @@ public class HttpCommandExecutor implements CommandExecutor, NeedsLocalLogs {
       }
     }
 
+    /**
+     * Reads the content straight into an array of its length when it is known, a screenshot
+     * being copied once rather than twice.
+     */
+    private byte[] toByteArray(HttpEntity entity) throws IOException {
+      long length = entity.getContentLength();
+      if (length < 0 || length > Integer.MAX_VALUE) {
+        return EntityUtils.toByteArray(entity);
+      }
+
+      byte[] bytes = new byte[(int) length];
+      if (length > 0) {
+        InputStream in = entity.getContent();
+        try {
+          ByteStreams.readFully(in, bytes);
+        } finally {
+          in.close();
+        }
+      }
+      return bytes;
+    }
+
     public String getContentString()
         throws UnsupportedEncodingException {
       return new String(content, charSet != null ? charSet : "utf-8");
@@ -440,28 +567,36 @@ public class HttpCommandExecutor implements CommandExecutor, NeedsLocalLogs {
   }
 
 
-  private Response createResponse(HttpResponse httpResponse, HttpContext context,
-                                  EntityWithEncoding entityWithEncoding) throws IOException {
+  private Response createResponse(HttpResponse httpResponse, HttpContext context)
+      throws IOException {
     final Response response;
 
     Header header = httpResponse.getFirstHeader("Content-Type");
 
     if (header != null && header.getValue().startsWith("application/json")) {
-      String responseAsText = entityWithEncoding.getContentString();
+      HttpEntity entity = httpResponse.getEntity();
+      if (entity == null) {
+        // The remote server has died, but has already set some headers.
+        // Normally this occurs when the final window of the firefox driver
+        // is closed on OS X. Return null, as the return value _should_ be
+        // being ignored. This is not an elegant solution.
+        return null;
+      }
 
+      // Read as it arrives: a screenshot or a long list of elements is never held as a String.
       try {
-        response = new JsonToBeanConverter().convert(Response.class, responseAsText);
+        Charset charSet = ContentType.getOrDefault(entity).getCharset();
+        Reader reader = new InputStreamReader(
+            entity.getContent(), charSet != null ? charSet : Charsets.UTF_8);
+        // null for an empty content, as above.
+        response = new JsonToBeanConverter().convert(Response.class, reader);
       } catch (ClassCastException e) {
-        if (responseAsText != null && "".equals(responseAsText)) {
-          // The remote server has died, but has already set some headers.
-          // Normally this occurs when the final window of the firefox driver
-          // is closed on OS X. Return null, as the return value _should_ be
-          // being ignored. This is not an elegant solution.
-          return null;
-        }
-        throw new WebDriverException("Cannot convert text to response: " + responseAsText, e);
+        throw new WebDriverException("Cannot convert text to response", e);
+      } finally {
+        EntityUtils.consume(entity);
       }
     } else {
+      EntityWithEncoding entityWithEncoding = new EntityWithEncoding(httpResponse.getEntity());
       response = new Response();
 
       if (header != null && header.getValue().startsWith("image/png")) {
@@ -553,7 +688,7 @@ public class HttpCommandExecutor implements CommandExecutor, NeedsLocalLogs {
         if (part.startsWith(":")) {
           String value = get(part.substring(1), command);
           if (value != null) {
-            urlBuilder.append(get(part.substring(1), command));
+            urlBuilder.append(Urls.urlEncode(value));
           }
         } else {
           urlBuilder.append(part);
@@ -563,6 +698,32 @@ public class HttpCommandExecutor implements CommandExecutor, NeedsLocalLogs {
       return verb.createMethod(urlBuilder.toString());
     }
 
+    /**
+     * @return the path of the command in a batch, not encoded, and with the segments standing
+     *         for a {@link BatchExecutor.Result} left as they are.
+     */
+    public String getPath(Command command) {
+      StringBuilder path = new StringBuilder();
+      for (String part : url.split("/")) {
+        if (part.length() == 0) {
+          continue;
+        }
+
+        path.append("/");
+        String name = part.substring(1);
+        if (part.startsWith(":")
+            && !(command.getParameters().get(name) instanceof BatchExecutor.Result)) {
+          String value = get(name, command);
+          if (value != null) {
+            path.append(value);
+          }
+        } else {
+          path.append(part);
+        }
+      }
+      return path.toString();
+    }
+
     private String get(String propertyName, Command command) {
       if ("sessionId".equals(propertyName)) {
         SessionId id = command.getSessionId();
@@ -575,7 +736,7 @@ public class HttpCommandExecutor implements CommandExecutor, NeedsLocalLogs {
       // Attempt to extract the property name from the parameters
       Object value = command.getParameters().get(propertyName);
       if (value != null) {
-        return Urls.urlEncode(String.valueOf(value));
+        return String.valueOf(value);
       }
       return null;
     }
@@ -0,0 +1,291 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.openqa.selenium.remote;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads JSON text straight into Maps, Lists, Strings, Longs, Doubles and Booleans, a JSON null
+ * being read as null. The text is read through a buffer of its own, so the reader doesn't need to
+ * be buffered, and only as far as the end of the value.
+ */
+class JsonInput {
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private final Reader reader;
+  private final char[] buffer = new char[BUFFER_SIZE];
+  private int position;
+  private int limit;
+  // number of characters read before the ones in the buffer, for the error messages.
+  private long consumed;
+
+  JsonInput(Reader reader) {
+    this.reader = reader;
+  }
+
+  JsonInput(String text) {
+    this(new StringReader(text));
+  }
+
+  /**
+   * @return true if there is something else than white space left to read.
+   */
+  boolean hasMore() throws JSONException {
+    return peekNonWhitespace() != -1;
+  }
+
+  Object read() throws JSONException {
+    int c = peekNonWhitespace();
+    switch (c) {
+      case -1:
+        throw syntaxError("Unexpected end of the JSON text");
+      case '{':
+        position++;
+        return readObject();
+      case '[':
+        position++;
+        return readArray();
+      case '"':
+        position++;
+        return readString();
+      case 't':
+        readLiteral("true");
+        return Boolean.TRUE;
+      case 'f':
+        readLiteral("false");
+        return Boolean.FALSE;
+      case 'n':
+        readLiteral("null");
+        return null;
+      default:
+        if (c == '-' || (c >= '0' && c <= '9')) {
+          return readNumber();
+        }
+        throw syntaxError("Unexpected character '" + (char) c + "'");
+    }
+  }
+
+  private Map<String, Object> readObject() throws JSONException {
+    Map<String, Object> map = new HashMap<String, Object>();
+    if (peekNonWhitespace() == '}') {
+      position++;
+      return map;
+    }
+    while (true) {
+      if (peekNonWhitespace() != '"') {
+        throw syntaxError("A key must be a string");
+      }
+      position++;
+      String key = readString();
+      if (peekNonWhitespace() != ':') {
+        throw syntaxError("Expected a ':' after a key");
+      }
+      position++;
+      map.put(key, read());
+      int c = peekNonWhitespace();
+      position++;
+      if (c == '}') {
+        return map;
+      }
+      if (c != ',') {
+        throw syntaxError("Expected a ',' or '}'");
+      }
+    }
+  }
+
+  private List<Object> readArray() throws JSONException {
+    List<Object> list = new ArrayList<Object>();
+    if (peekNonWhitespace() == ']') {
+      position++;
+      return list;
+    }
+    while (true) {
+      list.add(read());
+      int c = peekNonWhitespace();
+      position++;
+      if (c == ']') {
+        return list;
+      }
+      if (c != ',') {
+        throw syntaxError("Expected a ',' or ']'");
+      }
+    }
+  }
+
+  /**
+   * Reads a string, the opening quote being read already. The runs of characters without escape
+   * are copied in one go, and a string which fits in the buffer is not copied twice.
+   */
+  private String readString() throws JSONException {
+    StringBuilder builder = null;
+    while (true) {
+      int start = position;
+      while (position < limit) {
+        char c = buffer[position];
+        if (c == '"') {
+          String end = new String(buffer, start, position - start);
+          position++;
+          return builder == null ? end : builder.append(end).toString();
+        }
+        if (c == '\\') {
+          break;
+        }
+        position++;
+      }
+
+      if (builder == null) {
+        builder = new StringBuilder(Math.max(16, 2 * (position - start)));
+      }
+      builder.append(buffer, start, position - start);
+
+      if (position < limit) {
+        position++;
+        builder.append(readEscaped());
+      } else if (!fill()) {
+        throw syntaxError("Unterminated string");
+      }
+    }
+  }
+
+  private char readEscaped() throws JSONException {
+    int c = next();
+    switch (c) {
+      case 'b':
+        return '\b';
+      case 't':
+        return '\t';
+      case 'n':
+        return '\n';
+      case 'f':
+        return '\f';
+      case 'r':
+        return '\r';
+      case 'u':
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+          int digit = Character.digit(next(), 16);
+          if (digit == -1) {
+            throw syntaxError("Illegal escape");
+          }
+          value = (value << 4) + digit;
+        }
+        return (char) value;
+      case '"':
+      case '\\':
+      case '/':
+        return (char) c;
+      default:
+        throw syntaxError("Illegal escape");
+    }
+  }
+
+  private Object readNumber() throws JSONException {
+    StringBuilder number = new StringBuilder();
+    boolean decimal = false;
+    while (true) {
+      int c = peek();
+      if (c == '.' || c == 'e' || c == 'E') {
+        decimal = true;
+      } else if (c != '-' && c != '+' && (c < '0' || c > '9')) {
+        break;
+      }
+      number.append((char) c);
+      position++;
+    }
+
+    String text = number.toString();
+    try {
+      if (!decimal) {
+        try {
+          return Long.valueOf(text);
+        } catch (NumberFormatException e) {
+          // too big for a long
+        }
+      }
+      return Double.valueOf(text);
+    } catch (NumberFormatException e) {
+      throw syntaxError("Illegal number " + text);
+    }
+  }
+
+  private void readLiteral(String literal) throws JSONException {
+    for (int i = 0; i < literal.length(); i++) {
+      if (next() != literal.charAt(i)) {
+        throw syntaxError("Expected " + literal);
+      }
+    }
+  }
+
+  private int next() throws JSONException {
+    int c = peek();
+    if (c == -1) {
+      throw syntaxError("Unexpected end of the JSON text");
+    }
+    position++;
+    return c;
+  }
+
+  private int peek() throws JSONException {
+    if (position == limit && !fill()) {
+      return -1;
+    }
+    return buffer[position];
+  }
+
+  private int peekNonWhitespace() throws JSONException {
+    while (true) {
+      int c = peek();
+      if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+        return c;
+      }
+      position++;
+    }
+  }
+
+  private boolean fill() throws JSONException {
+    consumed += limit;
+    position = 0;
+    limit = 0;
+    try {
+      int read;
+      do {
+        read = reader.read(buffer, 0, buffer.length);
+      } while (read == 0);
+      if (read == -1) {
+        return false;
+      }
+      limit = read;
+      return true;
+    } catch (IOException e) {
+      throw new JSONException(e);
+    }
+  }
+
+  private JSONException syntaxError(String message) {
+    return new JSONException(message + " at character " + (consumed + position));
+  }
+}
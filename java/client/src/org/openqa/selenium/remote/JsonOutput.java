@@ -0,0 +1,207 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.openqa.selenium.remote;
+
+import java.io.IOException;
+
+/**
+ * Writes JSON text as it is produced, without building a tree first. Strings and numbers are
+ * written the way org.json writes them, so that the wire format does not change.
+ *
+ * The name of a member is only written with its value: a value that turns out to be skipped
+ * leaves no trace in the output.
+ */
+class JsonOutput {
+
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final Appendable out;
+  private String name;
+  private boolean needsComma;
+
+  JsonOutput(Appendable out) {
+    this.out = out;
+  }
+
+  JsonOutput beginObject() throws IOException {
+    beforeValue();
+    out.append('{');
+    needsComma = false;
+    return this;
+  }
+
+  JsonOutput endObject() throws IOException {
+    name = null;
+    out.append('}');
+    needsComma = true;
+    return this;
+  }
+
+  JsonOutput beginArray() throws IOException {
+    beforeValue();
+    out.append('[');
+    needsComma = false;
+    return this;
+  }
+
+  JsonOutput endArray() throws IOException {
+    out.append(']');
+    needsComma = true;
+    return this;
+  }
+
+  /**
+   * @param name the name of the next member of the current object, written with its value.
+   */
+  JsonOutput name(String name) {
+    this.name = name;
+    return this;
+  }
+
+  /**
+   * Forgets the name of a member which won't have a value.
+   */
+  JsonOutput skipValue() {
+    name = null;
+    return this;
+  }
+
+  JsonOutput value(String value) throws IOException {
+    beforeValue();
+    quote(value);
+    return this;
+  }
+
+  JsonOutput value(Number value) throws IOException {
+    beforeValue();
+    out.append(numberToString(value));
+    return this;
+  }
+
+  JsonOutput value(boolean value) throws IOException {
+    beforeValue();
+    out.append(value ? "true" : "false");
+    return this;
+  }
+
+  JsonOutput nullValue() throws IOException {
+    beforeValue();
+    out.append("null");
+    return this;
+  }
+
+  /**
+   * @param json a value already in JSON, written as it is.
+   */
+  JsonOutput rawValue(String json) throws IOException {
+    beforeValue();
+    out.append(json);
+    return this;
+  }
+
+  private void beforeValue() throws IOException {
+    if (needsComma) {
+      out.append(',');
+    }
+    if (name != null) {
+      quote(name);
+      out.append(':');
+      name = null;
+    }
+    needsComma = true;
+  }
+
+  /**
+   * Same escaping as JSONObject.quote, copying the runs of characters which need none in one go.
+   */
+  private void quote(String string) throws IOException {
+    out.append('"');
+    int length = string.length();
+    int start = 0;
+    char previous = 0;
+    for (int i = 0; i < length; i++) {
+      char c = string.charAt(i);
+      String escaped = null;
+      switch (c) {
+        case '"':
+          escaped = "\\\"";
+          break;
+        case '\\':
+          escaped = "\\\\";
+          break;
+        case '/':
+          if (previous == '<') {
+            escaped = "\\/";
+          }
+          break;
+        case '\b':
+          escaped = "\\b";
+          break;
+        case '\t':
+          escaped = "\\t";
+          break;
+        case '\n':
+          escaped = "\\n";
+          break;
+        case '\f':
+          escaped = "\\f";
+          break;
+        case '\r':
+          escaped = "\\r";
+          break;
+        default:
+          if (c < ' ' || (c >= '\u0080' && c < '\u00a0') || (c >= '\u2000' && c < '\u2100')) {
+            escaped = new String(new char[] {'\\', 'u', HEX[c >> 12], HEX[(c >> 8) & 0xf],
+                                             HEX[(c >> 4) & 0xf], HEX[c & 0xf]});
+          }
+      }
+      if (escaped != null) {
+        out.append(string, start, i).append(escaped);
+        start = i + 1;
+      }
+      previous = c;
+    }
+    out.append(string, start, length);
+    out.append('"');
+  }
+
+  /**
+   * Same as JSONObject.numberToString.
+   */
+  static String numberToString(Number number) {
+    if ((number instanceof Double
+         && (((Double) number).isInfinite() || ((Double) number).isNaN()))
+        || (number instanceof Float
+            && (((Float) number).isInfinite() || ((Float) number).isNaN()))) {
+      throw new IllegalArgumentException("JSON does not allow non-finite numbers.");
+    }
+
+    String string = number.toString();
+    if (string.indexOf('.') > 0 && string.indexOf('e') < 0 && string.indexOf('E') < 0) {
+      int end = string.length();
+      while (string.charAt(end - 1) == '0') {
+        end--;
+      }
+      if (string.charAt(end - 1) == '.') {
+        end--;
+      }
+      string = string.substring(0, end);
+    }
+    return string;
+  }
+}
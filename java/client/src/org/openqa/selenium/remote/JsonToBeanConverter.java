@@ -24,6 +24,7 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.Reader;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.URI;
@@ -45,6 +46,24 @@ public class JsonToBeanConverter {
     }
   }
 
+  /**
+   * Converts the JSON text as it is read, rather than from a String holding all of it.
+   *
+   * @return null if the reader has nothing but white space to read.
+   */
+  public <T> T convert(Class<T> clazz, Reader reader) throws JsonException {
+    try {
+      JsonInput input = new JsonInput(reader);
+      if (!input.hasMore()) {
+        return null;
+      }
+      // Strings read from the text are values, not more JSON text to parse, as at depth 0.
+      return convert(clazz, input.read(), 1);
+    } catch (JSONException e) {
+      throw new JsonException(e);
+    }
+  }
+
   @SuppressWarnings("unchecked")
   private <T> T convert(Class<T> clazz, Object text, int depth) throws JSONException {
     if (text == null) {
@@ -56,6 +75,9 @@ public class JsonToBeanConverter {
     }
 
     if (isPrimitive(clazz)) {
+      if (text instanceof Number) {
+        return (T) convertNumber(clazz, (Number) text);
+      }
       return (T) text;
     }
 
@@ -75,22 +97,22 @@ public class JsonToBeanConverter {
       return (T) convertEnum(clazz, text);
     }
 
-    if ("".equals(String.valueOf(text))) {
+    if ("".equals(text)) {
       return (T) text;
     }
 
     if (Command.class.equals(clazz)) {
-      JSONObject rawCommand = new JSONObject((String) text);
+      Map<String, Object> rawCommand = toMap(text);
 
       SessionId sessionId = null;
-      if (rawCommand.has("sessionId")) {
-        sessionId = convert(SessionId.class, rawCommand.getString("sessionId"), depth + 1);
+      if (rawCommand.containsKey("sessionId")) {
+        sessionId = convert(SessionId.class, rawCommand.get("sessionId"), depth + 1);
       }
 
-      String name = rawCommand.getString("name");
-      if (rawCommand.has("parameters")) {
+      String name = getString(rawCommand, "name");
+      if (rawCommand.containsKey("parameters")) {
         Map<String, ?> args = (Map<String, ?>) convert(HashMap.class,
-            rawCommand.getJSONObject("parameters"), depth + 1);
+            toMap(rawCommand.get("parameters")), depth + 1);
         return (T) new Command(sessionId, name, args);
       }
 
@@ -98,78 +120,66 @@ public class JsonToBeanConverter {
     }
 
     if (SessionId.class.equals(clazz)) {
-      JSONObject object = new JSONObject((String) text);
-      String value = object.getString("value");
+      Map<String, Object> object = toMap(text);
+      String value = getString(object, "value");
       return (T) new SessionId(value);
     }
 
     if (Capabilities.class.equals(clazz)) {
-      JSONObject object = new JSONObject((String) text);
+      Map<String, Object> object = toMap(text);
       DesiredCapabilities caps = new DesiredCapabilities();
-      Iterator allKeys = object.keys();
-      while (allKeys.hasNext()) {
-        String key = (String) allKeys.next();
-        caps.setCapability(key, object.get(key));
+      for (Map.Entry<String, Object> entry : object.entrySet()) {
+        caps.setCapability(entry.getKey(), entry.getValue());
       }
       return (T) caps;
     }
 
     if (DoNotUseProxyPac.class.equals(clazz)) {
-      JSONObject object = new JSONObject((String) text);
+      Map<String, Object> object = toMap(text);
       DoNotUseProxyPac pac = new DoNotUseProxyPac();
 
-      if (object.has("directUrls")) {
-        JSONArray allUrls = object.getJSONArray("directUrls");
-        for (int i = 0; i < allUrls.length(); i++) {
-          pac.map(allUrls.getString(i)).toNoProxy();
+      if (object.containsKey("directUrls")) {
+        for (Object url : toList(object.get("directUrls"))) {
+          pac.map(String.valueOf(url)).toNoProxy();
         }
       }
 
-      if (object.has("directHosts")) {
-        JSONArray allHosts = object.getJSONArray("directHosts");
-        for (int i = 0; i < allHosts.length(); i++) {
-          pac.mapHost(allHosts.getString(i)).toNoProxy();
+      if (object.containsKey("directHosts")) {
+        for (Object host : toList(object.get("directHosts"))) {
+          pac.mapHost(String.valueOf(host)).toNoProxy();
         }
       }
 
-      if (object.has("proxiedHosts")) {
-        JSONObject proxied = object.getJSONObject("proxiedHosts");
-        Iterator allHosts = proxied.keys();
-        while (allHosts.hasNext()) {
-          String host = (String) allHosts.next();
-          pac.mapHost(host).toProxy(proxied.getString(host));
+      if (object.containsKey("proxiedHosts")) {
+        for (Map.Entry<String, Object> proxied : toMap(object.get("proxiedHosts")).entrySet()) {
+          pac.mapHost(proxied.getKey()).toProxy(String.valueOf(proxied.getValue()));
         }
       }
 
-      if (object.has("proxiedUrls")) {
-        JSONObject proxied = object.getJSONObject("proxiedUrls");
-        Iterator allUrls = proxied.keys();
-        while (allUrls.hasNext()) {
-          String host = (String) allUrls.next();
-          pac.map(host).toProxy(proxied.getString(host));
+      if (object.containsKey("proxiedUrls")) {
+        for (Map.Entry<String, Object> proxied : toMap(object.get("proxiedUrls")).entrySet()) {
+          pac.map(proxied.getKey()).toProxy(String.valueOf(proxied.getValue()));
         }
       }
 
-      if (object.has("proxiedRegexUrls")) {
-        JSONObject proxied = object.getJSONObject("proxiedRegexUrls");
-        Iterator allUrls = proxied.keys();
-        while (allUrls.hasNext()) {
-          String host = (String) allUrls.next();
-          pac.map(host).toProxy(proxied.getString(host));
+      if (object.containsKey("proxiedRegexUrls")) {
+        for (Map.Entry<String, Object> proxied :
+            toMap(object.get("proxiedRegexUrls")).entrySet()) {
+          pac.map(proxied.getKey()).toProxy(String.valueOf(proxied.getValue()));
         }
       }
 
-      if (object.has("defaultProxy")) {
-        if ("'DIRECT'".equals(object.getString("defaultProxy"))) {
+      if (object.containsKey("defaultProxy")) {
+        if ("'DIRECT'".equals(getString(object, "defaultProxy"))) {
           pac.defaults().toNoProxy();
         } else {
-          pac.defaults().toProxy(object.getString("defaultProxy"));
+          pac.defaults().toProxy(getString(object, "defaultProxy"));
         }
       }
 
-      if (object.has("deriveFrom")) {
+      if (object.containsKey("deriveFrom")) {
         try {
-          pac.deriveFrom(new URI(object.getString("deriveFrom")));
+          pac.deriveFrom(new URI(getString(object, "deriveFrom")));
         } catch (URISyntaxException e) {
           throw new WebDriverException(e);
         }
@@ -186,8 +196,8 @@ public class JsonToBeanConverter {
       return (T) text;
     }
 
-    if (text instanceof JSONArray) {
-      return (T) convertList((JSONArray) text, depth);
+    if (text instanceof List || text instanceof JSONArray) {
+      return (T) convertList(toList(text), depth);
     }
 
     if (text == JSONObject.NULL) {
@@ -196,37 +206,117 @@ public class JsonToBeanConverter {
 
     if (depth == 0) {
       if (text instanceof String) {
-        if (((String) text).startsWith("[")) {
-          text = new JSONArray((String) text);
-        } else {
-          text = new JSONObject(String.valueOf(text));
+        text = new JsonInput((String) text).read();
+        if (!(text instanceof Map) && !(text instanceof List)) {
+          throw new JSONException("A JSON text must be an object or an array");
         }
       }
     }
 
     if (text instanceof JSONObject) {
-      JSONObject o = (JSONObject) text;
+      text = toMap(text);
+    }
+
+    if (text instanceof Map) {
+      Map<String, Object> o = (Map<String, Object>) text;
 
       if (Map.class.isAssignableFrom(clazz)) {
         return (T) convertMap(o, depth);
       }
 
-      if (isPrimitive(o.getClass())) {
-        return (T) o;
-      }
-
       if (Object.class.equals(clazz)) {
         return (T) convertMap(o, depth);
       }
 
       return convertBean(clazz, o, depth);
-    } else if (text instanceof JSONArray) {
-      return (T) convertList((JSONArray) text, depth + 1);
+    } else if (text instanceof List) {
+      return (T) convertList((List<?>) text, depth + 1);
     } else {
       return (T) text; // Crap shoot here; probably a string.
     }
   }
 
+  /**
+   * @return the number as the primitive type, or its wrapper, the JSON text may have been
+   *         read as a Long or a Double.
+   */
+  private Object convertNumber(Class<?> clazz, Number number) {
+    if (Integer.class.equals(clazz) || Integer.TYPE.equals(clazz)) {
+      return number.intValue();
+    }
+    if (Long.class.equals(clazz) || Long.TYPE.equals(clazz)) {
+      return number.longValue();
+    }
+    if (Double.class.equals(clazz) || Double.TYPE.equals(clazz)) {
+      return number.doubleValue();
+    }
+    if (Float.class.equals(clazz) || Float.TYPE.equals(clazz)) {
+      return number.floatValue();
+    }
+    if (Short.class.equals(clazz) || Short.TYPE.equals(clazz)) {
+      return number.shortValue();
+    }
+    if (Byte.class.equals(clazz) || Byte.TYPE.equals(clazz)) {
+      return number.byteValue();
+    }
+    return number;
+  }
+
+  /**
+   * @param text a Map, a JSONObject, or the JSON text of an object.
+   */
+  @SuppressWarnings("unchecked")
+  private Map<String, Object> toMap(Object text) throws JSONException {
+    if (text instanceof Map) {
+      return (Map<String, Object>) text;
+    }
+
+    if (text instanceof JSONObject) {
+      JSONObject object = (JSONObject) text;
+      Map<String, Object> map = new HashMap<String, Object>();
+      Iterator allKeys = object.keys();
+      while (allKeys.hasNext()) {
+        String key = (String) allKeys.next();
+        map.put(key, object.get(key));
+      }
+      return map;
+    }
+
+    Object parsed = new JsonInput(String.valueOf(text)).read();
+    if (!(parsed instanceof Map)) {
+      throw new JSONException("A JSONObject text must begin with '{'");
+    }
+    return (Map<String, Object>) parsed;
+  }
+
+  /**
+   * @param text a List or a JSONArray.
+   */
+  @SuppressWarnings("unchecked")
+  private List<Object> toList(Object text) throws JSONException {
+    if (text instanceof List) {
+      return (List<Object>) text;
+    }
+
+    if (text instanceof JSONArray) {
+      JSONArray array = (JSONArray) text;
+      List<Object> list = new ArrayList<Object>(array.length());
+      for (int i = 0; i < array.length(); i++) {
+        list.add(array.get(i));
+      }
+      return list;
+    }
+
+    throw new JSONException("Not a JSONArray: " + text);
+  }
+
+  private String getString(Map<String, Object> object, String key) throws JSONException {
+    if (!object.containsKey(key)) {
+      throw new JSONException("JSONObject[" + JSONObject.quote(key) + "] not found.");
+    }
+    return String.valueOf(object.get(key));
+  }
+
   @SuppressWarnings("unchecked")
   private Enum convertEnum(Class clazz, Object text) {
     if (clazz.isEnum()) {
@@ -248,11 +338,16 @@ public class JsonToBeanConverter {
   }
 
   public <T> T convertBean(Class<T> clazz, JSONObject toConvert, int depth) throws JSONException {
+    return convertBean(clazz, toMap(toConvert), depth);
+  }
+
+  private <T> T convertBean(Class<T> clazz, Map<String, Object> toConvert, int depth)
+      throws JSONException {
     T t = newInstance(clazz);
     SimplePropertyDescriptor[] allProperties =
         SimplePropertyDescriptor.getPropertyDescriptors(clazz);
     for (SimplePropertyDescriptor property : allProperties) {
-      if (!toConvert.has(property.getName()))
+      if (!toConvert.containsKey(property.getName()))
         continue;
 
       Object value = toConvert.get(property.getName());
@@ -294,23 +389,21 @@ public class JsonToBeanConverter {
   }
 
   @SuppressWarnings("unchecked")
-  private Map convertMap(JSONObject toConvert, int depth) throws JSONException {
+  private Map convertMap(Map<String, Object> toConvert, int depth) throws JSONException {
     Map map = new HashMap();
 
-    Iterator allEntries = toConvert.keys();
-    while (allEntries.hasNext()) {
-      String key = (String) allEntries.next();
-      map.put(key, convert(Object.class, toConvert.get(key), depth + 1));
+    for (Map.Entry<String, Object> entry : toConvert.entrySet()) {
+      map.put(entry.getKey(), convert(Object.class, entry.getValue(), depth + 1));
     }
 
     return map;
   }
 
   @SuppressWarnings("unchecked")
-  private List convertList(JSONArray toConvert, int depth) throws JSONException {
-    ArrayList list = new ArrayList(toConvert.length());
-    for (int i = 0; i < toConvert.length(); i++) {
-      list.add(convert(Object.class, toConvert.get(i), depth + 1));
+  private List convertList(List<?> toConvert, int depth) throws JSONException {
+    ArrayList list = new ArrayList(toConvert.size());
+    for (Object element : toConvert) {
+      list.add(convert(Object.class, element, depth + 1));
     }
     return list;
   }
@@ -58,6 +58,7 @@ import org.openqa.selenium.remote.internal.WebElementToJsonConverter;
 import org.openqa.selenium.security.Credentials;
 
 import java.net.URL;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
@@ -92,6 +93,9 @@ public class RemoteWebDriver implements WebDriver, JavascriptExecutor,
   private Logs remoteLogs;
   private LocalLogs localLogs;
 
+  // the hashes of the files uploaded in the current session, see RemoteWebElement.
+  private final Set<String> uploadedFiles = Collections.synchronizedSet(new HashSet<String>());
+
   // For cglib
   protected RemoteWebDriver() {
     init(new DesiredCapabilities(), null);
@@ -192,8 +196,43 @@ public class RemoteWebDriver implements WebDriver, JavascriptExecutor,
     return sessionId;
   }
 
+  /**
+   * @return an empty batch of commands for this session, all sent to the remote server in a
+   *         single request when executed.
+   * @see BatchExecutor
+   */
+  @Beta
+  public BatchExecutor newBatch() {
+    return new BatchExecutor(this);
+  }
+
   protected void setSessionId(String opaqueKey) {
     sessionId = new SessionId(opaqueKey);
+    uploadedFiles.clear();
+  }
+
+  /**
+   * @return the SHA-1 of the files uploaded in the current session, which the server may still
+   *     have.
+   */
+  Set<String> getUploadedFiles() {
+    return uploadedFiles;
+  }
+
+  /**
+   * @return true if one of the capabilities had been sent by reference the server didn't know,
+   *     and will be sent in full.
+   */
+  private static boolean sendInFull(Capabilities capabilities, WebDriverException failure) {
+    boolean changed = false;
+    if (capabilities != null) {
+      for (Object value : capabilities.asMap().values()) {
+        if (value instanceof CachedCapability) {
+          changed |= ((CachedCapability) value).sendInFull(failure);
+        }
+      }
+    }
+    return changed;
   }
 
   protected void startSession(Capabilities desiredCapabilities) {
@@ -212,7 +251,16 @@ public class RemoteWebDriver implements WebDriver, JavascriptExecutor,
     }
     Map<String, ?> parameters = paramBuilder.build();
     
-    Response response = execute(DriverCommand.NEW_SESSION, parameters);
+    Response response;
+    try {
+      response = execute(DriverCommand.NEW_SESSION, parameters);
+    } catch (WebDriverException e) {
+      // the server may not have the capabilities sent by reference (any more).
+      if (!sendInFull(desiredCapabilities, e) & !sendInFull(requiredCapabilities, e)) {
+        throw e;
+      }
+      response = execute(DriverCommand.NEW_SESSION, parameters);
+    }
 
     Map<String, Object> rawCapabilities = (Map<String, Object>) response.getValue();
     DesiredCapabilities returnedCapabilities = new DesiredCapabilities();
@@ -240,6 +288,7 @@ public class RemoteWebDriver implements WebDriver, JavascriptExecutor,
 
     capabilities = returnedCapabilities;
     sessionId = new SessionId(response.getSessionId());
+    uploadedFiles.clear();
   }
 
   /**
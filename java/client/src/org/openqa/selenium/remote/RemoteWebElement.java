@@ -18,6 +18,8 @@ limitations under the License.
 package org.openqa.selenium.remote;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
 
 import org.openqa.selenium.By;
 import org.openqa.selenium.Dimension;
@@ -43,11 +45,18 @@ import java.io.File;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class RemoteWebElement implements WebElement, FindsByLinkText, FindsById, FindsByName,
                                          FindsByTagName, FindsByClassName, FindsByCssSelector,
                                          FindsByXPath, WrapsDriver, Locatable {
 
+  /**
+   * The start of the message of a server which has no file with the SHA-1 sent in place of a file
+   * uploaded before in the session.
+   */
+  public static final String UNKNOWN_UPLOAD = "No file with the sha1 ";
+
   private String foundBy;
   protected String id;
   protected RemoteWebDriver parent;
@@ -101,14 +110,42 @@ public class RemoteWebElement implements WebElement, FindsByLinkText, FindsById,
     }
 
     try {
+      // the files uploaded before in the session are sent by hash, see UploadCache on the server.
+      Set<String> uploaded = parent.getUploadedFiles();
+      String sha1 = Files.hash(localFile, Hashing.sha1()).toString();
+      if (uploaded.contains(sha1)) {
+        try {
+          Response response = execute(DriverCommand.UPLOAD_FILE,
+              ImmutableMap.of("sha1", sha1, "name", localFile.getName()));
+          return (String) response.getValue();
+        } catch (WebDriverException e) {
+          if (!isUnknownUpload(e)) {
+            throw e;
+          }
+          // the server doesn't have it any more, send it.
+          uploaded.remove(sha1);
+        }
+      }
+
       String zip = new Zip().zipFile(localFile.getParentFile(), localFile);
       Response response = execute(DriverCommand.UPLOAD_FILE, ImmutableMap.of("file", zip));
+      uploaded.add(sha1);
       return (String) response.getValue();
     } catch (IOException e) {
       throw new WebDriverException("Cannot upload " + localFile, e);
     }
   }
 
+  private static boolean isUnknownUpload(Throwable failure) {
+    // the failure of the server may come wrapped, or as the message of another exception.
+    for (Throwable t = failure; t != null; t = t.getCause()) {
+      if (t.getMessage() != null && t.getMessage().contains(UNKNOWN_UPLOAD)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   public void clear() {
     execute(DriverCommand.CLEAR_ELEMENT, ImmutableMap.of("id", id));
   }
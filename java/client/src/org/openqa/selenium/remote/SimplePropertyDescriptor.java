@@ -18,8 +18,15 @@ package org.openqa.selenium.remote;
 
 import java.lang.reflect.Method;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class SimplePropertyDescriptor {
+
+  // Looking the properties up through reflection costs more than converting the bean.
+  private static final Map<Class<?>, SimplePropertyDescriptor[]> cache =
+      new ConcurrentHashMap<Class<?>, SimplePropertyDescriptor[]>();
+
   private String name;
   private Method readMethod;
   private Method writeMethod;
@@ -46,6 +53,15 @@ public class SimplePropertyDescriptor {
   }
 
   public static SimplePropertyDescriptor[] getPropertyDescriptors(Class<? extends Object> clazz) {
+    SimplePropertyDescriptor[] cached = cache.get(clazz);
+    if (cached == null) {
+      cached = findPropertyDescriptors(clazz);
+      cache.put(clazz, cached);
+    }
+    return cached.clone();
+  }
+
+  private static SimplePropertyDescriptor[] findPropertyDescriptors(Class<?> clazz) {
     HashMap<String, SimplePropertyDescriptor> properties =
         new HashMap<String, SimplePropertyDescriptor>();
     for (Method m : clazz.getMethods()) {
@@ -1,5 +1,6 @@
 package org.openqa.selenium.remote.internal;
 
+import org.apache.http.HttpHost;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
 import org.apache.http.ProtocolException;
@@ -7,21 +8,29 @@ import org.apache.http.client.HttpClient;
 import org.apache.http.client.RedirectStrategy;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.ClientConnectionRequest;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ManagedClientConnection;
 import org.apache.http.conn.params.ConnConnectionPNames;
+import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.conn.routing.HttpRoutePlanner;
 import org.apache.http.conn.scheme.PlainSocketFactory;
 import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.conn.scheme.SchemeRegistry;
 import org.apache.http.conn.ssl.SSLSocketFactory;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
 import org.apache.http.impl.conn.ProxySelectorRoutePlanner;
 import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.params.HttpParams;
+import org.apache.http.pool.PoolStats;
 import org.apache.http.protocol.HttpContext;
 
 import java.net.ProxySelector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 
 import static java.util.concurrent.TimeUnit.SECONDS;
@@ -45,7 +54,18 @@ public class HttpClientFactory {
 
   private final DefaultHttpClient httpClient;
   private final int TIMEOUT_THREE_HOURS = (int) SECONDS.toMillis( 60 * 60 * 3);
-  private final ClientConnectionManager gridClientConnectionManager = getClientConnectionManager();
+  private final NodeConnectionManager gridClientConnectionManager = new NodeConnectionManager();
+  // the grid clients only differ by their socket timeout, one per timeout shares the pools.
+  private final ConcurrentMap<Integer, HttpClient> gridClients =
+      new ConcurrentHashMap<Integer, HttpClient>();
+  private IdleConnectionEvictor idleConnectionEvictor;
+
+  /**
+   * how long a connection to a node can stay unused in the pool before being closed.
+   */
+  public static final long GRID_IDLE_CONNECTION_TIMEOUT_MS = SECONDS.toMillis(30);
+  private static final long GRID_EVICTION_INTERVAL_MS = SECONDS.toMillis(5);
+  private static final int GRID_MAX_CONNECTIONS = 2000;
 
   public HttpClientFactory() {
     httpClient = new DefaultHttpClient(getClientConnectionManager());
@@ -54,31 +74,209 @@ public class HttpClientFactory {
         getRoutePlanner(httpClient.getConnectionManager().getSchemeRegistry()));
   }
 
-  private static ClientConnectionManager getClientConnectionManager() {
+  private static SchemeRegistry getSchemeRegistry() {
     SchemeRegistry registry = new SchemeRegistry();
     registry.register(new Scheme("http", 80, PlainSocketFactory.getSocketFactory()));
     registry.register(new Scheme("https", 443, SSLSocketFactory.getSocketFactory()));
-    ThreadSafeClientConnManager cm = new ThreadSafeClientConnManager(registry);
+    return registry;
+  }
+
+  private static ClientConnectionManager getClientConnectionManager() {
+    ThreadSafeClientConnManager cm = new ThreadSafeClientConnManager(getSchemeRegistry());
     cm.setMaxTotal(2000);
     cm.setDefaultMaxPerRoute(2000);
     return cm;
   }
 
+  private static PoolingClientConnectionManager getGridClientConnectionManager(int max) {
+    PoolingClientConnectionManager cm = new PoolingClientConnectionManager(getSchemeRegistry());
+    cm.setMaxTotal(max);
+    cm.setDefaultMaxPerRoute(max);
+    return cm;
+  }
+
   public HttpClient getHttpClient() {
     return httpClient;
   }
 
+  /**
+   * @return a client used by the grid to talk to the nodes. The clients are long lived and share
+   *         a pool of keep alive connections per node. The idle connections are closed in the
+   *         background after {@link #GRID_IDLE_CONNECTION_TIMEOUT_MS}.
+   */
   public HttpClient getGridHttpClient(int timeout) {
+    HttpClient client = gridClients.get(timeout);
+    if (client != null) {
+      return client;
+    }
     DefaultHttpClient gridClient = new DefaultHttpClient(gridClientConnectionManager);
     gridClient.setRedirectStrategy(new MyRedirectHandler());
     gridClient.setParams(getGridHttpParams(timeout));
     gridClient.setRoutePlanner(
         getRoutePlanner(gridClient.getConnectionManager().getSchemeRegistry()));
-    gridClient.getConnectionManager().closeIdleConnections(100, TimeUnit.MILLISECONDS);
 
+    HttpClient previous = gridClients.putIfAbsent(timeout, gridClient);
+    if (previous != null) {
+      return previous;
+    }
+    startIdleConnectionEvictor();
     return gridClient;
   }
 
+  /**
+   * limits the number of connections the grid clients keep open to a node, which gets a pool of
+   * its own. The nodes without a limit share a pool of {@value #GRID_MAX_CONNECTIONS} connections.
+   */
+  public void setMaxGridConnectionsPerRoute(HttpHost node, int max) {
+    gridClientConnectionManager.setMaxConnections(node, max);
+  }
+
+  /**
+   * forgets the limit and the pool of a node that left the grid. The connections still in use are
+   * closed as they are released.
+   */
+  public void removeGridRoute(HttpHost node) {
+    gridClientConnectionManager.removeNode(node);
+  }
+
+  /**
+   * @return the limit applied to the connections to the node.
+   */
+  public int getMaxGridConnectionsPerRoute(HttpHost node) {
+    return gridClientConnectionManager.getPool(node).getMaxTotal();
+  }
+
+  /**
+   * @return the number of leased, available and pending connections to the node in the grid pool.
+   */
+  public PoolStats getGridConnectionStats(HttpHost node) {
+    return gridClientConnectionManager.getPool(node).getStats(new HttpRoute(node));
+  }
+
+  /**
+   * @return the number of leased, available and pending connections in the grid pool, all the
+   *         nodes together.
+   */
+  public PoolStats getGridConnectionTotalStats() {
+    return gridClientConnectionManager.getTotalStats();
+  }
+
+  /**
+   * Hands the connections to a node out of the pool of the node, or out of the pool shared by the
+   * nodes without a limit. A connection goes back to the pool it was leased from, which may no
+   * longer be the pool of its node when the node has left the grid in the meantime.
+   */
+  private static class NodeConnectionManager implements ClientConnectionManager {
+
+    private final PoolingClientConnectionManager shared =
+        getGridClientConnectionManager(GRID_MAX_CONNECTIONS);
+    private final ConcurrentMap<HttpHost, PoolingClientConnectionManager> nodes =
+        new ConcurrentHashMap<HttpHost, PoolingClientConnectionManager>();
+    private final ConcurrentMap<ManagedClientConnection, PoolingClientConnectionManager> leases =
+        new ConcurrentHashMap<ManagedClientConnection, PoolingClientConnectionManager>();
+
+    synchronized void setMaxConnections(HttpHost node, int max) {
+      PoolingClientConnectionManager pool = nodes.get(node);
+      if (pool == null) {
+        nodes.put(node, getGridClientConnectionManager(max));
+      } else {
+        pool.setMaxTotal(max);
+        pool.setDefaultMaxPerRoute(max);
+      }
+    }
+
+    synchronized void removeNode(HttpHost node) {
+      PoolingClientConnectionManager pool = nodes.remove(node);
+      if (pool != null) {
+        pool.closeIdleConnections(0, TimeUnit.MILLISECONDS);
+      }
+    }
+
+    PoolingClientConnectionManager getPool(HttpHost node) {
+      PoolingClientConnectionManager pool = nodes.get(node);
+      return pool == null ? shared : pool;
+    }
+
+    PoolStats getTotalStats() {
+      PoolStats total = shared.getTotalStats();
+      int leased = total.getLeased();
+      int pending = total.getPending();
+      int available = total.getAvailable();
+      int max = total.getMax();
+      for (PoolingClientConnectionManager pool : nodes.values()) {
+        PoolStats stats = pool.getTotalStats();
+        leased += stats.getLeased();
+        pending += stats.getPending();
+        available += stats.getAvailable();
+        max += stats.getMax();
+      }
+      return new PoolStats(leased, pending, available, max);
+    }
+
+    public SchemeRegistry getSchemeRegistry() {
+      // the pools all know the same schemes.
+      return shared.getSchemeRegistry();
+    }
+
+    public ClientConnectionRequest requestConnection(HttpRoute route, Object state) {
+      final PoolingClientConnectionManager pool = getPool(route.getTargetHost());
+      final ClientConnectionRequest request = pool.requestConnection(route, state);
+      return new ClientConnectionRequest() {
+        public ManagedClientConnection getConnection(long timeout, TimeUnit unit)
+            throws InterruptedException, ConnectionPoolTimeoutException {
+          ManagedClientConnection connection = request.getConnection(timeout, unit);
+          leases.put(connection, pool);
+          return connection;
+        }
+
+        public void abortRequest() {
+          request.abortRequest();
+        }
+      };
+    }
+
+    public void releaseConnection(ManagedClientConnection connection, long validDuration,
+        TimeUnit timeUnit) {
+      PoolingClientConnectionManager pool = leases.remove(connection);
+      if (pool == null) {
+        return;
+      }
+      pool.releaseConnection(connection, validDuration, timeUnit);
+      if (pool != shared && !nodes.containsValue(pool)) {
+        // the node left the grid, nothing will be sent to it through that pool any more.
+        pool.closeIdleConnections(0, TimeUnit.MILLISECONDS);
+      }
+    }
+
+    public void closeIdleConnections(long idletime, TimeUnit tunit) {
+      shared.closeIdleConnections(idletime, tunit);
+      for (PoolingClientConnectionManager pool : nodes.values()) {
+        pool.closeIdleConnections(idletime, tunit);
+      }
+    }
+
+    public void closeExpiredConnections() {
+      shared.closeExpiredConnections();
+      for (PoolingClientConnectionManager pool : nodes.values()) {
+        pool.closeExpiredConnections();
+      }
+    }
+
+    public void shutdown() {
+      shared.shutdown();
+      for (PoolingClientConnectionManager pool : nodes.values()) {
+        pool.shutdown();
+      }
+    }
+  }
+
+  private synchronized void startIdleConnectionEvictor() {
+    if (idleConnectionEvictor == null) {
+      idleConnectionEvictor = new IdleConnectionEvictor(gridClientConnectionManager);
+      idleConnectionEvictor.start();
+    }
+  }
+
   public HttpParams getHttpParams() {
     HttpParams params = new BasicHttpParams();
     HttpConnectionParams.setSoReuseaddr(params, true);
@@ -101,10 +299,45 @@ public class HttpClientFactory {
   }
 
   public void close() {
+    synchronized (this) {
+      if (idleConnectionEvictor != null) {
+        idleConnectionEvictor.interrupt();
+        idleConnectionEvictor = null;
+      }
+    }
     httpClient.getConnectionManager().shutdown();
     gridClientConnectionManager.shutdown();
   }
 
+  /**
+   * closes the connections to the nodes that have been idle for too long, away from the threads
+   * forwarding the requests.
+   */
+  private static class IdleConnectionEvictor extends Thread {
+
+    private final ClientConnectionManager connectionManager;
+
+    IdleConnectionEvictor(ClientConnectionManager connectionManager) {
+      super("Grid idle connection evictor");
+      this.connectionManager = connectionManager;
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (!isInterrupted()) {
+          Thread.sleep(GRID_EVICTION_INTERVAL_MS);
+          connectionManager.closeExpiredConnections();
+          connectionManager.closeIdleConnections(GRID_IDLE_CONNECTION_TIMEOUT_MS,
+                                                 TimeUnit.MILLISECONDS);
+        }
+      } catch (InterruptedException e) {
+        // closing.
+      }
+    }
+  }
+
   static class MyRedirectHandler implements RedirectStrategy {
 
     public boolean isRedirected(HttpRequest request, HttpResponse response, HttpContext context)
@@ -98,7 +98,7 @@ public class ExpectedConditions {
    */
   public static ExpectedCondition<WebElement> presenceOfElementLocated(
       final By locator) {
-    return new ExpectedCondition<WebElement>() {
+    return new InBrowserCondition<WebElement>(InBrowserCondition.PRESENCE, locator) {
       public WebElement apply(WebDriver driver) {
         return findElement(locator, driver);
       }
@@ -120,7 +120,7 @@ public class ExpectedConditions {
    */
   public static ExpectedCondition<WebElement> visibilityOfElementLocated(
       final By locator) {
-    return new ExpectedCondition<WebElement>() {
+    return new InBrowserCondition<WebElement>(InBrowserCondition.VISIBILITY, locator) {
       public WebElement apply(WebDriver driver) {
         try {
           return elementIfVisible(findElement(locator, driver));
@@ -146,7 +146,7 @@ public class ExpectedConditions {
    */
   public static ExpectedCondition<WebElement> visibilityOf(
       final WebElement element) {
-    return new ExpectedCondition<WebElement>() {
+    return new InBrowserCondition<WebElement>(InBrowserCondition.VISIBILITY, element) {
       public WebElement apply(WebDriver driver) {
         return elementIfVisible(element);
       }
@@ -175,7 +175,7 @@ public class ExpectedConditions {
    */
   public static ExpectedCondition<List<WebElement>> presenceOfAllElementsLocatedBy(
       final By locator) {
-    return new ExpectedCondition<List<WebElement>>() {
+    return new InBrowserCondition<List<WebElement>>(InBrowserCondition.PRESENCE, locator) {
       public List<WebElement> apply(WebDriver driver) {
         List<WebElement> elements = findElements(locator, driver);
         return elements.size() > 0 ? elements : null;
@@ -195,7 +195,7 @@ public class ExpectedConditions {
   public static ExpectedCondition<Boolean> textToBePresentInElement(
       final By locator, final String text) {
 
-    return new ExpectedCondition<Boolean>() {
+    return new InBrowserCondition<Boolean>(InBrowserCondition.TEXT, locator, text) {
       public Boolean apply(WebDriver from) {
         try {
           String elementText = findElement(locator, from).getText();
@@ -220,7 +220,7 @@ public class ExpectedConditions {
   public static ExpectedCondition<Boolean> textToBePresentInElementValue(
       final By locator, final String text) {
 
-    return new ExpectedCondition<Boolean>() {
+    return new InBrowserCondition<Boolean>(InBrowserCondition.VALUE, locator, text) {
       public Boolean apply(WebDriver from) {
         try {
           String elementText = findElement(locator, from).getAttribute("value");
@@ -242,6 +242,31 @@ public class ExpectedConditions {
     };
   }
 
+  /**
+   * An expectation for checking if the given attribute of the specified element
+   * has the given value.
+   */
+  public static ExpectedCondition<Boolean> attributeToBe(
+      final By locator, final String attribute, final String value) {
+
+    return new InBrowserCondition<Boolean>(InBrowserCondition.ATTRIBUTE, locator, attribute,
+        value) {
+      public Boolean apply(WebDriver from) {
+        try {
+          return value.equals(findElement(locator, from).getAttribute(attribute));
+        } catch (StaleElementReferenceException e) {
+          return null;
+        }
+      }
+
+      @Override
+      public String toString() {
+        return String.format("attribute ('%s') to be '%s' in element located by %s",
+            attribute, value, locator);
+      }
+    };
+  }
+
   /**
    * An expectation for checking whether the given frame is available to switch
    * to. <p> If the frame is available it switches the given driver to the
@@ -335,7 +360,7 @@ public class ExpectedConditions {
    */
   public static ExpectedCondition<Boolean> stalenessOf(
       final WebElement element) {
-    return new ExpectedCondition<Boolean>() {
+    return new InBrowserCondition<Boolean>(InBrowserCondition.STALENESS, element) {
       public Boolean apply(WebDriver ignored) {
         try {
           // Calling any method forces a staleness check
@@ -75,6 +75,7 @@ public class FluentWait<T> implements Wait<T> {
   private Duration timeout = FIVE_HUNDRED_MILLIS;
   private Duration interval = FIVE_HUNDRED_MILLIS;
   private String message = null;
+  private Duration scriptTimeout = null;
 
   private List<Class<? extends Throwable>> ignoredExceptions = Lists.newLinkedList();
 
@@ -136,6 +137,28 @@ public class FluentWait<T> implements Wait<T> {
     return this;
   }
 
+  /**
+   * Makes the conditions which the page can watch for, such as
+   * {@link ExpectedConditions#presenceOfElementLocated(org.openqa.selenium.By)}, wait in the
+   * browser between two evaluations instead of sleeping: a script returns as soon as the page
+   * changes in a way which may meet the condition, and the condition is evaluated again. This
+   * saves the round trips of polling, and notices the change sooner.
+   *
+   * <p>
+   * Other conditions, inputs which aren't a {@link org.openqa.selenium.JavascriptExecutor}, and
+   * pages which fail to run the script are polled as usual.
+   *
+   * @param duration The script timeout of the driver, which each wait in the browser stays under.
+   *        The driver's setting is left as it is.
+   * @param unit The unit of time.
+   * @return A self reference.
+   * @see org.openqa.selenium.WebDriver.Timeouts#setScriptTimeout(long, TimeUnit)
+   */
+  public FluentWait<T> waitingInBrowser(long duration, TimeUnit unit) {
+    this.scriptTimeout = new Duration(duration, unit);
+    return this;
+  }
+
   /**
    * Configures this instance to ignore specific types of exceptions while waiting for a condition.
    * Any exceptions not whitelisted will be allowed to propagate, terminating the wait.
@@ -198,6 +221,8 @@ public class FluentWait<T> implements Wait<T> {
    */
   public <V> V until(Function<? super T, V> isTrue) {
     long end = clock.laterBy(timeout.in(MILLISECONDS));
+    InBrowserWait inBrowser = scriptTimeout == null ?
+        null : InBrowserWait.forCondition(input, isTrue, scriptTimeout.in(MILLISECONDS));
     Throwable lastException = null;
     while (true) {
       try {
@@ -224,6 +249,10 @@ public class FluentWait<T> implements Wait<T> {
         throw timeoutException(timeoutMessage, lastException);
       }
 
+      if (inBrowser != null && inBrowser.await(end - clock.now())) {
+        continue;
+      }
+
       try {
         sleeper.sleep(interval);
       } catch (InterruptedException e) {
@@ -0,0 +1,107 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.openqa.selenium.support.ui;
+
+import com.google.common.collect.ImmutableMap;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.WebElement;
+
+import java.util.Map;
+
+/**
+ * An {@link ExpectedCondition} which the page itself can watch for, so that a {@link FluentWait}
+ * {@link FluentWait#waitingInBrowser(long, java.util.concurrent.TimeUnit) waiting in the browser}
+ * is told when to evaluate it again rather than polling it.
+ *
+ * The check done in the page is only a hint: it may be met while the condition isn't, never the
+ * other way round, and the condition is always evaluated by the driver before the wait ends.
+ *
+ * @param <T> The return type of the condition.
+ */
+abstract class InBrowserCondition<T> implements ExpectedCondition<T> {
+
+  static final String PRESENCE = "presence";
+  static final String VISIBILITY = "visibility";
+  static final String TEXT = "text";
+  static final String VALUE = "value";
+  static final String ATTRIBUTE = "attribute";
+  static final String STALENESS = "staleness";
+
+  // The locators which the page can use as they are, with the name of their strategy.
+  private static final Map<Class<? extends By>, String> STRATEGIES =
+      ImmutableMap.<Class<? extends By>, String>builder()
+          .put(By.ById.class, "id")
+          .put(By.ByName.class, "name")
+          .put(By.ByTagName.class, "tag name")
+          .put(By.ByClassName.class, "class name")
+          .put(By.ByCssSelector.class, "css selector")
+          .put(By.ByXPath.class, "xpath")
+          .build();
+
+  private final String check;
+  private final By locator;
+  private final WebElement element;
+  private final String text;
+  private final String attribute;
+
+  private InBrowserCondition(String check, By locator, WebElement element, String text,
+      String attribute) {
+    this.check = check;
+    this.locator = locator;
+    this.element = element;
+    this.text = text;
+    this.attribute = attribute;
+  }
+
+  InBrowserCondition(String check, By locator) {
+    this(check, locator, null, null, null);
+  }
+
+  InBrowserCondition(String check, By locator, String text) {
+    this(check, locator, null, text, null);
+  }
+
+  InBrowserCondition(String check, By locator, String attribute, String value) {
+    this(check, locator, null, value, attribute);
+  }
+
+  InBrowserCondition(String check, WebElement element) {
+    this(check, null, element, null, null);
+  }
+
+  /**
+   * @return The arguments of the {@link InBrowserWait} script for this condition, or null if the
+   *         page can't find its element.
+   */
+  Object[] getScriptArguments() {
+    String using = null;
+    String target = null;
+    if (locator != null) {
+      using = STRATEGIES.get(locator.getClass());
+      if (using == null) {
+        return null;
+      }
+      // By has no getter for its value, the one in its description is the one it was created with.
+      String description = locator.toString();
+      target = description.substring(description.indexOf(": ") + 2);
+    }
+    return new Object[] {check, using, target, element, text, attribute};
+  }
+}
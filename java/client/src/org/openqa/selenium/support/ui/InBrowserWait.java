@@ -0,0 +1,206 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.openqa.selenium.support.ui;
+
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.StaleElementReferenceException;
+import org.openqa.selenium.WebDriverException;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Waits in the page for an {@link InBrowserCondition} to be worth evaluating again, one call of
+ * {@link #await(long)} between two evaluations. The page is watched with a MutationObserver where
+ * there is one, and polled every few milliseconds otherwise.
+ *
+ * Once the page fails to run the script twice in a row, the wait goes back to sleeping between
+ * evaluations. So does a single evaluation after the page said yes too soon.
+ */
+class InBrowserWait {
+
+  private static final Logger log = Logger.getLogger(InBrowserWait.class.getName());
+
+  private static final int MAX_FAILURES = 2;
+
+  // Resolves with true once the check is met, false when the time is up, and a message if the
+  // check can't be done in this page.
+  private static final String SCRIPT =
+      "var check = arguments[0], using = arguments[1], target = arguments[2],\n"
+      + "    element = arguments[3], text = arguments[4], name = arguments[5],\n"
+      + "    callback = arguments[arguments.length - 1];\n"
+      + "var doc = document, done = false, observer, timer;\n"
+      + "var deadline = new Date().getTime() + arguments[6];\n"
+      + "function first() {\n"
+      + "  switch (using) {\n"
+      + "    case 'id': return doc.getElementById(target);\n"
+      + "    case 'name': return doc.getElementsByName(target)[0];\n"
+      + "    case 'tag name': return doc.getElementsByTagName(target)[0];\n"
+      + "    case 'class name': return doc.getElementsByClassName(target)[0];\n"
+      + "    case 'css selector': return doc.querySelector(target);\n"
+      + "    case 'xpath': return doc.evaluate(target, doc, null, 9, null).singleNodeValue;\n"
+      + "  }\n"
+      + "  return element;\n"
+      + "}\n"
+      + "function style(node, property) {\n"
+      + "  var computed = window.getComputedStyle ?\n"
+      + "      window.getComputedStyle(node, null) : node.currentStyle;\n"
+      + "  return computed ? computed[property] : null;\n"
+      + "}\n"
+      + "function shown(node) {\n"
+      + "  var visibility = style(node, 'visibility');\n"
+      + "  if (visibility == 'hidden' || visibility == 'collapse') { return false; }\n"
+      + "  for (; node && node.nodeType == 1; node = node.parentNode) {\n"
+      + "    if (style(node, 'display') == 'none') { return false; }\n"
+      + "  }\n"
+      + "  return true;\n"
+      + "}\n"
+      // The visible text may differ in case and in white space from the text content.
+      + "function simplify(value) {\n"
+      + "  return String(value == null ? '' : value).replace(/\\s+/g, '').toLowerCase();\n"
+      + "}\n"
+      + "function met() {\n"
+      + "  if (check == 'staleness') {\n"
+      + "    var root = doc.documentElement;\n"
+      + "    return !(root.contains ?\n"
+      + "        root.contains(element) : root.compareDocumentPosition(element) & 16);\n"
+      + "  }\n"
+      + "  var found = first();\n"
+      + "  if (!found) { return false; }\n"
+      + "  switch (check) {\n"
+      + "    case 'presence': return true;\n"
+      + "    case 'visibility': return shown(found);\n"
+      + "    case 'text':\n"
+      + "      return simplify(found.textContent || found.innerText).indexOf(simplify(text)) != -1;\n"
+      + "    case 'value':\n"
+      + "      var value = found.value != null ? found.value : found.getAttribute('value');\n"
+      + "      return value != null && String(value).indexOf(text) != -1;\n"
+      + "    case 'attribute':\n"
+      + "      return String(found[name]) == text || found.getAttribute(name) == text;\n"
+      + "  }\n"
+      + "  throw new Error('Unknown check ' + check);\n"
+      + "}\n"
+      + "function finish(result) {\n"
+      + "  if (done) { return; }\n"
+      + "  done = true;\n"
+      + "  if (observer) { observer.disconnect(); }\n"
+      + "  clearTimeout(timer);\n"
+      + "  callback(result);\n"
+      + "}\n"
+      + "function test() {\n"
+      + "  try {\n"
+      + "    if (met()) { finish(true); }\n"
+      + "  } catch (e) {\n"
+      + "    finish('Cannot check the page: ' + e.message);\n"
+      + "  }\n"
+      + "  return done;\n"
+      + "}\n"
+      // Not every change is a mutation, the value of a field for one: poll now and then anyway.
+      + "function poll() {\n"
+      + "  if (test()) { return; }\n"
+      + "  if (new Date().getTime() >= deadline) {\n"
+      + "    finish(false);\n"
+      + "  } else {\n"
+      + "    timer = setTimeout(poll, observer ? 250 : 50);\n"
+      + "  }\n"
+      + "}\n"
+      + "var Observer = window.MutationObserver || window.WebKitMutationObserver;\n"
+      + "if (Observer) {\n"
+      + "  observer = new Observer(test);\n"
+      + "  observer.observe(doc,\n"
+      + "      {attributes: true, characterData: true, childList: true, subtree: true});\n"
+      + "}\n"
+      + "poll();\n";
+
+  private final JavascriptExecutor executor;
+  private final Object[] arguments;
+  private final long longestWait;
+
+  private int failures;
+  // Set when the page says the condition is met: if the wait goes on, the driver disagreed.
+  private boolean metTooSoon;
+
+  private InBrowserWait(JavascriptExecutor executor, Object[] arguments, long longestWait) {
+    this.executor = executor;
+    this.arguments = arguments;
+    this.longestWait = longestWait;
+  }
+
+  /**
+   * @param input The input of the wait.
+   * @param condition The condition waited for.
+   * @param scriptTimeout The script timeout of the driver, in milliseconds.
+   * @return A wait in the page for the condition, or null if the page can't watch for it.
+   */
+  static InBrowserWait forCondition(Object input, Object condition, long scriptTimeout) {
+    if (!(input instanceof JavascriptExecutor) || !(condition instanceof InBrowserCondition)) {
+      return null;
+    }
+    Object[] arguments = ((InBrowserCondition<?>) condition).getScriptArguments();
+    if (arguments == null) {
+      return null;
+    }
+    // Leaves the driver some room to return before the script times out.
+    long longestWait = scriptTimeout - scriptTimeout / 5;
+    if (longestWait <= 0) {
+      return null;
+    }
+    Object[] withTimeout = new Object[arguments.length + 1];
+    System.arraycopy(arguments, 0, withTimeout, 0, arguments.length);
+    return new InBrowserWait((JavascriptExecutor) input, withTimeout, longestWait);
+  }
+
+  /**
+   * Waits in the page until the condition may be met, or the given time is up.
+   *
+   * @param remaining How long the wait can last, in milliseconds.
+   * @return Whether the wait happened, false if the caller should sleep as usual instead.
+   */
+  boolean await(long remaining) {
+    if (failures >= MAX_FAILURES || remaining <= 0) {
+      return false;
+    }
+    if (metTooSoon) {
+      metTooSoon = false;
+      return false;
+    }
+
+    arguments[arguments.length - 1] = Math.min(remaining, longestWait);
+    try {
+      Object result = executor.executeAsyncScript(SCRIPT, arguments);
+      if (result instanceof Boolean) {
+        failures = 0;
+        metTooSoon = (Boolean) result;
+        return true;
+      }
+      log.fine("Polling the condition instead: " + result);
+      failures = MAX_FAILURES;
+      return false;
+    } catch (StaleElementReferenceException e) {
+      // The condition knows what to make of it.
+      metTooSoon = true;
+      return true;
+    } catch (WebDriverException e) {
+      // Leaving the page interrupts the script, so give it another chance.
+      failures++;
+      log.log(Level.FINE, "Cannot wait in the page", e);
+      return false;
+    }
+  }
+}
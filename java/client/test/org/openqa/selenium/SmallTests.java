@@ -23,6 +23,7 @@ import org.openqa.selenium.interactions.IndividualMouseActionsTest;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 import org.openqa.selenium.internal.Base64EncoderTest;
+import org.openqa.selenium.io.Base64StreamsTest;
 import org.openqa.selenium.io.FileHandlerTest;
 import org.openqa.selenium.io.TemporaryFilesystemTest;
 import org.openqa.selenium.io.ZipTest;
@@ -37,6 +38,7 @@ import org.openqa.selenium.testing.IgnoreComparitorUnitTest;
 @Suite.SuiteClasses({
     ActionsTest.class,
     Base64EncoderTest.class,
+    Base64StreamsTest.class,
     ByTest.class,
     CommandLineTest.class,
     CookieTest.class,
@@ -16,9 +16,13 @@ limitations under the License.
 
 package org.openqa.selenium.firefox;
 
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.openqa.selenium.Proxy;
+import org.openqa.selenium.WebDriverException;
 import org.openqa.selenium.io.FileHandler;
 import org.openqa.selenium.io.TemporaryFilesystem;
 import org.openqa.selenium.io.Zip;
@@ -32,9 +36,11 @@ import java.io.IOException;
 import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.UUID;
 
 import static org.hamcrest.Matchers.containsString;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
@@ -219,6 +225,83 @@ public class FirefoxProfileTest {
     assertEquals(dir, parsedPrefs.getPreference("browser.download.dir"));
   }
   
+  @Test
+  public void sendsOnlyThePreferencesOfAProfileSentInFullBefore() throws IOException {
+    System.setProperty(FirefoxProfile.SEND_BY_REFERENCE_PROPERTY, "true");
+    try {
+      FirefoxProfile profile = new FirefoxProfile(newModel());
+      profile.setPreference("cheese", "brie");
+      assertTrue(profile.sendInFull(refusedBy(profile)));
+      FirefoxProfile.fromJson(profile.toJson());
+
+      profile.setPreference("cheese", "cheddar");
+      String json = profile.toJson();
+      FirefoxProfile rebuilt = FirefoxProfile.fromJson(json);
+
+      assertTrue(json.startsWith("template:"));
+      assertEquals("cheddar", parseUserPrefs(rebuilt).getPreference("cheese"));
+      assertTrue(new File(rebuilt.layoutOnDisk(), "model.txt").exists());
+    } finally {
+      System.clearProperty(FirefoxProfile.SEND_BY_REFERENCE_PROPERTY);
+    }
+  }
+
+  @Test
+  public void sendsAProfileInFullAgainWhenTheServerDidNotHaveIt() throws IOException {
+    System.setProperty(FirefoxProfile.SEND_BY_REFERENCE_PROPERTY, "true");
+    try {
+      FirefoxProfile profile = new FirefoxProfile(newModel());
+      WebDriverException refused = refusedBy(profile);
+
+      assertTrue(profile.sendInFull(new WebDriverException("Error forwarding the new session",
+          new WebDriverException(refused))));
+
+      File dir = TemporaryFilesystem.getDefaultTmpFS().createTempDir("webdriver", "duplicated");
+      new Zip().unzip(profile.toJson(), dir);
+      assertTrue(new File(dir, "model.txt").exists());
+      assertFalse(profile.sendInFull(refused));
+    } finally {
+      System.clearProperty(FirefoxProfile.SEND_BY_REFERENCE_PROPERTY);
+    }
+  }
+
+  @Test
+  public void doesNotSendAProfileInFullAgainForAnotherFailure() throws IOException {
+    System.setProperty(FirefoxProfile.SEND_BY_REFERENCE_PROPERTY, "true");
+    try {
+      FirefoxProfile profile = new FirefoxProfile(newModel());
+      assertTrue(profile.toJson().startsWith("template:"));
+
+      assertFalse(profile.sendInFull(new WebDriverException("Firefox failed to start")));
+      assertTrue(profile.toJson().startsWith("template:"));
+    } finally {
+      System.clearProperty(FirefoxProfile.SEND_BY_REFERENCE_PROPERTY);
+    }
+  }
+
+  @Test(expected = WebDriverException.class)
+  public void cannotUnpackAProfileSentByReferenceToAnUnknownTemplate() throws IOException {
+    FirefoxProfile.fromJson("template:0123456789abcdef0123456789abcdef01234567:");
+  }
+
+  /**
+   * @return the failure of a server which doesn't have the template of the profile.
+   */
+  private WebDriverException refusedBy(FirefoxProfile profile) throws IOException {
+    try {
+      FirefoxProfile.fromJson(profile.toJson());
+    } catch (WebDriverException e) {
+      return e;
+    }
+    throw new AssertionError("The template of the profile was known");
+  }
+
+  private File newModel() throws IOException {
+    File model = TemporaryFilesystem.getDefaultTmpFS().createTempDir("model", "profile");
+    Files.write(UUID.randomUUID().toString(), new File(model, "model.txt"), Charsets.UTF_8);
+    return model;
+  }
+
   private void assertPreferenceValueEquals(String key, Object value) throws Exception {
     List<String> props = readGeneratedProperties(profile);
     boolean seenKey = false;
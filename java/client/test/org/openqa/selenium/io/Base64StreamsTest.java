@@ -0,0 +1,86 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.openqa.selenium.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.io.ByteStreams;
+
+import org.junit.Test;
+import org.openqa.selenium.internal.Base64Encoder;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Random;
+
+public class Base64StreamsTest {
+
+  private final Random random = new Random(0);
+
+  @Test
+  public void encodesLikeTheEncoder() throws IOException {
+    for (int length = 0; length < 200; length++) {
+      byte[] bytes = randomBytes(length);
+      assertEquals(new Base64Encoder().encode(bytes), encode(bytes));
+    }
+  }
+
+  @Test
+  public void decodesWhatTheEncoderEncodes() throws IOException {
+    for (int length = 0; length < 200; length++) {
+      byte[] bytes = randomBytes(length);
+      assertArrayEquals(bytes, decode(new Base64Encoder().encode(bytes)));
+    }
+  }
+
+  @Test
+  public void handlesMoreThanItsBuffers() throws IOException {
+    byte[] bytes = randomBytes(100000);
+
+    String encoded = encode(bytes);
+
+    assertEquals(new Base64Encoder().encode(bytes), encoded);
+    assertArrayEquals(bytes, decode(encoded));
+  }
+
+  @Test
+  public void stopsDecodingAtThePadding() throws IOException {
+    assertArrayEquals(new byte[] {'a'}, decode("YQ==YWJj"));
+  }
+
+  private byte[] randomBytes(int length) {
+    byte[] bytes = new byte[length];
+    random.nextBytes(bytes);
+    return bytes;
+  }
+
+  private static String encode(byte[] bytes) throws IOException {
+    StringWriter writer = new StringWriter();
+    Base64OutputStream out = new Base64OutputStream(writer);
+    out.write(bytes);
+    out.close();
+    return writer.toString();
+  }
+
+  private static byte[] decode(String encoded) throws IOException {
+    return ByteStreams.toByteArray(new Base64InputStream(new StringReader(encoded)));
+  }
+}
@@ -0,0 +1,104 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.openqa.selenium.remote;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.openqa.selenium.OutputType;
+import org.openqa.selenium.TakesScreenshot;
+import org.openqa.selenium.internal.Base64Encoder;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+
+public class AddTakesScreenshotTest {
+
+  private static final byte[] PNG = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n', 0, 0};
+
+  @Test
+  public void recognisesThePngSignature() {
+    assertTrue(AddTakesScreenshot.isPng(PNG));
+  }
+
+  @Test
+  public void base64IsNotAPng() {
+    assertFalse(AddTakesScreenshot.isPng(new Base64Encoder().encode(PNG).getBytes()));
+  }
+
+  @Test
+  public void anArrayShorterThanTheSignatureIsNotAPng() {
+    assertFalse(AddTakesScreenshot.isPng(new byte[] {(byte) 0x89, 'P', 'N', 'G'}));
+    assertFalse(AddTakesScreenshot.isPng(new byte[0]));
+  }
+
+  @Test
+  public void asksForThePngItself() throws Exception {
+    StubExecuteMethod executeMethod = new StubExecuteMethod(PNG);
+
+    takeScreenshot(executeMethod);
+
+    assertEquals(DriverCommand.SCREENSHOT, executeMethod.commandName);
+    assertEquals(Boolean.TRUE, executeMethod.parameters.get(HttpCommandExecutor.ACCEPT_PNG));
+  }
+
+  @Test
+  public void usesThePngBytesAsTheyAre() throws Exception {
+    assertArrayEquals(PNG, takeScreenshot(new StubExecuteMethod(PNG)));
+  }
+
+  @Test
+  public void decodesBase64SentAsAString() throws Exception {
+    String base64 = new Base64Encoder().encode(PNG);
+
+    assertArrayEquals(PNG, takeScreenshot(new StubExecuteMethod(base64)));
+  }
+
+  @Test
+  public void decodesBase64SentAsBytes() throws Exception {
+    byte[] base64 = new Base64Encoder().encode(PNG).getBytes();
+
+    assertArrayEquals(PNG, takeScreenshot(new StubExecuteMethod(base64)));
+  }
+
+  private byte[] takeScreenshot(ExecuteMethod executeMethod) throws Exception {
+    Method method = TakesScreenshot.class.getMethod("getScreenshotAs", OutputType.class);
+    return (byte[]) new AddTakesScreenshot().getImplementation(null)
+        .invoke(executeMethod, null, method, OutputType.BYTES);
+  }
+
+  private static class StubExecuteMethod implements ExecuteMethod {
+    private final Object result;
+    private String commandName;
+    private Map<String, ?> parameters;
+
+    StubExecuteMethod(Object result) {
+      this.result = result;
+    }
+
+    public Object execute(String commandName, Map<String, ?> parameters) {
+      this.commandName = commandName;
+      this.parameters = parameters;
+      return result;
+    }
+  }
+}
@@ -0,0 +1,161 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.openqa.selenium.remote;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.openqa.selenium.NoSuchElementException;
+import org.openqa.selenium.WebDriverException;
+
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+public class BatchExecutorTest {
+
+  private StubExecutor executor;
+  private RemoteWebDriver driver;
+
+  @Before
+  public void createDriver() {
+    executor = new StubExecutor();
+    driver = new RemoteWebDriver(executor, new DesiredCapabilities());
+  }
+
+  @Test
+  public void sendsTheCommandsInASingleBatch() {
+    executor.respondWith(ImmutableList.of(
+        response(ErrorCodes.SUCCESS, "cheese"), response(ErrorCodes.SUCCESS, 5)));
+
+    BatchExecutor batch = driver.newBatch();
+    batch.add(DriverCommand.GET_TITLE);
+    batch.add(DriverCommand.GET_WINDOW_HANDLES);
+
+    assertEquals(Arrays.<Object>asList("cheese", 5L), batch.execute());
+    assertEquals(1, executor.batches.size());
+    assertEquals(2, executor.batches.get(0).size());
+    assertEquals(0, batch.size());
+  }
+
+  @Test
+  public void throwsTheExceptionOfTheFailedCommand() {
+    executor.respondWith(ImmutableList.of(response(ErrorCodes.SUCCESS, null),
+        response(ErrorCodes.NO_SUCH_ELEMENT, ImmutableMap.of("message", "no cheese"))));
+
+    BatchExecutor batch = driver.newBatch();
+    batch.add(DriverCommand.GET_TITLE);
+    batch.add(DriverCommand.FIND_ELEMENT, ImmutableMap.of("using", "id", "value", "cheese"));
+
+    try {
+      batch.execute();
+      fail("Expected a NoSuchElementException");
+    } catch (NoSuchElementException e) {
+      assertTrue(e.getMessage().contains("no cheese"));
+    }
+  }
+
+  @Test
+  public void throwsIfTheServerRanFewerCommands() {
+    executor.respondWith(ImmutableList.of(response(ErrorCodes.SUCCESS, null)));
+
+    BatchExecutor batch = driver.newBatch();
+    batch.add(DriverCommand.GET_TITLE);
+    batch.add(DriverCommand.GET_TITLE);
+
+    try {
+      batch.execute();
+      fail("Expected a WebDriverException");
+    } catch (WebDriverException e) {
+      assertTrue(e.getMessage().contains("1 of the 2 commands"));
+    }
+  }
+
+  @Test
+  public void sendsEachCommandWithItsMethodPathAndParameters() throws Exception {
+    executor.respondWith(ImmutableList.of(
+        response(ErrorCodes.SUCCESS, null), response(ErrorCodes.SUCCESS, null)));
+
+    BatchExecutor batch = driver.newBatch();
+    BatchExecutor.Result cells = batch.add(DriverCommand.FIND_ELEMENTS,
+        ImmutableMap.of("using", "css selector", "value", "td"));
+    batch.add(DriverCommand.GET_ELEMENT_TEXT, ImmutableMap.of("id", cells.get(1)));
+    batch.execute();
+
+    Command onTheWire = new HttpCommandExecutor(new URL("http://localhost:4444/wd/hub"))
+        .toBatchOnTheWire(executor.sent.get(0));
+    JSONArray commands = new JSONObject(new BeanToJsonConverter().convert(
+        onTheWire.getParameters())).getJSONArray("commands");
+
+    assertEquals(2, commands.length());
+    JSONObject find = commands.getJSONObject(0);
+    assertEquals("POST", find.getString("method"));
+    assertEquals("/session/foo/elements", find.getString("path"));
+    assertEquals("td", find.getJSONObject("parameters").getString("value"));
+
+    JSONObject getText = commands.getJSONObject(1);
+    assertEquals("GET", getText.getString("method"));
+    assertEquals("/session/foo/element/:id/text", getText.getString("path"));
+    JSONObject id = getText.getJSONObject("parameters").getJSONObject("id");
+    assertEquals(0, id.getInt("batchResult"));
+    assertEquals(1, id.getJSONArray("select").getInt(0));
+  }
+
+  private static Map<String, Object> response(int status, Object value) {
+    Map<String, Object> response = Maps.newHashMap();
+    response.put("sessionId", "foo");
+    response.put("status", status);
+    response.put("value", value);
+    return response;
+  }
+
+  private static class StubExecutor implements CommandExecutor {
+    private final List<Command> sent = Lists.newArrayList();
+    private final List<List<?>> batches = Lists.newArrayList();
+    private List<Map<String, Object>> responses;
+
+    void respondWith(List<Map<String, Object>> responses) {
+      this.responses = responses;
+    }
+
+    public Response execute(Command command) {
+      Response response = new Response(new SessionId("foo"));
+      if (DriverCommand.NEW_SESSION.equals(command.getName())) {
+        response.setValue(new DesiredCapabilities().asMap());
+        return response;
+      }
+      assertEquals(DriverCommand.EXECUTE_BATCH, command.getName());
+      sent.add(command);
+      batches.add((List<?>) command.getParameters().get("commands"));
+      response.setValue(responses);
+      return response;
+    }
+  }
+}
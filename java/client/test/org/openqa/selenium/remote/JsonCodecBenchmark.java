@@ -0,0 +1,181 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.openqa.selenium.remote;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.openqa.selenium.internal.Base64Encoder;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.logging.Logger;
+
+/**
+ * Measures the JSON codec on the payloads which cost the most on the wire: a screenshot of a few
+ * MB, the 5,000 elements returned by a findElements, and the commands sent the most often. Each
+ * is compared with the org.json round trip the converters used to do. Not part of the test
+ * suites, run it on its own.
+ */
+public class JsonCodecBenchmark {
+
+  private static final Logger log = Logger.getLogger(JsonCodecBenchmark.class.getName());
+
+  private static final int SCREENSHOT_BYTES = 3 * 1024 * 1024;
+  private static final int ELEMENTS = 5000;
+  private static final int COMMANDS = 20000;
+
+  @Test
+  public void readScreenshotResponse() throws Exception {
+    byte[] png = new byte[SCREENSHOT_BYTES];
+    new Random(0).nextBytes(png);
+    String base64 = new Base64Encoder().encode(png);
+    final byte[] payload = response(base64);
+
+    time("screenshot response", 20, new Codec() {
+      public Object streaming() throws Exception {
+        Response response = new JsonToBeanConverter().convert(Response.class,
+            new InputStreamReader(new ByteArrayInputStream(payload), Charsets.UTF_8));
+        return ((String) response.getValue()).length();
+      }
+
+      public Object tree() throws Exception {
+        JSONObject response = new JSONObject(new String(payload, Charsets.UTF_8));
+        return new JsonToBeanConverter().convert(Response.class, response);
+      }
+    });
+  }
+
+  @Test
+  public void readFindElementsResponse() throws Exception {
+    List<Map<String, String>> elements = new ArrayList<Map<String, String>>();
+    for (int i = 0; i < ELEMENTS; i++) {
+      elements.add(ImmutableMap.of("ELEMENT", "{" + i + "-d3f0e7a4-33c5-4b6c-9f0e-5a4d0f8c7b21}"));
+    }
+    final byte[] payload = response(elements);
+
+    time("findElements response", 50, new Codec() {
+      public Object streaming() throws Exception {
+        Response response = new JsonToBeanConverter().convert(Response.class,
+            new InputStreamReader(new ByteArrayInputStream(payload), Charsets.UTF_8));
+        assertEquals(ELEMENTS, ((List<?>) response.getValue()).size());
+        return response;
+      }
+
+      public Object tree() throws Exception {
+        JSONObject response = new JSONObject(new String(payload, Charsets.UTF_8));
+        return new JsonToBeanConverter().convert(Response.class, response);
+      }
+    });
+  }
+
+  @Test
+  public void writeCommands() throws Exception {
+    final List<Map<String, ?>> parameters = new ArrayList<Map<String, ?>>();
+    parameters.add(ImmutableMap.of("using", "css selector", "value", "#main .result > a"));
+    parameters.add(ImmutableMap.of("id", "{d3f0e7a4-33c5-4b6c-9f0e-5a4d0f8c7b21}",
+        "value", new String[] {"s", "e", "l", "e", "n", "i", "u", "m", "\n"}));
+    parameters.add(ImmutableMap.of(
+        "script", "return arguments[0].getAttribute(arguments[1]);",
+        "args", new Object[] {ImmutableMap.of("ELEMENT", "{d3f0e7a4}"), "href"}));
+
+    time(COMMANDS + " commands", 20, new Codec() {
+      public Object streaming() throws Exception {
+        long written = 0;
+        for (int i = 0; i < COMMANDS; i++) {
+          CountingStream out = new CountingStream();
+          Writer writer = new OutputStreamWriter(out, Charsets.UTF_8);
+          new BeanToJsonConverter().convert(parameters.get(i % parameters.size()), writer);
+          writer.close();
+          written += out.count;
+        }
+        return written;
+      }
+
+      public Object tree() throws Exception {
+        long written = 0;
+        for (int i = 0; i < COMMANDS; i++) {
+          Map<String, ?> command = parameters.get(i % parameters.size());
+          String json = new JSONObject(new BeanToJsonConverter().convert(command)).toString();
+          written += json.getBytes(Charsets.UTF_8).length;
+        }
+        return written;
+      }
+    });
+  }
+
+  private interface Codec {
+    Object streaming() throws Exception;
+
+    Object tree() throws Exception;
+  }
+
+  private void time(String payload, int rounds, Codec codec) throws Exception {
+    // warm up
+    for (int i = 0; i < 3; i++) {
+      codec.streaming();
+      codec.tree();
+    }
+
+    long streaming = 0;
+    long tree = 0;
+    for (int i = 0; i < rounds; i++) {
+      long start = System.nanoTime();
+      codec.streaming();
+      streaming += System.nanoTime() - start;
+
+      start = System.nanoTime();
+      codec.tree();
+      tree += System.nanoTime() - start;
+    }
+
+    log.info(String.format("%s : %.2f ms streaming, %.2f ms through org.json",
+        payload, streaming / 1000000.0 / rounds, tree / 1000000.0 / rounds));
+  }
+
+  private static byte[] response(Object value) throws Exception {
+    Response response = new Response(new SessionId("1350575216703"));
+    response.setValue(value);
+    return new BeanToJsonConverter().convert(response).getBytes(Charsets.UTF_8);
+  }
+
+  private static class CountingStream extends OutputStream {
+    private long count;
+
+    @Override
+    public void write(int b) {
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      count += len;
+    }
+  }
+}
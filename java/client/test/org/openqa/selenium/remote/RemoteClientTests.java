@@ -24,7 +24,10 @@ import org.openqa.selenium.remote.internal.CircularOutputStreamTest;
 
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
+    AddTakesScreenshotTest.class,
     AugmenterTest.class,
+    BatchExecutorTest.class,
+    RemoteWebElementTest.class,
     ErrorHandlerTest.class,
     CircularOutputStreamTest.class
 })
@@ -0,0 +1,148 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.openqa.selenium.remote;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openqa.selenium.WebDriverException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+public class RemoteWebElementTest {
+
+  private StubExecutor executor;
+  private File file;
+
+  @Before
+  public void createFile() throws IOException {
+    executor = new StubExecutor();
+    file = File.createTempFile("upload", ".txt");
+    Files.write("cheese", file, Charsets.UTF_8);
+  }
+
+  @After
+  public void deleteFile() {
+    file.delete();
+  }
+
+  @Test
+  public void sendsAFileUploadedBeforeInTheSessionByHash() {
+    RemoteWebDriver driver = new RemoteWebDriver(executor, new DesiredCapabilities());
+
+    element(driver).sendKeys(file.getAbsolutePath());
+    element(driver).sendKeys(file.getAbsolutePath());
+
+    assertEquals(2, executor.uploads.size());
+    assertTrue(executor.uploads.get(0).containsKey("file"));
+    assertTrue(executor.uploads.get(1).containsKey("sha1"));
+  }
+
+  @Test
+  public void sendsTheWholeFileInAnotherSession() {
+    element(new RemoteWebDriver(executor, new DesiredCapabilities()))
+        .sendKeys(file.getAbsolutePath());
+    element(new RemoteWebDriver(executor, new DesiredCapabilities()))
+        .sendKeys(file.getAbsolutePath());
+
+    assertEquals(2, executor.uploads.size());
+    assertTrue(executor.uploads.get(0).containsKey("file"));
+    assertTrue(executor.uploads.get(1).containsKey("file"));
+  }
+
+  @Test
+  public void sendsTheWholeFileWhenTheServerHasNoFileWithTheHash() {
+    RemoteWebDriver driver = new RemoteWebDriver(executor, new DesiredCapabilities());
+    element(driver).sendKeys(file.getAbsolutePath());
+
+    executor.failUploadsByHashWith(RemoteWebElement.UNKNOWN_UPLOAD + "1234 on this server");
+    element(driver).sendKeys(file.getAbsolutePath());
+
+    assertEquals(3, executor.uploads.size());
+    assertTrue(executor.uploads.get(1).containsKey("sha1"));
+    assertTrue(executor.uploads.get(2).containsKey("file"));
+  }
+
+  @Test
+  public void doesNotSendTheWholeFileWhenTheUploadByHashFailsOtherwise() {
+    RemoteWebDriver driver = new RemoteWebDriver(executor, new DesiredCapabilities());
+    element(driver).sendKeys(file.getAbsolutePath());
+
+    executor.failUploadsByHashWith("The session is gone");
+    try {
+      element(driver).sendKeys(file.getAbsolutePath());
+      fail("Expected a WebDriverException");
+    } catch (WebDriverException e) {
+      assertTrue(e.getMessage().contains("The session is gone"));
+    }
+
+    assertEquals(2, executor.uploads.size());
+  }
+
+  private static RemoteWebElement element(RemoteWebDriver driver) {
+    RemoteWebElement element = new RemoteWebElement();
+    element.setParent(driver);
+    element.setId("1");
+    element.setFileDetector(new LocalFileDetector());
+    return element;
+  }
+
+  private static class StubExecutor implements CommandExecutor {
+    private final List<Map<String, ?>> uploads = Lists.newArrayList();
+    private String failureByHash;
+
+    void failUploadsByHashWith(String message) {
+      failureByHash = message;
+    }
+
+    public Response execute(Command command) {
+      Response response = new Response(new SessionId("foo"));
+      response.setStatus(ErrorCodes.SUCCESS);
+      if (DriverCommand.NEW_SESSION.equals(command.getName())) {
+        response.setValue(new DesiredCapabilities().asMap());
+      } else if (DriverCommand.UPLOAD_FILE.equals(command.getName())) {
+        uploads.add(command.getParameters());
+        if (failureByHash != null && command.getParameters().containsKey("sha1")) {
+          response.setStatus(ErrorCodes.UNHANDLED_ERROR);
+          response.setValue(ImmutableMap.of("message", failureByHash));
+        } else {
+          response.setValue("/tmp/upload/" + file(command));
+        }
+      }
+      return response;
+    }
+
+    private static String file(Command command) {
+      Object name = command.getParameters().get("name");
+      return name == null ? "upload.txt" : name.toString();
+    }
+  }
+}
@@ -16,15 +16,22 @@ limitations under the License.
 
 package org.openqa.selenium.support.ui;
 
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
 
+import org.openqa.selenium.By;
+import org.openqa.selenium.JavascriptExecutor;
 import org.openqa.selenium.testing.MockTestBase;
 import org.openqa.selenium.NoSuchElementException;
 import org.openqa.selenium.NoSuchFrameException;
 import org.openqa.selenium.NoSuchWindowException;
 import org.openqa.selenium.TimeoutException;
 import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
 import org.openqa.selenium.WebElement;
 
 import org.jmock.Expectations;
@@ -105,6 +112,110 @@ public class WebDriverWaitTest extends MockTestBase {
     wait.until(condition);
   }
 
+  @Test
+  public void shouldWaitInTheBrowserBetweenEvaluations() {
+    final JavascriptDriver driver = mock(JavascriptDriver.class);
+    final WebElement element = mock(WebElement.class);
+    checking(new Expectations() {{
+      one(driver).findElement(By.id("foo"));
+      will(throwException(new NoSuchElementException("foo")));
+      one(driver).executeAsyncScript(with(any(String.class)),
+          with(equal(new Object[] {"presence", "id", "foo", null, null, null, 5000L})));
+      will(returnValue(false));
+      one(driver).findElement(By.id("foo"));
+      will(throwException(new NoSuchElementException("foo")));
+      one(driver).executeAsyncScript(with(any(String.class)), with(any(Object[].class)));
+      will(returnValue(true));
+      one(driver).findElement(By.id("foo"));
+      will(returnValue(element));
+    }});
+
+    TickingClock clock = new TickingClock(500);
+    WebDriverWait wait = new WebDriverWait(driver, clock, clock, 5, 500);
+    wait.waitingInBrowser(10, SECONDS);
+    assertSame(element, wait.until(ExpectedConditions.presenceOfElementLocated(By.id("foo"))));
+    assertEquals(0, clock.now());
+  }
+
+  @Test
+  public void shouldSleepOnceWhenTheBrowserSaysTheConditionIsMetButItIsNot() {
+    final JavascriptDriver driver = mock(JavascriptDriver.class);
+    final WebElement element = mock(WebElement.class);
+    checking(new Expectations() {{
+      one(driver).findElement(By.id("foo"));
+      will(throwException(new NoSuchElementException("foo")));
+      one(driver).executeAsyncScript(with(any(String.class)), with(any(Object[].class)));
+      will(returnValue(true));
+      exactly(2).of(driver).findElement(By.id("foo"));
+      will(throwException(new NoSuchElementException("foo")));
+      one(driver).executeAsyncScript(with(any(String.class)), with(any(Object[].class)));
+      will(returnValue(true));
+      one(driver).findElement(By.id("foo"));
+      will(returnValue(element));
+    }});
+
+    TickingClock clock = new TickingClock(500);
+    WebDriverWait wait = new WebDriverWait(driver, clock, clock, 5, 500);
+    wait.waitingInBrowser(10, SECONDS);
+    assertSame(element, wait.until(ExpectedConditions.presenceOfElementLocated(By.id("foo"))));
+    assertEquals(500, clock.now());
+  }
+
+  @Test
+  public void shouldPollWhenTheBrowserCannotRunTheScript() {
+    final JavascriptDriver driver = mock(JavascriptDriver.class);
+    final WebElement element = mock(WebElement.class);
+    checking(new Expectations() {{
+      exactly(3).of(driver).findElement(By.id("foo"));
+      will(throwException(new NoSuchElementException("foo")));
+      exactly(2).of(driver).executeAsyncScript(with(any(String.class)),
+          with(any(Object[].class)));
+      will(throwException(new WebDriverException("executeAsyncScript")));
+      one(driver).findElement(By.id("foo"));
+      will(returnValue(element));
+    }});
+
+    TickingClock clock = new TickingClock(500);
+    WebDriverWait wait = new WebDriverWait(driver, clock, clock, 5, 500);
+    wait.waitingInBrowser(10, SECONDS);
+    assertSame(element, wait.until(ExpectedConditions.presenceOfElementLocated(By.id("foo"))));
+    assertEquals(1500, clock.now());
+  }
+
+  @Test
+  public void shouldPollConditionsTheBrowserCannotWatchFor() {
+    final JavascriptDriver driver = mock(JavascriptDriver.class);
+    final WebElement element = mock(WebElement.class);
+    checking(new Expectations() {{
+      one(driver).findElement(By.linkText("foo"));
+      will(throwException(new NoSuchElementException("foo")));
+      one(driver).findElement(By.linkText("foo"));
+      will(returnValue(element));
+    }});
+
+    TickingClock clock = new TickingClock(500);
+    WebDriverWait wait = new WebDriverWait(driver, clock, clock, 5, 500);
+    wait.waitingInBrowser(10, SECONDS);
+    assertSame(element,
+        wait.until(ExpectedConditions.presenceOfElementLocated(By.linkText("foo"))));
+    assertEquals(500, clock.now());
+  }
+
+  @Test
+  public void shouldDescribeTheConditionToTheBrowser() {
+    assertArrayEquals(new Object[] {"text", "css selector", "#foo > p", null, "bar", null},
+        ((InBrowserCondition<?>) ExpectedConditions.textToBePresentInElement(
+            By.cssSelector("#foo > p"), "bar")).getScriptArguments());
+    assertArrayEquals(new Object[] {"attribute", "xpath", "//p[@id='foo']", null, "bar", "title"},
+        ((InBrowserCondition<?>) ExpectedConditions.attributeToBe(
+            By.xpath("//p[@id='foo']"), "title", "bar")).getScriptArguments());
+    assertNull(((InBrowserCondition<?>) ExpectedConditions.visibilityOfElementLocated(
+        By.partialLinkText("foo"))).getScriptArguments());
+  }
+
+  public interface JavascriptDriver extends WebDriver, JavascriptExecutor {
+  }
+
   private static class FalseExpectation implements ExpectedCondition<Boolean> {
     public Boolean apply(WebDriver driver) {
       return false;
@@ -21,45 +21,88 @@ import net.jcip.annotations.ThreadSafe;
 import org.openqa.grid.common.exception.GridException;
 
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Logger;
 
 /**
  * The set of active test sessions.
+ *
+ * Sessions are indexed by internal and external key, so that finding the session a command belongs
+ * to doesn't depend on the number of sessions running on the hub. The external key is only known
+ * once the remote has answered the new session request: the session tells the set it belongs to
+ * when its key is set, and the index is updated then.
  */
 @ThreadSafe
 class ActiveTestSessions {
 
   private static final Logger log = Logger.getLogger(ActiveTestSessions.class.getName());
 
-  private final Set<TestSession> activeTestSessions = new CopyOnWriteArraySet<TestSession>();
+  static final int MAX_TERMINATED_SESSIONS = 1000;
 
-  private final
-  Queue<ExternalSessionKey>
-      terminatedSessions =
-      new ConcurrentLinkedQueue<ExternalSessionKey>();
-  private final
-  Map<ExternalSessionKey, SessionTerminationReason>
-      reasons =
-      new ConcurrentHashMap<ExternalSessionKey, SessionTerminationReason>();
+  private final Map<String, TestSession> sessionsByInternalKey =
+      new ConcurrentHashMap<String, TestSession>();
+  private final ConcurrentMap<ExternalSessionKey, TestSession> sessionsByExternalKey =
+      new ConcurrentHashMap<ExternalSessionKey, TestSession>();
+  // Orders the changes of the external key index, the lookups don't take it.
+  private final Object indexLock = new Object();
+  private final Set<TestSession> activeTestSessions =
+      Collections.newSetFromMap(new ConcurrentHashMap<TestSession, Boolean>());
+
+  private final Map<ExternalSessionKey, SessionTerminationReason> reasons =
+      Collections.synchronizedMap(new TerminatedSessions(MAX_TERMINATED_SESSIONS));
 
 
   public boolean add(TestSession testSession) {
-    final boolean added = activeTestSessions.add(testSession);
-    if (!added) {
-      log.severe("Error adding session : " + testSession);
+    synchronized (indexLock) {
+      final boolean added = activeTestSessions.add(testSession);
+      if (!added) {
+        log.severe("Error adding session : " + testSession);
+        return false;
+      }
+      sessionsByInternalKey.put(testSession.getInternalKey(), testSession);
+      testSession.setActiveTestSessions(this);
+      ExternalSessionKey externalKey = testSession.getExternalKey();
+      if (externalKey != null) {
+        sessionsByExternalKey.put(externalKey, testSession);
+      }
+      return true;
     }
-    return added;
   }
 
   public boolean remove(TestSession o, SessionTerminationReason reason) {
     updateReason(o, reason);
-    return activeTestSessions.remove(o);
+    synchronized (indexLock) {
+      sessionsByInternalKey.remove(o.getInternalKey());
+      o.setActiveTestSessions(null);
+      ExternalSessionKey externalKey = o.getExternalKey();
+      if (externalKey != null) {
+        sessionsByExternalKey.remove(externalKey, o);
+      }
+      return activeTestSessions.remove(o);
+    }
+  }
+
+  /**
+   * Called by a session of this set once its external key has been changed.
+   *
+   * @param session the session
+   * @param previousKey the key the session had before, null if none
+   */
+  void externalKeyChanged(TestSession session, ExternalSessionKey previousKey) {
+    synchronized (indexLock) {
+      // the session may have been removed with its new key already.
+      if (previousKey != null) {
+        sessionsByExternalKey.remove(previousKey, session);
+      }
+      ExternalSessionKey externalKey = session.getExternalKey();
+      if (externalKey != null && activeTestSessions.contains(session)) {
+        sessionsByExternalKey.put(externalKey, session);
+      }
+    }
   }
 
   private void updateReason(TestSession o, SessionTerminationReason reason) {
@@ -72,38 +115,29 @@ class ActiveTestSessions {
       return;
     }
 
-    terminatedSessions.add(o.getExternalKey());
     reasons.put(o.getExternalKey(), reason);
-    if (reasons.size() > 1000) {
-      ExternalSessionKey remove = terminatedSessions.remove();
-      reasons.remove(remove);
-    }
   }
 
   public TestSession findSessionByInternalKey(String internalKey) {
     if (internalKey == null) {
       return null;
     }
-
-    for (TestSession session : activeTestSessions) {
-      if (internalKey.equals(session.getInternalKey())) {
-        return session;
-      }
-    }
-    return null;
+    return sessionsByInternalKey.get(internalKey);
   }
 
   public TestSession getExistingSession(ExternalSessionKey externalkey) {
     TestSession sessionByExternalKey = findSessionByExternalKey(externalkey);
     if (sessionByExternalKey == null) {
-      SessionTerminationReason sessionTerminationReason = reasons.get(externalkey);
+      SessionTerminationReason sessionTerminationReason =
+          externalkey != null ? reasons.get(externalkey) : null;
       String keyId = externalkey != null ? externalkey.getKey() : "(null externalkey)";
       if (sessionTerminationReason != null) {
           String msg = "Session [" + keyId + "] was terminated due to " + sessionTerminationReason;
           log.fine(msg);
           throw new GridException(msg);
       } else {
-          String msg = "Session [" + keyId + "] not available and is not among the last 1000 terminated sessions.\n"
+          String msg = "Session [" + keyId + "] not available and is not among the last "
+                  + MAX_TERMINATED_SESSIONS + " terminated sessions.\n"
                   + "Active sessions are" + this.unmodifiableSet();
           log.fine(msg);
           throw new GridException(msg);
@@ -117,10 +151,10 @@ class ActiveTestSessions {
       return null;
     }
 
-    for (TestSession session : activeTestSessions) {
-      if (externalkey.equals(session.getExternalKey())) {
-        return session;
-      }
+    TestSession session = sessionsByExternalKey.get(externalkey);
+    // the index is updated after the key of the session, make sure it isn't ahead of it.
+    if (session != null && externalkey.equals(session.getExternalKey())) {
+      return session;
     }
     return null;
   }
@@ -129,4 +163,25 @@ class ActiveTestSessions {
     return Collections.unmodifiableSet(activeTestSessions);
   }
 
+  /**
+   * The reasons the last sessions were terminated for, evicting the least recently accessed one
+   * when full.
+   */
+  private static class TerminatedSessions
+      extends LinkedHashMap<ExternalSessionKey, SessionTerminationReason> {
+
+    private final int maxSize;
+
+    TerminatedSessions(int maxSize) {
+      super(16, 0.75f, true);
+      this.maxSize = maxSize;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(
+        Map.Entry<ExternalSessionKey, SessionTerminationReason> eldest) {
+      return size() > maxSize;
+    }
+  }
+
 }
@@ -43,6 +43,8 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.security.InvalidParameterException;
 import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -74,7 +76,8 @@ public class BaseRemoteProxy implements RemoteProxy {
   private final String id;
 
   private volatile boolean stop = false;
-  private CleanUpThread cleanUpThread;
+  private CleanUpTask cleanUpTask;
+  private volatile ScheduledFuture<?> cleanUpSchedule;
 
 
   public List<TestSlot> getTestSlots() {
@@ -203,13 +206,19 @@ public class BaseRemoteProxy implements RemoteProxy {
   }
 
   public void setupTimeoutListener() {
-    cleanUpThread = null;
+    cleanUpTask = null;
+    if (cleanUpSchedule != null) {
+      cleanUpSchedule.cancel(false);
+    }
     if (this instanceof TimeoutListener) {
       if (cleanUpCycle > 0 && timeOutMs > 0) {
-        log.fine("starting cleanup thread");
-        cleanUpThread = new CleanUpThread(this);
-        new Thread(cleanUpThread, "RemoteProxy CleanUpThread")
-            .start(); // Thread safety reviewed (hopefully ;)
+        log.fine("scheduling cleanup task");
+        cleanUpTask = new CleanUpTask(this);
+        try {
+          cleanUpSchedule = registry.scheduleCleanUp(cleanUpTask, cleanUpCycle);
+        } catch (RejectedExecutionException e) {
+          log.warning("registry stopped, not scheduling the clean up of " + this);
+        }
       }
     }
   }
@@ -243,33 +252,32 @@ public class BaseRemoteProxy implements RemoteProxy {
 
   public void teardown() {
     stop = true;
+    ScheduledFuture<?> schedule = cleanUpSchedule;
+    if (schedule != null) {
+      schedule.cancel(false);
+    }
   }
 
   /**
    * Internal use only
    */
   public void forceSlotCleanerRun() {
-    cleanUpThread.cleanUpAllSlots();
+    cleanUpTask.cleanUpAllSlots();
   }
 
-  class CleanUpThread implements Runnable {
+  /**
+   * checks the slots of the proxy for timed out sessions. Run every cleanUpCycle by the registry.
+   */
+  class CleanUpTask implements Runnable {
 
     private BaseRemoteProxy proxy;
 
-    public CleanUpThread(BaseRemoteProxy proxy) {
+    public CleanUpTask(BaseRemoteProxy proxy) {
       this.proxy = proxy;
     }
 
     public void run() {
-
-      log.fine("cleanup thread starting...");
-      while (!proxy.stop) {
-        try {
-          Thread.sleep(cleanUpCycle);
-        } catch (InterruptedException e) {
-          log.severe("clean up thread died. " + e.getMessage());
-        }
-
+      if (!proxy.stop) {
         cleanUpAllSlots();
       }
     }
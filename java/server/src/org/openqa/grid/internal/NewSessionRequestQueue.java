@@ -22,16 +22,16 @@ import com.google.common.base.Predicate;
 import net.jcip.annotations.ThreadSafe;
 
 import org.openqa.grid.internal.listeners.Prioritizer;
+import org.openqa.grid.internal.utils.NewSessionScheduler;
 import org.openqa.grid.web.servlet.handler.RequestHandler;
 import org.openqa.selenium.remote.DesiredCapabilities;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
-import java.util.logging.Logger;
 
 /**
- * The queue of all incoming "new session" requests to the grid.
+ * The queue of all incoming "new session" requests to the grid. The order in which they are served
+ * is decided by the {@link NewSessionScheduler}.
  *
  * Currently still uses the readerwriterlock/condition model that is used in the
  * Registry and is tightly coupled to the registry
@@ -39,17 +39,18 @@ import java.util.logging.Logger;
 @ThreadSafe
 class NewSessionRequestQueue {
 
-  private static final Logger log = Logger.getLogger(NewSessionRequestQueue.class.getName());
-
-  private final List<RequestHandler> newSessionRequests = new ArrayList<RequestHandler>();
+  private final NewSessionScheduler scheduler;
 
+  NewSessionRequestQueue(NewSessionScheduler scheduler) {
+    this.scheduler = scheduler;
+  }
 
   /**
    * Adds a requesthandler to this queue
    * @param request the RequestHandler to add
    */
   public synchronized void add(RequestHandler request) {
-    newSessionRequests.add(request);
+    scheduler.add(request);
   }
 
   /**
@@ -61,43 +62,31 @@ class NewSessionRequestQueue {
 
   public synchronized void processQueue(Predicate<RequestHandler> handlerConsumer,
                                         Prioritizer prioritizer) {
+    scheduler.process(handlerConsumer, prioritizer);
+  }
 
-    final List<RequestHandler> copy;
-    if (prioritizer != null) {
-      copy = new ArrayList<RequestHandler>(newSessionRequests);
-      Collections.sort(copy);
-    } else {
-      copy = newSessionRequests;
-    }
-
-    List<RequestHandler> matched = new ArrayList<RequestHandler>();
-    for (RequestHandler request : copy) {
-      if (handlerConsumer.apply(request)) {
-        matched.add(request);
-      }
-    }
-    for (RequestHandler req : matched) {
-      boolean ok = removeNewSessionRequest(req);
-      if (!ok) {
-        log.severe("Bug removing request " + req);
-      }
-    }
+  /**
+   * Tells the scheduler a session has ended, so the tenant it was started for has a slot less.
+   * @param session the session released
+   */
+  public synchronized void sessionEnded(TestSession session) {
+    scheduler.sessionEnded(session);
   }
 
   /**
    * clear the entire list of requests
    */
   public synchronized void clearNewSessionRequests() {
-    newSessionRequests.clear();
+    scheduler.clear();
   }
 
   /**
    * Remove a specific request
    * @param request The request to remove
-   * @return A boolean result from doing a newSessionRequest.remove(request).
+   * @return true if that request was in the queue.
    */
   public synchronized boolean removeNewSessionRequest(RequestHandler request) {
-    return newSessionRequests.remove(request);
+    return scheduler.remove(request);
   }
 
   /**
@@ -107,7 +96,7 @@ class NewSessionRequestQueue {
    */
   public synchronized Iterable<DesiredCapabilities> getDesiredCapabilities() {
     List<DesiredCapabilities> result = new ArrayList<DesiredCapabilities>();
-    for (RequestHandler req : newSessionRequests) {
+    for (RequestHandler req : scheduler.getRequests()) {
       result.add(new DesiredCapabilities(req.getRequest().getDesiredCapabilities()));
     }
     return result;
@@ -118,11 +107,11 @@ class NewSessionRequestQueue {
    * @return the size of the queue
    */
   public synchronized int getNewSessionRequestCount() {
-    return newSessionRequests.size();
+    return scheduler.size();
   }
 
   public synchronized void stop(){
-    for (RequestHandler newSessionRequest : newSessionRequests) {
+    for (RequestHandler newSessionRequest : scheduler.getRequests()) {
       newSessionRequest.stop();
     }
   }
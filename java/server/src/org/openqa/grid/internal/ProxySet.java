@@ -24,22 +24,57 @@ import org.openqa.grid.common.exception.GridException;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 /**
  * A set of RemoteProxies.
  *
- * Obeys the iteration guarantees of CopyOnWriteArraySet
+ * The proxies are indexed by id, and iterated in registration order. The iterations are weakly
+ * consistent : they never throw ConcurrentModificationException, and may or may not see the
+ * proxies added or removed while iterating.
+ *
+ * The proxies able to host a given capability are indexed by the requested capability map, so
+ * that matching a queued request only visits the nodes that can run it. As
+ * {@link RemoteProxy#hasCapability(Map)} doesn't depend on the current load of the node, the
+ * index only needs to be invalidated when a proxy is added or removed. Each entry of the index is
+ * kept sorted from the less busy to the more busy proxy, by
+ * {@link RemoteProxy#getResourceUsageInPercent()}, and the proxies registered first win the ties.
+ * The order is updated when a session is created on a proxy, and when the registry releases a
+ * slot, so that finding the proxy for a new session doesn't need to sort the candidates.
+ *
+ * That order is the one of {@link BaseRemoteProxy#compareTo(RemoteProxy)}. While a proxy with its
+ * own compareTo is registered, the candidates are sorted with compareTo for each new session
+ * instead.
  */
 @ThreadSafe
 public class ProxySet implements Iterable<RemoteProxy> {
 
-  private final Set<RemoteProxy> proxies = new CopyOnWriteArraySet<RemoteProxy>();
+  // above that, the index is likely to be filled with one-off capabilities ( _priority etc )
+  private static final int MAX_INDEXED_CAPABILITIES = 1024;
+  // keyed by the proxies themselves, as equals also compares the classes of the proxies.
+  private final ConcurrentMap<RemoteProxy, Entry> proxies =
+      new ConcurrentHashMap<RemoteProxy, Entry>();
+  // the first registered proxy for each id.
+  private final ConcurrentMap<String, Entry> proxiesById = new ConcurrentHashMap<String, Entry>();
+  private final ConcurrentSkipListMap<Long, RemoteProxy> proxiesInRegistrationOrder =
+      new ConcurrentSkipListMap<Long, RemoteProxy>();
+  private final AtomicLong registrations = new AtomicLong();
+  private final Map<Map<String, Object>, NavigableSet<Load>> capableProxies =
+      new ConcurrentHashMap<Map<String, Object>, NavigableSet<Load>>();
+  private final AtomicInteger generation = new AtomicInteger();
+  private final AtomicInteger customOrderedProxies = new AtomicInteger();
 
   private static final Logger log = Logger.getLogger(ProxySet.class.getName());
   private volatile boolean throwOnCapabilityNotPresent = true;
@@ -52,18 +87,52 @@ public class ProxySet implements Iterable<RemoteProxy> {
    * killing the timeout detection threads.
    */
   public void teardown() {
-    for (RemoteProxy proxy : proxies) {
+    for (RemoteProxy proxy : this) {
       proxy.teardown();
     }
   }
 
   public boolean hasCapability(Map<String, Object> requestedCapability) {
-    for (RemoteProxy proxy : proxies) {
-      if (proxy.hasCapability(requestedCapability)) {
-        return true;
+    return !getCapableProxies(requestedCapability).isEmpty();
+  }
+
+  /**
+   * @param requestedCapability the capability a test is requesting
+   * @return the proxies that can host that capability at some point, from the less busy to the
+   *         more busy. Computed once per distinct capability and proxy set.
+   */
+  List<RemoteProxy> getCapableProxies(Map<String, Object> requestedCapability) {
+    List<RemoteProxy> res = new ArrayList<RemoteProxy>();
+    for (Load load : getCapableLoads(requestedCapability)) {
+      res.add(load.entry.proxy);
+    }
+    return res;
+  }
+
+  private NavigableSet<Load> getCapableLoads(Map<String, Object> requestedCapability) {
+    NavigableSet<Load> capable = capableProxies.get(requestedCapability);
+    if (capable != null) {
+      return capable;
+    }
+
+    int current = generation.get();
+    capable = new ConcurrentSkipListSet<Load>(LESS_BUSY_FIRST);
+    for (Entry entry : proxies.values()) {
+      if (entry.proxy.hasCapability(requestedCapability)) {
+        capable.add(entry.load);
       }
     }
-    return false;
+
+    if (capableProxies.size() >= MAX_INDEXED_CAPABILITIES) {
+      capableProxies.clear();
+    }
+    // copy the key, the requested capability map belongs to the request and isn't immutable.
+    capableProxies.put(new HashMap<String, Object>(requestedCapability), capable);
+    if (generation.get() != current) {
+      // a proxy was added or removed while computing, don't trust that result for later.
+      capableProxies.remove(requestedCapability);
+    }
+    return capable;
   }
 
   /**
@@ -75,26 +144,76 @@ public class ProxySet implements Iterable<RemoteProxy> {
     // Find the original proxy. While the supplied one is logically equivalent, it may be a fresh object with
     // an empty TestSlot list, which doesn't figure into the proxy equivalence check.  Since we want to free up
     // those test sessions, we need to operate on that original object.
-    for (RemoteProxy p : proxies) {
-      if (p.equals(proxy)) {
-        proxies.remove(p);
-        return p;
+    Entry entry = proxies.get(proxy);
+    if (entry != null && proxies.remove(proxy, entry)) {
+      proxiesInRegistrationOrder.remove(entry.registration);
+      if (entry.customOrder) {
+        customOrderedProxies.decrementAndGet();
       }
+      String id = entry.proxy.getId();
+      if (id != null && proxiesById.remove(id, entry)) {
+        // another proxy of a different class can be registered with the same id.
+        for (Entry other : proxies.values()) {
+          if (id.equals(other.proxy.getId())) {
+            proxiesById.putIfAbsent(id, other);
+            break;
+          }
+        }
+      }
+      invalidateCapabilityIndex();
+      return entry.proxy;
     }
     throw new IllegalStateException("Did not contain proxy" + proxy);
   }
 
   public void add(RemoteProxy proxy) {
-    proxies.add(proxy);
+    Entry entry = new Entry(proxy, registrations.incrementAndGet());
+    if (proxies.putIfAbsent(proxy, entry) == null) {
+      proxiesInRegistrationOrder.put(entry.registration, proxy);
+      if (entry.customOrder) {
+        customOrderedProxies.incrementAndGet();
+      }
+      if (proxy.getId() != null) {
+        proxiesById.putIfAbsent(proxy.getId(), entry);
+      }
+      invalidateCapabilityIndex();
+    }
+  }
+
+  private void invalidateCapabilityIndex() {
+    generation.incrementAndGet();
+    capableProxies.clear();
+  }
+
+  /**
+   * moves the proxy to its new place in the load ordering, after one of its slots has been taken
+   * or released.
+   */
+  void updateLoad(RemoteProxy proxy) {
+    Entry entry = proxies.get(proxy);
+    if (entry == null || entry.proxy != proxy) {
+      return;
+    }
+    Load previous = entry.load;
+    Load load = new Load(entry, proxy.getResourceUsageInPercent());
+    if (load.usage == previous.usage) {
+      return;
+    }
+    entry.load = load;
+    for (NavigableSet<Load> capable : capableProxies.values()) {
+      if (capable.remove(previous)) {
+        capable.add(load);
+      }
+    }
   }
 
   public boolean contains(RemoteProxy o) {
-    return proxies.contains(o);
+    return o != null && proxies.containsKey(o);
   }
 
   public List<RemoteProxy> getBusyProxies() {
     List<RemoteProxy> res = new ArrayList<RemoteProxy>();
-    for (RemoteProxy proxy : proxies) {
+    for (RemoteProxy proxy : this) {
       if (proxy.isBusy()) {
         res.add(proxy);
       }
@@ -106,12 +225,8 @@ public class ProxySet implements Iterable<RemoteProxy> {
     if (id == null) {
       return null;
     }
-    for (RemoteProxy p : proxies) {
-      if (id.equals(p.getId())) {
-        return p;
-      }
-    }
-    return null;
+    Entry entry = proxiesById.get(id);
+    return entry == null ? null : entry.proxy;
   }
 
 
@@ -119,21 +234,36 @@ public class ProxySet implements Iterable<RemoteProxy> {
     return proxies.isEmpty();
   }
 
-  private List<RemoteProxy> getSorted() {
-    List<RemoteProxy> sorted = new ArrayList<RemoteProxy>(proxies);
-    Collections.sort(sorted);
-    return sorted;
-  }
-
   public TestSession getNewSession(Map<String, Object> desiredCapabilities) {
-    // sort the proxies first, by default by total number of
-    // test running, to avoid putting all the load of the first
-    // proxies.
-    List<RemoteProxy> sorted = getSorted();
+    if (customOrderedProxies.get() > 0) {
+      return getNewSessionSortedByProxies(desiredCapabilities);
+    }
+    NavigableSet<Load> candidates = getCapableLoads(desiredCapabilities);
+    // the candidates are sorted by load, to avoid putting all the load on the first proxies.
+    for (Load load : candidates) {
+      Entry entry = load.entry;
+      if (load != entry.load) {
+        // the load changed while the ordering was being built, put it back in place.
+        candidates.remove(load);
+        candidates.add(entry.load);
+        continue;
+      }
+      TestSession session = entry.proxy.getNewSession(desiredCapabilities);
+      if (session != null) {
+        updateLoad(entry.proxy);
+        return session;
+      }
+    }
+    return null;
+  }
 
+  private TestSession getNewSessionSortedByProxies(Map<String, Object> desiredCapabilities) {
+    List<RemoteProxy> sorted = getCapableProxies(desiredCapabilities);
+    Collections.sort(sorted);
     for (RemoteProxy proxy : sorted) {
       TestSession session = proxy.getNewSession(desiredCapabilities);
       if (session != null) {
+        updateLoad(proxy);
         return session;
       }
     }
@@ -141,7 +271,7 @@ public class ProxySet implements Iterable<RemoteProxy> {
   }
 
   public Iterator<RemoteProxy> iterator() {
-    return proxies.iterator();
+    return proxiesInRegistrationOrder.values().iterator();
   }
 
   public int size() {
@@ -149,7 +279,7 @@ public class ProxySet implements Iterable<RemoteProxy> {
   }
 
   public void verifyAbilityToHandleDesiredCapabilities(Map<String, Object> desiredCapabilities) {
-    if (proxies.isEmpty()) {
+    if (isEmpty()) {
       if (throwOnCapabilityNotPresent) {
         throw new GridException("Empty pool of VM for setup " + desiredCapabilities);
       } else {
@@ -171,4 +301,51 @@ public class ProxySet implements Iterable<RemoteProxy> {
   public void setThrowOnCapabilityNotPresent(boolean throwOnCapabilityNotPresent) {
     this.throwOnCapabilityNotPresent = throwOnCapabilityNotPresent;
   }
+
+  private static class Entry {
+    private final RemoteProxy proxy;
+    private final long registration;
+    private final boolean customOrder;
+    private volatile Load load;
+
+    Entry(RemoteProxy proxy, long registration) {
+      this.proxy = proxy;
+      this.registration = registration;
+      this.customOrder = overridesCompareTo(proxy.getClass());
+      this.load = new Load(this, proxy.getResourceUsageInPercent());
+    }
+  }
+
+  /**
+   * the load of a proxy at some point in time. Immutable, replaced when the load changes.
+   */
+  private static class Load {
+    private final Entry entry;
+    private final float usage;
+
+    Load(Entry entry, float usage) {
+      this.entry = entry;
+      this.usage = usage;
+    }
+  }
+
+  private static boolean overridesCompareTo(Class<?> proxyClass) {
+    try {
+      return proxyClass.getMethod("compareTo", RemoteProxy.class).getDeclaringClass()
+          != BaseRemoteProxy.class;
+    } catch (NoSuchMethodException e) {
+      return true;
+    }
+  }
+
+  private static final Comparator<Load> LESS_BUSY_FIRST = new Comparator<Load>() {
+    public int compare(Load a, Load b) {
+      int res = Float.compare(a.usage, b.usage);
+      if (res != 0) {
+        return res;
+      }
+      return a.entry.registration < b.entry.registration ? -1
+          : (a.entry.registration == b.entry.registration ? 0 : 1);
+    }
+  };
 }
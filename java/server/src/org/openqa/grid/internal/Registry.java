@@ -18,23 +18,38 @@ limitations under the License.
 package org.openqa.grid.internal;
 
 import com.google.common.base.Predicate;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import net.jcip.annotations.ThreadSafe;
 
+import org.apache.http.HttpHost;
+import org.openqa.grid.common.exception.GridException;
 import org.openqa.grid.internal.listeners.Prioritizer;
 import org.openqa.grid.internal.listeners.RegistrationListener;
 import org.openqa.grid.internal.listeners.SelfHealingProxy;
 import org.openqa.grid.internal.utils.CapabilityMatcher;
 import org.openqa.grid.internal.utils.GridHubConfiguration;
+import org.openqa.grid.internal.utils.HubMetrics;
 import org.openqa.grid.web.Hub;
 import org.openqa.grid.web.servlet.handler.RequestHandler;
 import org.openqa.selenium.remote.DesiredCapabilities;
 import org.openqa.selenium.remote.internal.HttpClientFactory;
 import org.openqa.selenium.server.log.LoggingManager;
+import org.seleniumhq.jetty7.client.HttpClient;
+import org.seleniumhq.jetty7.util.thread.QueuedThreadPool;
 
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
@@ -49,11 +64,24 @@ import java.util.logging.Logger;
 public class Registry {
 
   public static final String KEY = Registry.class.getName();
+  private static final int ASYNC_CLIENT_THREADS = 16;
+  private static final int CLIENT_WRITER_THREADS = 8;
+  private static final int RELEASE_THREADS = 8;
+  // above that, the threads terminating the sessions release them themselves.
+  private static final int MAX_RELEASE_BACKLOG = 1000;
+  private static final int CLEANUP_THREADS = 4;
   private static final Logger log = Logger.getLogger(Registry.class.getName());
 
+  private final HubMetrics metrics = new HubMetrics();
   // lock for anything modifying the tests session currently running on this
   // registry.
-  private final ReentrantLock lock = new ReentrantLock();
+  private final MeasuredLock lock = new MeasuredLock(metrics);
+  private final SessionReleaser releaser =
+      new SessionReleaser(this, metrics, RELEASE_THREADS, MAX_RELEASE_BACKLOG);
+  // runs the timeout checks of the proxies.
+  private final ScheduledExecutorService cleanUpExecutor = Executors.newScheduledThreadPool(
+      CLEANUP_THREADS,
+      new ThreadFactoryBuilder().setNameFormat("RemoteProxy CleanUp %d").setDaemon(true).build());
   private final Condition testSessionAvailable = lock.newCondition();
   private final ProxySet proxies;
   private final ActiveTestSessions activeTestSessions = new ActiveTestSessions();
@@ -63,6 +91,10 @@ public class Registry {
   private final Matcher matcherThread = new Matcher();
   private final List<RemoteProxy> registeringProxies = new CopyOnWriteArrayList<RemoteProxy>();
   private final CapabilityMatcher capabilityMatcher;
+  // non blocking client used to forward the commands when the hub is configured for it.
+  private HttpClient asyncHttpClient;
+  // write the responses of the asynchronous client to the clients.
+  private ExecutorService clientWriters;
 
   private volatile boolean stop = false;
   // The following three variables need to be volatile because we expose a public setters
@@ -75,7 +107,7 @@ public class Registry {
     this.capabilityMatcher = config.getCapabilityMatcher();
     this.newSessionWaitTimeout = config.getNewSessionWaitTimeout();
     this.prioritizer = config.getPrioritizer();
-    this.newSessionQueue = new NewSessionRequestQueue();
+    this.newSessionQueue = new NewSessionRequestQueue(config.createNewSessionScheduler());
     this.configuration = config;
     this.httpClientFactory = new HttpClientFactory();
     proxies = new ProxySet(config.isThrowOnCapabilityNotPresent());
@@ -122,19 +154,23 @@ public class Registry {
 
   /**
    * Ends this test session for the hub, releasing the resources in the hub / registry. It does not
-   * release anything on the remote. The resources are released in a separate thread, so the call
+   * release anything on the remote. The resources are released by a pool of threads, so the call
    * returns immediatly. It allows release with long duration not to block the test while the hub is
-   * releasing the resource.
+   * releasing the resource. If too many releases are waiting already, the session is released on
+   * the calling thread.
    *
    * @param session The session to terminate
    * @param reason  the reason for termination
    */
   public void terminate(final TestSession session, final SessionTerminationReason reason) {
-    new Thread(new Runnable() { // Thread safety reviewed
-      public void run() {
-        _release(session.getSlot(), reason);
-      }
-    }).start();
+    releaser.release(session.getSlot(), reason);
+  }
+
+  /**
+   * @return the number of terminated sessions waiting to be released.
+   */
+  public int getSessionReleaseBacklog() {
+    return releaser.getBacklog();
   }
 
   /**
@@ -145,25 +181,54 @@ public class Registry {
    * @param testSlot The slot to release
    */
   private void _release(TestSlot testSlot, SessionTerminationReason reason) {
-    if (!testSlot.startReleaseProcess()) {
-      return;
-    }
+    release(Collections.singletonList(new SessionReleaser.Release(testSlot, reason)));
+  }
 
-    if (!testSlot.performAfterSessionEvent()) {
+  /**
+   * Releases several slots, running the listeners of each of them first, then taking the registry
+   * lock once for all of them.
+   */
+  void release(List<SessionReleaser.Release> releases) {
+    List<SessionReleaser.Release> released = new ArrayList<SessionReleaser.Release>();
+    List<String> internalKeys = new ArrayList<String>();
+    for (SessionReleaser.Release release : releases) {
+      TestSlot testSlot = release.slot;
+      if (!testSlot.startReleaseProcess()) {
+        continue;
+      }
+
+      if (!testSlot.performAfterSessionEvent()) {
+        continue;
+      }
+      released.add(release);
+      internalKeys.add(testSlot.getInternalKey());
+    }
+    if (released.isEmpty()) {
       return;
     }
 
-    final String internalKey = testSlot.getInternalKey();
-
     try {
       lock.lock();
-      testSlot.finishReleaseProcess();
-      release(internalKey, reason);
+      for (int i = 0; i < released.size(); i++) {
+        TestSlot testSlot = released.get(i).slot;
+        testSlot.finishReleaseProcess();
+        proxies.updateLoad(testSlot.getProxy());
+        release(internalKeys.get(i), released.get(i).reason);
+      }
     } finally {
       lock.unlock();
     }
   }
 
+  /**
+   * runs the clean up of a proxy every cycle, on the threads shared by all the proxies.
+   *
+   * @return the future to cancel when the proxy is torn down.
+   */
+  public ScheduledFuture<?> scheduleCleanUp(Runnable cleanUp, int cycleMs) {
+    return cleanUpExecutor.scheduleWithFixedDelay(cleanUp, cycleMs, cycleMs, TimeUnit.MILLISECONDS);
+  }
+
   void terminateSynchronousFOR_TEST_ONLY(TestSession testSession) {
     _release(testSession.getSlot(), SessionTerminationReason.CLIENT_STOPPED_SESSION);
   }
@@ -181,6 +246,11 @@ public class Registry {
         forceRelease(slot, SessionTerminationReason.PROXY_REREGISTRATION);
       }
       p.teardown();
+      metrics.removeNode(p.getId());
+      HttpHost node = getNode(p);
+      if (node != null) {
+        httpClientFactory.removeGridRoute(node);
+      }
     }
   }
 
@@ -195,6 +265,7 @@ public class Registry {
     String internalKey = testSlot.getInternalKey();
     release(internalKey, reason);
     testSlot.doFinishRelease();
+    proxies.updateLoad(testSlot.getProxy());
   }
 
 
@@ -225,7 +296,10 @@ public class Registry {
     matcherThread.interrupt();
     newSessionQueue.stop();
     proxies.teardown();
+    cleanUpExecutor.shutdownNow();
+    releaser.stop();
     httpClientFactory.close();
+    stopAsyncHttpClient();
 
   }
 
@@ -260,13 +334,31 @@ public class Registry {
   private void assignRequestToProxy() {
     while (!stop) {
       try {
-        testSessionAvailable.await(5, TimeUnit.SECONDS);
+        lock.beforeAwait();
+        try {
+          testSessionAvailable.await(5, TimeUnit.SECONDS);
+        } finally {
+          lock.afterAwait();
+        }
+        long passStart = System.nanoTime();
 
+        // the registry can't change during a pass, so once a capability couldn't be matched
+        // the other requests for the very same capability will fail too.
+        final Set<Map<String, Object>> unavailable = new HashSet<Map<String, Object>>();
         newSessionQueue.processQueue(new Predicate<RequestHandler>() {
           public boolean apply(RequestHandler input) {
-            return takeRequestHandler(input);
+            Map<String, Object> requested = input.getRequest().getDesiredCapabilities();
+            if (unavailable.contains(requested)) {
+              return false;
+            }
+            boolean taken = takeRequestHandler(input);
+            if (!taken) {
+              unavailable.add(requested);
+            }
+            return taken;
           }
         }, prioritizer);
+        metrics.getMatcherPass().record((System.nanoTime() - passStart) / 1000);
         // Just make sure we delete anything that is logged on this thread from memory
         LoggingManager.perSessionLogHandler().clearThreadTempLogs();
       } catch (InterruptedException e) {
@@ -284,6 +376,8 @@ public class Registry {
     if (sessionCreated) {
       activeTestSessions.add(session);
       handler.bindSession(session);
+      long waited = System.currentTimeMillis() - handler.getRequest().getCreationTime();
+      metrics.getNewSessionQueueWait().record(TimeUnit.MILLISECONDS.toMicros(waited));
     }
     return sessionCreated;
   }
@@ -300,6 +394,7 @@ public class Registry {
       lock.lock();
       boolean removed = activeTestSessions.remove(session, reason);
       if (removed) {
+        newSessionQueue.sessionEnded(session);
         fireMatcherStateChanged();
       }
     } finally {
@@ -366,6 +461,7 @@ public class Registry {
         if (proxy instanceof SelfHealingProxy) {
           ((SelfHealingProxy) proxy).startPolling();
         }
+        metrics.addNode(proxy.getId());
         proxies.add(proxy);
         fireMatcherStateChanged();
       }
@@ -373,6 +469,27 @@ public class Registry {
       lock.unlock();
     }
 
+    if (listenerOk) {
+      sizeConnectionPool(proxy);
+    }
+  }
+
+  /**
+   * keeps enough connections to the node for all its sessions to forward a command while some
+   * others are being released.
+   */
+  private void sizeConnectionPool(RemoteProxy proxy) {
+    HttpHost node = getNode(proxy);
+    if (node == null) {
+      return;
+    }
+    int max = Math.max(1, proxy.getMaxNumberOfConcurrentTestSessions()) * 2;
+    httpClientFactory.setMaxGridConnectionsPerRoute(node, max);
+  }
+
+  private HttpHost getNode(RemoteProxy proxy) {
+    URL remoteHost = proxy.getRemoteHost();
+    return remoteHost == null ? null : new HttpHost(remoteHost.getHost(), remoteHost.getPort());
   }
 
   /**
@@ -458,10 +575,126 @@ public class Registry {
     return proxies.getProxyById(id);
   }
 
-  HttpClientFactory getHttpClientFactory() {
+  /**
+   * @return what the hub measures about the new session requests, the registry and the commands
+   *         forwarded to the nodes.
+   */
+  public HubMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * @return the factory of the clients used to talk to the nodes, and its connection pools.
+   */
+  public HttpClientFactory getHttpClientFactory() {
     return httpClientFactory;
   }
 
+  /**
+   * @return the non blocking http client shared by all the sessions forwarding their commands
+   *         asynchronously. Started on first use.
+   */
+  synchronized HttpClient getAsyncHttpClient() {
+    if (asyncHttpClient == null) {
+      QueuedThreadPool pool = new QueuedThreadPool(ASYNC_CLIENT_THREADS);
+      pool.setName("Async forwarding");
+      pool.setDaemon(true);
+      HttpClient client = new HttpClient();
+      client.setConnectorType(HttpClient.CONNECTOR_SELECT_CHANNEL);
+      client.setThreadPool(pool);
+      // a timeout of 0 expires the exchanges right away. Without browser timeout, the commands can
+      // take as long as the browser needs, as they do with the blocking client.
+      client.setTimeout(Integer.MAX_VALUE);
+      try {
+        client.start();
+      } catch (Exception e) {
+        throw new GridException("Cannot start the asynchronous http client", e);
+      }
+      asyncHttpClient = client;
+    }
+    return asyncHttpClient;
+  }
+
+  /**
+   * @return the threads writing the responses received by the asynchronous http client to the
+   *         clients, so that a slow client doesn't hold the threads of the http client. The
+   *         responses wait for a free writer, and their content queued is bounded, see
+   *         {@link TestSession#forwardAsync}.
+   */
+  synchronized ExecutorService getClientWriters() {
+    if (clientWriters == null) {
+      clientWriters = Executors.newFixedThreadPool(CLIENT_WRITER_THREADS,
+          new ThreadFactoryBuilder().setNameFormat("Async response writer %d").setDaemon(true)
+              .build());
+    }
+    return clientWriters;
+  }
+
+  private synchronized void stopAsyncHttpClient() {
+    if (asyncHttpClient != null) {
+      try {
+        asyncHttpClient.stop();
+      } catch (Exception e) {
+        log.log(Level.WARNING, "Error stopping the asynchronous http client", e);
+      }
+      asyncHttpClient = null;
+    }
+    if (clientWriters != null) {
+      clientWriters.shutdownNow();
+      clientWriters = null;
+    }
+  }
+
+  /**
+   * the registry lock, recording how long the threads wait for it and then hold it.
+   */
+  private static class MeasuredLock extends ReentrantLock {
+
+    private final HubMetrics metrics;
+    // only accessed by the thread holding the lock.
+    private long acquiredAt;
+
+    MeasuredLock(HubMetrics metrics) {
+      this.metrics = metrics;
+    }
+
+    @Override
+    public void lock() {
+      if (tryLock()) {
+        metrics.getRegistryLockWait().record(0);
+      } else {
+        long start = System.nanoTime();
+        super.lock();
+        metrics.getRegistryLockWait().record((System.nanoTime() - start) / 1000);
+      }
+      if (getHoldCount() == 1) {
+        acquiredAt = System.nanoTime();
+      }
+    }
+
+    @Override
+    public void unlock() {
+      if (getHoldCount() == 1) {
+        metrics.getRegistryLockHold().record((System.nanoTime() - acquiredAt) / 1000);
+      }
+      super.unlock();
+    }
+
+    /**
+     * a condition is about to release the lock while waiting.
+     */
+    void beforeAwait() {
+      metrics.getRegistryLockHold().record((System.nanoTime() - acquiredAt) / 1000);
+    }
+
+    /**
+     * the condition got the lock back.
+     */
+    void afterAwait() {
+      acquiredAt = System.nanoTime();
+    }
+  }
+
   private static class UncaughtExceptionHandler implements Thread.UncaughtExceptionHandler {
 
     public void uncaughtException(Thread t, Throwable e) {
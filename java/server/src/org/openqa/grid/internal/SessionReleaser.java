@@ -0,0 +1,181 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.openqa.grid.internal;
+
+import com.google.common.collect.MapMaker;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import net.jcip.annotations.ThreadSafe;
+
+import org.openqa.grid.internal.utils.HubMetrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the release of the terminated sessions on a fixed pool of threads, instead of a new thread
+ * per session.
+ *
+ * The releases are batched by proxy : a proxy has at most one task queued, that releases all the
+ * sessions terminated on that proxy since it was scheduled, so a wave of sessions ending at the
+ * same time takes the registry lock once per proxy rather than once per session.
+ *
+ * When the backlog of releases waiting reaches its max, the thread terminating the session runs
+ * the release itself, slowing down whoever is producing them.
+ */
+@ThreadSafe
+class SessionReleaser {
+
+  private static final Logger log = Logger.getLogger(SessionReleaser.class.getName());
+
+  private final Registry registry;
+  private final HubMetrics metrics;
+  private final int maxBacklog;
+  private final ExecutorService executor;
+  private final AtomicInteger backlog = new AtomicInteger();
+  // by identity of the proxy, and forgotten when the proxy is.
+  private final ConcurrentMap<RemoteProxy, Batch> batches = new MapMaker().weakKeys().makeMap();
+
+  SessionReleaser(Registry registry, HubMetrics metrics, int threads, int maxBacklog) {
+    this.registry = registry;
+    this.metrics = metrics;
+    this.maxBacklog = maxBacklog;
+    this.executor = Executors.newFixedThreadPool(threads,
+        new ThreadFactoryBuilder().setNameFormat("Session release %d").setDaemon(true).build());
+  }
+
+  void release(TestSlot slot, SessionTerminationReason reason) {
+    Release release = new Release(slot, reason);
+    if (backlog.incrementAndGet() > maxBacklog) {
+      backlog.decrementAndGet();
+      metrics.addSessionReleaseInline();
+      releaseNow(Collections.singletonList(release));
+      return;
+    }
+    Batch batch = batches.get(slot.getProxy());
+    if (batch == null) {
+      Batch created = new Batch();
+      batch = batches.putIfAbsent(slot.getProxy(), created);
+      if (batch == null) {
+        batch = created;
+      }
+    }
+    batch.add(release);
+  }
+
+  /**
+   * @return the number of releases waiting for a thread.
+   */
+  int getBacklog() {
+    return backlog.get();
+  }
+
+  void stop() {
+    executor.shutdown();
+    try {
+      executor.awaitTermination(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void releaseNow(List<Release> releases) {
+    try {
+      registry.release(releases);
+    } catch (Throwable t) {
+      log.log(Level.SEVERE, "Error releasing " + releases.size() + " sessions.", t);
+    }
+  }
+
+  static class Release {
+
+    final TestSlot slot;
+    final SessionTerminationReason reason;
+    final long queued = System.nanoTime();
+
+    Release(TestSlot slot, SessionTerminationReason reason) {
+      this.slot = slot;
+      this.reason = reason;
+    }
+  }
+
+  /**
+   * the releases waiting on a proxy.
+   */
+  private class Batch implements Runnable {
+
+    // no reference to the proxy, so that it can be collected once removed from the registry.
+    private List<Release> waiting = new ArrayList<Release>();
+    private boolean scheduled = false;
+
+    void add(Release release) {
+      synchronized (this) {
+        waiting.add(release);
+        if (scheduled) {
+          return;
+        }
+        scheduled = true;
+      }
+      schedule();
+    }
+
+    private void schedule() {
+      try {
+        executor.execute(this);
+      } catch (RejectedExecutionException e) {
+        // the registry is stopping, release on the caller thread.
+        run();
+      }
+    }
+
+    public void run() {
+      List<Release> releases;
+      synchronized (this) {
+        releases = waiting;
+        waiting = new ArrayList<Release>();
+      }
+      long now = System.nanoTime();
+      for (Release release : releases) {
+        metrics.getSessionReleaseWait().record((now - release.queued) / 1000);
+      }
+      metrics.addSessionReleaseBatch();
+      try {
+        releaseNow(releases);
+      } finally {
+        backlog.addAndGet(-releases.size());
+      }
+      synchronized (this) {
+        if (waiting.isEmpty()) {
+          scheduled = false;
+          return;
+        }
+      }
+      // let the other proxies go first.
+      schedule();
+    }
+  }
+}
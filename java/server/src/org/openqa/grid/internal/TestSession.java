@@ -21,13 +21,16 @@ import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.text.DateFormat;
 import java.util.*;
+import java.util.concurrent.Executor;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -41,6 +44,7 @@ import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.HttpClient;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.InputStreamEntity;
 import org.apache.http.message.BasicHttpEntityEnclosingRequest;
 import org.apache.http.message.BasicHttpRequest;
@@ -48,6 +52,8 @@ import org.apache.http.util.EntityUtils;
 import org.openqa.grid.common.exception.ClientGoneException;
 import org.openqa.grid.common.exception.GridException;
 import org.openqa.grid.internal.listeners.CommandListener;
+import org.openqa.grid.internal.utils.BufferPool;
+import org.openqa.grid.internal.utils.HubMetrics;
 import org.openqa.grid.web.Hub;
 import org.openqa.grid.web.servlet.handler.LegacySeleniumRequest;
 import org.openqa.grid.web.servlet.handler.RequestType;
@@ -55,6 +61,10 @@ import org.openqa.grid.web.servlet.handler.SeleniumBasedRequest;
 import org.openqa.grid.web.servlet.handler.SeleniumBasedResponse;
 import org.openqa.grid.web.servlet.handler.WebDriverRequest;
 
+import org.seleniumhq.jetty7.client.HttpExchange;
+import org.seleniumhq.jetty7.io.Buffer;
+import org.seleniumhq.jetty7.io.ByteArrayBuffer;
+
 import com.google.common.io.ByteStreams;
 import com.google.common.io.Closeables;
 
@@ -68,10 +78,17 @@ public class TestSession {
 
   private static final Logger log = Logger.getLogger(TestSession.class.getName());
   static final int MAX_IDLE_TIME_BEFORE_CONSIDERED_ORPHANED = 5000;
+  // Request bodies up to this size are read before being forwarded, so that the http client can
+  // send the request again when the pooled connection it used turns out to be stale.
+  static final int MAX_BUFFERED_REQUEST_BODY = 64 * 1024;
+  // the content of a response forwarded asynchronously and not written to the client yet, above
+  // which the http client stops reading the response of the node.
+  static final int MAX_QUEUED_RESPONSE_CONTENT = 256 * 1024;
 
   private final String internalKey;
   private final TestSlot slot;
   private volatile ExternalSessionKey externalKey = null;
+  private volatile ActiveTestSessions activeTestSessions;
   private volatile long sessionCreatedAt;
   private volatile long lastActivity;
   private final Map<String, Object> requestedCapabilities;
@@ -119,8 +136,20 @@ public class TestSession {
    * associate this session to the session provided by the remote.
    */
   public void setExternalKey(ExternalSessionKey externalKey) {
+    ExternalSessionKey previousKey = this.externalKey;
     this.externalKey = externalKey;
     sessionCreatedAt = lastActivity;
+    ActiveTestSessions sessions = activeTestSessions;
+    if (sessions != null) {
+      sessions.externalKeyChanged(this, previousKey);
+    }
+  }
+
+  /**
+   * @param activeTestSessions the set this session is active in, told when its key changes.
+   */
+  void setActiveTestSessions(ActiveTestSessions activeTestSessions) {
+    this.activeTestSessions = activeTestSessions;
   }
 
   /**
@@ -187,6 +216,10 @@ public class TestSession {
 
 
   private HttpClient getClient() {
+    return slot.getProxy().getHttpClientFactory().getGridHttpClient(getForwardingTimeout());
+  }
+
+  private int getForwardingTimeout() {
     Registry reg = slot.getProxy().getRegistry();
     int browserTimeout = reg.getConfiguration().getBrowserTimeout();
     if (browserTimeout > 0){
@@ -194,7 +227,7 @@ public class TestSession {
       browserTimeout += (selenium_server_cleanup_cycle + MAX_NETWORK_LATENCY);
       browserTimeout *=2; // Lets not let this happen too often
     }
-    return slot.getProxy().getHttpClientFactory().getGridHttpClient(browserTimeout);
+    return browserTimeout;
   }
 
   /**
@@ -218,6 +251,8 @@ public class TestSession {
 
       HttpRequest proxyRequest = prepareProxyRequest(request/*, config*/);
 
+      long start = System.nanoTime();
+      long received = 0;
       HttpResponse proxyResponse = sendRequestToNode(proxyRequest);
       lastActivity = timeSource.currentTimeInMillis();
 
@@ -242,17 +277,22 @@ public class TestSession {
         try {
           InputStream in = responseBody.getContent();
 
-          if (request.getRequestType() == RequestType.START_SESSION
-              && request instanceof LegacySeleniumRequest) {
-            res = getResponseUtf8Content(in);
+          if (request.getRequestType() == RequestType.START_SESSION) {
+            // the hub needs to see the whole new session response, it's small anyway.
+            if (request instanceof LegacySeleniumRequest) {
+              res = getResponseUtf8Content(in);
 
-            updateHubNewSeleniumSession(res);
+              updateHubNewSeleniumSession(res);
 
-            in = new ByteArrayInputStream(res.getBytes("UTF-8"));
-          }
+              in = new ByteArrayInputStream(res.getBytes("UTF-8"));
+            }
 
-          final byte[] bytes = drainInputStream(in);
-          writeRawBody(response, bytes);
+            final byte[] bytes = drainInputStream(in);
+            writeRawBody(response, bytes);
+            received = bytes.length;
+          } else {
+            received = streamBody(response, in);
+          }
 
         } finally {
           EntityUtils.consume(responseBody);
@@ -266,6 +306,7 @@ public class TestSession {
         ((CommandListener) slot.getProxy()).afterCommand(this, request, wrappedResponse);
       }
       response.flushBuffer();
+      recordForwarding(start, request.getContentLength(), received);
       return res;
     } finally {
       forwardingRequest = false;
@@ -273,6 +314,274 @@ public class TestSession {
     }
   }
 
+  /**
+   * Callback notified once a request forwarded with
+   * {@link TestSession#forwardAsync(SeleniumBasedRequest, HttpServletResponse, ForwardCallback)}
+   * is done. Called on one of the registry's client writer threads.
+   */
+  public interface ForwardCallback {
+
+    /**
+     * the response of the node has been entirely copied to the client.
+     */
+    void onComplete();
+
+    /**
+     * the request couldn't be forwarded. A {@link ClientGoneException} if the client went away
+     * while the response was copied, a {@link SocketTimeoutException} if the node didn't reply in
+     * time.
+     */
+    void onFailure(Throwable t);
+  }
+
+  /**
+   * @return true if the content of the request is small enough to be read before it is forwarded
+   *         with {@link #forwardAsync(SeleniumBasedRequest, HttpServletResponse, ForwardCallback)}.
+   *         The larger or chunked ones, file uploads for instance, are streamed to the node by
+   *         {@link #forward(SeleniumBasedRequest, HttpServletResponse, boolean)}.
+   */
+  public static boolean canForwardAsync(HttpServletRequest request) {
+    int length = request.getContentLength();
+    if (length < 0) {
+      return request.getHeader("Transfer-Encoding") == null;
+    }
+    return length <= MAX_BUFFERED_REQUEST_BODY;
+  }
+
+  /**
+   * forwards the request to the node without blocking the calling thread. The content of the
+   * request is read before returning, the response of the node is copied to the client as it
+   * arrives. The copy runs on the registry's client writer threads rather than on the threads of
+   * the asynchronous http client, which a slow client would otherwise hold. When the client falls
+   * more than {@value #MAX_QUEUED_RESPONSE_CONTENT} bytes behind, the http client stops reading the
+   * response of the node until it catches up. Only for regular commands whose content
+   * {@link #canForwardAsync(HttpServletRequest) is small enough}, the new session requests and the
+   * proxies implementing {@link CommandListener} have to be forwarded with
+   * {@link #forward(SeleniumBasedRequest, HttpServletResponse, boolean)}.
+   */
+  public void forwardAsync(SeleniumBasedRequest request, final HttpServletResponse response,
+                           final ForwardCallback callback) throws IOException {
+    if (!canForwardAsync(request)) {
+      throw new IllegalArgumentException("The content of the request is too large to be forwarded "
+          + "asynchronously: " + request.getContentLength() + " bytes");
+    }
+    final URL remoteURL = slot.getRemoteURL();
+    final String pathSpec = request.getServletPath() + request.getContextPath();
+
+    final byte[] body;
+    if (request.getContentLength() > 0) {
+      // read on the container thread, the request can't be read once the continuation is
+      // suspended.
+      body = ByteStreams.toByteArray(request.getInputStream());
+    } else {
+      body = null;
+    }
+
+    final long start = System.nanoTime();
+    final ClientWriter writer = new ClientWriter(slot.getProxy().getRegistry().getClientWriters());
+    HttpExchange exchange = new HttpExchange() {
+      // only read and written by the client writer.
+      private boolean done;
+      private long received;
+
+      @Override
+      protected void onResponseStatus(Buffer version, int status, Buffer reason) {
+        lastActivity = timeSource.currentTimeInMillis();
+        response.setStatus(status);
+        if (status == HttpServletResponse.SC_NOT_FOUND) {
+          removeSessionBrowserTimeout();
+        }
+      }
+
+      @Override
+      protected void onResponseHeader(Buffer name, Buffer value) throws IOException {
+        copyResponseHeader(response, pathSpec, remoteURL, name.toString(), value.toString());
+      }
+
+      @Override
+      protected void onResponseContent(Buffer content) throws IOException {
+        // the buffer is reused by the http client once this returns.
+        final byte[] bytes = content.asArray();
+        writer.submitContent(bytes.length, new Runnable() {
+          public void run() {
+            if (done) {
+              return;
+            }
+            try {
+              received += bytes.length;
+              response.getOutputStream().write(bytes);
+            } catch (IOException e) {
+              cancel();
+              done = true;
+              forwardingRequest = false;
+              callback.onFailure(new ClientGoneException(e));
+            }
+          }
+        });
+      }
+
+      @Override
+      protected void onResponseComplete() {
+        writer.submit(new Runnable() {
+          public void run() {
+            if (done) {
+              return;
+            }
+            done = true;
+            forwardingRequest = false;
+            lastActivity = timeSource.currentTimeInMillis();
+            try {
+              response.flushBuffer();
+            } catch (IOException e) {
+              callback.onFailure(new ClientGoneException(e));
+              return;
+            }
+            recordForwarding(start, body == null ? 0 : body.length, received);
+            callback.onComplete();
+          }
+        });
+      }
+
+      @Override
+      protected void onConnectionFailed(Throwable x) {
+        failed(x);
+      }
+
+      @Override
+      protected void onException(Throwable x) {
+        failed(x);
+      }
+
+      @Override
+      protected void onExpire() {
+        failed(new SocketTimeoutException(
+            "No response from " + remoteURL + " for " + TestSession.this));
+      }
+
+      private void failed(final Throwable t) {
+        writer.submit(new Runnable() {
+          public void run() {
+            if (!done) {
+              done = true;
+              forwardingRequest = false;
+              callback.onFailure(t);
+            }
+          }
+        });
+      }
+    };
+
+    exchange.setMethod(request.getMethod());
+    exchange.setURL(getProxyRequestURI(request));
+    long timeout = getForwardingTimeout();
+    if (timeout > 0) {
+      exchange.setTimeout(timeout);
+    }
+
+    for (Enumeration<?> e = request.getHeaderNames(); e.hasMoreElements(); ) {
+      String headerName = (String) e.nextElement();
+      if ("Content-Length".equalsIgnoreCase(headerName)
+          || "Transfer-Encoding".equalsIgnoreCase(headerName)) {
+        continue; // set from the content read above.
+      }
+      exchange.setRequestHeader(headerName, request.getHeader(headerName));
+    }
+
+    if (body != null) {
+      exchange.setRequestHeader("Content-Length", Integer.toString(body.length));
+      exchange.setRequestContent(new ByteArrayBuffer(body));
+    }
+
+    forwardingRequest = true;
+    lastActivity = timeSource.currentTimeInMillis();
+    try {
+      slot.getProxy().getRegistry().getAsyncHttpClient().send(exchange);
+    } catch (IOException e) {
+      forwardingRequest = false;
+      throw e;
+    }
+  }
+
+  /**
+   * runs the steps of the copy of a response to the client on an executor, one at a time and in
+   * the order they were submitted. The content queued is bounded by
+   * {@link #MAX_QUEUED_RESPONSE_CONTENT}.
+   */
+  private static class ClientWriter implements Runnable {
+
+    private final Executor executor;
+    private final Queue<Runnable> steps = new LinkedList<Runnable>();
+    private boolean running;
+    // the bytes of the content steps submitted and not run yet.
+    private long queuedContent;
+
+    ClientWriter(Executor executor) {
+      this.executor = executor;
+    }
+
+    /**
+     * submits the writing of some content of the response, once there is room for it. The calling
+     * thread of the http client waits meanwhile, which pauses the reading of the response of the
+     * node.
+     */
+    void submitContent(final int length, final Runnable step) throws InterruptedIOException {
+      synchronized (this) {
+        while (queuedContent > 0 && queuedContent + length > MAX_QUEUED_RESPONSE_CONTENT) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for the client to read");
+          }
+        }
+        queuedContent += length;
+      }
+      submit(new Runnable() {
+        public void run() {
+          try {
+            step.run();
+          } finally {
+            contentWritten(length);
+          }
+        }
+      });
+    }
+
+    private synchronized void contentWritten(int length) {
+      queuedContent -= length;
+      notifyAll();
+    }
+
+    void submit(Runnable step) {
+      synchronized (this) {
+        steps.add(step);
+        if (running) {
+          return;
+        }
+        running = true;
+      }
+      executor.execute(this);
+    }
+
+    public void run() {
+      while (true) {
+        Runnable step;
+        synchronized (this) {
+          step = steps.poll();
+          if (step == null) {
+            running = false;
+            return;
+          }
+        }
+        try {
+          step.run();
+        } catch (RuntimeException e) {
+          log.log(Level.WARNING, "Error writing a response to the client", e);
+        }
+      }
+    }
+  }
+
   private void setThreadDisplayName() {
     DateFormat dfmt = DateFormat.getTimeInstance();
     String name = "Forwarding " + this + " to " + slot.getRemoteURL() + " at " +
@@ -321,21 +630,14 @@ public class TestSession {
   private HttpRequest prepareProxyRequest(HttpServletRequest request
 /*, ForwardConfiguration config*/)
       throws IOException {
-    URL remoteURL = slot.getRemoteURL();
-
-    String pathSpec = request.getServletPath() + request.getContextPath();
-    String path = request.getRequestURI();
-    if (!path.startsWith(pathSpec)) {
-      throw new IllegalStateException("Expected path " + path + " to start with pathSpec "
-                                      + pathSpec);
-    }
-    String end = path.substring(pathSpec.length());
-    String ok = remoteURL + end;
-    String uri = new URL(remoteURL, ok).toExternalForm();
-
-    InputStream body = null;
-    if (request.getContentLength() > 0 || request.getHeader("Transfer-Encoding") != null) {
-      body = request.getInputStream();
+    String uri = getProxyRequestURI(request);
+
+    int length = request.getContentLength();
+    HttpEntity body = null;
+    if (length > 0 && length <= MAX_BUFFERED_REQUEST_BODY) {
+      body = new ByteArrayEntity(ByteStreams.toByteArray(request.getInputStream()));
+    } else if (length > 0 || request.getHeader("Transfer-Encoding") != null) {
+      body = new InputStreamEntity(request.getInputStream(), length);
     }
 
     HttpRequest proxyRequest;
@@ -343,7 +645,7 @@ public class TestSession {
     if (body != null) {
       BasicHttpEntityEnclosingRequest r =
           new BasicHttpEntityEnclosingRequest(request.getMethod(), uri);
-      r.setEntity(new InputStreamEntity(body, request.getContentLength()));
+      r.setEntity(body);
       proxyRequest = r;
     } else {
       proxyRequest = new BasicHttpRequest(request.getMethod(), uri);
@@ -355,12 +657,29 @@ public class TestSession {
       if ("Content-Length".equalsIgnoreCase(headerName)) {
         continue; // already set
       }
+      if ("Transfer-Encoding".equalsIgnoreCase(headerName)) {
+        continue; // decided by the http client, depending on the entity.
+      }
 
       proxyRequest.setHeader(headerName, request.getHeader(headerName));
     }
     return proxyRequest;
   }
 
+  private String getProxyRequestURI(HttpServletRequest request) throws MalformedURLException {
+    URL remoteURL = slot.getRemoteURL();
+
+    String pathSpec = request.getServletPath() + request.getContextPath();
+    String path = request.getRequestURI();
+    if (!path.startsWith(pathSpec)) {
+      throw new IllegalStateException("Expected path " + path + " to start with pathSpec "
+                                      + pathSpec);
+    }
+    String end = path.substring(pathSpec.length());
+    String ok = remoteURL + end;
+    return new URL(remoteURL, ok).toExternalForm();
+  }
+
   private void writeRawBody(HttpServletResponse response, byte[] rawBody) throws IOException {
     OutputStream out = response.getOutputStream();
     try {
@@ -389,6 +708,61 @@ public class TestSession {
     }
   }
 
+  /**
+   * copies the node response to the client as it comes, through buffers of fixed size. The
+   * Content-Length sent by the node, if any, has already been copied to the response. Otherwise the
+   * container will use chunked encoding for the response.
+   *
+   * @return the number of bytes copied.
+   */
+  private long streamBody(HttpServletResponse response, InputStream in) throws IOException {
+    BufferPool pool = BufferPool.forwardingPool();
+    byte[] buffer = pool.acquire();
+    OutputStream out = null;
+    long copied = 0;
+    try {
+      try {
+        out = response.getOutputStream();
+      } catch (IOException e) {
+        throw new ClientGoneException(e);
+      }
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        try {
+          out.write(buffer, 0, read);
+        } catch (IOException e) {
+          throw new ClientGoneException(e);
+        }
+        copied += read;
+      }
+      return copied;
+    } finally {
+      pool.release(buffer);
+      Closeables.closeQuietly(in);
+      if (out != null) {
+        try {
+          out.close();
+        } catch (IOException e) {
+          log.log(Level.SEVERE, "Problem closing response's output stream.", e);
+        }
+      }
+    }
+  }
+
+  private void recordForwarding(long startNanos, long sent, long received) {
+    RemoteProxy proxy = slot.getProxy();
+    HubMetrics.NodeMetrics metrics = proxy.getRegistry().getMetrics().getNodeMetrics(proxy.getId());
+    if (metrics == null) {
+      // the node left the grid while the command was forwarded.
+      return;
+    }
+    metrics.getForwardLatency().record((System.nanoTime() - startNanos) / 1000);
+    if (sent > 0) {
+      metrics.addBytesToNode(sent);
+    }
+    metrics.addBytesFromNode(received);
+  }
+
   private byte[] drainInputStream(InputStream in) throws IOException {
     try {
       return ByteStreams.toByteArray(in);
@@ -422,34 +796,33 @@ public class TestSession {
       throws MalformedURLException {
     String pathSpec = request.getServletPath() + request.getContextPath();
     for (Header header : proxyResponse.getAllHeaders()) {
-      String name = header.getName();
-      String value = header.getValue();
-
-      // HttpEntity#getContent() chews up the chunk-size octet (i.e., the InputStream does not
-      // actually map 1:1 to the underlying response body). This breaks any client expecting the
-      // chunk size. We could
-      // try to recreate it, but since the chunks are already read in and decoded, you'd end up with
-      // a
-      // single chunk, which isn't all that useful. So, we return the response as a traditional
-      // response with a
-      // Content-Length header, obviating the need for the Transfer-Encoding header.
-      if (name.equalsIgnoreCase("Transfer-Encoding") && value.equalsIgnoreCase("chunked")) {
-        continue;
-      }
+      copyResponseHeader(response, pathSpec, remoteURL, header.getName(), header.getValue());
+    }
+  }
 
-      // the location needs to point to the hub that will proxy
-      // everything.
-      if (name.equalsIgnoreCase("Location")) {
-        URL returnedLocation = new URL(value);
-        String driverPath = remoteURL.getPath();
-        String wrongPath = returnedLocation.getPath();
-        String correctPath = wrongPath.replace(driverPath, "");
-        Hub hub = slot.getProxy().getRegistry().getHub();
-        String location = "http://" + hub.getHost() + ":" + hub.getPort() + pathSpec + correctPath;
-        response.setHeader(name, location);
-      } else {
-        response.setHeader(name, value);
-      }
+  private void copyResponseHeader(HttpServletResponse response, String pathSpec, URL remoteURL,
+                                  String name, String value) throws MalformedURLException {
+    // HttpEntity#getContent() chews up the chunk-size octet (i.e., the InputStream does not
+    // actually map 1:1 to the underlying response body). This breaks any client expecting the
+    // chunk size. The decoded content is either re-chunked by the container while it is streamed
+    // to the client, or returned with a Content-Length header for the buffered new session
+    // responses, so the node's Transfer-Encoding header mustn't be passed through.
+    if (name.equalsIgnoreCase("Transfer-Encoding") && value.equalsIgnoreCase("chunked")) {
+      return;
+    }
+
+    // the location needs to point to the hub that will proxy
+    // everything.
+    if (name.equalsIgnoreCase("Location")) {
+      URL returnedLocation = new URL(value);
+      String driverPath = remoteURL.getPath();
+      String wrongPath = returnedLocation.getPath();
+      String correctPath = wrongPath.replace(driverPath, "");
+      Hub hub = slot.getProxy().getRegistry().getHub();
+      String location = "http://" + hub.getHost() + ":" + hub.getPort() + pathSpec + correctPath;
+      response.setHeader(name, location);
+    } else {
+      response.setHeader(name, value);
     }
   }
 
@@ -40,7 +40,7 @@ import java.util.logging.Logger;
  * executed.The other one will be discarded.
  * 
  * This class sees multiple threads but is currently sort-of protected by the lock in Registry.
- * Unfortunately the CleanUpThread also messes around in here, so it should be thread safe on its
+ * Unfortunately the CleanUpTask also messes around in here, so it should be thread safe on its
  * own.
  * 
  */
@@ -0,0 +1,81 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.openqa.grid.internal.utils;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A bounded pool of fixed size byte arrays, used to copy the content forwarded by the hub without
+ * allocating a new buffer for each request. When the pool is empty a new buffer is allocated, when
+ * it is full the released buffer is left to the garbage collector.
+ */
+@ThreadSafe
+public class BufferPool {
+
+  public static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+  public static final int DEFAULT_MAX_POOLED = 256;
+
+  private static final BufferPool forwarding =
+      new BufferPool(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_POOLED);
+
+  private final int bufferSize;
+  private final BlockingQueue<byte[]> buffers;
+
+  public BufferPool(int bufferSize, int maxPooled) {
+    this.bufferSize = bufferSize;
+    this.buffers = new ArrayBlockingQueue<byte[]>(maxPooled);
+  }
+
+  /**
+   * @return the pool shared by all the sessions forwarding requests to the nodes.
+   */
+  public static BufferPool forwardingPool() {
+    return forwarding;
+  }
+
+  /**
+   * @return a buffer of {@link #getBufferSize()} bytes. Its content is undefined.
+   */
+  public byte[] acquire() {
+    byte[] buffer = buffers.poll();
+    return buffer != null ? buffer : new byte[bufferSize];
+  }
+
+  /**
+   * gives a buffer back to the pool. The caller mustn't use it after that.
+   */
+  public void release(byte[] buffer) {
+    if (buffer != null && buffer.length == bufferSize) {
+      buffers.offer(buffer);
+    }
+  }
+
+  public int getBufferSize() {
+    return bufferSize;
+  }
+
+  /**
+   * @return the number of buffers currently available in the pool.
+   */
+  public int getPooledCount() {
+    return buffers.size();
+  }
+}
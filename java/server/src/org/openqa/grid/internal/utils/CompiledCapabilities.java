@@ -0,0 +1,100 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.openqa.grid.internal.utils;
+
+import com.google.common.collect.MapMaker;
+
+import net.jcip.annotations.ThreadSafe;
+
+import org.openqa.selenium.Platform;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A requested capability prepared by the {@link DefaultCapabilityMatcher} : only the keys it
+ * considers are kept, interned, with the wildcards dropped and the platforms already parsed.
+ *
+ * The result of matching it against a node capability map is remembered, by identity of that map,
+ * so a request waiting in the queue doesn't evaluate the same test slot again on each pass of the
+ * matcher. This relies on the node capability maps not changing once the slots are created.
+ */
+@ThreadSafe
+public class CompiledCapabilities {
+
+  // a new session request only visits the slots able to host it, but don't let a request waiting
+  // on a very large grid hold a result for every slot.
+  private static final int MAX_REMEMBERED_MATCHES = 1024;
+
+  private final DefaultCapabilityMatcher matcher;
+  private final String[] keys;
+  // the requested Platform for the platform values, the requested value otherwise.
+  private final Object[] values;
+  private final ConcurrentMap<Map<String, Object>, Boolean> matches =
+      new MapMaker().concurrencyLevel(1).weakKeys().makeMap();
+
+  CompiledCapabilities(DefaultCapabilityMatcher matcher, List<String> toConsider,
+                       Map<String, Object> requestedCapability) {
+    this.matcher = matcher;
+    List<String> keys = new ArrayList<String>();
+    List<Object> values = new ArrayList<Object>();
+    for (String key : toConsider) {
+      Object value = requestedCapability.get(key);
+      if (value == null || isWildcard(value.toString())) {
+        continue;
+      }
+      Platform platform = matcher.extractPlatform(value);
+      keys.add(key.intern());
+      values.add(platform != null ? platform : value);
+    }
+    this.keys = keys.toArray(new String[keys.size()]);
+    this.values = values.toArray();
+  }
+
+  private static boolean isWildcard(String value) {
+    return "ANY".equalsIgnoreCase(value) || "".equals(value) || "*".equals(value);
+  }
+
+  public boolean matches(Map<String, Object> nodeCapability) {
+    Boolean res = matches.get(nodeCapability);
+    if (res == null) {
+      res = doMatch(nodeCapability);
+      if (matches.size() < MAX_REMEMBERED_MATCHES) {
+        matches.put(nodeCapability, res);
+      }
+    }
+    return res;
+  }
+
+  private boolean doMatch(Map<String, Object> nodeCapability) {
+    for (int i = 0; i < keys.length; i++) {
+      Object requested = values[i];
+      if (requested instanceof Platform) {
+        Platform node = matcher.extractPlatform(nodeCapability.get(keys[i]));
+        if (node == null || !node.is((Platform) requested)) {
+          return false;
+        }
+      } else if (!requested.equals(nodeCapability.get(keys[i]))) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
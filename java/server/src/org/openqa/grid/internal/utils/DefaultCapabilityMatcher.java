@@ -16,12 +16,15 @@ limitations under the License.
 
 package org.openqa.grid.internal.utils;
 
+import com.google.common.collect.MapMaker;
+
 import org.openqa.selenium.Platform;
 import org.openqa.selenium.remote.CapabilityType;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Logger;
 
 /**
@@ -37,6 +40,9 @@ public class DefaultCapabilityMatcher implements CapabilityMatcher {
 
   // temporary fix to only check to most meaningful desiredCapability params
   private final List<String> toConsider = new ArrayList<String>();
+  // by identity of the requested map, for as long as the request is around.
+  private final ConcurrentMap<Map<String, Object>, CompiledCapabilities> compiled =
+      new MapMaker().weakKeys().makeMap();
 
   public DefaultCapabilityMatcher() {
     toConsider.add(CapabilityType.PLATFORM);
@@ -50,36 +56,27 @@ public class DefaultCapabilityMatcher implements CapabilityMatcher {
     if (nodeCapability == null || requestedCapability == null) {
       return false;
     }
-    for (String key : requestedCapability.keySet()) {
-      // ignore capabilities that are targeted at grid internal for the
-      // matching
-      // TODO freynaud only consider version, browser and OS for now
-      if (!key.startsWith(GRID_TOKEN) && toConsider.contains(key)) {
-        if (requestedCapability.get(key) != null) {
-          String value = requestedCapability.get(key).toString();
-          if (!("ANY".equalsIgnoreCase(value) || "".equals(value) || "*".equals(value))) {
-            Platform requested = extractPlatform(requestedCapability.get(key));
-            // special case for platform
-            if (requested != null) {
-              Platform node = extractPlatform(nodeCapability.get(key));
-              if (node == null) {
-                return false;
-              }
-              if (!node.is(requested)) {
-                return false;
-              }
-            } else {
-              if (!requestedCapability.get(key).equals(nodeCapability.get(key))) {
-                return false;
-              }
-            }
-          } else {
-            // null value matches anything.
-          }
-        }
-      }
+    CompiledCapabilities compiledCapability = compiled.get(requestedCapability);
+    if (compiledCapability == null) {
+      compiledCapability = compile(requestedCapability);
     }
-    return true;
+    return compiledCapability.matches(nodeCapability);
+  }
+
+  /**
+   * Prepares a requested capability to be matched against the nodes.
+   */
+  public CompiledCapabilities compile(Map<String, Object> requestedCapability) {
+    return new CompiledCapabilities(this, toConsider, requestedCapability);
+  }
+
+  /**
+   * Compiles the capability of a new session request once for all : the following calls to
+   * {@link #matches(Map, Map)} with that very map use the compiled form, and remember their result.
+   * The map must not change afterwards.
+   */
+  public void precompile(Map<String, Object> requestedCapability) {
+    compiled.putIfAbsent(requestedCapability, compile(requestedCapability));
   }
 
   Platform extractPlatform(Object o) {
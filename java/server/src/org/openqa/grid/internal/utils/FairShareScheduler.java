@@ -0,0 +1,348 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.openqa.grid.internal.utils;
+
+import com.google.common.base.Predicate;
+
+import org.openqa.grid.internal.DefaultTimeSource;
+import org.openqa.grid.internal.TestSession;
+import org.openqa.grid.internal.TimeSource;
+import org.openqa.grid.internal.listeners.Prioritizer;
+import org.openqa.grid.web.servlet.handler.RequestHandler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+
+/**
+ * The default scheduler. The requests are grouped by tenant, the tenant being the value of a
+ * desired capability ( tenantCapability ), and the tenants share the free slots according to their
+ * weights : when several tenants are waiting, the next slot goes to the one with the fewest
+ * sessions running per unit of weight. A tenant can also be capped to a number of concurrent
+ * sessions.
+ *
+ * Within a tenant, the requests are served by arrival order, or following the prioritizer if there
+ * is one. With aging enabled, the requests that have waited for an aging interval or more when a
+ * pass starts go before all the others, oldest first, whatever their priority or their tenant's
+ * share. The caps of the tenants still apply to them.
+ *
+ * Without tenant capability and aging, the behavior is the same as the historical queue : FIFO, or
+ * sorted by the prioritizer.
+ */
+public class FairShareScheduler implements NewSessionScheduler {
+
+  private static final String DEFAULT_TENANT = "";
+
+  private final String tenantCapability;
+  private final Map<String, Integer> weights;
+  private final Map<String, Integer> maxSessions;
+  private final long agingInterval;
+  private final TimeSource timeSource;
+
+  private final Map<String, Tenant> tenants = new HashMap<String, Tenant>();
+  private final Map<RequestHandler, Waiting> waiting = new IdentityHashMap<RequestHandler, Waiting>();
+  private final TreeSet<Waiting> byArrival = new TreeSet<Waiting>(BY_ARRIVAL);
+  private Prioritizer prioritizer;
+  private Comparator<Waiting> order = new WaitingOrder(null);
+  private long sequence = 0;
+  private long passes = 0;
+
+  public FairShareScheduler() {
+    this(null, Collections.<String, Integer>emptyMap(), Collections.<String, Integer>emptyMap(), 0,
+         new DefaultTimeSource());
+  }
+
+  public FairShareScheduler(GridHubConfiguration config) {
+    this(config.getTenantCapability(), config.getTenantWeights(), config.getTenantMaxSessions(),
+         config.getNewSessionAgingInterval(), new DefaultTimeSource());
+  }
+
+  /**
+   * @param tenantCapability the desired capability telling which tenant a request belongs to. null
+   *        for a single tenant.
+   * @param weights by tenant, 1 for the ones not listed.
+   * @param maxSessions the max number of concurrent sessions by tenant, unlimited for the ones not
+   *        listed.
+   * @param agingInterval in ms. 0 to disable aging.
+   */
+  public FairShareScheduler(String tenantCapability, Map<String, Integer> weights,
+                            Map<String, Integer> maxSessions, long agingInterval,
+                            TimeSource timeSource) {
+    this.tenantCapability = tenantCapability;
+    this.weights = new HashMap<String, Integer>(weights);
+    this.maxSessions = new HashMap<String, Integer>(maxSessions);
+    this.agingInterval = agingInterval;
+    this.timeSource = timeSource;
+  }
+
+  public void add(RequestHandler request) {
+    Tenant tenant = getTenant(getTenantName(request.getRequest().getDesiredCapabilities()));
+    Waiting w = new Waiting(request, tenant, timeSource.currentTimeInMillis(), sequence++);
+    tenant.queue.add(w);
+    byArrival.add(w);
+    waiting.put(request, w);
+  }
+
+  public boolean remove(RequestHandler request) {
+    Waiting w = waiting.remove(request);
+    if (w == null) {
+      return false;
+    }
+    w.tenant.queue.remove(w);
+    byArrival.remove(w);
+    forgetIfIdle(w.tenant);
+    return true;
+  }
+
+  public void clear() {
+    for (Tenant tenant : new ArrayList<Tenant>(tenants.values())) {
+      tenant.queue.clear();
+      forgetIfIdle(tenant);
+    }
+    waiting.clear();
+    byArrival.clear();
+  }
+
+  public int size() {
+    return waiting.size();
+  }
+
+  public List<RequestHandler> getRequests() {
+    List<RequestHandler> res = new ArrayList<RequestHandler>(byArrival.size());
+    for (Waiting w : byArrival) {
+      res.add(w.request);
+    }
+    return res;
+  }
+
+  public void process(Predicate<RequestHandler> consumer, Prioritizer prioritizer) {
+    if (prioritizer != this.prioritizer) {
+      reorder(prioritizer);
+    }
+    long pass = ++passes;
+    if (agingInterval > 0) {
+      processAged(consumer, timeSource.currentTimeInMillis() - agingInterval, pass);
+    }
+    PriorityQueue<Cursor> next = new PriorityQueue<Cursor>(Math.max(1, tenants.size()));
+    for (Tenant tenant : tenants.values()) {
+      if (tenant.canStartSession()) {
+        Cursor cursor = new Cursor(tenant, pass);
+        if (cursor.advance()) {
+          next.add(cursor);
+        }
+      }
+    }
+    while (!next.isEmpty()) {
+      Cursor cursor = next.poll();
+      Waiting w = cursor.head;
+      if (consumer.apply(w.request)) {
+        cursor.iterator.remove();
+        byArrival.remove(w);
+        waiting.remove(w.request);
+        cursor.tenant.running++;
+      }
+      if (cursor.tenant.canStartSession() && cursor.advance()) {
+        next.add(cursor);
+      }
+    }
+  }
+
+  /**
+   * offers the requests enqueued at agedBefore or earlier, by arrival order, and marks them as
+   * seen for that pass so that the tenants' cursors skip them.
+   */
+  private void processAged(Predicate<RequestHandler> consumer, long agedBefore, long pass) {
+    Iterator<Waiting> iterator = byArrival.iterator();
+    while (iterator.hasNext()) {
+      Waiting w = iterator.next();
+      if (w.enqueued > agedBefore) {
+        continue;
+      }
+      w.agedPass = pass;
+      if (w.tenant.canStartSession() && consumer.apply(w.request)) {
+        iterator.remove();
+        w.tenant.queue.remove(w);
+        waiting.remove(w.request);
+        w.tenant.running++;
+      }
+    }
+  }
+
+  public void sessionEnded(TestSession session) {
+    Tenant tenant = tenants.get(getTenantName(session.getRequestedCapabilities()));
+    if (tenant != null && tenant.running > 0) {
+      tenant.running--;
+      forgetIfIdle(tenant);
+    }
+  }
+
+  /**
+   * @return the number of sessions started for that tenant and not released yet.
+   */
+  public int getRunningSessions(String tenant) {
+    Tenant t = tenants.get(tenant);
+    return t == null ? 0 : t.running;
+  }
+
+  private String getTenantName(Map<String, Object> capabilities) {
+    if (tenantCapability == null || capabilities == null) {
+      return DEFAULT_TENANT;
+    }
+    Object value = capabilities.get(tenantCapability);
+    return value == null ? DEFAULT_TENANT : value.toString();
+  }
+
+  private Tenant getTenant(String name) {
+    Tenant tenant = tenants.get(name);
+    if (tenant == null) {
+      Integer weight = weights.get(name);
+      Integer max = maxSessions.get(name);
+      tenant = new Tenant(name, weight == null ? 1 : weight, max == null ? Integer.MAX_VALUE : max,
+                          new TreeSet<Waiting>(order));
+      tenants.put(name, tenant);
+    }
+    return tenant;
+  }
+
+  private void forgetIfIdle(Tenant tenant) {
+    if (tenant.queue.isEmpty() && tenant.running == 0) {
+      tenants.remove(tenant.name);
+    }
+  }
+
+  private void reorder(Prioritizer prioritizer) {
+    this.prioritizer = prioritizer;
+    this.order = new WaitingOrder(prioritizer);
+    for (Tenant tenant : tenants.values()) {
+      TreeSet<Waiting> queue = new TreeSet<Waiting>(order);
+      queue.addAll(tenant.queue);
+      tenant.queue = queue;
+    }
+  }
+
+  private static final Comparator<Waiting> BY_ARRIVAL = new Comparator<Waiting>() {
+    public int compare(Waiting a, Waiting b) {
+      return a.sequence < b.sequence ? -1 : (a.sequence == b.sequence ? 0 : 1);
+    }
+  };
+
+  private static class WaitingOrder implements Comparator<Waiting> {
+
+    private final Prioritizer prioritizer;
+
+    WaitingOrder(Prioritizer prioritizer) {
+      this.prioritizer = prioritizer;
+    }
+
+    public int compare(Waiting a, Waiting b) {
+      if (a == b) {
+        return 0;
+      }
+      if (prioritizer != null) {
+        int res = prioritizer.compareTo(a.request.getRequest().getDesiredCapabilities(),
+                                        b.request.getRequest().getDesiredCapabilities());
+        if (res != 0) {
+          return res;
+        }
+      }
+      return BY_ARRIVAL.compare(a, b);
+    }
+  }
+
+  private static class Waiting {
+
+    private final RequestHandler request;
+    private final Tenant tenant;
+    private final long enqueued;
+    private final long sequence;
+    // the last pass that offered the request as an aged one.
+    private long agedPass;
+
+    Waiting(RequestHandler request, Tenant tenant, long enqueued, long sequence) {
+      this.request = request;
+      this.tenant = tenant;
+      this.enqueued = enqueued;
+      this.sequence = sequence;
+    }
+  }
+
+  private static class Tenant {
+
+    private final String name;
+    private final int weight;
+    private final int maxSessions;
+    private TreeSet<Waiting> queue;
+    private int running = 0;
+
+    Tenant(String name, int weight, int maxSessions, TreeSet<Waiting> queue) {
+      this.name = name;
+      this.weight = weight;
+      this.maxSessions = maxSessions;
+      this.queue = queue;
+    }
+
+    boolean canStartSession() {
+      return running < maxSessions;
+    }
+  }
+
+  /**
+   * Where a pass is in the queue of a tenant, skipping the requests already offered as aged ones.
+   * The cursors are ordered by the share of their tenant, sessions running / weight, then by the
+   * arrival of their current request.
+   */
+  private static class Cursor implements Comparable<Cursor> {
+
+    private final Tenant tenant;
+    private final Iterator<Waiting> iterator;
+    private final long pass;
+    private Waiting head;
+
+    Cursor(Tenant tenant, long pass) {
+      this.tenant = tenant;
+      this.iterator = tenant.queue.iterator();
+      this.pass = pass;
+    }
+
+    boolean advance() {
+      while (iterator.hasNext()) {
+        head = iterator.next();
+        if (head.agedPass != pass) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    public int compareTo(Cursor o) {
+      long share = (long) tenant.running * o.tenant.weight;
+      long otherShare = (long) o.tenant.running * tenant.weight;
+      if (share != otherShare) {
+        return share < otherShare ? -1 : 1;
+      }
+      return BY_ARRIVAL.compare(head, o.head);
+    }
+  }
+}
@@ -84,6 +84,34 @@ public class GridHubConfiguration {
    */
   private CapabilityMatcher matcher = new DefaultCapabilityMatcher();
 
+  /**
+   * to specify in which order the new session requests get the free slots. One instance is created
+   * for each registry.
+   */
+  private Class<? extends NewSessionScheduler> newSessionScheduler = FairShareScheduler.class;
+
+  /**
+   * the desired capability telling which tenant ( team, project, CI ... ) a new session request
+   * comes from, for the schedulers sharing the grid between tenants. null = a single tenant.
+   */
+  private String tenantCapability = null;
+
+  /**
+   * tenant <-> weight. A tenant gets a share of the grid proportional to its weight, 1 by default.
+   */
+  private Map<String, Integer> tenantWeights = new HashMap<String, Integer>();
+
+  /**
+   * tenant <-> max number of sessions it can run at the same time. No limit by default.
+   */
+  private Map<String, Integer> tenantMaxSessions = new HashMap<String, Integer>();
+
+  /**
+   * in ms. A new session request that has waited more than that goes before the newer ones,
+   * whatever their priority. 0 = no aging.
+   */
+  private int newSessionAgingInterval = 0;
+
   /**
    * true by default.If true, the hub will throw exception as soon as a request not supported by the
    * grid is received. If set to false, the request will be queued, hoping that a node will be
@@ -91,6 +119,13 @@ public class GridHubConfiguration {
    */
   private boolean throwOnCapabilityNotPresent = true;
 
+  /**
+   * false by default. If true, the hub doesn't hold a thread for each command being forwarded to a
+   * node. The requests are suspended while a non blocking http client waits for the node's
+   * response.
+   */
+  private boolean asyncForwarding = false;
+
   /**
    * The filename to use for logging. Default value is <code>null</code> and indicates logging to
    * STDOUT.
@@ -194,12 +229,31 @@ public class GridHubConfiguration {
       throwOnCapabilityNotPresent =
           Boolean.parseBoolean(helper.getParamValue("-throwOnCapabilityNotPresent"));
     }
+    if (helper.isParamPresent("-asyncForwarding")) {
+      asyncForwarding = Boolean.parseBoolean(helper.getParamValue("-asyncForwarding"));
+    }
     if (helper.isParamPresent("-prioritizer")) {
       setPrioritizer(helper.getParamValue("-prioritizer"));
     }
     if (helper.isParamPresent("-capabilityMatcher")) {
       setCapabilityMatcher(helper.getParamValue("-capabilityMatcher"));
     }
+    if (helper.isParamPresent("-newSessionScheduler")) {
+      setNewSessionScheduler(helper.getParamValue("-newSessionScheduler"));
+    }
+    if (helper.isParamPresent("-tenantCapability")) {
+      tenantCapability = helper.getParamValue("-tenantCapability");
+    }
+    if (helper.isParamPresent("-tenantWeights")) {
+      tenantWeights = parseTenantValues("tenantWeights", helper.getParamValues("-tenantWeights"));
+    }
+    if (helper.isParamPresent("-tenantMaxSessions")) {
+      tenantMaxSessions =
+          parseTenantValues("tenantMaxSessions", helper.getParamValues("-tenantMaxSessions"));
+    }
+    if (helper.isParamPresent("-newSessionAgingInterval")) {
+      newSessionAgingInterval = Integer.parseInt(helper.getParamValue("-newSessionAgingInterval"));
+    }
     if (helper.isParamPresent("-servlets")) {
       servlets = helper.getParamValues("-servlets");
     }
@@ -312,9 +366,28 @@ public class GridHubConfiguration {
         String capabilityMatcherClass = o.getString("capabilityMatcher");
         setCapabilityMatcher(capabilityMatcherClass);
       }
+      if (o.has("newSessionScheduler") && !o.isNull("newSessionScheduler")) {
+        setNewSessionScheduler(o.getString("newSessionScheduler"));
+      }
+      if (o.has("tenantCapability") && !o.isNull("tenantCapability")) {
+        tenantCapability = o.getString("tenantCapability");
+      }
+      if (o.has("tenantWeights") && !o.isNull("tenantWeights")) {
+        tenantWeights = parseTenantValues("tenantWeights", o.getJSONObject("tenantWeights"));
+      }
+      if (o.has("tenantMaxSessions") && !o.isNull("tenantMaxSessions")) {
+        tenantMaxSessions =
+            parseTenantValues("tenantMaxSessions", o.getJSONObject("tenantMaxSessions"));
+      }
+      if (o.has("newSessionAgingInterval") && !o.isNull("newSessionAgingInterval")) {
+        newSessionAgingInterval = o.getInt("newSessionAgingInterval");
+      }
       if (o.has("throwOnCapabilityNotPresent") && !o.isNull("throwOnCapabilityNotPresent")) {
         throwOnCapabilityNotPresent = o.getBoolean("throwOnCapabilityNotPresent");
       }
+      if (o.has("asyncForwarding") && !o.isNull("asyncForwarding")) {
+        asyncForwarding = o.getBoolean("asyncForwarding");
+      }
 
       // store them all.
       for (Iterator iterator = o.keys(); iterator.hasNext();) {
@@ -394,6 +467,47 @@ public class GridHubConfiguration {
     return throwOnCapabilityNotPresent;
   }
 
+  public Class<? extends NewSessionScheduler> getNewSessionScheduler() {
+    return newSessionScheduler;
+  }
+
+  /**
+   * @return a new instance of the scheduler, built with this configuration if it has a constructor
+   *         taking a GridHubConfiguration, with its default constructor otherwise.
+   */
+  public NewSessionScheduler createNewSessionScheduler() {
+    try {
+      try {
+        return newSessionScheduler.getConstructor(GridHubConfiguration.class).newInstance(this);
+      } catch (NoSuchMethodException e) {
+        return newSessionScheduler.getConstructor().newInstance();
+      }
+    } catch (Throwable e) {
+      throw new GridConfigurationException("Error creating the new session scheduler from class " +
+          newSessionScheduler.getName() + " : " + e.getMessage(), e);
+    }
+  }
+
+  public String getTenantCapability() {
+    return tenantCapability;
+  }
+
+  public Map<String, Integer> getTenantWeights() {
+    return tenantWeights;
+  }
+
+  public Map<String, Integer> getTenantMaxSessions() {
+    return tenantMaxSessions;
+  }
+
+  public int getNewSessionAgingInterval() {
+    return newSessionAgingInterval;
+  }
+
+  public boolean isAsyncForwarding() {
+    return asyncForwarding;
+  }
+
   public void setHost(String host) {
     this.host = host;
   }
@@ -470,10 +584,77 @@ public class GridHubConfiguration {
     this.matcher = matcher;
   }
 
+  public void setNewSessionScheduler(String schedulerClass) {
+    try {
+      setNewSessionScheduler(Class.forName(schedulerClass).asSubclass(NewSessionScheduler.class));
+    } catch (Throwable e) {
+      throw new GridConfigurationException("Error loading the new session scheduler class " +
+          schedulerClass + " : " + e.getMessage(), e);
+    }
+  }
+
+  public void setNewSessionScheduler(Class<? extends NewSessionScheduler> newSessionScheduler) {
+    this.newSessionScheduler = newSessionScheduler;
+  }
+
+  public void setTenantCapability(String tenantCapability) {
+    this.tenantCapability = tenantCapability;
+  }
+
+  public void setTenantWeights(Map<String, Integer> tenantWeights) {
+    this.tenantWeights = tenantWeights;
+  }
+
+  public void setTenantMaxSessions(Map<String, Integer> tenantMaxSessions) {
+    this.tenantMaxSessions = tenantMaxSessions;
+  }
+
+  public void setNewSessionAgingInterval(int newSessionAgingInterval) {
+    this.newSessionAgingInterval = newSessionAgingInterval;
+  }
+
+  /**
+   * @param values tenant:value, as passed command line.
+   */
+  private static Map<String, Integer> parseTenantValues(String param, List<String> values) {
+    Map<String, Integer> res = new HashMap<String, Integer>();
+    for (String value : values) {
+      int separator = value.lastIndexOf(':');
+      if (separator == -1) {
+        throw new GridConfigurationException(param + " should be a list of tenant:value, got " +
+            value);
+      }
+      res.put(value.substring(0, separator).trim(),
+          checkPositive(param, value.substring(separator + 1).trim()));
+    }
+    return res;
+  }
+
+  private static Map<String, Integer> parseTenantValues(String param, JSONObject values) {
+    Map<String, Integer> res = new HashMap<String, Integer>();
+    for (Iterator iterator = values.keys(); iterator.hasNext();) {
+      String tenant = (String) iterator.next();
+      res.put(tenant, checkPositive(param, values.opt(tenant).toString()));
+    }
+    return res;
+  }
+
+  private static int checkPositive(String param, String value) {
+    int res = Integer.parseInt(value);
+    if (res <= 0) {
+      throw new GridConfigurationException(param + " values should be positive, got " + value);
+    }
+    return res;
+  }
+
   public void setThrowOnCapabilityNotPresent(boolean throwOnCapabilityNotPresent) {
     this.throwOnCapabilityNotPresent = throwOnCapabilityNotPresent;
   }
 
+  public void setAsyncForwarding(boolean asyncForwarding) {
+    this.asyncForwarding = asyncForwarding;
+  }
+
   public String[] getArgs() {
     return args;
   }
@@ -489,12 +670,18 @@ public class GridHubConfiguration {
     b.append("newSessionWaitTimeout: ").append(newSessionWaitTimeout).append("\n");
     b.append("grid1Mapping: ").append(grid1Mapping).append("\n");
     b.append("throwOnCapabilityNotPresent: ").append(throwOnCapabilityNotPresent).append("\n");
+    b.append("asyncForwarding: ").append(asyncForwarding).append("\n");
 
     b.append("capabilityMatcher: ")
         .append(matcher == null ? "null" : matcher.getClass().getCanonicalName()).append("\n");
     b.append("prioritizer: ")
         .append(prioritizer == null ? "null" : prioritizer.getClass().getCanonicalName())
         .append("\n");
+    b.append("newSessionScheduler: ").append(newSessionScheduler.getCanonicalName()).append("\n");
+    b.append("tenantCapability: ").append(tenantCapability).append("\n");
+    b.append("tenantWeights: ").append(tenantWeights).append("\n");
+    b.append("tenantMaxSessions: ").append(tenantMaxSessions).append("\n");
+    b.append("newSessionAgingInterval: ").append(newSessionAgingInterval).append("\n");
     b.append("servlets: ");
     for (String s : servlets) {
       b.append(s.getClass().getCanonicalName()).append(",");
@@ -0,0 +1,118 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.openqa.grid.internal.utils;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of durations, counted in fixed buckets. Recording a value is a couple of atomic
+ * increments, no lock and no allocation, so it can be used on the forwarding path. The percentiles
+ * are approximated by the upper bound of the bucket they fall in.
+ */
+@ThreadSafe
+public class Histogram {
+
+  /**
+   * upper bounds of the buckets, in microseconds, from 100us to 5 minutes.
+   */
+  public static final long[] DEFAULT_BOUNDS_US = {
+      100, 250, 500,
+      1000, 2500, 5000, 10000, 25000, 50000, 100000, 250000, 500000,
+      1000000, 2500000, 5000000, 10000000, 30000000, 60000000, 300000000};
+
+  private final long[] bounds;
+  // one more than the bounds, for the values above the last bound.
+  private final AtomicLongArray buckets;
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  public Histogram() {
+    this(DEFAULT_BOUNDS_US);
+  }
+
+  /**
+   * @param bounds the upper bounds of the buckets, sorted.
+   */
+  public Histogram(long[] bounds) {
+    this.bounds = bounds.clone();
+    this.buckets = new AtomicLongArray(bounds.length + 1);
+  }
+
+  public void record(long valueUs) {
+    int i = 0;
+    while (i < bounds.length && valueUs > bounds[i]) {
+      i++;
+    }
+    buckets.incrementAndGet(i);
+    count.incrementAndGet();
+    sum.addAndGet(valueUs);
+    long current = max.get();
+    while (valueUs > current && !max.compareAndSet(current, valueUs)) {
+      current = max.get();
+    }
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  public long getSum() {
+    return sum.get();
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * @param percentile between 0 and 100
+   * @return the upper bound of the bucket containing that percentile, or the max value recorded if
+   *         it's above the last bucket. 0 if nothing was recorded.
+   */
+  public long getPercentile(double percentile) {
+    long total = count.get();
+    if (total == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(total * percentile / 100);
+    long seen = 0;
+    for (int i = 0; i < bounds.length; i++) {
+      seen += buckets.get(i);
+      if (seen >= rank) {
+        return Math.min(bounds[i], max.get());
+      }
+    }
+    return max.get();
+  }
+
+  public long[] getBounds() {
+    return bounds.clone();
+  }
+
+  /**
+   * @return the number of values recorded in the bucket i, bounds.length being the bucket of the
+   *         values above the last bound.
+   */
+  public long getBucketCount(int i) {
+    return buckets.get(i);
+  }
+}
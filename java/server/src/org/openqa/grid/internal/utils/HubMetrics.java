@@ -0,0 +1,177 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.openqa.grid.internal.utils;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * What the hub measures about itself : how long the new session requests wait to be assigned a
+ * slot, how long the matcher works on the queue, how much the registry lock is contended, and how
+ * the commands forwarded to each node perform. Durations are in microseconds.
+ *
+ * Published on /grid/api/metrics.
+ */
+@ThreadSafe
+public class HubMetrics {
+
+  private final Histogram newSessionQueueWait = new Histogram();
+  private final Histogram matcherPass = new Histogram();
+  private final Histogram registryLockWait = new Histogram();
+  private final Histogram registryLockHold = new Histogram();
+  private final Histogram sessionReleaseWait = new Histogram();
+  private final AtomicLong sessionReleaseBatches = new AtomicLong();
+  private final AtomicLong sessionReleasesInline = new AtomicLong();
+  private final ConcurrentMap<String, NodeMetrics> nodes =
+      new ConcurrentHashMap<String, NodeMetrics>();
+
+  /**
+   * time between the reception of a new session request and the slot being assigned.
+   */
+  public Histogram getNewSessionQueueWait() {
+    return newSessionQueueWait;
+  }
+
+  /**
+   * time the matcher spends going through the queue of new session requests, each time something
+   * changes in the registry.
+   */
+  public Histogram getMatcherPass() {
+    return matcherPass;
+  }
+
+  /**
+   * time spent waiting to get the registry lock.
+   */
+  public Histogram getRegistryLockWait() {
+    return registryLockWait;
+  }
+
+  /**
+   * time the registry lock is held once acquired.
+   */
+  public Histogram getRegistryLockHold() {
+    return registryLockHold;
+  }
+
+  /**
+   * time a terminated session waits for a thread to be released.
+   */
+  public Histogram getSessionReleaseWait() {
+    return sessionReleaseWait;
+  }
+
+  public void addSessionReleaseBatch() {
+    sessionReleaseBatches.incrementAndGet();
+  }
+
+  /**
+   * @return the number of batches of sessions released, each batch being the sessions of a proxy
+   *         terminated while waiting for a thread.
+   */
+  public long getSessionReleaseBatches() {
+    return sessionReleaseBatches.get();
+  }
+
+  public void addSessionReleaseInline() {
+    sessionReleasesInline.incrementAndGet();
+  }
+
+  /**
+   * @return the number of sessions released by the thread terminating them, because too many
+   *         releases were waiting already.
+   */
+  public long getSessionReleasesInline() {
+    return sessionReleasesInline.get();
+  }
+
+  /**
+   * starts measuring a node that registered.
+   */
+  public void addNode(String nodeId) {
+    nodes.putIfAbsent(nodeId, new NodeMetrics());
+  }
+
+  /**
+   * forgets the metrics of a node that left the grid.
+   */
+  public void removeNode(String nodeId) {
+    nodes.remove(nodeId);
+  }
+
+  /**
+   * @param nodeId the id of the proxy the commands are forwarded to.
+   * @return the metrics of the node, null if the node isn't registered.
+   */
+  public NodeMetrics getNodeMetrics(String nodeId) {
+    return nodes.get(nodeId);
+  }
+
+  /**
+   * @return the metrics of all the registered nodes, by node id.
+   */
+  public Map<String, NodeMetrics> getAllNodeMetrics() {
+    return Collections.unmodifiableMap(nodes);
+  }
+
+  /**
+   * the commands forwarded to a node.
+   */
+  @ThreadSafe
+  public static class NodeMetrics {
+
+    private final Histogram forwardLatency = new Histogram();
+    private final AtomicLong bytesToNode = new AtomicLong();
+    private final AtomicLong bytesFromNode = new AtomicLong();
+
+    /**
+     * time between the hub sending the command to the node and the response being entirely
+     * copied to the client.
+     */
+    public Histogram getForwardLatency() {
+      return forwardLatency;
+    }
+
+    public void addBytesToNode(long bytes) {
+      bytesToNode.addAndGet(bytes);
+    }
+
+    public void addBytesFromNode(long bytes) {
+      bytesFromNode.addAndGet(bytes);
+    }
+
+    /**
+     * @return the size of the request bodies sent to the node.
+     */
+    public long getBytesToNode() {
+      return bytesToNode.get();
+    }
+
+    /**
+     * @return the size of the response bodies received from the node.
+     */
+    public long getBytesFromNode() {
+      return bytesFromNode.get();
+    }
+  }
+}
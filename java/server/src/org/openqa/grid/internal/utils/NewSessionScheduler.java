@@ -0,0 +1,69 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.openqa.grid.internal.utils;
+
+import com.google.common.base.Predicate;
+
+import org.openqa.grid.internal.TestSession;
+import org.openqa.grid.internal.listeners.Prioritizer;
+import org.openqa.grid.web.servlet.handler.RequestHandler;
+
+import java.util.List;
+
+/**
+ * Holds the new session requests waiting for a slot, and decides in which order they are offered
+ * to the proxies.
+ *
+ * The registry only calls the scheduler through the new session queue, one call at a time, so the
+ * implementations don't need to be thread safe. They are created by
+ * {@link GridHubConfiguration#createNewSessionScheduler()}, one per registry.
+ *
+ * @see FairShareScheduler
+ */
+public interface NewSessionScheduler {
+
+  void add(RequestHandler request);
+
+  /**
+   * @return true if that very request was waiting, and isn't anymore.
+   */
+  boolean remove(RequestHandler request);
+
+  void clear();
+
+  int size();
+
+  /**
+   * @return a copy of the requests waiting, oldest first.
+   */
+  List<RequestHandler> getRequests();
+
+  /**
+   * Offers the waiting requests to the consumer, in the order they should be served. The ones the
+   * consumer takes are removed from the scheduler.
+   *
+   * @param consumer returns true if it has found a slot for the request.
+   * @param prioritizer the prioritizer configured on the registry, can be null.
+   */
+  void process(Predicate<RequestHandler> consumer, Prioritizer prioritizer);
+
+  /**
+   * called when a session that was started for one of the requests of this scheduler is released.
+   */
+  void sessionEnded(TestSession session);
+}
@@ -216,7 +216,7 @@ public class SelfRegisteringRemote {
                   LoggingManager.perSessionLogHandler().clearThreadTempLogs();
                 }
               }
-            }).start();
+            }, "Node registration").start();
       } else {
         registerToHub(false);
       }
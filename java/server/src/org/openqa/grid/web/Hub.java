@@ -38,6 +38,7 @@ import org.openqa.grid.web.servlet.ConsoleServlet;
 import org.openqa.grid.web.servlet.DisplayHelpServlet;
 import org.openqa.grid.web.servlet.DriverServlet;
 import org.openqa.grid.web.servlet.Grid1HeartbeatServlet;
+import org.openqa.grid.web.servlet.HubMetricsServlet;
 import org.openqa.grid.web.servlet.HubStatusServlet;
 import org.openqa.grid.web.servlet.LifecycleServlet;
 import org.openqa.grid.web.servlet.ProxyStatusServlet;
@@ -45,8 +46,10 @@ import org.openqa.grid.web.servlet.RegistrationServlet;
 import org.openqa.grid.web.servlet.ResourceServlet;
 import org.openqa.grid.web.servlet.TestSessionStatusServlet;
 import org.openqa.grid.web.utils.ExtraServletUtil;
+import org.seleniumhq.jetty7.server.AbstractConnector;
 import org.seleniumhq.jetty7.server.Server;
 import org.seleniumhq.jetty7.server.bio.SocketConnector;
+import org.seleniumhq.jetty7.server.nio.SelectChannelConnector;
 import org.seleniumhq.jetty7.servlet.ServletContextHandler;
 import org.openqa.selenium.net.NetworkUtils;
 import org.openqa.selenium.server.RemoteControlConfiguration;
@@ -129,7 +132,11 @@ public class Hub {
   private void initServer() {
     try {
       server = new Server();
-      SocketConnector socketListener = new SocketConnector();
+      // the requests suspended while forwarded asynchronously only release their thread with a
+      // non blocking connector.
+      AbstractConnector socketListener = registry.getConfiguration().isAsyncForwarding()
+                                         ? new SelectChannelConnector()
+                                         : new SocketConnector();
       socketListener.setMaxIdleTime(60000);
       socketListener.setPort(port);
       server.addConnector(socketListener);
@@ -155,6 +162,7 @@ public class Hub {
 
       root.addServlet(ProxyStatusServlet.class.getName(), "/grid/api/proxy/*");
       root.addServlet(HubStatusServlet.class.getName(), "/grid/api/hub/*");
+      root.addServlet(HubMetricsServlet.class.getName(), "/grid/api/metrics/*");
       root.addServlet(TestSessionStatusServlet.class.getName(), "/grid/api/testsession/*");
       root.addServlet(LifecycleServlet.class.getName(), "/lifecycle-manager/*");
 
@@ -17,22 +17,13 @@ limitations under the License.
 
 package org.openqa.grid.web.servlet;
 
-import com.google.common.io.ByteStreams;
-
-import org.openqa.grid.internal.ExternalSessionKey;
-import org.openqa.selenium.remote.ErrorCodes;
-
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
 import org.openqa.grid.internal.Registry;
 import org.openqa.grid.web.servlet.handler.RequestHandler;
 import org.openqa.grid.web.servlet.handler.SeleniumBasedRequest;
+import org.openqa.grid.web.servlet.handler.WebDriverErrorResponse;
 import org.openqa.grid.web.servlet.handler.WebDriverRequest;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -85,47 +76,7 @@ public class DriverServlet extends RegistryBasedServlet {
 
     } catch (Throwable e) {
       if (r instanceof WebDriverRequest && !response.isCommitted()) {
-        // http://code.google.com/p/selenium/wiki/JsonWireProtocol#Error_Handling
-        response.reset();
-        response.setContentType("application/json");
-        response.setCharacterEncoding("UTF-8");
-        response.setStatus(500);
-
-        JSONObject resp = new JSONObject();
-        try {
-          final ExternalSessionKey serverSession = req.getServerSession();
-          resp.put("sessionId", serverSession != null ? serverSession.getKey() : null);
-          resp.put("status", ErrorCodes.UNHANDLED_ERROR);
-          JSONObject value = new JSONObject();
-          value.put("message", e.getMessage());
-          value.put("class", e.getClass().getCanonicalName());
-
-          JSONArray stacktrace = new JSONArray();
-          for (StackTraceElement ste : e.getStackTrace()) {
-            JSONObject st = new JSONObject();
-            st.put("fileName", ste.getFileName());
-            st.put("className", ste.getClassName());
-            st.put("methodName", ste.getMethodName());
-            st.put("lineNumber", ste.getLineNumber());
-            stacktrace.put(st);
-          }
-          value.put("stackTrace", stacktrace);
-          resp.put("value", value);
-
-        } catch (JSONException e1) {
-          e1.printStackTrace();
-        }
-        String json = resp.toString();
-
-        byte[] bytes = json.getBytes("UTF-8");
-        InputStream in = new ByteArrayInputStream(bytes);
-        try {
-            response.setHeader("Content-Length", Integer.toString(bytes.length));
-            ByteStreams.copy(in, response.getOutputStream());
-        } finally {
-          in.close();
-          response.flushBuffer();
-        }
+        WebDriverErrorResponse.write(response, req != null ? req.getServerSession() : null, e);
       } else {
         throw (new IOException(e));
       }
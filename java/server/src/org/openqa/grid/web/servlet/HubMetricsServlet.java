@@ -0,0 +1,234 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.openqa.grid.web.servlet;
+
+import java.io.IOException;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openqa.grid.common.exception.GridException;
+import org.openqa.grid.internal.Registry;
+import org.openqa.grid.internal.utils.Histogram;
+import org.openqa.grid.internal.utils.HubMetrics;
+
+/**
+ * API to get the metrics of the hub, to size the grid.
+ *
+ * GET grid/api/metrics returns them as JSON, the durations being in milliseconds :
+ *
+ * {"newSessionQueue": {"size": 2, "activeSessions": 10, "wait": {...}},
+ *  "matcherPass": {...},
+ *  "registryLock": {"wait": {...}, "hold": {...}},
+ *  "sessionRelease": {"backlog": 0, "batches": 12, "inline": 0, "wait": {...}},
+ *  "nodes": {"http://node1:5555": {"bytesToNode": 1234, "bytesFromNode": 5678, "latency": {...}}}
+ * }
+ *
+ * with each distribution as {"count":, "mean":, "max":, "p50":, "p90":, "p99":}
+ *
+ * GET grid/api/metrics?format=prometheus returns them in the prometheus text format, in seconds.
+ */
+public class HubMetricsServlet extends RegistryBasedServlet {
+
+  private static final long serialVersionUID = -5217931227457298374L;
+
+  private static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4";
+
+  public HubMetricsServlet() {
+    this(null);
+  }
+
+  public HubMetricsServlet(Registry registry) {
+    super(registry);
+  }
+
+  @Override
+  protected void doGet(HttpServletRequest request, HttpServletResponse response)
+      throws ServletException, IOException {
+    process(request, response);
+  }
+
+  protected void process(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    response.setCharacterEncoding("UTF-8");
+    response.setStatus(200);
+    if ("prometheus".equals(request.getParameter("format"))) {
+      response.setContentType(PROMETHEUS_CONTENT_TYPE);
+      response.getWriter().print(getPrometheusText());
+    } else {
+      response.setContentType("application/json");
+      try {
+        response.getWriter().print(getJSON());
+      } catch (JSONException e) {
+        throw new GridException(e.getMessage());
+      }
+    }
+    response.getWriter().close();
+  }
+
+  private JSONObject getJSON() throws JSONException {
+    HubMetrics metrics = getRegistry().getMetrics();
+    JSONObject res = new JSONObject();
+    res.put("success", true);
+
+    JSONObject queue = new JSONObject();
+    queue.put("size", getRegistry().getNewSessionRequestCount());
+    queue.put("activeSessions", getRegistry().getActiveSessions().size());
+    queue.put("wait", toJSON(metrics.getNewSessionQueueWait()));
+    res.put("newSessionQueue", queue);
+
+    res.put("matcherPass", toJSON(metrics.getMatcherPass()));
+
+    JSONObject lock = new JSONObject();
+    lock.put("wait", toJSON(metrics.getRegistryLockWait()));
+    lock.put("hold", toJSON(metrics.getRegistryLockHold()));
+    res.put("registryLock", lock);
+
+    JSONObject release = new JSONObject();
+    release.put("backlog", getRegistry().getSessionReleaseBacklog());
+    release.put("batches", metrics.getSessionReleaseBatches());
+    release.put("inline", metrics.getSessionReleasesInline());
+    release.put("wait", toJSON(metrics.getSessionReleaseWait()));
+    res.put("sessionRelease", release);
+
+    JSONObject nodes = new JSONObject();
+    for (Map.Entry<String, HubMetrics.NodeMetrics> entry : metrics.getAllNodeMetrics().entrySet()) {
+      HubMetrics.NodeMetrics node = entry.getValue();
+      JSONObject n = new JSONObject();
+      n.put("bytesToNode", node.getBytesToNode());
+      n.put("bytesFromNode", node.getBytesFromNode());
+      n.put("latency", toJSON(node.getForwardLatency()));
+      nodes.put(entry.getKey(), n);
+    }
+    res.put("nodes", nodes);
+    return res;
+  }
+
+  private JSONObject toJSON(Histogram histogram) throws JSONException {
+    JSONObject res = new JSONObject();
+    long count = histogram.getCount();
+    res.put("count", count);
+    res.put("mean", count == 0 ? 0 : toMillis(histogram.getSum()) / count);
+    res.put("max", toMillis(histogram.getMax()));
+    res.put("p50", toMillis(histogram.getPercentile(50)));
+    res.put("p90", toMillis(histogram.getPercentile(90)));
+    res.put("p99", toMillis(histogram.getPercentile(99)));
+    return res;
+  }
+
+  private static double toMillis(long micros) {
+    return micros / 1000.0;
+  }
+
+  private String getPrometheusText() {
+    HubMetrics metrics = getRegistry().getMetrics();
+    StringBuilder b = new StringBuilder();
+
+    gauge(b, "grid_new_session_queue_size", "New session requests waiting for a slot.",
+          getRegistry().getNewSessionRequestCount());
+    gauge(b, "grid_active_sessions", "Sessions running on the grid.",
+          getRegistry().getActiveSessions().size());
+    histogram(b, "grid_new_session_queue_wait_seconds",
+              "Time new session requests waited for a slot.", metrics.getNewSessionQueueWait());
+    histogram(b, "grid_matcher_pass_seconds",
+              "Time the matcher spent going through the new session queue.",
+              metrics.getMatcherPass());
+    histogram(b, "grid_registry_lock_wait_seconds", "Time spent waiting for the registry lock.",
+              metrics.getRegistryLockWait());
+    histogram(b, "grid_registry_lock_hold_seconds", "Time the registry lock was held.",
+              metrics.getRegistryLockHold());
+    gauge(b, "grid_session_release_backlog", "Terminated sessions waiting to be released.",
+          getRegistry().getSessionReleaseBacklog());
+    counter(b, "grid_session_release_batches_total",
+            "Batches of sessions released, one batch per proxy.",
+            metrics.getSessionReleaseBatches());
+    counter(b, "grid_session_releases_inline_total",
+            "Sessions released by the terminating thread because of the backlog.",
+            metrics.getSessionReleasesInline());
+    histogram(b, "grid_session_release_wait_seconds",
+              "Time terminated sessions waited to be released.", metrics.getSessionReleaseWait());
+
+    Map<String, HubMetrics.NodeMetrics> nodes = metrics.getAllNodeMetrics();
+    header(b, "grid_node_forward_latency_seconds",
+           "Time to forward a command to a node and copy its response.", "histogram");
+    for (Map.Entry<String, HubMetrics.NodeMetrics> entry : nodes.entrySet()) {
+      buckets(b, "grid_node_forward_latency_seconds", "node=\"" + escape(entry.getKey()) + "\",",
+              entry.getValue().getForwardLatency());
+    }
+    header(b, "grid_node_forwarded_bytes_total", "Bytes of content forwarded to and from a node.",
+           "counter");
+    for (Map.Entry<String, HubMetrics.NodeMetrics> entry : nodes.entrySet()) {
+      String node = escape(entry.getKey());
+      b.append("grid_node_forwarded_bytes_total{node=\"").append(node)
+          .append("\",direction=\"to_node\"} ").append(entry.getValue().getBytesToNode())
+          .append("\n");
+      b.append("grid_node_forwarded_bytes_total{node=\"").append(node)
+          .append("\",direction=\"from_node\"} ").append(entry.getValue().getBytesFromNode())
+          .append("\n");
+    }
+    return b.toString();
+  }
+
+  private static void header(StringBuilder b, String name, String help, String type) {
+    b.append("# HELP ").append(name).append(" ").append(help).append("\n");
+    b.append("# TYPE ").append(name).append(" ").append(type).append("\n");
+  }
+
+  private static void gauge(StringBuilder b, String name, String help, long value) {
+    header(b, name, help, "gauge");
+    b.append(name).append(" ").append(value).append("\n");
+  }
+
+  private static void counter(StringBuilder b, String name, String help, long value) {
+    header(b, name, help, "counter");
+    b.append(name).append(" ").append(value).append("\n");
+  }
+
+  private static void histogram(StringBuilder b, String name, String help, Histogram histogram) {
+    header(b, name, help, "histogram");
+    buckets(b, name, "", histogram);
+  }
+
+  /**
+   * @param labels the labels other than le, each followed by a comma.
+   */
+  private static void buckets(StringBuilder b, String name, String labels, Histogram histogram) {
+    long[] bounds = histogram.getBounds();
+    long cumulated = 0;
+    for (int i = 0; i < bounds.length; i++) {
+      cumulated += histogram.getBucketCount(i);
+      b.append(name).append("_bucket{").append(labels).append("le=\"")
+          .append(bounds[i] / 1000000.0).append("\"} ").append(cumulated).append("\n");
+    }
+    cumulated += histogram.getBucketCount(bounds.length);
+    b.append(name).append("_bucket{").append(labels).append("le=\"+Inf\"} ").append(cumulated)
+        .append("\n");
+    String suffix = labels.length() == 0 ? "" : "{" + labels.substring(0, labels.length() - 1) + "}";
+    b.append(name).append("_sum").append(suffix).append(" ").append(histogram.getSum() / 1000000.0)
+        .append("\n");
+    b.append(name).append("_count").append(suffix).append(" ").append(cumulated).append("\n");
+  }
+
+  private static String escape(String label) {
+    return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+}
@@ -21,6 +21,7 @@ package org.openqa.grid.web.servlet;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.net.URL;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -28,11 +29,15 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.http.HttpHost;
+import org.apache.http.pool.PoolStats;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.openqa.grid.common.exception.GridException;
 import org.openqa.grid.internal.Registry;
+import org.openqa.grid.internal.RemoteProxy;
+import org.openqa.selenium.remote.internal.HttpClientFactory;
 
 /**
  * API to query the hub config remotly.
@@ -53,6 +58,13 @@ import org.openqa.grid.internal.Registry;
  * 
  * {"configuration": []  }
  *
+ * The response also contains the state of the pools of connections the hub keeps to the nodes,
+ * per node id and in total :
+ *
+ * "connectionPools": {
+ *      "total": {"leased": 2, "available": 3, "pending": 0, "max": 2000},
+ *      "http://node1:5555": {"leased": 2, "available": 1, "pending": 0, "max": 10}
+ * }
  */
 public class HubStatusServlet extends RegistryBasedServlet {
 
@@ -133,7 +145,31 @@ public class HubStatusServlet extends RegistryBasedServlet {
       res.put("success", false);
       res.put("msg", e.getMessage());
     }
+    res.put("connectionPools", getConnectionPools());
     return res;
 
   }
+
+  private JSONObject getConnectionPools() throws JSONException {
+    HttpClientFactory factory = getRegistry().getHttpClientFactory();
+    JSONObject pools = new JSONObject();
+    pools.put("total", toJSON(factory.getGridConnectionTotalStats()));
+    for (RemoteProxy proxy : getRegistry().getAllProxies()) {
+      URL remoteHost = proxy.getRemoteHost();
+      if (remoteHost != null) {
+        HttpHost node = new HttpHost(remoteHost.getHost(), remoteHost.getPort());
+        pools.put(proxy.getId(), toJSON(factory.getGridConnectionStats(node)));
+      }
+    }
+    return pools;
+  }
+
+  private JSONObject toJSON(PoolStats stats) throws JSONException {
+    JSONObject res = new JSONObject();
+    res.put("leased", stats.getLeased());
+    res.put("available", stats.getAvailable());
+    res.put("pending", stats.getPending());
+    res.put("max", stats.getMax());
+    return res;
+  }
 }
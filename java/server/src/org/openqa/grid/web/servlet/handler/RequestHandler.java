@@ -19,6 +19,8 @@ package org.openqa.grid.web.servlet.handler;
 
 import java.io.IOException;
 import java.net.SocketTimeoutException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -35,8 +37,12 @@ import org.openqa.grid.internal.RemoteProxy;
 import org.openqa.grid.internal.SessionTerminationReason;
 import org.openqa.grid.internal.TestSession;
 import org.openqa.grid.internal.exception.NewSessionException;
+import org.openqa.grid.internal.listeners.CommandListener;
 import org.openqa.grid.internal.listeners.Prioritizer;
 import org.openqa.grid.internal.listeners.TestSessionListener;
+import org.openqa.grid.internal.utils.DefaultCapabilityMatcher;
+import org.seleniumhq.jetty7.continuation.Continuation;
+import org.seleniumhq.jetty7.continuation.ContinuationSupport;
 
 
 /**
@@ -58,6 +64,9 @@ public class RequestHandler implements Comparable<RequestHandler> {
   private final CountDownLatch sessionAssigned = new CountDownLatch(1);
 
   private static final Logger log = Logger.getLogger(RequestHandler.class.getName());
+  // whether the handler classes override forwardRequest, which the asynchronous forwarding skips.
+  private static final ConcurrentMap<Class<?>, Boolean> forwardRequestOverridden =
+      new ConcurrentHashMap<Class<?>, Boolean>();
   private final Thread waitingThread;
 
   
@@ -69,6 +78,13 @@ public class RequestHandler implements Comparable<RequestHandler> {
     this.response = response;
     this.registry = registry;
     this.waitingThread = Thread.currentThread();
+    if (registry != null && request.getRequestType() == RequestType.START_SESSION
+        && request.getDesiredCapabilities() != null
+        && registry.getCapabilityMatcher() instanceof DefaultCapabilityMatcher) {
+      // the request will be matched against the nodes on each pass of the matcher.
+      ((DefaultCapabilityMatcher) registry.getCapabilityMatcher())
+          .precompile(request.getDesiredCapabilities());
+    }
   }
 
 
@@ -122,6 +138,10 @@ public class RequestHandler implements Comparable<RequestHandler> {
           throw new GridException("Session [" + sessionKey + "] not available - "
               + registry.getActiveSessions());
         }
+        if (canForwardAsync(session)) {
+          forwardRequestAsync(session);
+          break;
+        }
         try {
           forwardRequest(session, this);
         } catch (ClientGoneException e) {
@@ -145,6 +165,103 @@ public class RequestHandler implements Comparable<RequestHandler> {
   }
 
 
+  /**
+   * the regular commands are forwarded without holding the container thread when the hub is
+   * configured for it, unless the proxy needs to see the content of the commands, the handler
+   * forwards them its own way with {@link #forwardRequest(TestSession, RequestHandler)}, or their
+   * content is too large to be read in memory.
+   */
+  private boolean canForwardAsync(TestSession session) {
+    return registry.getConfiguration().isAsyncForwarding()
+        && !(session.getSlot().getProxy() instanceof CommandListener)
+        && !overridesForwardRequest(getClass())
+        && TestSession.canForwardAsync(request)
+        && ContinuationSupport.getContinuation(request).isInitial();
+  }
+
+  private static boolean overridesForwardRequest(Class<?> handlerClass) {
+    Boolean overridden = forwardRequestOverridden.get(handlerClass);
+    if (overridden == null) {
+      overridden = false;
+      for (Class<?> c = handlerClass; c != RequestHandler.class; c = c.getSuperclass()) {
+        try {
+          c.getDeclaredMethod("forwardRequest", TestSession.class, RequestHandler.class);
+          overridden = true;
+          break;
+        } catch (NoSuchMethodException e) {
+          // not in this class, look in its parent.
+        }
+      }
+      forwardRequestOverridden.put(handlerClass, overridden);
+    }
+    return overridden;
+  }
+
+  /**
+   * suspends the request until the node has replied. The response is written, and the session
+   * terminated if needed, by one of the registry's client writers as the node's response arrives.
+   */
+  private void forwardRequestAsync(final TestSession session) {
+    final Continuation continuation = ContinuationSupport.getContinuation(request);
+    // the session and browser timeouts apply, not the container's one.
+    continuation.setTimeout(0);
+    continuation.suspend(response);
+    try {
+      session.forwardAsync(request, response, new TestSession.ForwardCallback() {
+        public void onComplete() {
+          try {
+            if (request.getRequestType() == RequestType.STOP_SESSION) {
+              registry.terminate(session, SessionTerminationReason.CLIENT_STOPPED_SESSION);
+            }
+          } finally {
+            continuation.complete();
+          }
+        }
+
+        public void onFailure(Throwable t) {
+          try {
+            asyncForwardingFailed(session, t);
+          } finally {
+            continuation.complete();
+          }
+        }
+      });
+    } catch (Throwable t) {
+      // nothing was sent, still on the container thread that will report the error.
+      continuation.complete();
+      log.log(Level.SEVERE, "cannot forward the request " + t.getMessage(), t);
+      registry.terminate(session, SessionTerminationReason.FORWARDING_TO_NODE_FAILED);
+      throw new GridException("cannot forward the request " + t.getMessage(), t);
+    }
+  }
+
+  private void asyncForwardingFailed(TestSession session, Throwable t) {
+    if (t instanceof ClientGoneException) {
+      log.log(Level.WARNING, "The client is gone for session " + session + ", terminating");
+      registry.terminate(session, SessionTerminationReason.CLIENT_GONE);
+      return;
+    }
+    if (t instanceof SocketTimeoutException) {
+      registry.terminate(session, SessionTerminationReason.SO_TIMEOUT);
+      return;
+    }
+    log.log(Level.SEVERE, "cannot forward the request " + t.getMessage(), t);
+    registry.terminate(session, SessionTerminationReason.FORWARDING_TO_NODE_FAILED);
+    if (response.isCommitted()) {
+      return;
+    }
+    GridException error = new GridException("cannot forward the request " + t.getMessage(), t);
+    try {
+      if (request instanceof WebDriverRequest) {
+        WebDriverErrorResponse.write(response, getServerSession(), error);
+      } else {
+        response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, error.getMessage());
+      }
+    } catch (IOException e) {
+      log.log(Level.WARNING, "Cannot report the error to the client for session " + session, e);
+    }
+  }
+
   private void cleanup() {
     registry.removeNewSessionRequest(this);
     if (session != null) {
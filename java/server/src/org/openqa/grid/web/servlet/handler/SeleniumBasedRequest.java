@@ -23,6 +23,7 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.CharacterCodingException;
@@ -50,10 +51,14 @@ import com.google.common.io.ByteStreams;
  * etc ) Also allows to change the content of the request, or read it 
  * on the hub.
  * 
+ * The content is only read in memory when something on the hub needs it ( new session requests,
+ * selenium1 commands, listeners reading it ). Otherwise it is streamed to the node when the request
+ * is forwarded.
  */
 public abstract class SeleniumBasedRequest extends HttpServletRequestWrapper {
 
   private byte[] body;
+  private boolean bodyRead;
   private final Registry registry;
   private final RequestType type;
   private final String encoding = "UTF-8";
@@ -90,16 +95,11 @@ public abstract class SeleniumBasedRequest extends HttpServletRequestWrapper {
     this.registry = registry;
     this.type = type;
     this.desiredCapability = desiredCapability;
+    this.bodyRead = true;
   }
 
   public SeleniumBasedRequest(HttpServletRequest httpServletRequest, Registry registry) {
     super(httpServletRequest);
-    try {
-      InputStream is = super.getInputStream();
-      setBody(ByteStreams.toByteArray(is));
-    } catch (IOException ex) {
-      throw new RuntimeException(ex);
-    }
     this.registry = registry;
     type = extractRequestType();
 
@@ -146,8 +146,31 @@ public abstract class SeleniumBasedRequest extends HttpServletRequestWrapper {
     return type;
   }
 
+  private byte[] readBody() {
+    if (!bodyRead) {
+      try {
+        InputStream is = super.getInputStream();
+        setBody(ByteStreams.toByteArray(is));
+      } catch (IOException ex) {
+        throw new RuntimeException(ex);
+      }
+    }
+    return body;
+  }
+
+  /**
+   * @return true if the content of the request has been read by the hub, false if it's still to be
+   *         streamed from the client.
+   */
+  public boolean isBodyBuffered() {
+    return bodyRead;
+  }
+
   @Override
   public ServletInputStream getInputStream() throws IOException {
+    if (!bodyRead) {
+      return super.getInputStream();
+    }
     return new ServletInputStreamImpl(new ByteArrayInputStream(body));
   }
 
@@ -158,6 +181,9 @@ public abstract class SeleniumBasedRequest extends HttpServletRequestWrapper {
   
   @Override
   public int getContentLength() {
+    if (!bodyRead) {
+      return super.getContentLength();
+    }
     if (body == null){
       return 0;  
     }else {
@@ -167,10 +193,14 @@ public abstract class SeleniumBasedRequest extends HttpServletRequestWrapper {
   }
 
   public String getBody() {
+    byte[] content = readBody();
+    if (content == null) {
+      return null;
+    }
     try {
       Charset charset = Charset.forName(encoding);
       CharsetDecoder decoder = charset.newDecoder();
-      CharBuffer cbuf = decoder.decode(ByteBuffer.wrap(body));
+      CharBuffer cbuf = decoder.decode(ByteBuffer.wrap(content));
       return new String(cbuf.toString());
     } catch (CharacterCodingException e) {
       e.printStackTrace();
@@ -178,12 +208,25 @@ public abstract class SeleniumBasedRequest extends HttpServletRequestWrapper {
     return null;
   }
 
+  /**
+   * @return a reader on the content of the request, without decoding all of it into a String
+   *         first.
+   */
+  protected Reader getBodyReader() throws IOException {
+    byte[] content = readBody();
+    if (content == null) {
+      return null;
+    }
+    return new InputStreamReader(new ByteArrayInputStream(content), encoding);
+  }
+
   public void setBody(String content) {
     setBody(content.getBytes());
   }
 
   public void setBody(byte[] content) {
     body = content;
+    bodyRead = true;
     setAttribute("Content-Length", content.length);
   }
 
@@ -197,7 +240,8 @@ public abstract class SeleniumBasedRequest extends HttpServletRequestWrapper {
     StringBuilder builder = new StringBuilder();
     builder.append("["+format.format(new Date(timestamp))+"] ");
     builder.append(getMethod().toUpperCase() +" "+getPathInfo()+"   ");
-    if (getBody() != null && !getBody().isEmpty()) {
+    // don't consume a request that is going to be streamed to the node.
+    if (bodyRead && getBody() != null && !getBody().isEmpty()) {
       builder.append(getBody());
     }
     return builder.toString();
@@ -0,0 +1,91 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.openqa.grid.web.servlet.handler;
+
+import com.google.common.io.ByteStreams;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openqa.grid.internal.ExternalSessionKey;
+import org.openqa.selenium.remote.ErrorCodes;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * writes the errors of the hub to a webdriver client, following
+ * http://code.google.com/p/selenium/wiki/JsonWireProtocol#Error_Handling
+ */
+public class WebDriverErrorResponse {
+
+  private WebDriverErrorResponse() {
+  }
+
+  /**
+   * replaces whatever was buffered in the response by the error. The response mustn't be
+   * committed.
+   *
+   * @param serverSession the session the request was sent to, null if none was assigned yet.
+   */
+  public static void write(HttpServletResponse response, ExternalSessionKey serverSession,
+                           Throwable e) throws IOException {
+    response.reset();
+    response.setContentType("application/json");
+    response.setCharacterEncoding("UTF-8");
+    response.setStatus(500);
+
+    JSONObject resp = new JSONObject();
+    try {
+      resp.put("sessionId", serverSession != null ? serverSession.getKey() : null);
+      resp.put("status", ErrorCodes.UNHANDLED_ERROR);
+      JSONObject value = new JSONObject();
+      value.put("message", e.getMessage());
+      value.put("class", e.getClass().getCanonicalName());
+
+      JSONArray stacktrace = new JSONArray();
+      for (StackTraceElement ste : e.getStackTrace()) {
+        JSONObject st = new JSONObject();
+        st.put("fileName", ste.getFileName());
+        st.put("className", ste.getClassName());
+        st.put("methodName", ste.getMethodName());
+        st.put("lineNumber", ste.getLineNumber());
+        stacktrace.put(st);
+      }
+      value.put("stackTrace", stacktrace);
+      resp.put("value", value);
+
+    } catch (JSONException e1) {
+      e1.printStackTrace();
+    }
+    String json = resp.toString();
+
+    byte[] bytes = json.getBytes("UTF-8");
+    InputStream in = new ByteArrayInputStream(bytes);
+    try {
+      response.setHeader("Content-Length", Integer.toString(bytes.length));
+      ByteStreams.copy(in, response.getOutputStream());
+    } finally {
+      in.close();
+      response.flushBuffer();
+    }
+  }
+}
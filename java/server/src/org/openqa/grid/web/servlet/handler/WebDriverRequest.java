@@ -18,6 +18,7 @@ limitations under the License.
 
 package org.openqa.grid.web.servlet.handler;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -26,6 +27,7 @@ import javax.servlet.http.HttpServletRequest;
 
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 import org.openqa.grid.common.exception.GridException;
 import org.openqa.grid.internal.ExternalSessionKey;
 import org.openqa.grid.internal.Registry;
@@ -62,10 +64,10 @@ public class WebDriverRequest extends SeleniumBasedRequest {
 
   @Override
   public Map<String, Object> extractDesiredCapability() {
-    String json = getBody();
     Map<String, Object> desiredCapability = new HashMap<String, Object>();
     try {
-      JSONObject map = new JSONObject(json);
+      // the values are kept as org.json reads them, as the ones the nodes registered with.
+      JSONObject map = new JSONObject(new JSONTokener(getBodyReader()));
       JSONObject dc = map.getJSONObject("desiredCapabilities");
       for (Iterator iterator = dc.keys(); iterator.hasNext();) {
         String key = (String) iterator.next();
@@ -76,7 +78,9 @@ public class WebDriverRequest extends SeleniumBasedRequest {
         desiredCapability.put(key, value);
       }
     } catch (JSONException e) {
-      throw new GridException("Cannot extract a capabilities from the request " + json);
+      throw new GridException("Cannot extract a capabilities from the request " + getBody());
+    } catch (IOException e) {
+      throw new GridException("Cannot extract a capabilities from the request " + getBody());
     }
     return desiredCapability;
   }
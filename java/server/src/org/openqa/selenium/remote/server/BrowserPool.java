@@ -0,0 +1,314 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.openqa.selenium.remote.server;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.MapMaker;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.openqa.selenium.Capabilities;
+import org.openqa.selenium.Platform;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.remote.CapabilityType;
+import org.openqa.selenium.remote.DesiredCapabilities;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps browsers launched ahead of the sessions, so that a new session doesn't wait for the
+ * browser to start.
+ *
+ * A number of browsers is kept ready per browser name, set with the system property
+ * {@link #SIZES_PROPERTY}, for instance -Dwebdriver.server.browserPool=firefox:2,chrome:1. A
+ * session gets a ready browser when it asks for nothing but a browser name, on any version and
+ * platform: a session asking for anything else, a profile or a proxy say, gets a browser of its
+ * own, launched the usual way.
+ *
+ * The browsers are launched on a fixed pool of threads, another one replacing each browser handed
+ * out. When the session ends, its browser is reset rather than quit: the other windows are closed,
+ * the cookies of the page the session ended on deleted and the browser goes to about:blank. It
+ * then goes back to the pool if the pool is not full already. Cookies set by the other sites the
+ * session visited are not reached by the reset, so the pool is meant for tests which don't depend
+ * on starting without any.
+ */
+public class BrowserPool implements DriverFactory {
+
+  /**
+   * The system property listing the number of browsers kept ready per browser name.
+   */
+  public static final String SIZES_PROPERTY = "webdriver.server.browserPool";
+
+  private static final Logger log = Logger.getLogger(BrowserPool.class.getName());
+
+  private static final int LAUNCH_THREADS = 2;
+
+  private final DriverFactory factory;
+  private final Map<String, Pool> pools = new HashMap<String, Pool>();
+  private final ExecutorService executor;
+  // the browsers handed out, by identity, and forgotten when a session loses its browser.
+  private final ConcurrentMap<WebDriver, Pool> leased = new MapMaker().weakKeys().makeMap();
+  private volatile boolean stopped;
+
+  /**
+   * @param factory launches the browsers.
+   * @param sizes the number of browsers to keep ready, by browser name.
+   */
+  public BrowserPool(DriverFactory factory, Map<String, Integer> sizes) {
+    this.factory = factory;
+    for (Map.Entry<String, Integer> entry : sizes.entrySet()) {
+      pools.put(entry.getKey(), new Pool(entry.getKey(), entry.getValue()));
+    }
+    this.executor = Executors.newFixedThreadPool(LAUNCH_THREADS,
+        new ThreadFactoryBuilder().setNameFormat("Browser pool %d").setDaemon(true).build());
+  }
+
+  /**
+   * @return the number of browsers to keep ready by browser name, as set with
+   *     {@link #SIZES_PROPERTY}, empty when it is not set.
+   */
+  public static Map<String, Integer> getSizesFromSystemProperties() {
+    String value = System.getProperty(SIZES_PROPERTY);
+    if (value == null || value.trim().length() == 0) {
+      return ImmutableMap.of();
+    }
+    Map<String, Integer> sizes = new HashMap<String, Integer>();
+    for (String pool : value.split(",")) {
+      String[] parts = pool.trim().split(":");
+      try {
+        if (parts.length != 2) {
+          throw new NumberFormatException();
+        }
+        sizes.put(parts[0].trim(), Integer.valueOf(parts[1].trim()));
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException(
+            SIZES_PROPERTY + " should read browser:size,browser:size... not " + value);
+      }
+    }
+    return sizes;
+  }
+
+  /**
+   * Launches the browsers, in the background. The drivers should all be registered by then.
+   */
+  public void start() {
+    for (Pool pool : pools.values()) {
+      for (int i = 0; i < pool.size; i++) {
+        pool.refill();
+      }
+    }
+    Runtime.getRuntime().addShutdownHook(new Thread("Browser pool shutdown") {
+      @Override
+      public void run() {
+        BrowserPool.this.stop();
+      }
+    });
+  }
+
+  /**
+   * Quits the browsers ready in the pool. The ones handed out are quit as their session ends.
+   */
+  public void stop() {
+    stopped = true;
+    executor.shutdownNow();
+    for (Pool pool : pools.values()) {
+      WebDriver driver;
+      while ((driver = pool.ready.poll()) != null) {
+        quit(driver);
+      }
+    }
+  }
+
+  public void registerDriver(Capabilities capabilities, Class<? extends WebDriver> implementation) {
+    factory.registerDriver(capabilities, implementation);
+  }
+
+  public boolean hasMappingFor(Capabilities capabilities) {
+    return factory.hasMappingFor(capabilities);
+  }
+
+  /**
+   * @return a ready browser if there is one for these capabilities, a new one otherwise.
+   */
+  public WebDriver newInstance(Capabilities capabilities) {
+    Pool pool = isPlain(capabilities) ? pools.get(capabilities.getBrowserName()) : null;
+    if (pool != null) {
+      WebDriver driver = pool.ready.poll();
+      if (driver != null) {
+        leased.put(driver, pool);
+        pool.refill();
+        return driver;
+      }
+    }
+    return factory.newInstance(capabilities);
+  }
+
+  /**
+   * Takes back the browser of a session which has ended.
+   *
+   * @return false if the browser is not from this pool, and is for the caller to quit.
+   */
+  public boolean release(final WebDriver driver) {
+    final Pool pool = leased.remove(driver);
+    if (pool == null) {
+      return false;
+    }
+    execute(new Runnable() {
+      public void run() {
+        if (pool.isFull()) {
+          quit(driver);
+          return;
+        }
+        try {
+          reset(driver);
+        } catch (RuntimeException e) {
+          log.log(Level.WARNING, "Unable to reset a " + pool.browserName + ", quitting it", e);
+          quit(driver);
+          pool.refill();
+          return;
+        }
+        pool.offer(driver);
+      }
+    }, driver);
+    return true;
+  }
+
+  @VisibleForTesting
+  int getReadyCount(String browserName) {
+    return pools.get(browserName).ready.size();
+  }
+
+  /**
+   * @return true if the capabilities ask for a browser and nothing more.
+   */
+  @VisibleForTesting
+  static boolean isPlain(Capabilities capabilities) {
+    for (Map.Entry<String, ?> entry : capabilities.asMap().entrySet()) {
+      String name = entry.getKey();
+      Object value = entry.getValue();
+      if (CapabilityType.BROWSER_NAME.equals(name) || value == null) {
+        continue;
+      }
+      if (CapabilityType.VERSION.equals(name) && "".equals(value)) {
+        continue;
+      }
+      if (CapabilityType.PLATFORM.equals(name)
+          && (Platform.ANY.equals(value) || "ANY".equals(value))) {
+        continue;
+      }
+      if (CapabilityType.SUPPORTS_JAVASCRIPT.equals(name) && Boolean.TRUE.equals(value)) {
+        continue;
+      }
+      return false;
+    }
+    return true;
+  }
+
+  private static void reset(WebDriver driver) {
+    Set<String> windows = driver.getWindowHandles();
+    if (windows.size() > 1) {
+      Iterator<String> handles = windows.iterator();
+      String first = handles.next();
+      while (handles.hasNext()) {
+        driver.switchTo().window(handles.next());
+        driver.close();
+      }
+      driver.switchTo().window(first);
+    }
+    driver.manage().deleteAllCookies();
+    driver.get("about:blank");
+  }
+
+  private static void quit(WebDriver driver) {
+    try {
+      driver.quit();
+    } catch (RuntimeException e) {
+      log.log(Level.WARNING, "Unable to quit a browser of the pool", e);
+    }
+  }
+
+  /**
+   * Runs the task on the pool threads, or quits the browser if the pool is stopped.
+   */
+  private void execute(Runnable task, WebDriver driver) {
+    try {
+      executor.execute(task);
+    } catch (RejectedExecutionException e) {
+      if (driver != null) {
+        quit(driver);
+      }
+    }
+  }
+
+  /**
+   * The browsers ready for one browser name.
+   */
+  private class Pool {
+
+    private final String browserName;
+    private final int size;
+    private final BlockingQueue<WebDriver> ready = new LinkedBlockingQueue<WebDriver>();
+
+    Pool(String browserName, int size) {
+      this.browserName = browserName;
+      this.size = size;
+    }
+
+    boolean isFull() {
+      return ready.size() >= size;
+    }
+
+    void offer(WebDriver driver) {
+      if (stopped || isFull()) {
+        quit(driver);
+      } else {
+        ready.offer(driver);
+      }
+    }
+
+    /**
+     * Launches a browser in the background, unless the pool fills up in the meantime.
+     */
+    void refill() {
+      execute(new Runnable() {
+        public void run() {
+          if (isFull()) {
+            return;
+          }
+          try {
+            offer(factory.newInstance(new DesiredCapabilities(browserName, "", Platform.ANY)));
+          } catch (RuntimeException e) {
+            log.log(Level.WARNING, "Unable to launch a " + browserName + " for the pool", e);
+          }
+        }
+      }, null);
+    }
+  }
+}
@@ -54,8 +54,20 @@ public class DefaultDriverSessions implements DriverSessions {
   }
 
   protected DefaultDriverSessions(Platform runningOn, DriverFactory factory) {
-    this.factory = factory;
+    this(runningOn, factory, BrowserPool.getSizesFromSystemProperties());
+  }
+
+  /**
+   * @param warmBrowsers the number of browsers to keep launched ahead of the sessions, by browser
+   *     name, see {@link BrowserPool}.
+   */
+  protected DefaultDriverSessions(Platform runningOn, DriverFactory factory,
+                                  Map<String, Integer> warmBrowsers) {
+    this.factory = warmBrowsers.isEmpty() ? factory : new BrowserPool(factory, warmBrowsers);
     registerDefaults(runningOn);
+    if (this.factory instanceof BrowserPool) {
+      ((BrowserPool) this.factory).start();
+    }
   }
 
   private void registerDefaults(Platform current) {
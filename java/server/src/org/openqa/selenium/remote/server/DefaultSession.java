@@ -59,7 +59,8 @@ import java.util.concurrent.TimeUnit;
 public class DefaultSession implements Session {
 
   private final SessionId sessionId;
-  private final WebDriver driver;
+  private final DriverFactory factory;
+  private final EventFiringWebDriver driver;
   /**
    * The cache of known elements.
    *
@@ -99,6 +100,7 @@ public class DefaultSession implements Session {
                          SessionId sessionId, final Capabilities capabilities) throws Exception {
     this.knownElements = new KnownElements();
     this.sessionId = sessionId;
+    this.factory = factory;
     this.tempFs = tempFs;
     browserCreator = new BrowserCreator(factory, capabilities);
     final FutureTask<EventFiringWebDriver> webDriverFutureTask =
@@ -162,6 +164,17 @@ public class DefaultSession implements Session {
     return driver;
   }
 
+  /**
+   * Ends the browser of the session, quitting it or handing it back to the pool it came from.
+   */
+  public void quitDriver() {
+    if (factory instanceof BrowserPool
+        && ((BrowserPool) factory).release(driver.getWrappedDriver())) {
+      return;
+    }
+    driver.quit();
+  }
+
   public KnownElements getKnownElements() {
     return knownElements;
   }
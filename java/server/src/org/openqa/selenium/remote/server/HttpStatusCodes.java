@@ -23,6 +23,8 @@ public interface HttpStatusCodes {
 
   int SEE_OTHER = 303;
 
+  int BAD_REQUEST = 400;
+
   int NOT_FOUND = 404;
 
   int INTERNAL_SERVER_ERROR = 500;
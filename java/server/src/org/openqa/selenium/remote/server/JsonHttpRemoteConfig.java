@@ -17,8 +17,20 @@ limitations under the License.
 
 package org.openqa.selenium.remote.server;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+
 import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.remote.BeanToJsonConverter;
+import org.openqa.selenium.remote.ErrorCodes;
+import org.openqa.selenium.remote.HttpCommandExecutor;
+import org.openqa.selenium.remote.Response;
+import org.openqa.selenium.remote.SessionId;
 import org.openqa.selenium.remote.SessionTerminatedException;
+import org.openqa.selenium.remote.server.batch.BatchedCommand;
+import org.openqa.selenium.remote.server.batch.BatchedHttpRequest;
+import org.openqa.selenium.remote.server.batch.BatchedHttpResponse;
+import org.openqa.selenium.remote.server.batch.CommandBatch;
 import org.openqa.selenium.remote.server.handler.AcceptAlert;
 import org.openqa.selenium.remote.server.handler.AddConfig;
 import org.openqa.selenium.remote.server.handler.AddCookie;
@@ -125,9 +137,11 @@ import org.openqa.selenium.remote.server.renderer.EmptyResult;
 import org.openqa.selenium.remote.server.renderer.ForwardResult;
 import org.openqa.selenium.remote.server.renderer.JsonErrorExceptionResult;
 import org.openqa.selenium.remote.server.renderer.JsonResult;
+import org.openqa.selenium.remote.server.renderer.PngResult;
 import org.openqa.selenium.remote.server.renderer.RedirectResult;
 import org.openqa.selenium.remote.server.renderer.ResourceCopyResult;
 import org.openqa.selenium.remote.server.resource.StaticResource;
+import org.openqa.selenium.remote.server.rest.PreferredResult;
 import org.openqa.selenium.remote.server.rest.RestishHandler;
 import org.openqa.selenium.remote.server.rest.Result;
 import org.openqa.selenium.remote.server.rest.ResultConfig;
@@ -135,9 +149,13 @@ import org.openqa.selenium.remote.server.rest.ResultType;
 import org.openqa.selenium.remote.server.rest.UrlMapper;
 import org.openqa.selenium.remote.server.xdrpc.CrossDomainRpcRenderer;
 
+import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
+import static org.openqa.selenium.remote.server.HttpStatusCodes.BAD_REQUEST;
 import static org.openqa.selenium.remote.server.HttpStatusCodes.INTERNAL_SERVER_ERROR;
 import static org.openqa.selenium.remote.server.HttpStatusCodes.NOT_FOUND;
 
@@ -148,9 +166,13 @@ public class JsonHttpRemoteConfig {
   private UrlMapper getMapper;
   private UrlMapper postMapper;
   private UrlMapper deleteMapper;
+  private final DriverSessions sessions;
   private final Logger log;
+  private final JsonErrorExceptionResult errorResult =
+      new JsonErrorExceptionResult(EXCEPTION, RESPONSE);
 
   public JsonHttpRemoteConfig(DriverSessions sessions, Logger log) {
+    this.sessions = sessions;
     this.log = log;
     setUpMappings(sessions, log);
   }
@@ -177,6 +199,11 @@ public class JsonHttpRemoteConfig {
   public void handleRequest(HttpRequest request, HttpResponse response)
       throws WebDriverException {
     try {
+      if ("POST".equals(request.getMethod()) && CommandBatch.isBatch(request.getPath())) {
+        handleBatch(request, response);
+        return;
+      }
+
       UrlMapper mapper = getUrlMapper(request.getMethod());
       if (mapper == null) {
         response.setStatus(INTERNAL_SERVER_ERROR);
@@ -184,12 +211,13 @@ public class JsonHttpRemoteConfig {
         return;
       }
 
-      ResultConfig config = mapper.getConfig(request.getPath());
+      String[] path = ResultConfig.splitPath(request.getPath());
+      ResultConfig config = mapper.getConfig(path);
       if (config == null) {
         response.setStatus(NOT_FOUND);
         response.end();
       } else {
-        config.handle(request.getPath(), request, response);
+        config.handle(request.getPath(), path, request, response);
       }
     } catch (SessionTerminatedException e){
       response.setStatus(NOT_FOUND);
@@ -200,7 +228,65 @@ public class JsonHttpRemoteConfig {
     }
   }
 
-  private UrlMapper getUrlMapper(String method) {
+  /**
+   * Runs the commands of a batch one after the other, as if each had been sent on its own, and
+   * answers with the list of their responses. The batch stops at the first command which fails.
+   *
+   * @see CommandBatch
+   */
+  private void handleBatch(HttpRequest request, HttpResponse response) throws Exception {
+    SessionId sessionId = new SessionId(HttpCommandExecutor.getSessionId(request.getUri()));
+    if (sessions.get(sessionId) == null) {
+      throw new SessionTerminatedException();
+    }
+
+    CommandBatch batch;
+    try {
+      batch = CommandBatch.load(sessionId, request.getReader());
+    } catch (IllegalArgumentException e) {
+      response.setStatus(BAD_REQUEST);
+      response.setContent(e.getMessage());
+      response.end();
+      return;
+    }
+
+    log.info(String.format("Executing a batch of %d commands", batch.getCommands().size()));
+    List<Response> results = new ArrayList<Response>();
+    for (BatchedCommand command : batch.getCommands()) {
+      Response result;
+      try {
+        Map<String, Object> parameters = command.getParameters(results);
+        String body = "POST".equals(command.getMethod())
+                      ? new BeanToJsonConverter().convert(parameters) : "";
+        BatchedHttpResponse commandResponse = new BatchedHttpResponse();
+        handleRequest(
+            new BatchedHttpRequest(request, command.getMethod(), command.getPath(parameters), body),
+            commandResponse);
+        result = commandResponse.toResponse(sessionId, command);
+      } catch (WebDriverException e) {
+        // resolving the command failed before any handler ran, answered as a handler would.
+        HttpRequest failed =
+            new BatchedHttpRequest(request, command.getMethod(), request.getPath(), "");
+        failed.setAttribute(EXCEPTION.substring(1), e);
+        result = errorResult.prepareResponseObject(failed);
+      }
+
+      results.add(result);
+      if (result.getStatus() != ErrorCodes.SUCCESS) {
+        break;
+      }
+    }
+
+    Response batchResponse = new Response(sessionId);
+    batchResponse.setValue(results);
+    response.setContentType("application/json");
+    response.setEncoding(Charsets.UTF_8);
+    response.setContent(new BeanToJsonConverter().convert(batchResponse).getBytes(Charsets.UTF_8));
+    response.end();
+  }
+
+  @VisibleForTesting
+  UrlMapper getUrlMapper(String method) {
     if ("DELETE".equals(method)) {
       return deleteMapper;
     } else if ("GET".equals(method)) {
@@ -220,8 +306,7 @@ public class JsonHttpRemoteConfig {
     postMapper = new UrlMapper(driverSessions, logger);
     deleteMapper = new UrlMapper(driverSessions, logger);
 
-    Result jsonErrorResult = new Result(MimeType.EMPTY,
-                                        new JsonErrorExceptionResult(EXCEPTION, RESPONSE));
+    Result jsonErrorResult = new Result(MimeType.EMPTY, errorResult);
     addGlobalHandler(ResultType.EXCEPTION, jsonErrorResult);
     addGlobalHandler(ResultType.ERROR, jsonErrorResult);
 
@@ -295,7 +380,8 @@ public class JsonHttpRemoteConfig {
         .on(ResultType.SUCCESS, jsonResponse);
 
     getMapper.bind("/session/:sessionId/screenshot", CaptureScreenshot.class)
-        .on(ResultType.SUCCESS, jsonResponse);
+        .on(ResultType.SUCCESS, jsonResponse)
+        .on(ResultType.SUCCESS, new PreferredResult(MimeType.PNG, new PngResult(RESPONSE)));
 
     getMapper.bind("/session/:sessionId/title", GetTitle.class)
         .on(ResultType.SUCCESS, jsonResponse);
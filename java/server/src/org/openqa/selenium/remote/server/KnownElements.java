@@ -16,34 +16,94 @@ limitations under the License.
 
 package org.openqa.selenium.remote.server;
 
-import com.google.common.collect.BiMap;
-import com.google.common.collect.HashBiMap;
-
+import org.openqa.selenium.StaleElementReferenceException;
 import org.openqa.selenium.WebElement;
 import org.openqa.selenium.internal.Locatable;
 import org.openqa.selenium.internal.WrapsElement;
+import org.openqa.selenium.remote.RemoteWebElement;
 
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
-
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The elements of a session the client has been given an id for.
+ *
+ * Only the elements used the most recently are kept, up to a maximum number: an element which is
+ * no longer known is reported as stale. They aren't forgotten when a page changes, as the session
+ * may have elements of other windows which are still there.
+ * Elements are told apart by the id the driver gives them when it has one, so that adding an
+ * element never has to compare it with the others.
+ */
 public class KnownElements {
 
-  private final BiMap<String, WebElement> elements = HashBiMap.create();
+  /**
+   * The system property setting the maximum number of elements kept per session.
+   */
+  public static final String MAX_ELEMENTS_PROPERTY = "webdriver.server.session.maxElements";
+
+  private static final int DEFAULT_MAX_ELEMENTS = 50000;
+
+  private final int maxElements;
+  private final Map<String, KnownElement> elements;
+  private final Map<Object, String> ids = new HashMap<Object, String>();
   private int nextId;
 
-  public String add(WebElement element) {
-    if (elements.containsValue(element)) {
-      return elements.inverse().get(element);
+  public KnownElements() {
+    this(Integer.getInteger(MAX_ELEMENTS_PROPERTY, DEFAULT_MAX_ELEMENTS));
+  }
+
+  /**
+   * @param maxElements the maximum number of elements kept, the least recently used being
+   *     forgotten first.
+   */
+  public KnownElements(int maxElements) {
+    this.maxElements = maxElements;
+    this.elements = new LinkedHashMap<String, KnownElement>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, KnownElement> eldest) {
+        if (size() <= KnownElements.this.maxElements) {
+          return false;
+        }
+        ids.remove(eldest.getValue().identity);
+        return true;
+      }
+    };
+  }
+
+  public synchronized String add(WebElement element) {
+    Object identity = identityOf(element);
+    String id = ids.get(identity);
+    if (id != null) {
+      // Marks the element as used.
+      elements.get(id);
+      return id;
     }
-    String id = getNextId();
-    elements.put(id, proxyElement(element, id));
+
+    id = getNextId();
+    ids.put(identity, id);
+    elements.put(id, new KnownElement(identity, proxyElement(element, id)));
     return id;
   }
 
-  public WebElement get(String elementId) {
-    return elements.get(elementId);
+  /**
+   * @throws StaleElementReferenceException if the element is not known, or no longer.
+   */
+  public synchronized WebElement get(String elementId) {
+    KnownElement known = elements.get(elementId);
+    if (known == null) {
+      throw new StaleElementReferenceException(
+          "Element not found in the cache - perhaps the page has changed since it was looked up");
+    }
+    return known.proxy;
+  }
+
+  public synchronized int size() {
+    return elements.size();
   }
 
   // WebDriver is single threaded. Expect only a single thread at a time to access this
@@ -51,6 +111,47 @@ public class KnownElements {
     return String.valueOf(nextId++);
   }
 
+  /**
+   * @return the id of a remote element, which its equals method may otherwise have to ask the
+   *     browser to compare, or the element itself for the others.
+   */
+  private static Object identityOf(WebElement element) {
+    while (element instanceof WrapsElement) {
+      element = ((WrapsElement) element).getWrappedElement();
+    }
+    if (element instanceof RemoteWebElement) {
+      return new RemoteIdentity(((RemoteWebElement) element).getId());
+    }
+    return element;
+  }
+
+  private static class KnownElement {
+    private final Object identity;
+    private final WebElement proxy;
+
+    private KnownElement(Object identity, WebElement proxy) {
+      this.identity = identity;
+      this.proxy = proxy;
+    }
+  }
+
+  private static class RemoteIdentity {
+    private final String id;
+
+    private RemoteIdentity(String id) {
+      this.id = id;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof RemoteIdentity && id.equals(((RemoteIdentity) o).id);
+    }
+
+    @Override
+    public int hashCode() {
+      return id.hashCode();
+    }
+  }
   private WebElement proxyElement(final WebElement element, final String id) {
     InvocationHandler handler = new InvocationHandler() {
       public Object invoke(Object object, Method method, Object[] objects) throws Throwable {
@@ -20,4 +20,5 @@ package org.openqa.selenium.remote.server;
 interface MimeType {
   static final String EMPTY = "";
   static final String CROSS_DOMAIN_RPC = "application/xdrpc";
+  static final String PNG = "image/png";
 }
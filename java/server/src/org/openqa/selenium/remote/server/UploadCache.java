@@ -0,0 +1,133 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.openqa.selenium.remote.server;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import org.openqa.selenium.io.TemporaryFilesystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The files uploaded to this server, named by the SHA-1 of their content, so that a file uploaded
+ * by session after session is only sent once: a client which uploaded it before sends its hash,
+ * and the file is copied from here.
+ *
+ * Only the files used the most recently are kept, up to {@link #MAX_BYTES_PROPERTY} bytes in all.
+ */
+public class UploadCache {
+
+  /**
+   * The system property setting the number of bytes of files kept.
+   */
+  public static final String MAX_BYTES_PROPERTY = "webdriver.server.uploadCache.maxBytes";
+
+  private static final long DEFAULT_MAX_BYTES = 1024L * 1024 * 1024;
+
+  private static UploadCache instance;
+
+  private final File root;
+  private final long maxBytes;
+  private final Map<String, File> files = new LinkedHashMap<String, File>(16, 0.75f, true);
+  private long bytes;
+
+  public UploadCache(File root, long maxBytes) {
+    this.root = root;
+    this.maxBytes = maxBytes;
+  }
+
+  public static synchronized UploadCache getInstance() {
+    if (instance == null) {
+      File root = TemporaryFilesystem.getDefaultTmpFS().createTempDir("webdriver", "uploads");
+      instance = new UploadCache(root, Long.getLong(MAX_BYTES_PROPERTY, DEFAULT_MAX_BYTES));
+    }
+    return instance;
+  }
+
+  public static String hash(File file) throws IOException {
+    return Files.hash(file, Hashing.sha1()).toString();
+  }
+
+  /**
+   * Keeps a copy of a file uploaded, unless it is too big to.
+   */
+  public void add(File file) throws IOException {
+    long length = file.length();
+    if (length > maxBytes) {
+      return;
+    }
+    String hash = hash(file);
+    synchronized (this) {
+      if (files.containsKey(hash)) {
+        return;
+      }
+    }
+
+    // copied under another name, so that a copy in progress is never handed out.
+    File copy = new File(root, hash + ".part");
+    Files.copy(file, copy);
+
+    synchronized (this) {
+      if (files.containsKey(hash)) {
+        copy.delete();
+        return;
+      }
+      File kept = new File(root, hash);
+      if (!copy.renameTo(kept)) {
+        copy.delete();
+        return;
+      }
+      files.put(hash, kept);
+      bytes += length;
+      Iterator<File> eldest = files.values().iterator();
+      while (bytes > maxBytes && eldest.hasNext()) {
+        File evicted = eldest.next();
+        bytes -= evicted.length();
+        evicted.delete();
+        eldest.remove();
+      }
+    }
+  }
+
+  /**
+   * @return false if there is no file with this hash here.
+   */
+  public boolean copyTo(String hash, File target) throws IOException {
+    File file;
+    synchronized (this) {
+      file = files.get(hash);
+    }
+    if (file == null) {
+      return false;
+    }
+    try {
+      Files.copy(file, target);
+      return true;
+    } catch (IOException e) {
+      // evicted while being copied.
+      target.delete();
+      return false;
+    }
+  }
+}
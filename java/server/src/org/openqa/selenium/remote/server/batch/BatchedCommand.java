@@ -0,0 +1,199 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.openqa.selenium.remote.server.batch;
+
+import com.google.common.collect.ImmutableSet;
+
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.remote.Response;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A command of a {@link CommandBatch}, its parameters and path being completed with the values
+ * returned by the commands run before it.
+ */
+public class BatchedCommand {
+
+  private static final Set<String> METHODS = ImmutableSet.of("GET", "POST", "DELETE");
+  private static final String RESULT = "batchResult";
+  private static final String SELECT = "select";
+
+  private final String method;
+  private final String path;
+  private final Map<?, ?> parameters;
+
+  private BatchedCommand(String method, String path, Map<?, ?> parameters) {
+    this.method = method;
+    this.path = path;
+    this.parameters = parameters;
+  }
+
+  /**
+   * @param index the position of the command in the batch, which it may only use the results of
+   *     the commands before.
+   * @throws IllegalArgumentException if the command is malformed.
+   */
+  static BatchedCommand load(int index, Map<?, ?> json) {
+    Object method = json.get("method");
+    if (!METHODS.contains(method)) {
+      throw new IllegalArgumentException("Unknown method for command " + index + ": " + method);
+    }
+    Object path = json.get("path");
+    if (!(path instanceof String)) {
+      throw new IllegalArgumentException("Missing required parameter: path");
+    }
+    Object parameters = json.get("parameters");
+    if (parameters == null) {
+      parameters = new HashMap<String, Object>();
+    } else if (!(parameters instanceof Map)) {
+      throw new IllegalArgumentException("The parameters of command " + index + " are not a map");
+    }
+    checkReferences(index, parameters);
+    return new BatchedCommand((String) method, (String) path, (Map<?, ?>) parameters);
+  }
+
+  private static void checkReferences(int index, Object value) {
+    if (isReference(value)) {
+      Object result = ((Map<?, ?>) value).get(RESULT);
+      if (!(result instanceof Number) || ((Number) result).intValue() < 0
+          || ((Number) result).intValue() >= index) {
+        throw new IllegalArgumentException(
+            "Command " + index + " may only use the results of the commands before it: " + value);
+      }
+    } else if (value instanceof Map) {
+      for (Object child : ((Map<?, ?>) value).values()) {
+        checkReferences(index, child);
+      }
+    } else if (value instanceof List) {
+      for (Object child : (List<?>) value) {
+        checkReferences(index, child);
+      }
+    }
+  }
+
+  private static boolean isReference(Object value) {
+    return value instanceof Map && ((Map<?, ?>) value).containsKey(RESULT);
+  }
+
+  public String getMethod() {
+    return method;
+  }
+
+  /**
+   * @return the path as sent, segments to complete included.
+   */
+  public String getPath() {
+    return path;
+  }
+
+  /**
+   * @param results the responses of the commands run before this one, in order.
+   * @return the parameters, each result they refer to being replaced by its value.
+   * @throws WebDriverException if a result has nothing where the parameter refers to.
+   */
+  public Map<String, Object> getParameters(List<Response> results) {
+    Map<String, Object> resolved = new HashMap<String, Object>();
+    for (Map.Entry<?, ?> entry : parameters.entrySet()) {
+      resolved.put(String.valueOf(entry.getKey()), resolve(entry.getValue(), results));
+    }
+    return resolved;
+  }
+
+  /**
+   * @param parameters the parameters, as returned by {@link #getParameters(List)}.
+   * @return the path, each segment starting with ':' being replaced by the parameter of the same
+   *     name, or by its id when the parameter is an element.
+   */
+  public String getPath(Map<String, Object> parameters) {
+    StringBuilder resolved = new StringBuilder();
+    for (String part : path.split("/")) {
+      if (part.length() == 0) {
+        continue;
+      }
+
+      resolved.append("/");
+      if (part.startsWith(":")) {
+        Object value = parameters.get(part.substring(1));
+        if (value instanceof Map && ((Map<?, ?>) value).containsKey("ELEMENT")) {
+          value = ((Map<?, ?>) value).get("ELEMENT");
+        }
+        resolved.append(value);
+      } else {
+        resolved.append(part);
+      }
+    }
+    return resolved.toString();
+  }
+
+  private static Object resolve(Object value, List<Response> results) {
+    if (isReference(value)) {
+      Map<?, ?> reference = (Map<?, ?>) value;
+      Object resolved = results.get(((Number) reference.get(RESULT)).intValue()).getValue();
+      Object select = reference.get(SELECT);
+      if (select instanceof List) {
+        for (Object key : (List<?>) select) {
+          resolved = select(resolved, key, reference);
+        }
+      }
+      return resolved;
+    }
+
+    if (value instanceof Map) {
+      Map<String, Object> map = new HashMap<String, Object>();
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        map.put(String.valueOf(entry.getKey()), resolve(entry.getValue(), results));
+      }
+      return map;
+    }
+
+    if (value instanceof List) {
+      List<Object> list = new ArrayList<Object>();
+      for (Object element : (List<?>) value) {
+        list.add(resolve(element, results));
+      }
+      return list;
+    }
+
+    return value;
+  }
+
+  private static Object select(Object value, Object key, Map<?, ?> reference) {
+    if (value instanceof List && key instanceof Number) {
+      List<?> list = (List<?>) value;
+      int index = ((Number) key).intValue();
+      if (index >= 0 && index < list.size()) {
+        return list.get(index);
+      }
+    } else if (value instanceof Map && ((Map<?, ?>) value).containsKey(String.valueOf(key))) {
+      return ((Map<?, ?>) value).get(String.valueOf(key));
+    }
+    throw new WebDriverException(String.format(
+        "Result %s has nothing at %s", reference.get(RESULT), reference.get(SELECT)));
+  }
+
+  @Override
+  public String toString() {
+    return method + " " + path;
+  }
+}
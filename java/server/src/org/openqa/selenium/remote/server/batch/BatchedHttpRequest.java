@@ -0,0 +1,87 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.openqa.selenium.remote.server.batch;
+
+import com.google.common.collect.Maps;
+
+import org.openqa.selenium.remote.server.HttpRequest;
+import org.openqa.selenium.remote.server.HttpResponse;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Map;
+
+/**
+ * The request a command of a batch would have been sent with on its own, asking for JSON.
+ */
+public class BatchedHttpRequest implements HttpRequest {
+
+  private final HttpRequest batch;
+  private final String method;
+  private final String path;
+  private final String body;
+  private final Map<String, Object> attributes = Maps.newHashMap();
+
+  /**
+   * @param batch the request the command was batched in.
+   * @param body the JSON parameters of the command, empty if it has none.
+   */
+  public BatchedHttpRequest(HttpRequest batch, String method, String path, String body) {
+    this.batch = batch;
+    this.method = method;
+    this.path = path;
+    this.body = body;
+  }
+
+  public String getAppUri() {
+    return batch.getAppUri();
+  }
+
+  public String getUri() {
+    return batch.getAppUri() + path;
+  }
+
+  public String getPath() {
+    return path;
+  }
+
+  public String getMethod() {
+    return method;
+  }
+
+  public String getHeader(String header) {
+    return "Accept".equalsIgnoreCase(header) ? "application/json" : null;
+  }
+
+  public Object getAttribute(String attributeName) {
+    return attributes.get(attributeName);
+  }
+
+  public void setAttribute(String attributeName, Object value) {
+    attributes.put(attributeName, value);
+  }
+
+  public Reader getReader() {
+    return new StringReader(body);
+  }
+
+  public void forward(HttpResponse response, String to) {
+    throw new UnsupportedOperationException("Batched commands can't be forwarded: " + to);
+  }
+}
@@ -0,0 +1,92 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.openqa.selenium.remote.server.batch;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+
+import org.openqa.selenium.remote.ErrorCodes;
+import org.openqa.selenium.remote.JsonToBeanConverter;
+import org.openqa.selenium.remote.Response;
+import org.openqa.selenium.remote.SessionId;
+import org.openqa.selenium.remote.server.HttpResponse;
+import org.openqa.selenium.remote.server.HttpStatusCodes;
+
+import java.nio.charset.Charset;
+
+/**
+ * Keeps what is rendered for a command of a batch, to be sent back with the responses of the
+ * other commands.
+ */
+public class BatchedHttpResponse implements HttpResponse {
+
+  private int status = HttpStatusCodes.OK;
+  private byte[] content;
+  private Charset encoding = Charsets.UTF_8;
+
+  public void setStatus(int status) {
+    this.status = status;
+  }
+
+  public void setContentType(String mimeType) {
+    // Always JSON, the only type batched requests accept.
+  }
+
+  public void setContent(byte[] data) {
+    this.content = data;
+  }
+
+  public void setContent(String message) {
+    setContent(message.getBytes(encoding));
+  }
+
+  public void setEncoding(Charset charset) {
+    this.encoding = charset;
+  }
+
+  public void sendRedirect(String to) {
+    status = HttpStatusCodes.SEE_OTHER;
+  }
+
+  public void end() {
+  }
+
+  /**
+   * @param sessionId the session of the batch.
+   * @param command what was run, for the error messages.
+   * @return the response rendered, or the one a client would have made of the HTTP status when
+   *     nothing was.
+   */
+  public Response toResponse(SessionId sessionId, BatchedCommand command) {
+    if (content != null && content.length > 0) {
+      return new JsonToBeanConverter().convert(Response.class, new String(content, encoding));
+    }
+
+    Response response = new Response(sessionId);
+    if (status == HttpStatusCodes.NOT_FOUND) {
+      response.setStatus(ErrorCodes.UNKNOWN_COMMAND);
+      response.setValue(ImmutableMap.of("message", "Unknown command: " + command));
+    } else if (status >= HttpStatusCodes.BAD_REQUEST) {
+      response.setStatus(ErrorCodes.UNHANDLED_ERROR);
+      response.setValue(ImmutableMap.of("message",
+          "Failed with HTTP status " + status + ": " + command));
+    }
+    return response;
+  }
+}
@@ -0,0 +1,108 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.openqa.selenium.remote.server.batch;
+
+import org.openqa.selenium.remote.JsonException;
+import org.openqa.selenium.remote.JsonToBeanConverter;
+import org.openqa.selenium.remote.SessionId;
+
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Commands of a session sent together, in the body of a POST to /session/:sessionId/batch, to be
+ * run one after the other:
+ *
+ * {"commands": [
+ *    {"method": "POST", "path": "/session/1234/elements",
+ *     "parameters": {"using": "tag name", "value": "td"}},
+ *    {"method": "GET", "path": "/session/1234/element/:id/text",
+ *     "parameters": {"id": {"batchResult": 0, "select": [3]}}}]}
+ *
+ * A parameter of the form {"batchResult": n, "select": [...]} stands for the value returned by the
+ * n-th command of the batch, or for the part of it reached by following the list indexes and map
+ * keys of "select". The segments of the path starting with ':' are replaced by the parameter of
+ * the same name.
+ *
+ * @see BatchedCommand
+ */
+public class CommandBatch {
+
+  private static final String BATCH = "batch";
+
+  private final List<BatchedCommand> commands;
+
+  private CommandBatch(List<BatchedCommand> commands) {
+    this.commands = Collections.unmodifiableList(commands);
+  }
+
+  /**
+   * @return true if the path is the one commands of a session are batched on.
+   */
+  public static boolean isBatch(String path) {
+    if (path == null) {
+      return false;
+    }
+    String[] parts = path.split("/");
+    return parts.length == 4 && parts[0].length() == 0 && "session".equals(parts[1])
+           && BATCH.equals(parts[3]);
+  }
+
+  /**
+   * Parses the body of a batch request.
+   *
+   * @param sessionId the session of the batch, which all the commands must belong to.
+   * @throws IllegalArgumentException if the batch is malformed.
+   */
+  public static CommandBatch load(SessionId sessionId, Reader body) {
+    Map<?, ?> json;
+    try {
+      json = new JsonToBeanConverter().convert(HashMap.class, body);
+    } catch (JsonException e) {
+      throw new IllegalArgumentException("Failed to parse JSON request: " + e.getMessage(), e);
+    }
+    if (json == null || !(json.get("commands") instanceof List)) {
+      throw new IllegalArgumentException("Missing required parameter: commands");
+    }
+
+    String sessionPath = "/session/" + sessionId + "/";
+    List<?> rawCommands = (List<?>) json.get("commands");
+    List<BatchedCommand> commands = new ArrayList<BatchedCommand>(rawCommands.size());
+    for (Object raw : rawCommands) {
+      if (!(raw instanceof Map)) {
+        throw new IllegalArgumentException("Not a command: " + raw);
+      }
+      BatchedCommand command = BatchedCommand.load(commands.size(), (Map<?, ?>) raw);
+      if (!command.getPath().startsWith(sessionPath) || isBatch(command.getPath())) {
+        throw new IllegalArgumentException(
+            "Only the commands of the session may be batched: " + command.getPath());
+      }
+      commands.add(command);
+    }
+    return new CommandBatch(commands);
+  }
+
+  public List<BatchedCommand> getCommands() {
+    return commands;
+  }
+}
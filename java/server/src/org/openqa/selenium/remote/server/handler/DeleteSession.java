@@ -18,6 +18,7 @@ limitations under the License.
 package org.openqa.selenium.remote.server.handler;
 
 import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.remote.server.DefaultSession;
 import org.openqa.selenium.remote.server.Session;
 import org.openqa.selenium.remote.server.rest.ResultType;
 import org.openqa.selenium.server.log.LoggingManager;
@@ -46,7 +47,12 @@ public class DeleteSession extends WebDriverHandler {
       // Silently ignore this exception.
     }
 
-    driver.quit();
+    if (getSession() instanceof DefaultSession) {
+      // a browser taken from the pool goes back to it.
+      ((DefaultSession) getSession()).quitDriver();
+    } else {
+      driver.quit();
+    }
 
     // Yes, this is funky. See javadocs on PerSessionLogHandler#clearThreadTempLogs for details.
     final PerSessionLogHandler logHandler = LoggingManager.perSessionLogHandler();
@@ -20,8 +20,10 @@ package org.openqa.selenium.remote.server.handler;
 import org.openqa.selenium.WebDriverException;
 import org.openqa.selenium.io.TemporaryFilesystem;
 import org.openqa.selenium.io.Zip;
+import org.openqa.selenium.remote.RemoteWebElement;
 import org.openqa.selenium.remote.server.JsonParametersAware;
 import org.openqa.selenium.remote.server.Session;
+import org.openqa.selenium.remote.server.UploadCache;
 import org.openqa.selenium.remote.server.rest.ResultType;
 
 import java.io.File;
@@ -29,9 +31,16 @@ import java.util.Map;
 
 import static org.openqa.selenium.remote.server.rest.ResultType.SUCCESS;
 
+/**
+ * Writes a file sent by the client, zipped in base64, to the disk of the server. A file uploaded
+ * before can be sent by the SHA-1 of its content and its name instead, as long as the server still
+ * has it in its {@link UploadCache}.
+ */
 public class UploadFile extends ResponseAwareWebDriverHandler implements JsonParametersAware {
 
   private String file;
+  private String sha1;
+  private String name;
 
   public UploadFile(Session session) {
     super(session);
@@ -41,6 +50,18 @@ public class UploadFile extends ResponseAwareWebDriverHandler implements JsonPar
     TemporaryFilesystem tempfs = getSession().getTemporaryFileSystem();
     File tempDir = tempfs.createTempDir("upload", "file");
 
+    if (file == null) {
+      if (sha1 == null || name == null) {
+        throw new WebDriverException("Expected a file, or the sha1 and name of one uploaded before");
+      }
+      File uploaded = new File(tempDir, new File(name).getName());
+      if (!UploadCache.getInstance().copyTo(sha1, uploaded)) {
+        throw new WebDriverException(RemoteWebElement.UNKNOWN_UPLOAD + sha1 + " on this server");
+      }
+      response.setValue(uploaded.getAbsolutePath());
+      return SUCCESS;
+    }
+
     new Zip().unzip(file, tempDir);
     // Select the first file
     File[] allFiles = tempDir.listFiles();
@@ -49,6 +70,7 @@ public class UploadFile extends ResponseAwareWebDriverHandler implements JsonPar
           allFiles.length);
     }
 
+    UploadCache.getInstance().add(allFiles[0]);
     response.setValue(allFiles[0].getAbsolutePath());
 
     return SUCCESS;
@@ -56,5 +78,7 @@ public class UploadFile extends ResponseAwareWebDriverHandler implements JsonPar
 
   public void setJsonParameters(Map<String, Object> allParameters) throws Exception {
     file = (String) allParameters.get("file");
+    sha1 = (String) allParameters.get("sha1");
+    name = (String) allParameters.get("name");
   }
 }
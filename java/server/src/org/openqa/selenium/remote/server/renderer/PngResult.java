@@ -0,0 +1,62 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.openqa.selenium.remote.server.renderer;
+
+import org.openqa.selenium.internal.Base64Encoder;
+import org.openqa.selenium.remote.Response;
+import org.openqa.selenium.remote.server.HttpRequest;
+import org.openqa.selenium.remote.server.HttpResponse;
+import org.openqa.selenium.remote.server.rest.Renderer;
+import org.openqa.selenium.remote.server.rest.RestishHandler;
+
+/**
+ * Sends a screenshot as the bytes of the png rather than base64 in a JSON response, for the
+ * clients which ask for image/png first.
+ */
+public class PngResult implements Renderer {
+
+  private final String propertyName;
+
+  public PngResult(String propertyName) {
+    if (propertyName.startsWith(":")) {
+      this.propertyName = propertyName.substring(1);
+    } else {
+      this.propertyName = propertyName;
+    }
+  }
+
+  public void render(HttpRequest request, HttpResponse response, RestishHandler handler)
+      throws Exception {
+    Object result = request.getAttribute(propertyName);
+    if (result instanceof Response) {
+      result = ((Response) result).getValue();
+    }
+
+    byte[] png;
+    if (result instanceof byte[]) {
+      png = (byte[]) result;
+    } else {
+      // the drivers take their screenshots as base64.
+      png = new Base64Encoder().decode((String) result);
+    }
+
+    response.setContentType("image/png");
+    response.setContent(png);
+    response.end();
+  }
+}
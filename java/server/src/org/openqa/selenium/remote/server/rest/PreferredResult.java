@@ -0,0 +1,40 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.openqa.selenium.remote.server.rest;
+
+/**
+ * A Result only used when its MIME type is the first one the client accepts. The Java client has
+ * long been listing image/png after application/json for every command, while expecting JSON
+ * back: a client has to ask for the other type first to get it.
+ */
+public class PreferredResult extends Result {
+
+  public PreferredResult(String mimeType, Renderer renderer) {
+    super(mimeType, renderer, true);
+  }
+
+  @Override
+  public boolean isExactMimeTypeMatch(String contentType) {
+    if (contentType == null) {
+      return false;
+    }
+
+    String preferred = contentType.split("[,;]")[0].trim();
+    return getMimeType().equals(preferred);
+  }
+}
@@ -25,7 +25,6 @@ import org.openqa.selenium.WebDriverException;
 import org.openqa.selenium.remote.ErrorCodes;
 import org.openqa.selenium.remote.HttpCommandExecutor;
 import org.openqa.selenium.remote.JsonToBeanConverter;
-import org.openqa.selenium.remote.PropertyMunger;
 import org.openqa.selenium.remote.SessionId;
 import org.openqa.selenium.remote.SessionTerminatedException;
 import org.openqa.selenium.remote.SimplePropertyDescriptor;
@@ -40,10 +39,10 @@ import org.openqa.selenium.remote.server.handler.WebDriverHandler;
 import org.openqa.selenium.server.log.LoggingManager;
 import org.openqa.selenium.server.log.PerSessionLogHandler;
 
-import java.io.BufferedReader;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
 import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -60,6 +59,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
 public class ResultConfig {
 
   private final String[] sections;
+  private final PathParameter[] pathParameters;
   private final HandlerFactory handlerFactory;
   private final DriverSessions sessions;
   private final Multimap<ResultType, Result> resultToRender = LinkedHashMultimap.create();
@@ -74,26 +74,69 @@ public class ResultConfig {
       throw new IllegalArgumentException("You must specify the handler and the url");
     }
 
-    sections = url.split("/");
+    sections = splitPath(url);
     this.sessions = sessions;
     this.handlerFactory = getHandlerFactory(handlerClazz);
+    this.pathParameters = getPathParameters(sections, handlerClazz);
   }
 
+  /**
+   * Splits a path in segments the way String.split("/") does, without going through a regular
+   * expression: the trailing empty segments are dropped, the leading one is kept.
+   *
+   * @param path the path to split, null giving no segment at all.
+   */
+  public static String[] splitPath(String path) {
+    if (path == null) {
+      return new String[0];
+    }
+
+    List<String> segments = new ArrayList<String>();
+    int start = 0;
+    int slash;
+    while ((slash = path.indexOf('/', start)) != -1) {
+      segments.add(path.substring(start, slash));
+      start = slash + 1;
+    }
+    if (segments.isEmpty()) {
+      return new String[] {path};
+    }
+    segments.add(path.substring(start));
+
+    int size = segments.size();
+    while (size > 0 && segments.get(size - 1).length() == 0) {
+      size--;
+    }
+    return segments.subList(0, size).toArray(new String[size]);
+  }
+
+  public String getUrl() {
+    return url;
+  }
+
+  /**
+   * @return the segments of the url this is bound to, those starting with ':' matching anything.
+   */
+  String[] getSections() {
+    return sections;
+  }
 
   public RestishHandler getHandler(String url, SessionId sessionId) throws Exception {
-    if (!isFor(url)) {
+    return getHandler(splitPath(url), sessionId);
+  }
+
+  private RestishHandler getHandler(String[] path, SessionId sessionId) throws Exception {
+    if (!isFor(path)) {
       return null;
     }
-    return populate(handlerFactory.createHandler(sessionId), url);
+    return populate(handlerFactory.createHandler(sessionId), path);
   }
 
   public boolean isFor(String urlToMatch) {
-    if (urlToMatch == null) {
-      return sections.length == 0;
-    }
-
-    String[] allParts = urlToMatch.split("/");
+    return isFor(splitPath(urlToMatch));
+  }
 
+  private boolean isFor(String[] allParts) {
     if (sections.length != allParts.length) {
       return false;
     }
@@ -111,20 +154,55 @@ public class ResultConfig {
     RestishHandler createHandler(SessionId sessionId) throws Exception;
   }
 
+  /**
+   * A segment of the url which sets a property of the handler, looked up once when bound.
+   */
+  private static class PathParameter {
+    private final int index;
+    private final Method writeMethod;
 
-  protected RestishHandler populate(RestishHandler handler, String pathString) {
-    if (pathString == null) {
-      return handler;
+    private PathParameter(int index, Method writeMethod) {
+      this.index = index;
+      this.writeMethod = writeMethod;
     }
+  }
 
-    String[] strings = pathString.split("/");
-
+  /**
+   * @return the segments of the url for which the handler has a String property of the same name,
+   *         the others being ignored as PropertyMunger does.
+   */
+  private static PathParameter[] getPathParameters(String[] sections,
+      Class<? extends RestishHandler> handlerClazz) {
+    SimplePropertyDescriptor[] properties =
+        SimplePropertyDescriptor.getPropertyDescriptors(handlerClazz);
+    List<PathParameter> parameters = new ArrayList<PathParameter>();
     for (int i = 0; i < sections.length; i++) {
       if (!sections[i].startsWith(":")) {
         continue;
       }
+      for (SimplePropertyDescriptor property : properties) {
+        Method writeMethod = property.getWriteMethod();
+        if (property.getName().equals(sections[i].substring(1)) && writeMethod != null
+            && writeMethod.getParameterTypes().length == 1
+            && String.class.equals(writeMethod.getParameterTypes()[0])) {
+          parameters.add(new PathParameter(i, writeMethod));
+        }
+      }
+    }
+    return parameters.toArray(new PathParameter[parameters.size()]);
+  }
+
+  protected RestishHandler populate(RestishHandler handler, String pathString) {
+    if (pathString == null) {
+      return handler;
+    }
+    return populate(handler, splitPath(pathString));
+  }
+
+  private RestishHandler populate(RestishHandler handler, String[] path) {
+    for (PathParameter parameter : pathParameters) {
       try {
-        PropertyMunger.set(sections[i].substring(1), handler, strings[i]);
+        parameter.writeMethod.invoke(handler, path[parameter.index]);
       } catch (Exception e) {
         throw new WebDriverException(e);
       }
@@ -179,13 +257,21 @@ public class ResultConfig {
 
   public void handle(String pathInfo, final HttpRequest request,
       final HttpResponse response) throws Exception {
+    handle(pathInfo, splitPath(pathInfo), request, response);
+  }
+
+  /**
+   * @param path the segments of pathInfo, as returned by {@link #splitPath(String)}.
+   */
+  public void handle(String pathInfo, String[] path, final HttpRequest request,
+      final HttpResponse response) throws Exception {
     String sessionId = HttpCommandExecutor.getSessionId(request.getUri());
     
     SessionId sessId = sessionId != null ? new SessionId(sessionId) : null;
 
     ResultType result;
     throwUpIfSessionTerminated(sessId);
-    final RestishHandler handler = getHandler(pathInfo, sessId);
+    final RestishHandler handler = getHandler(path, sessId);
 
     if (handler instanceof JsonParametersAware) {
       setJsonParameters(request, handler);
@@ -288,16 +374,9 @@ public class ResultConfig {
 
   @SuppressWarnings("unchecked")
   private void setJsonParameters(HttpRequest request, RestishHandler handler) throws Exception {
-    BufferedReader reader = new BufferedReader(request.getReader());
-    StringBuilder builder = new StringBuilder();
-    for (String line = reader.readLine(); line != null; line = reader.readLine())
-      builder.append(line);
-
-    String raw = builder.toString();
-    if (raw.length() > 0) {
-      Map<String, Object> parameters = (Map<String, Object>) new JsonToBeanConverter()
-          .convert(HashMap.class, builder.toString());
-
+    Map<String, Object> parameters = (Map<String, Object>) new JsonToBeanConverter()
+        .convert(HashMap.class, request.getReader());
+    if (parameters != null) {
       ((JsonParametersAware) handler).setJsonParameters(parameters);
     }
   }
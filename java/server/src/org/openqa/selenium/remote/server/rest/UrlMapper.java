@@ -22,15 +22,25 @@ import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.Multimap;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.logging.Logger;
 
+/**
+ * Finds the config bound to a url. The configs are kept in a trie of the segments of their urls,
+ * so that a url is matched in a single walk down the trie rather than against each config in
+ * turn. When several configs match, as a segment starting with ':' matches anything, the one bound
+ * first wins.
+ */
 public class UrlMapper {
 
   private final Multimap<ResultType, Result> globals = LinkedHashMultimap.create();
   private final Set<ResultConfig> configs = new LinkedHashSet<ResultConfig>();
+  private final Node root = new Node();
+  private long bindings;
   private final DriverSessions sessions;
   private final Logger log;
 
@@ -43,10 +53,14 @@ public class UrlMapper {
     ResultConfig existingConfig = getConfig(url);
     if (existingConfig != null) {
       configs.remove(existingConfig);
+      nodeOf(existingConfig.getSections()).config = null;
     }
 
     ResultConfig config = new ResultConfig(url, handlerClazz, sessions, log);
     configs.add(config);
+    Node node = nodeOf(config.getSections());
+    node.config = config;
+    node.binding = bindings++;
     Map<ResultType, Collection<Result>> map = globals.asMap();
     for (Map.Entry<ResultType, Collection<Result>> entry : map.entrySet()) {
       for (Result result : entry.getValue()) {
@@ -57,13 +71,22 @@ public class UrlMapper {
   }
 
   public ResultConfig getConfig(String url) {
-    for (ResultConfig config : configs) {
-      if (config.isFor(url)) {
-        return config;
-      }
-    }
+    return getConfig(ResultConfig.splitPath(url));
+  }
 
-    return null;
+  /**
+   * @param path the segments of the url, as returned by {@link ResultConfig#splitPath(String)}.
+   */
+  public ResultConfig getConfig(String[] path) {
+    Node found = find(root, path, 0);
+    return found == null ? null : found.config;
+  }
+
+  /**
+   * @return the configs bound, in the order they were.
+   */
+  public Collection<ResultConfig> getConfigs() {
+    return Collections.unmodifiableSet(configs);
   }
 
   public void addGlobalHandler(ResultType type, Result result) {
@@ -73,4 +96,55 @@ public class UrlMapper {
       config.on(type, result);
     }
   }
+
+  private Node nodeOf(String[] sections) {
+    Node node = root;
+    for (String section : sections) {
+      if (section.startsWith(":")) {
+        if (node.parameter == null) {
+          node.parameter = new Node();
+        }
+        node = node.parameter;
+      } else {
+        Node child = node.children.get(section);
+        if (child == null) {
+          child = new Node();
+          node.children.put(section, child);
+        }
+        node = child;
+      }
+    }
+    return node;
+  }
+
+  /**
+   * @return the node of the config matching the path from the given segment on which was bound
+   *         first, null if none does.
+   */
+  private static Node find(Node node, String[] path, int segment) {
+    if (segment == path.length) {
+      return node.config == null ? null : node;
+    }
+
+    Node found = null;
+    Node child = node.children.get(path[segment]);
+    if (child != null) {
+      found = find(child, path, segment + 1);
+    }
+    if (node.parameter != null) {
+      Node matched = find(node.parameter, path, segment + 1);
+      if (matched != null && (found == null || matched.binding < found.binding)) {
+        found = matched;
+      }
+    }
+    return found;
+  }
+
+  private static class Node {
+    private final Map<String, Node> children = new HashMap<String, Node>();
+    // the child for the segments starting with ':', which match anything.
+    private Node parameter;
+    private ResultConfig config;
+    private long binding;
+  }
 }
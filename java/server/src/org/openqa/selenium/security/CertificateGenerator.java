@@ -77,23 +77,29 @@ public class CertificateGenerator {
   private final KeyAndCert caCert;
 
   private final File serializedStore;
-  private final KeyPairGenerator pairGenerator;
 
   public CertificateGenerator(File root) {
     Security.addProvider(new BouncyCastleProvider());
 
     serializedStore = new File(root, "cybervillainsCA.jks");
 
-    try {
-      pairGenerator = KeyPairGenerator.getInstance("RSA");
-      pairGenerator.initialize(1024);
+    caCert = readRootSigningCert();
+  }
 
-      caCert = readRootSigningCert();
-    } catch (NoSuchAlgorithmException e) {
-      throw Throwables.propagate(e);
-    }
+  /**
+   * @return the certificate of the authority which signs the generated certificates.
+   */
+  public X509Certificate getSigningCertificate() {
+    return caCert.getCertificate();
   }
 
+  /**
+   * Generates a key pair and a certificate for a host. It may be called from several threads at
+   * once.
+   *
+   * @return the private key and the certificate chain, the certificate for the host then the one
+   *     of the signing authority.
+   */
   public KeyAndCert generateCertificate(String hostname, String certificateRevocationList) {
     X500Principal x500issuer = caCert.getCertificate().getIssuerX500Principal();
     String subject = String.format(
@@ -103,9 +109,11 @@ public class CertificateGenerator {
     Date begin = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1));
     Date end = new Date(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(365));
 
-    KeyPair keypair = pairGenerator.generateKeyPair();
-
     try {
+      KeyPairGenerator pairGenerator = KeyPairGenerator.getInstance("RSA");
+      pairGenerator.initialize(1024);
+      KeyPair keypair = pairGenerator.generateKeyPair();
+
       SubjectPublicKeyInfo info = new SubjectPublicKeyInfo(
           (ASN1Sequence) new ASN1InputStream(
               new ByteArrayInputStream(keypair.getPublic().getEncoded())).readObject());
@@ -146,7 +154,7 @@ public class CertificateGenerator {
       X509Certificate cert = new JcaX509CertificateConverter().setProvider(BOUNCY_CASTLE)
           .getCertificate(holder);
 
-      return new KeyAndCert(keypair.getPrivate(), cert);
+      return new KeyAndCert(keypair.getPrivate(), cert, caCert.getCertificate());
     } catch(GeneralSecurityException e) {
       throw Throwables.propagate(e);
     } catch (IOException e) {
@@ -38,4 +38,8 @@ public class KeyAndCert {
   public X509Certificate getCertificate() {
     return certificates[0];
   }
+
+  public X509Certificate[] getCertificateChain() {
+    return certificates.clone();
+  }
 }
@@ -24,6 +24,7 @@ import org.openqa.selenium.browserlaunchers.BrowserLauncher;
 import org.openqa.selenium.remote.SessionId;
 import org.openqa.selenium.server.browserlaunchers.BrowserLauncherFactory;
 import org.openqa.selenium.server.browserlaunchers.InvalidBrowserExecutableException;
+import org.openqa.selenium.server.commands.CaptureNetworkTrafficCommand;
 import org.openqa.selenium.server.log.LoggingManager;
 import org.openqa.selenium.server.log.PerSessionLogHandler;
 
@@ -231,6 +232,7 @@ public class BrowserSessionFactory {
         }
       } finally {
         LoggingManager.perSessionLogHandler().removeSessionLogs(new SessionId(sessionId));
+        CaptureNetworkTrafficCommand.close(sessionId);
         if (ensureClean) {
           // need to add this to the launcher API.
           // sessionInfo.launcher.restoreOriginalSessionData();
@@ -245,6 +247,7 @@ public class BrowserSessionFactory {
           shutdownBrowserAndClearSessionData(sessionInfo);
         } finally {
           LoggingManager.perSessionLogHandler().removeSessionLogs(new SessionId(sessionId));
+          CaptureNetworkTrafficCommand.close(sessionId);
           if (ensureClean) {
             // sessionInfo.launcher.restoreOriginalSessionData();
           }
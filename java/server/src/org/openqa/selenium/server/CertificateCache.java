@@ -0,0 +1,252 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.openqa.selenium.server;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import org.openqa.selenium.security.CertificateGenerator;
+import org.openqa.selenium.security.KeyAndCert;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The certificates the proxy presents to the browser for the https hosts it relays. They are kept
+ * in memory, and on disk so that a host costs a key generation once rather than once per server
+ * process. Each certificate is a key store of its own, written to a temporary file then renamed,
+ * so several servers can share the directory.
+ *
+ * In wildcard mode, the hosts of a domain share one certificate, *.example.com for
+ * www.example.com and static.example.com.
+ */
+public class CertificateCache {
+
+  private static final Logger log = Logger.getLogger(CertificateCache.class.getName());
+
+  private static final char[] PASSWORD = "password".toCharArray();
+  private static final String ALIAS = "certificate";
+  // a certificate which is about to expire is generated again.
+  private static final long MINIMUM_VALIDITY = TimeUnit.DAYS.toMillis(1);
+
+  private final File directory;
+  private final CertificateGenerator generator;
+  private final String certificateRevocationList;
+  private final boolean wildcards;
+  private final LoadingCache<String, KeyAndCert> certificates;
+
+  /**
+   * @param root the directory of the caches, the certificates signed by an authority with a given
+   *     revocation list going in a directory of their own.
+   * @param generator generates the certificates missing from the cache.
+   * @param certificateRevocationList the revocation list the certificates point to.
+   * @param wildcards whether the hosts of a domain share a wildcard certificate.
+   */
+  public CertificateCache(File root, CertificateGenerator generator,
+      String certificateRevocationList, boolean wildcards) {
+    this.generator = generator;
+    this.certificateRevocationList = certificateRevocationList;
+    this.wildcards = wildcards;
+    this.directory = new File(root, signature(generator.getSigningCertificate(),
+        certificateRevocationList));
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      log.warning("Cannot create " + directory + ", the certificates won't be kept on disk");
+    }
+    this.certificates = CacheBuilder.newBuilder()
+        .build(new CacheLoader<String, KeyAndCert>() {
+          @Override
+          public KeyAndCert load(String alias) {
+            return loadOrGenerate(alias);
+          }
+        });
+  }
+
+  /**
+   * @return the name of the certificate for a host: the host itself, or the wildcard of its domain.
+   */
+  public String getAlias(String hostname) {
+    String host = hostname.toLowerCase(Locale.ENGLISH);
+    if (!wildcards || isIpAddress(host)) {
+      return host;
+    }
+    int dot = host.indexOf('.');
+    // *.com would be no good, the domain needs two labels at least.
+    if (dot == -1 || host.indexOf('.', dot + 1) == -1) {
+      return host;
+    }
+    return "*" + host.substring(dot);
+  }
+
+  public KeyAndCert getCertificate(String hostname) {
+    return getCertificateByAlias(getAlias(hostname));
+  }
+
+  /**
+   * @return the certificate, read from disk or generated on the first call for the alias.
+   */
+  public KeyAndCert getCertificateByAlias(String alias) {
+    try {
+      return certificates.getUnchecked(alias);
+    } catch (UncheckedExecutionException e) {
+      throw new RuntimeException("Cannot get a certificate for " + alias, e.getCause());
+    }
+  }
+
+  /**
+   * Reads or generates the certificates of some hosts on a thread of its own, which ends when it
+   * is done.
+   */
+  public Future<?> generateInBackground(final Iterable<String> hostnames) {
+    ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+        .setNameFormat("certificate-generator").setDaemon(true).build());
+    try {
+      return executor.submit(new Runnable() {
+        public void run() {
+          for (String hostname : hostnames) {
+            try {
+              getCertificate(hostname);
+            } catch (RuntimeException e) {
+              log.log(Level.WARNING, "Cannot generate a certificate for " + hostname, e);
+            }
+          }
+        }
+      });
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @VisibleForTesting
+  File getFile(String alias) {
+    try {
+      return new File(directory, URLEncoder.encode(alias, "UTF-8").replace("*", "%2A") + ".jks");
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private KeyAndCert loadOrGenerate(String alias) {
+    File file = getFile(alias);
+    if (file.exists()) {
+      KeyAndCert stored = read(file);
+      if (stored != null && stored.getCertificate().getNotAfter().getTime()
+          > System.currentTimeMillis() + MINIMUM_VALIDITY) {
+        return stored;
+      }
+    }
+
+    KeyAndCert generated = generator.generateCertificate(alias, certificateRevocationList);
+    write(generated, file);
+    return generated;
+  }
+
+  private KeyAndCert read(File file) {
+    try {
+      InputStream in = new FileInputStream(file);
+      try {
+        KeyStore store = KeyStore.getInstance("JKS");
+        store.load(in, PASSWORD);
+        Certificate[] chain = store.getCertificateChain(ALIAS);
+        X509Certificate[] certificates = new X509Certificate[chain.length];
+        for (int i = 0; i < chain.length; i++) {
+          certificates[i] = (X509Certificate) chain[i];
+        }
+        return new KeyAndCert((PrivateKey) store.getKey(ALIAS, PASSWORD), certificates);
+      } finally {
+        in.close();
+      }
+    } catch (Exception e) {
+      // most likely written by an older version, it is generated again.
+      log.log(Level.FINE, "Cannot read " + file, e);
+      return null;
+    }
+  }
+
+  private void write(KeyAndCert certificate, File file) {
+    File temporary = null;
+    try {
+      KeyStore store = KeyStore.getInstance("JKS");
+      store.load(null, PASSWORD);
+      store.setKeyEntry(ALIAS, certificate.getPrivateKey(), PASSWORD,
+          certificate.getCertificateChain());
+
+      temporary = File.createTempFile("certificate", ".tmp", directory);
+      OutputStream out = new FileOutputStream(temporary);
+      try {
+        store.store(out, PASSWORD);
+      } finally {
+        out.close();
+      }
+      // another server may have written it in the meantime, either one will do.
+      if (!temporary.renameTo(file) && !file.exists()) {
+        log.warning("Cannot rename " + temporary + " to " + file);
+      }
+    } catch (IOException e) {
+      log.log(Level.WARNING, "Cannot store the certificate in " + file, e);
+    } catch (GeneralSecurityException e) {
+      log.log(Level.WARNING, "Cannot store the certificate in " + file, e);
+    } finally {
+      if (temporary != null && temporary.exists()) {
+        temporary.delete();
+      }
+    }
+  }
+
+  private static boolean isIpAddress(String host) {
+    return host.indexOf(':') != -1 || host.matches("[0-9.]+");
+  }
+
+  private static String signature(X509Certificate authority, String certificateRevocationList) {
+    try {
+      Hasher hasher = Hashing.sha1().newHasher();
+      hasher.putBytes(authority.getEncoded());
+      if (certificateRevocationList != null) {
+        hasher.putString(certificateRevocationList, Charset.forName("UTF-8"));
+      }
+      return hasher.hash().toString();
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -111,6 +111,59 @@ public class HtmlIdentifier {
     return shouldInject;
   }
 
+  /**
+   * Same as {@link #shouldBeInjected(String, String, String)}, the content being looked at as
+   * bytes rather than decoded.
+   */
+  public static boolean shouldBeInjected(String path, String contentType, byte[] contentPreview,
+      int offset, int length) {
+    int score = 0;
+
+    log.fine("shouldBeInjected(\"" + path + "\", \"" + contentType + "\", \"...\")");
+
+    for (Rule rule : rules) {
+      int scoreDelta = rule.score(path, contentType, contentPreview, offset, length);
+      log.fine("    applied rule " + rule + ": " + scoreDelta);
+      score += scoreDelta;
+    }
+    boolean shouldInject = (score > INJECTION_THRESHOLD);
+    log.fine("    total : " + score + ">" + INJECTION_THRESHOLD + "?  (should " +
+        (shouldInject ? "" : "not ") + "inject)");
+    return shouldInject;
+  }
+
+  /**
+   * Looks for ASCII text in bytes, ignoring its case, which works for the encodings extending
+   * ASCII without decoding them.
+   *
+   * @param lowerCaseText the text to look for, in lower case.
+   * @return the index of the text between from and to, or -1.
+   */
+  static int indexOfIgnoreCase(byte[] bytes, int from, int to, String lowerCaseText) {
+    int length = lowerCaseText.length();
+    if (length == 0) {
+      return from;
+    }
+    char first = lowerCaseText.charAt(0);
+    for (int i = from; i <= to - length; i++) {
+      if (toLowerCase(bytes[i]) != first) {
+        continue;
+      }
+      int j = 1;
+      while (j < length && toLowerCase(bytes[i + j]) == lowerCaseText.charAt(j)) {
+        j++;
+      }
+      if (j == length) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static int toLowerCase(byte b) {
+    return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b & 0xff;
+  }
+
   static abstract class Rule {
     protected final int missingScore;
     protected final int score;
@@ -124,6 +177,14 @@ public class HtmlIdentifier {
 
     abstract int score(String path, String contentType, String contentPreview);
 
+    /**
+     * Scores content given as bytes. The rules which look at the content override it, the others
+     * are given no content at all.
+     */
+    int score(String path, String contentType, byte[] contentPreview, int offset, int length) {
+      return score(path, contentType, null);
+    }
+
     @Override
     public String toString() {
       return "[" + name + " rule: match=" + score +
@@ -183,6 +244,18 @@ public class HtmlIdentifier {
       }
       return missingScore;
     }
+
+    @Override
+    int score(String path, String contentType, byte[] contentPreview, int offset, int length) {
+      if (contentPreview == null) {
+        return 0;
+      }
+
+      if (indexOfIgnoreCase(contentPreview, offset, offset + length, contentInLowerCase) != -1) {
+        return score;
+      }
+      return missingScore;
+    }
   }
 
   static class ContentTypeRule extends Rule {
@@ -18,6 +18,9 @@ limitations under the License.
 
 package org.openqa.selenium.server;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 import org.openqa.jetty.http.HttpRequest;
 import org.openqa.jetty.http.HttpResponse;
 import org.openqa.jetty.util.IO;
@@ -29,9 +32,11 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -46,15 +51,25 @@ public class InjectionHelper {
       new HashMap<String, HashMap<String, String>>();
   private static HashMap<String, String> sessionIdToUniqueId = new HashMap<String, String>();
 
-  private static HashMap<String, String> contentTransformations = new HashMap<String, String>();
-  private static List<String> userJsInjectionFiles = new LinkedList<String>();
+  // the selenium js inlined in the injection when script tags are not used, read by init().
+  private static volatile String seleniumJs;
+  private static Map<String, String> userContentTransformations =
+      new ConcurrentHashMap<String, String>();
+  private static List<String> userJsInjectionFiles = new CopyOnWriteArrayList<String>();
+  // the injection rendered for each session, emptied whenever what goes in it changes.
+  private static final Cache<String, byte[]> renderedInjections = CacheBuilder.newBuilder()
+      .maximumSize(100)
+      .expireAfterAccess(30, TimeUnit.MINUTES)
+      .build();
 
   public static void setBrowserSideLogEnabled(boolean browserSideLogEnabled) {
     InjectionHelper.browserSideLogEnabled = browserSideLogEnabled;
+    renderedInjections.invalidateAll();
   }
 
   public static void setInjectScriptTags(boolean injectScriptTags) {
     InjectionHelper.INJECT_SCRIPT_TAGS = injectScriptTags;
+    renderedInjections.invalidateAll();
   }
 
   public static void setTryToInjectInHead(boolean tryToInjectInHead) {
@@ -63,6 +78,7 @@ public class InjectionHelper {
 
   public static void setInjectionHtml(String injectionHtml) {
     InjectionHelper.injectionHtml = injectionHtml;
+    renderedInjections.invalidateAll();
   }
 
   public static void saveJsStateInitializer(String sessionId, String uniqueId, String jsVarName,
@@ -110,11 +126,10 @@ public class InjectionHelper {
 
   /**
    * re-read selenium js. Don't maintain it indefinitely for now since then we would need to restart
-   * the server to see changes. Once the selenium js is firm, this should change.
+   * the server to see changes. Once the selenium js is firm, this should change. The injections
+   * rendered for the sessions are rendered again.
    */
   public static void init() {
-    String key = "__SELENIUM_JS__";
-
     StringBuffer sb = new StringBuffer();
     if (!INJECT_SCRIPT_TAGS) { // DGF experiment with using script tags
       try {
@@ -146,7 +161,8 @@ public class InjectionHelper {
         log.log(Level.FINE, "Ignored exception", e);
       }
     }
-    contentTransformations.put(key, sb.toString());
+    seleniumJs = sb.toString();
+    renderedInjections.invalidateAll();
   }
 
   private static void writeScriptTags(OutputStream os) throws IOException {
@@ -200,7 +216,7 @@ public class InjectionHelper {
 
   public static long injectJavaScript(HttpRequest request, HttpResponse response, InputStream in,
       OutputStream out, String debugURL) throws IOException {
-    if (!contentTransformations.containsKey("__SELENIUM_JS__")) {
+    if (seleniumJs == null) {
       init();
     }
 
@@ -211,65 +227,147 @@ public class InjectionHelper {
       return -1;
     }
     int lengthOfBOM = getBOMLength(buf);
-    String data = new String(buf, lengthOfBOM, len);
 
-    boolean isKnownToBeHtml =
-        HtmlIdentifier.shouldBeInjected(request.getPath(), response.getContentType(), data);
+    boolean isKnownToBeHtml = HtmlIdentifier.shouldBeInjected(request.getPath(),
+        response.getContentType(), buf, lengthOfBOM, len - lengthOfBOM);
 
     String url = response.getHttpRequest().getRequestURL().toString();
     if (debugURL.equals(url)) {
       log.info("debug URL seen");
     }
 
-    if (!isKnownToBeHtml) {
-      out.write(buf, 0, len);
-    }
-    // else if (lengthOfBOM>0) {
-    // out.write(buf, 0, lengthOfBOM);
-    // }
-    String sessionId = SeleniumDriverResourceHandler.getLastSessionId();
-
     long bytesCopied = len;
 
     log.fine(url + " (InjectionHelper looking)");
     if (!isKnownToBeHtml) {
+      out.write(buf, 0, len);
       bytesCopied += ModifiedIO.copy(in, out);
     } else {
       log.fine("injecting...");
       response.removeField("Content-Length"); // added js will make it wrong, lead to page getting
                                               // truncated
-      ByteArrayOutputStream baos = new ByteArrayOutputStream();
-      if (INJECT_SCRIPT_TAGS) {
-        writeScriptTags(baos);
+      String sessionId = SeleniumDriverResourceHandler.getLastSessionId();
+      byte[] injection = getInjection(sessionId);
+      if (userContentTransformations.isEmpty()) {
+        bytesCopied += writeInjected(buf, lengthOfBOM, len, injection, tryToInjectInHead, in, out);
+      } else {
+        bytesCopied += writeInjectedWithUserTransformations(buf, lengthOfBOM, len, injection,
+            tryToInjectInHead, in, out);
       }
-      InputStream jsIn = new ClassPathResource(InjectionHelper.injectionHtml).getInputStream();
-      contentTransformations.put("@SESSION_ID@", sessionId);
-
-      writeDataWithUserTransformations("", jsIn, baos);
-      jsIn.close();
-      baos.write(setSomeJsVars(sessionId));
-      for (String filename : userJsInjectionFiles) {
-        jsIn = new FileInputStream(filename);
+    }
+
+    return bytesCopied;
+  }
+
+  /**
+   * @return the markup injected in the pages of the session, rendered once for the session.
+   */
+  static byte[] getInjection(String sessionId) throws IOException {
+    String key = String.valueOf(sessionId);
+    byte[] injection = renderedInjections.getIfPresent(key);
+    if (injection == null) {
+      injection = renderInjection(sessionId);
+      renderedInjections.put(key, injection);
+    }
+    return injection;
+  }
+
+  private static byte[] renderInjection(String sessionId) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    if (INJECT_SCRIPT_TAGS) {
+      writeScriptTags(baos);
+    }
+
+    StringBuffer sb = new StringBuffer();
+    appendFileContent(sb, InjectionHelper.injectionHtml);
+    String html = sb.toString().replace("__SELENIUM_JS__", seleniumJs);
+    if (sessionId != null) {
+      html = html.replace("@SESSION_ID@", sessionId);
+    }
+    baos.write(applyUserTransformations(html).getBytes());
+
+    baos.write(setSomeJsVars(sessionId));
+    for (String filename : userJsInjectionFiles) {
+      InputStream jsIn = new FileInputStream(filename);
+      try {
         IO.copy(jsIn, baos);
+      } finally {
+        jsIn.close();
       }
+    }
+    return baos.toByteArray();
+  }
 
-      int headIndex;
-      if (tryToInjectInHead) {
-        headIndex = data.toLowerCase().indexOf("<head>");
-      } else {
-        headIndex = -1;
+  /**
+   * Writes the page with the injection, without decoding it: after the &lt;head&gt; tag if asked
+   * to and there is one in the start of the page, at the very start otherwise.
+   *
+   * @param start the start of the page in the buffer, after its byte order mark.
+   * @param end the end of the start of the page in the buffer, the rest is to be read from in.
+   * @return the number of bytes of the page read from in.
+   */
+  static long writeInjected(byte[] buf, int start, int end, byte[] injection,
+      boolean injectInHead, InputStream in, OutputStream out) throws IOException {
+    int headIndex = injectInHead ? HtmlIdentifier.indexOfIgnoreCase(buf, start, end, "<head>") : -1;
+    if (headIndex != -1) {
+      int afterHead = headIndex + 6;
+      out.write(buf, 0, afterHead);
+      out.write(injection);
+      out.write(buf, afterHead, end - afterHead);
+    } else {
+      out.write(injection);
+      out.write(buf, start, end - start);
+    }
+    return ModifiedIO.copy(in, out);
+  }
+
+  /**
+   * Same as {@link #writeInjected}, the user content transformations being applied to the whole
+   * page, which has to be decoded for it.
+   */
+  static long writeInjectedWithUserTransformations(byte[] buf, int start, int end,
+      byte[] injection, boolean injectInHead, InputStream in, OutputStream out)
+      throws IOException {
+    String data = new String(buf, start, end - start);
+    int headIndex = injectInHead ? data.toLowerCase().indexOf("<head>") : -1;
+    String js = new String(injection);
+    if (headIndex != -1) {
+      data = data.substring(0, headIndex + 6) + js + data.substring(headIndex + 6);
+    } else {
+      data = js + data;
+    }
+
+    long bytesWritten = 0;
+    byte[] chunk = new byte[8192];
+    while (true) {
+      out.write(applyUserTransformations(data).getBytes());
+      int len = in.read(chunk);
+      if (len == -1) {
+        break;
       }
+      bytesWritten += len;
+      data = new String(chunk, 0, len);
+    }
+    return bytesWritten;
+  }
 
-      if (headIndex != -1) {
-        data = data.substring(0, headIndex + 6) + baos.toString() + data.substring(headIndex + 6);
+  private static String applyUserTransformations(String data) {
+    for (Map.Entry<String, String> transformation : userContentTransformations.entrySet()) {
+      String beforeRegexp = transformation.getKey();
+      String after = transformation.getValue();
+      if (after == null) {
+        log.warning("no transformation seen for key " + beforeRegexp);
       } else {
-        data = baos.toString() + data;
+        try {
+          data = data.replaceAll(beforeRegexp, after);
+        } catch (IllegalArgumentException e) {
+          // bad regexp or bad back ref in the 'after'.
+          // Do a straight substitution instead.
+          data = data.replace(beforeRegexp, after);
+        }
       }
-
-      bytesCopied += writeDataWithUserTransformations(data, in, out);
     }
-
-    return bytesCopied;
+    return data;
   }
 
   private static int getBOMLength(byte[] buf) {
@@ -332,39 +430,6 @@ public class InjectionHelper {
     return bytesReadTotal;
   }
 
-  private static long writeDataWithUserTransformations(String data, InputStream in, OutputStream out)
-      throws IOException {
-    long bytesWritten = 0;
-    byte[] buf = new byte[8192];
-    while (true) {
-      for (String beforeRegexp : contentTransformations.keySet()) {
-        String after = contentTransformations.get(beforeRegexp);
-        if (after == null) {
-          log.warning("no transformation seen for key " + beforeRegexp);
-        } else {
-          try {
-            data = data.replaceAll(beforeRegexp, after);
-          } catch (IllegalArgumentException e) {
-            // bad regexp or bad back ref in the 'after'.
-            // Do a straight substitution instead.
-            // (This logic needed for injection.html's __SELENIUM_JS__
-            // replacement to work.)
-            data = data.replace(beforeRegexp, after);
-          }
-        }
-      }
-      out.write(data.getBytes());
-      int len = in.read(buf);
-      if (len == -1) {
-        break;
-      }
-      bytesWritten += len;
-      data = new String(buf, 0, len);
-    }
-
-    return bytesWritten;
-  }
-
   private static byte[] setSomeJsVars(String sessionId) {
     StringBuffer moreJs = new StringBuffer();
     if (InjectionHelper.browserSideLogEnabled) {
@@ -421,7 +486,8 @@ public class InjectionHelper {
   }
 
   public static boolean addUserContentTransformation(String before, String after) {
-    contentTransformations.put(before, after);
+    userContentTransformations.put(before, after);
+    renderedInjections.invalidateAll();
     return true;
   }
 
@@ -432,11 +498,12 @@ public class InjectionHelper {
       return false;
     }
     userJsInjectionFiles.add(fileName);
+    renderedInjections.invalidateAll();
     return true;
   }
 
   public static boolean userContentTransformationsExist() {
-    return !contentTransformations.isEmpty();
+    return !userContentTransformations.isEmpty();
   }
 
   public static boolean userJsInjectionsExist() {
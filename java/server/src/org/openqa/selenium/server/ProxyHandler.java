@@ -16,8 +16,16 @@
 
 package org.openqa.selenium.server;
 
-import cybervillains.ca.KeyStoreManager;
-
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.util.EntityUtils;
 import org.openqa.jetty.http.HttpConnection;
 import org.openqa.jetty.http.HttpFields;
 import org.openqa.jetty.http.HttpMessage;
@@ -27,10 +35,10 @@ import org.openqa.jetty.http.HttpServer;
 import org.openqa.jetty.http.HttpTunnel;
 import org.openqa.jetty.http.SslListener;
 import org.openqa.jetty.http.handler.AbstractHttpHandler;
-import org.openqa.jetty.util.IO;
 import org.openqa.jetty.util.StringMap;
 import org.openqa.jetty.util.URI;
 import org.openqa.selenium.browserlaunchers.LauncherUtils;
+import org.openqa.selenium.security.CertificateGenerator;
 import org.openqa.selenium.server.browserlaunchers.ResourceExtractor;
 import org.openqa.selenium.server.commands.AddCustomRequestHeaderCommand;
 import org.openqa.selenium.server.commands.CaptureNetworkTrafficCommand;
@@ -42,23 +50,33 @@ import java.io.OutputStreamWriter;
 import java.net.ConnectException;
 import java.net.HttpURLConnection;
 import java.net.InetAddress;
-import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
-import java.net.Proxy;
+import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.UnknownHostException;
+import java.security.Principal;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.SSLServerSocketFactory;
+import javax.net.ssl.X509ExtendedKeyManager;
 
 /* ------------------------------------------------------------ */
 
@@ -75,11 +93,31 @@ import javax.net.ssl.SSLHandshakeException;
 public class ProxyHandler extends AbstractHttpHandler {
   private static Logger log = Logger.getLogger(ProxyHandler.class.getName());
 
+  /**
+   * The directory where the certificates generated for the https hosts are kept, from a server
+   * process to the next. Defaults to selenium-ssl-certificates in the temporary directory.
+   */
+  public static final String CERTIFICATE_CACHE_PROPERTY = "selenium.ssl.certificateCache";
+
+  /**
+   * Set to true for the hosts of a domain to share a wildcard certificate.
+   */
+  public static final String WILDCARD_CERTIFICATES_PROPERTY = "selenium.ssl.wildcardCertificates";
+
+  /**
+   * A comma separated list of the https hosts whose certificate is generated, in the background,
+   * as the server starts rather than on the first request to the host.
+   */
+  public static final String PREGENERATED_CERTIFICATES_PROPERTY =
+      "selenium.ssl.pregeneratedHosts";
+
   protected Set<String> _proxyHostsWhiteList;
   protected Set<String> _proxyHostsBlackList;
   protected int _tunnelTimeoutMs = 250;
   private transient boolean _chained = false;
-  private final Map<String, SslRelay> _sslMap = new LinkedHashMap<String, SslRelay>();
+  // the listener all the CONNECT tunnels lead to, guarded by the shutdown lock.
+  private SslRelay sslRelay;
+  private volatile CertificateCache certificateCache;
   @SuppressWarnings("unused")
   private String sslKeystorePath;
   private boolean trustAllSSLCertificates = false;
@@ -87,7 +125,7 @@ public class ProxyHandler extends AbstractHttpHandler {
   private final String debugURL;
   private final boolean proxyInjectionMode;
   private final boolean forceProxyChain;
-  private boolean fakeCertsGenerated;
+  private volatile UpstreamHttpClient upstreamClient;
 
   // see docs for the lock object on SeleniumServer for information on this and why it is IMPORTANT!
   private final Object shutdownLock;
@@ -175,6 +213,27 @@ public class ProxyHandler extends AbstractHttpHandler {
   public void start() throws Exception {
     _chained = System.getProperty("http.proxyHost") != null || forceProxyChain;
     super.start();
+
+    String hosts = System.getProperty(PREGENERATED_CERTIFICATES_PROPERTY);
+    if (hosts != null) {
+      try {
+        getCertificateCache().generateInBackground(
+            Splitter.on(',').trimResults().omitEmptyStrings().split(hosts));
+      } catch (RuntimeException e) {
+        log.log(Level.WARNING, "Cannot generate the certificates of " + hosts, e);
+      }
+    }
+  }
+
+  @Override
+  public void stop() throws InterruptedException {
+    super.stop();
+    synchronized (this) {
+      if (upstreamClient != null) {
+        upstreamClient.close();
+        upstreamClient = null;
+      }
+    }
   }
 
   /* ------------------------------------------------------------ */
@@ -302,35 +361,12 @@ public class ProxyHandler extends AbstractHttpHandler {
 
     log.fine("PROXY URL=" + url);
 
-    URLConnection connection = url.openConnection();
-    if (System.getProperty("http.proxyHost") != null &&
-        System.getProperty("https.proxyHost") == null &&
-        "https".equals(url.getProtocol())) {
-      /*
-       * Proxy HTTPS connections even if https.proxyHost isn't set because that's what Selenium used
-       * to do.
-       */
-      String proxyHost = System.getProperty("http.proxyHost");
-      int proxyPort = Integer.getInteger("http.proxyPort");
-      InetSocketAddress proxyAddress = new InetSocketAddress(proxyHost, proxyPort);
-      connection = url.openConnection(new Proxy(Proxy.Type.HTTP, proxyAddress));
+    if (!"http".equals(url.getProtocol()) && !"https".equals(url.getProtocol())) {
+      return proxyOtherProtocolRequest(url, request, response, entry);
     }
 
-    connection.setAllowUserInteraction(false);
-
     if (proxyInjectionMode) {
-      adjustRequestForProxyInjection(request, connection);
-    }
-
-    // Set method
-    HttpURLConnection http = null;
-    if (connection instanceof HttpURLConnection) {
-      http = (HttpURLConnection) connection;
-      http.setRequestMethod(request.getMethod());
-      http.setInstanceFollowRedirects(false);
-      if (trustAllSSLCertificates && connection instanceof HttpsURLConnection) {
-        TrustEverythingSSLTrustManager.trustAllSSLCertificates((HttpsURLConnection) connection);
-      }
+      adjustRequestForProxyInjection(request);
     }
 
     // check connection header
@@ -344,6 +380,8 @@ public class ProxyHandler extends AbstractHttpHandler {
     boolean xForwardedFor = false;
     boolean isGet = "GET".equals(request.getMethod());
     boolean hasContent = false;
+    long contentLength = -1;
+    List<Header> headers = new ArrayList<Header>();
     Enumeration enm = request.getFieldNames();
     while (enm.hasMoreElements()) {
       // TODO could be better than this!
@@ -365,11 +403,16 @@ public class ProxyHandler extends AbstractHttpHandler {
           if ("Referer".equals(hdr) && (val.contains("/selenium-server/"))) {
             continue;
           }
-          if (!isGet && HttpFields.__ContentLength.equals(hdr) && Integer.parseInt(val) > 0) {
-            hasContent = true;
+          if (HttpFields.__ContentLength.equalsIgnoreCase(hdr)) {
+            // sent with the body, by the client.
+            contentLength = Long.parseLong(val.trim());
+            if (!isGet && contentLength > 0) {
+              hasContent = true;
+            }
+            continue;
           }
 
-          connection.addRequestProperty(hdr, val);
+          headers.add(new BasicHeader(hdr, val));
           xForwardedFor |= HttpFields.__XForwardedFor.equalsIgnoreCase(hdr);
         }
       }
@@ -378,122 +421,198 @@ public class ProxyHandler extends AbstractHttpHandler {
     // add any custom request headers that the user asked for
     Map<String, String> customRequestHeaders = AddCustomRequestHeaderCommand.getHeaders();
     for (Map.Entry<String, String> e : customRequestHeaders.entrySet()) {
-      connection.addRequestProperty(e.getKey(), e.getValue());
+      headers.add(new BasicHeader(e.getKey(), e.getValue()));
       entry.addRequestHeader(e.getKey(), e.getValue());
     }
 
     // Proxy headers
-    connection.setRequestProperty("Via", "1.1 (jetty)");
+    headers.add(new BasicHeader("Via", "1.1 (jetty)"));
     if (!xForwardedFor)
-      connection.addRequestProperty(HttpFields.__XForwardedFor, request.getRemoteAddr());
+      headers.add(new BasicHeader(HttpFields.__XForwardedFor, request.getRemoteAddr()));
+
+    HttpRequestBase upstreamRequest;
+    if (hasContent) {
+      ProxiedEntityRequest withContent = new ProxiedEntityRequest(request.getMethod());
+      withContent.setEntity(new InputStreamEntity(request.getInputStream(), contentLength));
+      upstreamRequest = withContent;
+    } else {
+      upstreamRequest = new ProxiedRequest(request.getMethod());
+    }
+    upstreamRequest.setURI(toURI(url));
+    upstreamRequest.setHeaders(headers.toArray(new Header[headers.size()]));
 
-    // a little bit of cache control
-    String cache_control = request.getField(HttpFields.__CacheControl);
-    if (cache_control != null &&
-        (cache_control.contains("no-cache") || cache_control.contains("no-store")))
-      connection.setUseCaches(false);
+    org.apache.http.HttpResponse upstreamResponse;
+    try {
+      upstreamResponse = getUpstreamClient().execute(upstreamRequest);
+    } catch (SSLHandshakeException e) {
+      throw new RuntimeException(
+          "Couldn't establish SSL handshake.  Try using trustAllSSLCertificates.\n" +
+              e.getLocalizedMessage(), e);
+    }
 
     try {
-      connection.setDoInput(true);
+      // handler status codes etc.
+      int code = upstreamResponse.getStatusLine().getStatusCode();
+      response.setStatus(code);
+      response.setReason(upstreamResponse.getStatusLine().getReasonPhrase());
 
-      // do input thang!
-      InputStream in = request.getInputStream();
-      if (hasContent) {
-        connection.setDoOutput(true);
-        IO.copy(in, connection.getOutputStream());
+      HttpEntity upstreamEntity = upstreamResponse.getEntity();
+      if (upstreamEntity != null && upstreamEntity.getContentType() != null) {
+        log.fine("Content-Type is: " + upstreamEntity.getContentType().getValue());
       }
 
-      // Connect
-      connection.connect();
-    } catch (Exception ignored) {
-    }
-
-    InputStream proxy_in = null;
+      // clear response defaults.
+      response.removeField(HttpFields.__Date);
+      response.removeField(HttpFields.__Server);
+
+      // set response headers
+      for (Header header : upstreamResponse.getAllHeaders()) {
+        String hdr = header.getName();
+        String val = header.getValue();
+        if (hdr != null && val != null && !_DontProxyHeaders.containsKey(hdr) &&
+            (_chained || !_ProxyAuthHeaders.containsKey(hdr)))
+          response.addField(hdr, val);
+      }
+      response.setField("Via", "1.1 (jetty)");
+
+      response.removeField(HttpFields.__ETag); // possible cksum? Stop caching...
+      response.removeField(HttpFields.__LastModified); // Stop caching...
+
+      // Handled
+      long bytesCopied = -1;
+      request.setHandled(true);
+      if (upstreamEntity != null) {
+        InputStream proxy_in = upstreamEntity.getContent();
+        boolean injectableResponse = code == HttpURLConnection.HTTP_OK ||
+            (code >= 400 && code < 600);
+        if (proxyInjectionMode && injectableResponse && shouldInject(request.getPath())) {
+          // check if we should proxy this path based on the dontProxyRegex that can be
+          // user-specified
+          bytesCopied =
+              InjectionHelper.injectJavaScript(request, response, proxy_in,
+                  response.getOutputStream(), debugURL);
+        } else {
+          bytesCopied = ModifiedIO.copy(proxy_in, response.getOutputStream());
+        }
+        // hands the connection back to the pool.
+        EntityUtils.consume(upstreamEntity);
+      }
 
-    // handler status codes etc.
-    int code = -1;
-    if (http != null) {
-      proxy_in = http.getErrorStream();
+      entry.finish(code, bytesCopied);
+      entry.addResponseHeader(response);
 
-      try {
-        code = http.getResponseCode();
-      } catch (SSLHandshakeException e) {
-        throw new RuntimeException(
-            "Couldn't establish SSL handshake.  Try using trustAllSSLCertificates.\n" +
-                e.getLocalizedMessage(), e);
-      }
-      response.setStatus(code);
-      response.setReason(http.getResponseMessage());
+      CaptureNetworkTrafficCommand.capture(entry);
 
-      String contentType = http.getContentType();
-      log.fine("Content-Type is: " + contentType);
+      return bytesCopied;
+    } catch (IOException e) {
+      // the connection is in an unknown state, it is closed rather than reused.
+      upstreamRequest.abort();
+      throw e;
+    } catch (RuntimeException e) {
+      upstreamRequest.abort();
+      throw e;
     }
+  }
 
-    if (proxy_in == null) {
-      try {
-        proxy_in = connection.getInputStream();
-      } catch (Exception e) {
-        // TODO(simon): Whhaaattt?
-        // LogSupport.ignore(log, e);
-        proxy_in = http.getErrorStream();
+  /**
+   * Proxies the schemes other than http and https, ftp, with the URL implementation of the JVM.
+   */
+  private long proxyOtherProtocolRequest(URL url, HttpRequest request, HttpResponse response,
+      CaptureNetworkTrafficCommand.Entry entry) throws IOException {
+    URLConnection connection = url.openConnection();
+    connection.setAllowUserInteraction(false);
+    InputStream in = connection.getInputStream();
+    try {
+      if (connection.getContentType() != null) {
+        response.setField(HttpFields.__ContentType, connection.getContentType());
       }
+      response.setField("Via", "1.1 (jetty)");
+      request.setHandled(true);
+      long bytesCopied = ModifiedIO.copy(in, response.getOutputStream());
+
+      entry.finish(HttpURLConnection.HTTP_OK, bytesCopied);
+      entry.addResponseHeader(response);
+      CaptureNetworkTrafficCommand.capture(entry);
+      return bytesCopied;
+    } finally {
+      in.close();
     }
+  }
 
-    // clear response defaults.
-    response.removeField(HttpFields.__Date);
-    response.removeField(HttpFields.__Server);
-
-    // set response headers
-    int h = 0;
-    String hdr = connection.getHeaderFieldKey(h);
-    String val = connection.getHeaderField(h);
-    while (hdr != null || val != null) {
-      if (hdr != null && val != null && !_DontProxyHeaders.containsKey(hdr) &&
-          (_chained || !_ProxyAuthHeaders.containsKey(hdr)))
-        response.addField(hdr, val);
-      h++;
-      hdr = connection.getHeaderFieldKey(h);
-      val = connection.getHeaderField(h);
-    }
-    response.setField("Via", "1.1 (jetty)");
-
-    response.removeField(HttpFields.__ETag); // possible cksum? Stop caching...
-    response.removeField(HttpFields.__LastModified); // Stop caching...
-
-    // Handled
-    long bytesCopied = -1;
-    request.setHandled(true);
-    if (proxy_in != null) {
-      boolean injectableResponse = http.getResponseCode() == HttpURLConnection.HTTP_OK ||
-          (http.getResponseCode() >= 400 && http.getResponseCode() < 600);
-      if (proxyInjectionMode && injectableResponse) {
-        // check if we should proxy this path based on the dontProxyRegex that can be user-specified
-        if (shouldInject(request.getPath())) {
-          bytesCopied =
-              InjectionHelper.injectJavaScript(request, response, proxy_in,
-                  response.getOutputStream(), debugURL);
+  /**
+   * The URL as a URI, the characters the browsers let through but a URI doesn't allow being
+   * escaped.
+   */
+  static java.net.URI toURI(URL url) {
+    String spec = url.toString();
+    try {
+      return new java.net.URI(spec);
+    } catch (URISyntaxException e) {
+      StringBuilder escaped = new StringBuilder(spec.length() + 16);
+      for (byte b : spec.getBytes(Charsets.UTF_8)) {
+        int c = b & 0xff;
+        if (c > 0x20 && c < 0x7f && "\"<>\\^`{|}".indexOf(c) == -1) {
+          escaped.append((char) c);
         } else {
-          bytesCopied = ModifiedIO.copy(proxy_in, response.getOutputStream());
+          escaped.append('%').append(Character.toUpperCase(Character.forDigit(c >> 4, 16)))
+              .append(Character.toUpperCase(Character.forDigit(c & 0xf, 16)));
         }
-      } else {
-        bytesCopied = ModifiedIO.copy(proxy_in, response.getOutputStream());
       }
+      return java.net.URI.create(escaped.toString());
     }
+  }
 
-    entry.finish(code, bytesCopied);
-    entry.addResponseHeader(response);
+  private UpstreamHttpClient getUpstreamClient() {
+    UpstreamHttpClient client = upstreamClient;
+    if (client == null) {
+      synchronized (this) {
+        if (upstreamClient == null) {
+          upstreamClient = new UpstreamHttpClient(trustAllSSLCertificates);
+        }
+        client = upstreamClient;
+      }
+    }
+    return client;
+  }
 
-    CaptureNetworkTrafficCommand.capture(entry);
+  /**
+   * @return the client sending the requests of the browsers, with its counters.
+   */
+  public UpstreamHttpClient getUpstreamHttpClient() {
+    return getUpstreamClient();
+  }
+
+  private static class ProxiedRequest extends HttpRequestBase {
+    private final String method;
 
-    return bytesCopied;
+    ProxiedRequest(String method) {
+      this.method = method;
+    }
+
+    @Override
+    public String getMethod() {
+      return method;
+    }
   }
 
+  private static class ProxiedEntityRequest extends HttpEntityEnclosingRequestBase {
+    private final String method;
+
+    ProxiedEntityRequest(String method) {
+      this.method = method;
+    }
+
+    @Override
+    public String getMethod() {
+      return method;
+    }
+  }
 
   public boolean shouldInject(String path) {
     return dontInjectRegex == null || !path.matches(dontInjectRegex);
   }
 
-  private void adjustRequestForProxyInjection(HttpRequest request, URLConnection connection) {
+  private void adjustRequestForProxyInjection(HttpRequest request) {
     request.setState(HttpMessage.__MSG_EDITABLE);
     if (request.containsField("If-Modified-Since")) {
       // TODO: still need to disable caching? I want to prevent 304s during this development phase
@@ -501,25 +620,24 @@ public class ProxyHandler extends AbstractHttpHandler {
       // I'm often changing the injection, and so need HTML caching to be absolutely defeated
       request.removeField("If-Modified-Since");
       request.removeField("If-None-Match");
-      connection.setUseCaches(false); // maybe I don't need the stuff above?
     }
     request.removeField("Accept-Encoding"); // js injection is hard w/ gzip'd data, so try to
                                             // prevent it ahead of time
     request.setState(HttpMessage.__MSG_RECEIVED);
   }
 
-  public synchronized void generateSSLCertsForLoggingHosts(HttpServer server) {
-    if (fakeCertsGenerated) return;
-    log.info("Creating 16 fake SSL servers for browser side logging");
-    for (int i = 1; i <= 16; i++) {
-      String uri = i + ".selenium.doesnotexist:443";
-      try {
-        getSslRelayOrCreateNew(new URI(uri), "localhost", 443, server);
-      } catch (Exception e) {
-        log.log(Level.SEVERE, "Could not pre-create logging SSL relay for " + uri, e);
+  public void generateSSLCertsForLoggingHosts(HttpServer server) {
+    log.info("Creating the SSL certificates for browser side logging");
+    try {
+      getSslRelay(server);
+      List<String> hosts = new ArrayList<String>();
+      for (int i = 1; i <= 16; i++) {
+        hosts.add(i + ".selenium.doesnotexist");
       }
+      getCertificateCache().generateInBackground(hosts);
+    } catch (Exception e) {
+      log.log(Level.SEVERE, "Could not pre-create the logging SSL certificates", e);
     }
-    fakeCertsGenerated = true;
   }
 
   /* ------------------------------------------------------------ */
@@ -529,6 +647,9 @@ public class ProxyHandler extends AbstractHttpHandler {
     try {
       log.fine("CONNECT: " + uri);
       String serverAddress = uri.toString();
+      // we do this because the URI above doesn't actually have the host broken up (it returns
+      // null on getHost())
+      String host = new URL("https://" + serverAddress).getHost();
       String serverHost = serverAddress;
       Integer serverPort = 443;
       // When logging, we'll attempt to send messages to hosts that don't exist
@@ -552,7 +673,7 @@ public class ProxyHandler extends AbstractHttpHandler {
 
         HttpServer server = http_connection.getHttpServer();
 
-        SslRelay listener = getSslRelayOrCreateNew(uri, serverHost, serverPort, server);
+        SslRelay listener = getSslRelay(server);
 
         int port = listener.getPort();
 
@@ -569,6 +690,7 @@ public class ProxyHandler extends AbstractHttpHandler {
             newHttpTunnel(response, InetAddress.getByName(null), port, timeoutMs);
 
         if (tunnel != null) {
+          listener.register(tunnel.getSocket(), host, serverHost, serverPort);
           // TODO - need to setup semi-busy loop for IE.
           if (_tunnelTimeoutMs > 0) {
             tunnel.getSocket().setSoTimeout(_tunnelTimeoutMs);
@@ -591,62 +713,62 @@ public class ProxyHandler extends AbstractHttpHandler {
     }
   }
 
-  protected SslRelay getSslRelayOrCreateNew(URI uri, String serverHost, Integer serverPort, HttpServer server)
-      throws Exception {
-    SslRelay listener;
-    synchronized (_sslMap) {
-      listener = _sslMap.get(uri.toString());
-      if (listener == null) {
-        // we do this because the URI above doesn't actually have the host broken up (it returns
-        // null on getHost())
-        String host = new URL("https://" + uri.toString()).getHost();
-
-        listener = new SslRelay(serverHost, serverPort);
-
-        wireUpSslWithCyberVilliansCA(host, listener);
-
-        listener.setPassword("password");
-        listener.setKeyPassword("password");
+  /**
+   * @return the listener the CONNECT tunnels lead to, started on the first call.
+   */
+  protected SslRelay getSslRelay(HttpServer server) throws Exception {
+    synchronized (shutdownLock) {
+      if (sslRelay == null || !sslRelay.isStarted()) {
+        if (!server.isStarted()) {
+          throw new RuntimeException(
+              "Can't start SslRelay: server is not started (perhaps it was just shut down?)");
+        }
+        if (sslRelay != null) {
+          server.removeListener(sslRelay);
+        }
+        SslRelay listener = new SslRelay(getCertificateCache());
         server.addListener(listener);
+        listener.start();
+        sslRelay = listener;
+      }
+      return sslRelay;
+    }
+  }
 
-        synchronized (shutdownLock) {
-          try {
-            if (server.isStarted()) {
-              listener.start();
-            } else {
-              throw new RuntimeException(
-                  "Can't start SslRelay: server is not started (perhaps it was just shut down?)");
-            }
-          } catch (Exception e) {
-            e.printStackTrace();
-            throw e;
-          }
+  private CertificateCache getCertificateCache() {
+    CertificateCache cache = certificateCache;
+    if (cache == null) {
+      synchronized (this) {
+        cache = certificateCache;
+        if (cache == null) {
+          cache = createCertificateCache();
+          certificateCache = cache;
         }
-        _sslMap.put(uri.toString(), listener);
       }
     }
-    return listener;
+    return cache;
   }
 
-  protected void wireUpSslWithCyberVilliansCA(String host, SslRelay listener) {
+  private CertificateCache createCertificateCache() {
     try {
-      File root = File.createTempFile("seleniumSslSupport", host);
+      File root = File.createTempFile("seleniumSslSupport", "");
       root.delete();
       root.mkdirs();
+      CertificateGenerator generator;
+      try {
+        ResourceExtractor.extractResourcePath(getClass(), "/sslSupport", root);
+        // the signing certificate and key are read once and for all.
+        generator = new CertificateGenerator(root);
+      } finally {
+        LauncherUtils.recursivelyDeleteDir(root);
+      }
 
-      ResourceExtractor.extractResourcePath(getClass(), "/sslSupport", root);
-
-
-      KeyStoreManager mgr =
-          new KeyStoreManager(root, "http://127.0.0.1:" + port +
-              "/selenium-server/sslSupport/blank_crl.pem");
-      mgr.getCertificateByHostname(host);
-      mgr.getKeyStore().deleteEntry(KeyStoreManager._caPrivKeyAlias);
-      mgr.persist();
-
-      listener.setKeystore(new File(root, "cybervillainsCA.jks").getAbsolutePath());
-      listener.setNukeDirOrFile(root);
-    } catch (Exception e) {
+      File cacheRoot = new File(System.getProperty(CERTIFICATE_CACHE_PROPERTY,
+          new File(System.getProperty("java.io.tmpdir"), "selenium-ssl-certificates").getPath()));
+      return new CertificateCache(cacheRoot, generator,
+          "http://127.0.0.1:" + port + "/selenium-server/sslSupport/blank_crl.pem",
+          Boolean.getBoolean(WILDCARD_CERTIFICATES_PROPERTY));
+    } catch (IOException e) {
       throw new RuntimeException(e);
     }
   }
@@ -740,23 +862,68 @@ public class ProxyHandler extends AbstractHttpHandler {
 
   /* ------------------------------------------------------------ */
 
+  /**
+   * The one listener the CONNECT tunnels lead to, whatever the host. The tunnels are registered
+   * by the port they connect from, which tells the relay the host a connection is for: it presents
+   * the certificate of the host during the handshake, then forwards the requests to it.
+   */
   public static class SslRelay extends SslListener {
-    String serverHost;
-    Integer serverPort;
-    File nukeDirOrFile;
+    private final CertificateCache certificates;
+    private final ConcurrentMap<Integer, Target> targets = new ConcurrentHashMap<Integer, Target>();
 
-    SslRelay(String host, Integer port) {
-        serverHost = host;
-        serverPort = port;
+    SslRelay(CertificateCache certificates) {
+      this.certificates = certificates;
+      // the connections to all the hosts share the threads.
+      setMaxThreads(SeleniumServer.DEFAULT_JETTY_THREADS);
     }
 
-    public void setNukeDirOrFile(File nukeDirOrFile) {
-      this.nukeDirOrFile = nukeDirOrFile;
+    /**
+     * @param tunnel the socket of the tunnel to this relay.
+     * @param host the host the browser connects to, whose certificate is presented.
+     * @param serverHost where the requests are forwarded to.
+     * @param serverPort the port they are forwarded to.
+     */
+    void register(Socket tunnel, String host, String serverHost, int serverPort) {
+      targets.put(tunnel.getLocalPort(), new Target(host, serverHost, serverPort));
+    }
+
+    @Override
+    protected SSLServerSocketFactory createFactory() throws Exception {
+      SSLContext context = SSLContext.getInstance(getProtocol());
+      context.init(new KeyManager[] {new HostKeyManager()}, null, new SecureRandom());
+      return context.getServerSocketFactory();
+    }
+
+    /**
+     * Unlike SslListener, leaves the handshake to the thread which handles the connection, so that
+     * a host whose certificate is being generated doesn't hold up the others.
+     */
+    @Override
+    protected Socket accept(ServerSocket serverSocket) throws IOException {
+      Socket socket = serverSocket.accept();
+      if (getMaxIdleTimeMs() > 0) {
+        socket.setSoTimeout(getMaxIdleTimeMs());
+      }
+      return socket;
+    }
+
+    @Override
+    public void handleConnection(Socket socket) throws IOException {
+      try {
+        super.handleConnection(socket);
+      } finally {
+        // the tunnel may have been registered after the connection was accepted.
+        targets.remove(socket.getPort());
+      }
     }
 
     @Override
     protected void customizeRequest(Socket socket, HttpRequest request) {
       super.customizeRequest(socket, request);
+      Target target = targets.get(socket.getPort());
+      if (target == null) {
+        return;
+      }
       URI uri = request.getURI();
 
       // Convert the URI to a proxy URL
@@ -765,21 +932,62 @@ public class ProxyHandler extends AbstractHttpHandler {
       // get "dirty" and be rewritten, potentially breaking the proxy slightly. Instead,
       // create a brand new URI that includes the protocol, the host, and the port, but leaves
       // intact the path + query string "as is" so that it does not get rewritten.
-      request
-          .setURI(new URI("https://" + serverHost + ":" + serverPort + uri.toString()));
+      request.setURI(new URI(
+          "https://" + target.serverHost + ":" + target.serverPort + uri.toString()));
     }
 
-    @Override
-    public void stop() throws InterruptedException {
-      super.stop();
+    private static class Target {
+      private final String host;
+      private final String serverHost;
+      private final int serverPort;
 
-      if (nukeDirOrFile != null) {
-        if (nukeDirOrFile.isDirectory()) {
-          LauncherUtils.recursivelyDeleteDir(nukeDirOrFile);
-        } else {
-          nukeDirOrFile.delete();
+      Target(String host, String serverHost, int serverPort) {
+        this.host = host;
+        this.serverHost = serverHost;
+        this.serverPort = serverPort;
+      }
+    }
+
+    /**
+     * Picks the certificate of the host the connection was registered for.
+     */
+    private class HostKeyManager extends X509ExtendedKeyManager {
+
+      public String chooseServerAlias(String keyType, Principal[] issuers, Socket socket) {
+        Target target = socket == null ? null : targets.get(socket.getPort());
+        if (target == null || !"RSA".equals(keyType)) {
+          return null;
+        }
+        String alias = certificates.getAlias(target.host);
+        try {
+          // generated now if it wasn't already
+          certificates.getCertificateByAlias(alias);
+          return alias;
+        } catch (RuntimeException e) {
+          log.log(Level.WARNING, "No certificate for " + target.host, e);
+          return null;
         }
       }
+
+      public X509Certificate[] getCertificateChain(String alias) {
+        return certificates.getCertificateByAlias(alias).getCertificateChain();
+      }
+
+      public PrivateKey getPrivateKey(String alias) {
+        return certificates.getCertificateByAlias(alias).getPrivateKey();
+      }
+
+      public String[] getServerAliases(String keyType, Principal[] issuers) {
+        return null;
+      }
+
+      public String[] getClientAliases(String keyType, Principal[] issuers) {
+        return null;
+      }
+
+      public String chooseClientAlias(String[] keyType, Principal[] issuers, Socket socket) {
+        return null;
+      }
     }
   }
 }
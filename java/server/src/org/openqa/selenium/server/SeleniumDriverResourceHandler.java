@@ -52,6 +52,7 @@ import org.openqa.jetty.util.StringUtil;
 import org.openqa.selenium.server.log.PerSessionLogHandler;
 
 import java.awt.*;
+import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -450,10 +451,6 @@ public class SeleniumDriverResourceHandler extends ResourceHandler {
         } catch (RuntimeException rte) {
           results = "Failed to start new browser session: " + rte.getMessage();
         }
-        // clear out any network traffic captured but never pulled back by the last client (this
-        // feature only works with one concurrent browser, similar to PI mode)
-        CaptureNetworkTrafficCommand.clear();
-
         break;
       case testComplete:
         browserSessionFactory.endBrowserSession(sessionId, remoteControl.getConfiguration());
@@ -490,7 +487,20 @@ public class SeleniumDriverResourceHandler extends ResourceHandler {
         results = new CaptureScreenshotToStringCommand().execute();
         break;
       case captureNetworkTraffic:
-        results = new CaptureNetworkTrafficCommand(values.get(0)).execute();
+        CaptureNetworkTrafficCommand captureNetworkTraffic =
+            new CaptureNetworkTrafficCommand(values.get(0), sessionId);
+        if (res == null) {
+          results = captureNetworkTraffic.execute();
+        } else {
+          // the traffic is written as it is formatted, rather than built in memory first.
+          try {
+            Writer out = new BufferedWriter(new OutputStreamWriter(res.getOutputStream(), "UTF-8"));
+            captureNetworkTraffic.execute(out);
+            out.flush();
+          } catch (IOException e) {
+            log.log(Level.WARNING, "Failed to send the network traffic", e);
+          }
+        }
         break;
       case addCustomRequestHeader:
         results = new AddCustomRequestHeaderCommand(values.get(0), values.get(1)).execute();
@@ -812,6 +822,8 @@ public class SeleniumDriverResourceHandler extends ResourceHandler {
         .getNewBrowserSession(browserString, startURL, extensionJs,
             browserConfigurations, remoteControl.getConfiguration());
     setLastSessionId(sessionInfo.sessionId);
+    // forgets the network traffic captured but never pulled back for the session.
+    CaptureNetworkTrafficCommand.open(sessionInfo.sessionId);
     return sessionInfo.sessionId;
   }
 
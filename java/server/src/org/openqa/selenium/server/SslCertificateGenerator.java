@@ -19,7 +19,7 @@ package org.openqa.selenium.server;
 
 public interface SslCertificateGenerator {
   /**
-   * pre-compute the 1-16 SSL relays+certs for the logging hosts. (see selenium-remoterunner.js
+   * pre-compute the 1-16 SSL certs for the logging hosts. (see selenium-remoterunner.js
    * sendToRCAndForget for more info)
    */
   void generateSSLCertsForLoggingHosts();
@@ -0,0 +1,274 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.openqa.selenium.server;
+
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.UserTokenHandler;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.params.ClientPNames;
+import org.apache.http.client.params.CookiePolicy;
+import org.apache.http.conn.ClientConnectionRequest;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.impl.conn.ProxySelectorRoutePlanner;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.net.ProxySelector;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * The client the {@link ProxyHandler} sends the requests of the browsers with. The connections
+ * to each host are kept alive in a pool, up to {@value #MAX_PER_ROUTE_PROPERTY} of them per host
+ * (20 by default) beyond which the requests wait for one to be released, and the TLS sessions are
+ * resumed rather than negotiated again for each connection.
+ *
+ * The requests are counted with the connections they found open in the pool, the hits, and the
+ * ones which had to be opened, the misses, along with the time to the response headers.
+ */
+public class UpstreamHttpClient {
+
+  private static final Logger log = Logger.getLogger(UpstreamHttpClient.class.getName());
+
+  /**
+   * System property with the maximum number of connections opened to a host.
+   */
+  public static final String MAX_PER_ROUTE_PROPERTY = "selenium.proxy.maxConnectionsPerRoute";
+
+  private static final int DEFAULT_MAX_PER_ROUTE = 20;
+  private static final int MAX_TOTAL = 2000;
+  private static final int CONNECTION_TIMEOUT_MS = 120 * 1000;
+  private static final long LEASE_TIMEOUT_MS = 60 * 1000;
+  private static final long IDLE_CONNECTION_TIMEOUT_SECONDS = 30;
+  private static final long EVICTION_INTERVAL_MS = 5 * 1000;
+
+  private final CountingConnectionManager connectionManager;
+  private final DefaultHttpClient client;
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong latencyNanos = new AtomicLong();
+  private IdleConnectionEvictor idleConnectionEvictor;
+
+  /**
+   * @param trustAllSSLCertificates whether to accept the certificate of any host.
+   */
+  public UpstreamHttpClient(boolean trustAllSSLCertificates) {
+    connectionManager = new CountingConnectionManager(getSchemeRegistry(trustAllSSLCertificates));
+    connectionManager.setMaxTotal(MAX_TOTAL);
+    connectionManager.setDefaultMaxPerRoute(
+        Integer.getInteger(MAX_PER_ROUTE_PROPERTY, DEFAULT_MAX_PER_ROUTE));
+
+    client = new DefaultHttpClient(connectionManager, getHttpParams());
+    client.setRoutePlanner(new ChainedProxyRoutePlanner(connectionManager.getSchemeRegistry()));
+    // The TLS connections are otherwise tagged with the principal of the host, and never leased
+    // again to a request which doesn't carry it.
+    client.setUserTokenHandler(new UserTokenHandler() {
+      public Object getUserToken(HttpContext context) {
+        return null;
+      }
+    });
+  }
+
+  private static SchemeRegistry getSchemeRegistry(boolean trustAllSSLCertificates) {
+    // One socket factory, and so one SSL context, for all the hosts: the context keeps the TLS
+    // sessions so that new connections to a host resume them.
+    SSLSocketFactory sslSocketFactory = trustAllSSLCertificates
+        ? new SSLSocketFactory(TrustEverythingSSLTrustManager.getTrustingSSLSocketFactory(),
+            SSLSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER)
+        : SSLSocketFactory.getSocketFactory();
+
+    SchemeRegistry registry = new SchemeRegistry();
+    registry.register(new Scheme("http", 80, PlainSocketFactory.getSocketFactory()));
+    registry.register(new Scheme("https", 443, sslSocketFactory));
+    return registry;
+  }
+
+  private static HttpParams getHttpParams() {
+    HttpParams params = new BasicHttpParams();
+    HttpConnectionParams.setConnectionTimeout(params, CONNECTION_TIMEOUT_MS);
+    HttpConnectionParams.setStaleCheckingEnabled(params, true);
+    params.setLongParameter(ClientPNames.CONN_MANAGER_TIMEOUT, LEASE_TIMEOUT_MS);
+    // The browser follows the redirects, and keeps the cookies.
+    params.setBooleanParameter(ClientPNames.HANDLE_REDIRECTS, false);
+    params.setParameter(ClientPNames.COOKIE_POLICY, CookiePolicy.IGNORE_COOKIES);
+    return params;
+  }
+
+  /**
+   * Sends a request. Its response has to be consumed, or the request aborted, for the connection
+   * to go back to the pool.
+   */
+  public HttpResponse execute(HttpUriRequest request) throws IOException {
+    startIdleConnectionEvictor();
+    long start = System.nanoTime();
+    try {
+      return client.execute(request);
+    } finally {
+      requests.incrementAndGet();
+      latencyNanos.addAndGet(System.nanoTime() - start);
+    }
+  }
+
+  public long getRequestCount() {
+    return requests.get();
+  }
+
+  /**
+   * @return the number of requests sent over a connection kept alive in the pool.
+   */
+  public long getPoolHits() {
+    return connectionManager.hits.get();
+  }
+
+  /**
+   * @return the number of requests which had to open a connection.
+   */
+  public long getPoolMisses() {
+    return connectionManager.misses.get();
+  }
+
+  /**
+   * @return the average time from sending a request to getting the headers of its response.
+   */
+  public double getAverageLatencyMillis() {
+    long count = requests.get();
+    return count == 0 ? 0 : latencyNanos.get() / 1000000.0 / count;
+  }
+
+  /**
+   * @return the number of leased, available and pending connections, all the hosts together.
+   */
+  public PoolStats getConnectionStats() {
+    return connectionManager.getTotalStats();
+  }
+
+  public void close() {
+    synchronized (this) {
+      if (idleConnectionEvictor != null) {
+        idleConnectionEvictor.interrupt();
+        idleConnectionEvictor = null;
+      }
+    }
+    log.fine(String.format(
+        "Proxied %d requests, %d over a kept alive connection, in %.1f ms on average",
+        getRequestCount(), getPoolHits(), getAverageLatencyMillis()));
+    connectionManager.shutdown();
+  }
+
+  private synchronized void startIdleConnectionEvictor() {
+    if (idleConnectionEvictor == null) {
+      idleConnectionEvictor = new IdleConnectionEvictor(connectionManager);
+      idleConnectionEvictor.start();
+    }
+  }
+
+  /**
+   * Counts whether the connections leased were open already.
+   */
+  private static class CountingConnectionManager extends PoolingClientConnectionManager {
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    CountingConnectionManager(SchemeRegistry registry) {
+      super(registry);
+    }
+
+    @Override
+    public ClientConnectionRequest requestConnection(HttpRoute route, Object state) {
+      final ClientConnectionRequest request = super.requestConnection(route, state);
+      return new ClientConnectionRequest() {
+        public ManagedClientConnection getConnection(long timeout, TimeUnit unit)
+            throws InterruptedException, ConnectionPoolTimeoutException {
+          ManagedClientConnection connection = request.getConnection(timeout, unit);
+          (connection.isOpen() ? hits : misses).incrementAndGet();
+          return connection;
+        }
+
+        public void abortRequest() {
+          request.abortRequest();
+        }
+      };
+    }
+  }
+
+  /**
+   * Routes the requests through the proxy of the system properties, and the https ones through
+   * the http proxy when no https proxy is set, because that's what Selenium used to do.
+   */
+  private static class ChainedProxyRoutePlanner extends ProxySelectorRoutePlanner {
+
+    ChainedProxyRoutePlanner(SchemeRegistry registry) {
+      super(registry, ProxySelector.getDefault());
+    }
+
+    @Override
+    protected HttpHost determineProxy(HttpHost target, HttpRequest request, HttpContext context)
+        throws HttpException {
+      String proxyHost = System.getProperty("http.proxyHost");
+      if (proxyHost != null && System.getProperty("https.proxyHost") == null
+          && "https".equals(target.getSchemeName())) {
+        return new HttpHost(proxyHost, Integer.getInteger("http.proxyPort", 80));
+      }
+      return super.determineProxy(target, request, context);
+    }
+  }
+
+  /**
+   * Closes the connections idle for too long, away from the threads proxying the requests.
+   */
+  private static class IdleConnectionEvictor extends Thread {
+
+    private final PoolingClientConnectionManager connectionManager;
+
+    IdleConnectionEvictor(PoolingClientConnectionManager connectionManager) {
+      super("Proxy idle connection evictor");
+      this.connectionManager = connectionManager;
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (!isInterrupted()) {
+          Thread.sleep(EVICTION_INTERVAL_MS);
+          connectionManager.closeExpiredConnections();
+          connectionManager.closeIdleConnections(IDLE_CONNECTION_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+      } catch (InterruptedException e) {
+        // shut down
+      }
+    }
+  }
+}
@@ -15,43 +15,137 @@ See the License for the specific language governing permissions and
 limitations under the License.
 */
 
-
 package org.openqa.selenium.server.commands;
 
 import org.openqa.jetty.http.HttpRequest;
 import org.openqa.jetty.http.HttpResponse;
+import org.openqa.selenium.internal.BuildInfo;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.List;
-
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Returns the network traffic captured by the proxy, as JSON, XML, plain text or HAR 1.2. Reading
+ * the traffic doesn't consume it: it is returned again until {@link #clear()}, or until the
+ * session ends. The traffic is kept in ring buffers of {@value #DEFAULT_CAPACITY} entries by
+ * default ({@value #CAPACITY_PROPERTY}): the oldest entries are overwritten past that.
+ * <p>
+ * The proxied requests carry nothing that says which session they belong to. While a single
+ * session is open, all the traffic is attributed to it. Otherwise, with no session or with
+ * concurrent ones, the traffic goes to a buffer of its own, which is never returned to a session
+ * since it may be another's, only to a command without a session. Like the proxy injection mode,
+ * this feature only works with one browser at a time.
+ */
 public class CaptureNetworkTrafficCommand extends Command {
-  private static final List<Entry> entries = Collections.synchronizedList(new ArrayList<Entry>());
 
+  public static final String CAPACITY_PROPERTY = "selenium.networkTraffic.capacity";
+  public static final int DEFAULT_CAPACITY = 1000;
+
+  private static final ConcurrentMap<String, TrafficBuffer> sessions =
+      new ConcurrentHashMap<String, TrafficBuffer>();
+
+  // the traffic which can't be attributed to a session goes there.
+  private static volatile TrafficBuffer unattributed = newBuffer();
+
+  /**
+   * Forgets the traffic captured, and the sessions open.
+   */
   public static void clear() {
-    entries.clear();
+    sessions.clear();
+    unattributed = newBuffer();
+  }
+
+  /**
+   * Starts capturing the traffic of a session, forgetting what was captured for it before. When
+   * it is the only session open, the traffic left from before is forgotten too.
+   */
+  public static void open(String sessionId) {
+    sessions.put(sessionId, newBuffer());
+    if (soleSession() != null) {
+      unattributed = newBuffer();
+    }
+  }
+
+  /**
+   * Forgets the traffic captured for a session, which must be called once it has ended.
+   */
+  public static void close(String sessionId) {
+    sessions.remove(sessionId);
   }
 
+  /**
+   * @param entry the request and its response, attributed to the session open if there is just
+   *     one.
+   */
   public static void capture(Entry entry) {
-    entries.add(entry);
+    TrafficBuffer buffer = soleSession();
+    (buffer == null ? unattributed : buffer).add(entry);
   }
 
-  private String type; // ie: XML, JSON, plain text, etc
+  private static TrafficBuffer soleSession() {
+    Iterator<TrafficBuffer> buffers = sessions.values().iterator();
+    if (!buffers.hasNext()) {
+      return null;
+    }
+    TrafficBuffer buffer = buffers.next();
+    return buffers.hasNext() ? null : buffer;
+  }
+
+  private static TrafficBuffer newBuffer() {
+    return new TrafficBuffer(Integer.getInteger(CAPACITY_PROPERTY, DEFAULT_CAPACITY));
+  }
+
+  private String type; // ie: XML, JSON, HAR, plain text, etc
+  private final String sessionId;
 
   public CaptureNetworkTrafficCommand(String type) {
+    this(type, null);
+  }
+
+  public CaptureNetworkTrafficCommand(String type, String sessionId) {
     this.type = type;
+    this.sessionId = sessionId;
   }
 
   @Override
   public String execute() {
-    StringBuilder sb = new StringBuilder();
+    StringWriter out = new StringWriter();
+    try {
+      execute(out);
+    } catch (IOException e) {
+      // a StringWriter doesn't throw any
+      throw new IllegalStateException(e);
+    }
+    return out.toString();
+  }
+
+  /**
+   * Writes the result of the command, "OK," followed by the traffic, as it is formatted rather
+   * than building it in memory first.
+   *
+   * @param out where to write, not closed by this method.
+   */
+  public void execute(Writer out) throws IOException {
+    List<Entry> entries = new ArrayList<Entry>();
+    TrafficBuffer buffer = sessionId == null ? unattributed : sessions.get(sessionId);
+    long dropped = buffer == null ? 0 : buffer.copyTo(entries);
     SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
 
-    if ("json".equalsIgnoreCase(type)) {
+    out.write("OK,");
+    if ("har".equalsIgnoreCase(type)) {
+      writeHar(out, entries, dropped, sdf);
+    } else if ("json".equalsIgnoreCase(type)) {
       /*
        * 
        * [{ statusCode: 200, method: 'GET', url: 'http://foo.com/index.html', bytes: 12422, start:
@@ -60,39 +154,36 @@ public class CaptureNetworkTrafficCommand extends Command {
        * 'Blah' }] },{ ... }]
        */
 
-      sb.append("[");
+      out.write("[");
 
-      synchronized (entries) {
-        for (final Iterator<Entry> iterator = entries.iterator(); iterator.hasNext();) {
-          final Entry entry = iterator.next();
-          sb.append("{\n");
+      for (int i = 0; i < entries.size(); i++) {
+        Entry entry = entries.get(i);
+        out.write("{\n");
 
-          sb.append(jsonKey("statusCode")).append(entry.statusCode).append(",\n");
-          sb.append(jsonKey("method")).append(json(entry.method)).append(",\n");
-          sb.append(jsonKey("url")).append(json(entry.url)).append(",\n");
-          sb.append(jsonKey("bytes")).append(entry.bytes).append(",\n");
-          sb.append(jsonKey("start")).append(json(sdf.format(entry.start))).append(",\n");
-          sb.append(jsonKey("end")).append(json(sdf.format(entry.end))).append(",\n");
-          sb.append(jsonKey("timeInMillis")).append((entry.end.getTime() - entry.start.getTime()))
-              .append(",\n");
+        jsonKey(out, "statusCode").write(entry.statusCode + ",\n");
+        json(jsonKey(out, "method"), entry.method).write(",\n");
+        json(jsonKey(out, "url"), entry.url).write(",\n");
+        jsonKey(out, "bytes").write(entry.bytes + ",\n");
+        json(jsonKey(out, "start"), sdf.format(new Date(entry.start))).write(",\n");
+        json(jsonKey(out, "end"), sdf.format(new Date(entry.end))).write(",\n");
+        jsonKey(out, "timeInMillis").write((entry.end - entry.start) + ",\n");
 
-          sb.append(jsonKey("requestHeaders")).append("[");
-          jsonHeaders(sb, entry.requestHeaders);
-          sb.append("],\n");
+        jsonKey(out, "requestHeaders").write("[");
+        jsonHeaders(out, entry.requestHeaders, entry.requestHeaderCount);
+        out.write("],\n");
 
-          sb.append(jsonKey("responseHeaders")).append("[");
-          jsonHeaders(sb, entry.responseHeaders);
-          sb.append("]\n");
+        jsonKey(out, "responseHeaders").write("[");
+        jsonHeaders(out, entry.responseHeaders, entry.responseHeaderCount);
+        out.write("]\n");
 
-          sb.append("}");
+        out.write("}");
 
-          if (iterator.hasNext()) {
-            sb.append(",\n");
-          }
+        if (i < entries.size() - 1) {
+          out.write(",\n");
         }
       }
 
-      sb.append("]");
+      out.write("]");
     } else if ("xml".equalsIgnoreCase(type)) {
       /*
        * <traffic> <entry statusCode="200" method="GET" url="http://foo.com/index.html"
@@ -100,34 +191,31 @@ public class CaptureNetworkTrafficCommand extends Command {
        * timeInMillis="102"> <requestHeaders> <header name=""></header> </requestHeaders>
        * <responseHeaders> <header name=""></header> </responseHeaders> </entry> </traffic>
        */
-      sb.append("<traffic>\n");
+      out.write("<traffic>\n");
 
-      synchronized (entries) {
-        for (final Entry entry : entries) {
-          sb.append("<entry ");
+      for (Entry entry : entries) {
+        out.write("<entry ");
 
-          sb.append("statusCode=\"").append(entry.statusCode).append("\" ");
-          sb.append("method=\"").append(xml(entry.method)).append("\" ");
-          sb.append("url=\"").append(xml(entry.url)).append("\" ");
-          sb.append("bytes=\"").append(entry.bytes).append("\" ");
-          sb.append("start=\"").append(sdf.format(entry.start)).append("\" ");
-          sb.append("end=\"").append(sdf.format(entry.end)).append("\" ");
-          sb.append("timeInMillis=\"").append((entry.end.getTime() - entry.start.getTime()))
-              .append("\">\n");
+        out.write("statusCode=\"" + entry.statusCode + "\" ");
+        xml(out.append("method=\""), entry.method).write("\" ");
+        xml(out.append("url=\""), entry.url).write("\" ");
+        out.write("bytes=\"" + entry.bytes + "\" ");
+        out.write("start=\"" + sdf.format(new Date(entry.start)) + "\" ");
+        out.write("end=\"" + sdf.format(new Date(entry.end)) + "\" ");
+        out.write("timeInMillis=\"" + (entry.end - entry.start) + "\">\n");
 
-          sb.append("    <requestHeaders>\n");
-          xmlHeaders(sb, entry.requestHeaders);
-          sb.append("    </requestHeaders>\n");
+        out.write("    <requestHeaders>\n");
+        xmlHeaders(out, entry.requestHeaders, entry.requestHeaderCount);
+        out.write("    </requestHeaders>\n");
 
-          sb.append("    <responseHeaders>\n");
-          xmlHeaders(sb, entry.responseHeaders);
-          sb.append("    </responseHeaders>\n");
+        out.write("    <responseHeaders>\n");
+        xmlHeaders(out, entry.responseHeaders, entry.responseHeaderCount);
+        out.write("    </responseHeaders>\n");
 
 
-          sb.append("</entry>\n");
-        }
+        out.write("</entry>\n");
       }
-      sb.append("</traffic>\n");
+      out.write("</traffic>\n");
     } else {
       /*
        * 200 GET http://foo.com/index.html 12422 bytes 102ms (2009-03-15T14:23:00.000-0700 -
@@ -137,115 +225,344 @@ public class CaptureNetworkTrafficCommand extends Command {
        * ================================================================
        */
 
-      synchronized (entries) {
-        for (final Entry entry : entries) {
-          sb.append(entry.statusCode).append(" ").append(entry.method).append(" ")
-              .append(entry.url).append("\n");
-          sb.append(entry.bytes).append(" bytes\n");
-          sb.append(entry.end.getTime() - entry.start.getTime()).append("ms (")
-              .append(sdf.format(entry.start)).append(" - ").append(sdf.format(entry.end))
-              .append("\n");
-          sb.append("\n");
-          sb.append("Request Headers\n");
-          for (Header header : entry.requestHeaders) {
-            sb.append(" - ").append(header.name).append(" => ").append(header.value).append("\n");
+      for (Entry entry : entries) {
+        out.write(entry.statusCode + " " + entry.method + " " + entry.url + "\n");
+        out.write(entry.bytes + " bytes\n");
+        out.write((entry.end - entry.start) + "ms (" + sdf.format(new Date(entry.start)) + " - "
+            + sdf.format(new Date(entry.end)) + "\n");
+        out.write("\n");
+        out.write("Request Headers\n");
+        plainHeaders(out, entry.requestHeaders, entry.requestHeaderCount);
+        out.write("Response Headers\n");
+        plainHeaders(out, entry.responseHeaders, entry.responseHeaderCount);
+        out.write("================================================================\n");
+        out.write("\n");
+      }
+    }
+  }
+
+  /**
+   * Writes the entries as a HAR 1.2 log, http://www.softwareishard.com/blog/har-12-spec/. The
+   * request and response bodies are not captured, only their size.
+   */
+  private void writeHar(Writer out, List<Entry> entries, long dropped, SimpleDateFormat sdf)
+      throws IOException {
+    out.write("{\"log\":{\"version\":\"1.2\",\"creator\":{\"name\":\"Selenium RC\",\"version\":");
+    harString(out, new BuildInfo().getReleaseLabel());
+    out.write("},\"entries\":[");
+    for (int i = 0; i < entries.size(); i++) {
+      Entry entry = entries.get(i);
+      if (i > 0) {
+        out.write(',');
+      }
+      long time = entry.end - entry.start;
+
+      out.write("{\"startedDateTime\":\"");
+      out.write(isoDate(sdf, entry.start));
+      out.write("\",\"time\":" + time);
+
+      out.write(",\"request\":{\"method\":");
+      harString(out, entry.method);
+      out.write(",\"url\":");
+      harString(out, entry.url);
+      out.write(",\"httpVersion\":\"HTTP/1.1\",\"cookies\":[],\"headers\":");
+      harHeaders(out, entry.requestHeaders, entry.requestHeaderCount);
+      out.write(",\"queryString\":");
+      harQueryString(out, entry.url);
+      out.write(",\"headersSize\":" + (entry.requestHeadersSize + 2) + ",\"bodySize\":-1}");
+
+      String contentType = entry.getResponseHeader("Content-Type");
+      String location = entry.getResponseHeader("Location");
+      out.write(",\"response\":{\"status\":" + entry.statusCode);
+      out.write(",\"statusText\":\"\",\"httpVersion\":\"HTTP/1.1\",\"cookies\":[],\"headers\":");
+      harHeaders(out, entry.responseHeaders, entry.responseHeaderCount);
+      out.write(",\"content\":{\"size\":" + entry.bytes + ",\"mimeType\":");
+      harString(out, contentType == null ? "" : contentType);
+      out.write("},\"redirectURL\":");
+      harString(out, location == null ? "" : location);
+      out.write(",\"headersSize\":" + (entry.responseHeadersSize + 2));
+      out.write(",\"bodySize\":" + entry.bytes + "}");
+
+      out.write(",\"cache\":{},\"timings\":{\"send\":0,\"wait\":" + time + ",\"receive\":0}}");
+    }
+    out.write("]");
+    if (dropped > 0) {
+      out.write(",\"comment\":\"" + dropped + " entries were dropped, the buffer was full\"");
+    }
+    out.write("}}");
+  }
+
+  /**
+   * HAR wants ISO 8601 dates, whose time zone has a colon SimpleDateFormat can't write.
+   */
+  private static String isoDate(SimpleDateFormat sdf, long millis) {
+    String date = sdf.format(new Date(millis));
+    int zone = date.length() - 2;
+    return date.substring(0, zone) + ":" + date.substring(zone);
+  }
+
+  private static void harHeaders(Writer out, String[] headers, int count) throws IOException {
+    out.write('[');
+    for (int i = 0; i < count; i += 2) {
+      if (i > 0) {
+        out.write(',');
+      }
+      harPair(out, headers[i], headers[i + 1] == null ? "" : headers[i + 1]);
+    }
+    out.write(']');
+  }
+
+  private static void harQueryString(Writer out, String url) throws IOException {
+    out.write('[');
+    int query = url.indexOf('?');
+    if (query != -1) {
+      int end = url.indexOf('#', query);
+      if (end == -1) {
+        end = url.length();
+      }
+      boolean first = true;
+      int start = query + 1;
+      while (start < end) {
+        int ampersand = url.indexOf('&', start);
+        if (ampersand == -1 || ampersand > end) {
+          ampersand = end;
+        }
+        if (ampersand > start) {
+          int equals = url.indexOf('=', start);
+          if (!first) {
+            out.write(',');
           }
-          sb.append("Response Headers\n");
-          for (Header header : entry.responseHeaders) {
-            sb.append(" - ").append(header.name).append(" => ").append(header.value).append("\n");
+          if (equals == -1 || equals > ampersand) {
+            harPair(out, url.substring(start, ampersand), "");
+          } else {
+            harPair(out, url.substring(start, equals), url.substring(equals + 1, ampersand));
           }
-          sb.append("================================================================\n");
-          sb.append("\n");
+          first = false;
         }
+        start = ampersand + 1;
       }
     }
+    out.write(']');
+  }
 
-    clear();
+  private static void harPair(Writer out, String name, String value) throws IOException {
+    out.write("{\"name\":");
+    harString(out, name);
+    out.write(",\"value\":");
+    harString(out, value);
+    out.write('}');
+  }
 
-    return "OK," + sb.toString();
+  /**
+   * Writes a JSON string, which the json type of this command doesn't quite write.
+   */
+  private static void harString(Writer out, String s) throws IOException {
+    out.write('"');
+    int start = 0;
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '"' || c == '\\' || c < ' ') {
+        out.write(s, start, i - start);
+        switch (c) {
+          case '"':
+            out.write("\\\"");
+            break;
+          case '\\':
+            out.write("\\\\");
+            break;
+          case '\n':
+            out.write("\\n");
+            break;
+          case '\r':
+            out.write("\\r");
+            break;
+          case '\t':
+            out.write("\\t");
+            break;
+          default:
+            out.write(String.format("\\u%04x", (int) c));
+        }
+        start = i + 1;
+      }
+    }
+    out.write(s, start, s.length() - start);
+    out.write('"');
   }
 
-  private void xmlHeaders(final StringBuilder sb, final List<Header> headers) {
-    for (final Header header : headers) {
-      sb.append("        <header name=\"").append(xml(header.name)).append("\">")
-          .append(xml(header.value)).append("</header>\n");
+  private static void plainHeaders(Writer out, String[] headers, int count) throws IOException {
+    for (int i = 0; i < count; i += 2) {
+      out.write(" - " + headers[i] + " => " + headers[i + 1] + "\n");
     }
   }
 
-  private void jsonHeaders(final StringBuilder sb, final List<Header> headers) {
-    for (final Iterator<Header> headItr = headers.iterator(); headItr.hasNext();) {
-      final Header header = headItr.next();
+  private void xmlHeaders(Writer out, String[] headers, int count) throws IOException {
+    for (int i = 0; i < count; i += 2) {
+      xml(out.append("        <header name=\""), headers[i]).write("\">");
+      xml(out, headers[i + 1]).write("</header>\n");
+    }
+  }
 
-      sb.append("{\n");
-      sb.append("    ").append(jsonKey("name")).append(json(header.name)).append(",\n");
-      sb.append("    ").append(jsonKey("value")).append(json(header.value)).append("\n");
-      if (headItr.hasNext()) {
-        sb.append("    },");
+  private void jsonHeaders(Writer out, String[] headers, int count) throws IOException {
+    for (int i = 0; i < count; i += 2) {
+      out.write("{\n");
+      json(out.append("    ").append("  \"name\":"), headers[i]).write(",\n");
+      json(out.append("    ").append("  \"value\":"), headers[i + 1]).write("\n");
+      if (i < count - 2) {
+        out.write("    },");
       }
       else {
-        sb.append("  }");
+        out.write("  }");
       }
 
     }
   }
 
-  private String xml(String s) {
-    s = s.replaceAll("&", "&amp;");
-    s = s.replaceAll("\"", "&quot;");
-    s = s.replaceAll("\\<", "&lt;");
-    s = s.replaceAll("\\>", "&gt;");
-
-    return s;
+  private Writer xml(Writer out, String s) throws IOException {
+    int start = 0;
+    for (int i = 0; i < s.length(); i++) {
+      String escaped;
+      switch (s.charAt(i)) {
+        case '&':
+          escaped = "&amp;";
+          break;
+        case '"':
+          escaped = "&quot;";
+          break;
+        case '<':
+          escaped = "&lt;";
+          break;
+        case '>':
+          escaped = "&gt;";
+          break;
+        default:
+          continue;
+      }
+      out.write(s, start, i - start);
+      out.write(escaped);
+      start = i + 1;
+    }
+    out.write(s, start, s.length() - start);
+    return out;
   }
 
-  private String jsonKey(final String key) {
-    final StringBuilder ret = new StringBuilder();
-
-    ret.append("  \"").append(key).append("\"").append(":");
+  private Writer jsonKey(Writer out, String key) throws IOException {
+    out.write("  \"");
+    out.write(key);
+    out.write("\":");
+    return out;
+  }
 
-    return ret.toString();
+  private Writer json(Writer out, String s) throws IOException {
+    out.write('"');
+    int start = 0;
+    for (int i = 0; i < s.length(); i++) {
+      String escaped;
+      switch (s.charAt(i)) {
+        case '\'':
+          escaped = "\\'";
+          break;
+        case '"':
+          escaped = "\\\"";
+          break;
+        case '\n':
+          escaped = "\\n";
+          break;
+        default:
+          continue;
+      }
+      out.write(s, start, i - start);
+      out.write(escaped);
+      start = i + 1;
+    }
+    out.write(s, start, s.length() - start);
+    out.write('"');
+    return out;
   }
 
-  private Object json(String s) {
-    s = s.replaceAll("\\'", "\\\\'");
-    s = s.replaceAll("\\\"", "\\\\\"");
-    s = s.replaceAll("\n", "\\\\n");
+  /**
+   * A ring of the last entries captured for a session. The proxy threads add entries without
+   * locking, claiming a slot with a sequence number; a reader copies the entries still in the
+   * ring, counting those which were overwritten.
+   */
+  private static class TrafficBuffer {
+    private final AtomicReferenceArray<Entry> slots;
+    private final AtomicLong written = new AtomicLong();
+
+    TrafficBuffer(int capacity) {
+      slots = new AtomicReferenceArray<Entry>(Math.max(1, capacity));
+    }
 
-    final StringBuilder ret = new StringBuilder();
-    ret.append("\"").append(s).append("\"");
+    void add(Entry entry) {
+      long sequence = written.getAndIncrement();
+      entry.sequence = sequence;
+      slots.set((int) (sequence % slots.length()), entry);
+    }
 
-    return ret.toString();
+    /**
+     * @return the number of entries overwritten since the buffer was created.
+     */
+    long copyTo(List<Entry> entries) {
+      long end = written.get();
+      long first = Math.max(0, end - slots.length());
+      long dropped = first;
+      for (long sequence = first; sequence < end; sequence++) {
+        int index = (int) (sequence % slots.length());
+        Entry entry = slots.get(index);
+        // the slot was claimed, but the entry not stored yet.
+        for (int spins = 0; (entry == null || entry.sequence < sequence) && spins < 1000;
+             spins++) {
+          Thread.yield();
+          entry = slots.get(index);
+        }
+        if (entry != null && entry.sequence == sequence) {
+          entries.add(entry);
+        } else {
+          dropped++;
+        }
+      }
+      return dropped;
+    }
   }
 
+  /**
+   * A request and its response. The headers are kept as names and values in one array, and
+   * their size counted as they are added.
+   */
   public static class Entry {
+    private static final String[] NO_HEADERS = new String[0];
+
     private String method;
     private String url;
     private int statusCode;
-    private Date start;
-    private Date end;
+    private long start;
+    private long end;
     private long bytes;
-    private List<Header> requestHeaders = new ArrayList<Header>();
-    private List<Header> responseHeaders = new ArrayList<Header>();
+    private String[] requestHeaders = NO_HEADERS;
+    private int requestHeaderCount;
+    private int requestHeadersSize;
+    private String[] responseHeaders = NO_HEADERS;
+    private int responseHeaderCount;
+    private int responseHeadersSize;
+    // set by the buffer before the entry is published.
+    private long sequence;
 
     public Entry(String method, String url) {
       this.method = method;
       this.url = url;
-      this.start = new Date();
+      this.start = System.currentTimeMillis();
     }
 
     public void finish(int statusCode, long bytes) {
       this.statusCode = statusCode;
       this.bytes = bytes;
-      this.end = new Date();
+      this.end = System.currentTimeMillis();
     }
 
     public void addRequestHeaders(HttpRequest request) {
       Enumeration names = request.getFieldNames();
       while (names.hasMoreElements()) {
         String name = (String) names.nextElement();
-        String value = request.getField(name);
-
-        requestHeaders.add(new Header(name, value));
+        addRequestHeader(name, request.getField(name));
       }
     }
 
@@ -255,29 +572,64 @@ public class CaptureNetworkTrafficCommand extends Command {
         String name = (String) names.nextElement();
         String value = response.getField(name);
 
-        responseHeaders.add(new Header(name, value));
+        if (responseHeaderCount == responseHeaders.length) {
+          responseHeaders = grow(responseHeaders);
+        }
+        responseHeaders[responseHeaderCount++] = name;
+        responseHeaders[responseHeaderCount++] = value;
+        responseHeadersSize += headerSize(name, value);
       }
     }
 
     public void setStart(Date start) {
-      this.start = start;
+      this.start = start.getTime();
     }
 
     public void setEnd(Date end) {
-      this.end = end;
+      this.end = end.getTime();
     }
 
     @Override
     public String toString() {
-      return method + "|" + statusCode + "|" + url + "|" + requestHeaders.size() + "|" +
-          responseHeaders.size() + "\n";
+      return method + "|" + statusCode + "|" + url + "|" + requestHeaderCount / 2 + "|" +
+          responseHeaderCount / 2 + "\n";
     }
 
     public void addRequestHeader(String key, String value) {
-      this.requestHeaders.add(new Header(key, value));
+      if (requestHeaderCount == requestHeaders.length) {
+        requestHeaders = grow(requestHeaders);
+      }
+      requestHeaders[requestHeaderCount++] = key;
+      requestHeaders[requestHeaderCount++] = value;
+      requestHeadersSize += headerSize(key, value);
+    }
+
+    String getResponseHeader(String name) {
+      for (int i = 0; i < responseHeaderCount; i += 2) {
+        if (name.equalsIgnoreCase(responseHeaders[i])) {
+          return responseHeaders[i + 1];
+        }
+      }
+      return null;
+    }
+
+    private static String[] grow(String[] headers) {
+      String[] grown = new String[Math.max(32, headers.length * 2)];
+      System.arraycopy(headers, 0, grown, 0, headers.length);
+      return grown;
+    }
+
+    // "name: value\r\n", the HAR adding the blank line which ends the headers.
+    private static int headerSize(String name, String value) {
+      return name.length() + (value == null ? 0 : value.length()) + 4;
     }
   }
 
+  /**
+   * @deprecated The headers of an {@link Entry} are kept as names and values, this class is no
+   *     longer used.
+   */
+  @Deprecated
   public static class Header {
     private String name;
     private String value;
@@ -23,9 +23,12 @@ import com.google.common.collect.Maps;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.ErrorManager;
 import java.util.logging.Formatter;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
@@ -41,29 +44,74 @@ import org.openqa.selenium.remote.SessionId;
 /**
  * RestishHandler which keeps in memory the log records per session so that users can retrieve logs per
  * session.
+ *
+ * Every log record of the server goes through {@link #publish(LogRecord)}, so there is no lock
+ * shared by the sessions: the records of a session, or of a thread without a session yet, go to a
+ * ring buffer of their own, of a fixed capacity. What happens to a full buffer is decided by the
+ * {@link OverflowPolicy}, set with the {@value #OVERFLOW_POLICY_PROPERTY} system property.
  */
 public class DefaultPerSessionLogHandler extends PerSessionLogHandler {
 
-  private final Map<SessionId, List<LogRecord>> perSessionRecords;
+  /**
+   * System property naming the {@link OverflowPolicy} of the session buffers, SPILL by default.
+   */
+  public static final String OVERFLOW_POLICY_PROPERTY = "selenium.sessionLogs.overflowPolicy";
+
+  /**
+   * What to do with a record published to a full buffer.
+   */
+  public enum OverflowPolicy {
+    /**
+     * Write the records of the buffer to the log file of the session, and keep the new one.
+     * The records of a thread without a session have no file to go to, the oldest are dropped.
+     */
+    SPILL,
+    /**
+     * Drop the oldest record of the buffer.
+     */
+    DROP_OLDEST,
+    /**
+     * Drop the new record.
+     */
+    DROP_NEWEST;
+
+    static OverflowPolicy fromSystemProperties() {
+      String policy = System.getProperty(OVERFLOW_POLICY_PROPERTY);
+      if (policy == null || policy.trim().length() == 0) {
+        return SPILL;
+      }
+      return valueOf(policy.trim().toUpperCase());
+    }
+  }
+
+  /**
+   * The number of records of a log file read at a time.
+   */
+  private static final int PAGE_SIZE = 500;
+
+  private final ConcurrentMap<SessionId, RecordBuffer> perSessionRecords;
   
-  private final Map<SessionId, Map<String, LogEntries>> perSessionDriverEntries;
+  private final ConcurrentMap<SessionId, Map<String, LogEntries>> perSessionDriverEntries;
 
   // Used to store log records that doesnt have associated session.
   // These records get mapped to session id once the session gets created
   // Useful for commands like: getNewBrowseSession() which doesnt have session
   // associated till the session gets created.
-  private final Map<ThreadKey, List<LogRecord>> perThreadTempRecords;
+  // All the maps keyed by thread use the id of the thread.
+  private final ConcurrentMap<Long, RecordBuffer> perThreadTempRecords;
   private final Formatter formatter;
-  private Map<ThreadKey, SessionId> threadToSessionMap;
-  private Map<SessionId, ThreadKey> sessionToThreadMap;
-  private SessionLogsToFileRepository logFileRepository;
-  private int capacity;
-  private boolean storeLogsOnSessionQuit = false;
+  private final ConcurrentMap<Long, SessionId> threadToSessionMap;
+  private final ConcurrentMap<SessionId, Long> sessionToThreadMap;
+  private final SessionLogsToFileRepository logFileRepository;
+  private final int capacity;
+  private final OverflowPolicy overflowPolicy;
+  private final boolean storeLogsOnSessionQuit;
   
-  private Level serverLogLevel = Level.INFO;
+  private volatile Level serverLogLevel = Level.INFO;
 
   /**
-   * New handler keeping track of log records per session.
+   * New handler keeping track of log records per session, with the overflow policy set by the
+   * {@value #OVERFLOW_POLICY_PROPERTY} system property.
    *
    * @param capacity     The capacity
    * @param minimumLevel Only keep track of records whose level is equal or greater than
@@ -73,48 +121,87 @@ public class DefaultPerSessionLogHandler extends PerSessionLogHandler {
    */
   public DefaultPerSessionLogHandler(int capacity, Level minimumLevel, Formatter formatter, 
       boolean captureLogsOnQuit) {
-    this.capacity = capacity;
+    this(capacity, minimumLevel, formatter, captureLogsOnQuit,
+        OverflowPolicy.fromSystemProperties());
+  }
+
+  /**
+   * New handler keeping track of log records per session.
+   *
+   * @param capacity     The number of records kept in memory per session, and per thread without
+   *                     a session.
+   * @param minimumLevel Only keep track of records whose level is equal or greater than
+   *                     minimumLevel.
+   * @param formatter    Formatter to use when retrieving log messages.
+   * @param captureLogsOnQuit Whether to enable log capture on quit.
+   * @param overflowPolicy What to do with a record published to a full buffer.
+   */
+  public DefaultPerSessionLogHandler(int capacity, Level minimumLevel, Formatter formatter,
+      boolean captureLogsOnQuit, OverflowPolicy overflowPolicy) {
+    this.capacity = Math.max(1, capacity);
     this.formatter = formatter;
     this.storeLogsOnSessionQuit = captureLogsOnQuit;
-    this.perSessionRecords = Maps.<SessionId, List<LogRecord>>newHashMap();
-    this.perThreadTempRecords = Maps.<ThreadKey, List<LogRecord>>newHashMap();
-    this.threadToSessionMap = Maps.<ThreadKey, SessionId>newHashMap();
-    this.sessionToThreadMap = Maps.<SessionId, ThreadKey>newHashMap();
+    this.overflowPolicy = overflowPolicy;
+    this.perSessionRecords = Maps.newConcurrentMap();
+    this.perThreadTempRecords = Maps.newConcurrentMap();
+    this.threadToSessionMap = Maps.newConcurrentMap();
+    this.sessionToThreadMap = Maps.newConcurrentMap();
     this.logFileRepository = new SessionLogsToFileRepository();
-    this.perSessionDriverEntries = Maps.<SessionId, Map<String, LogEntries>>newHashMap();
+    this.perSessionDriverEntries = Maps.newConcurrentMap();
+    setLevel(minimumLevel);
   }
 
   @Override
-  synchronized public void publish(LogRecord record) {
-    ThreadKey threadId = new ThreadKey();
+  public void publish(LogRecord record) {
+    if (!isLoggable(record)) {
+      return;
+    }
+    Long threadId = Thread.currentThread().getId();
     SessionId sessionId = threadToSessionMap.get(threadId);
 
     if (sessionId != null) {
-      List<LogRecord> records = perSessionRecords.get(sessionId);
-      if (records == null) {
-        records = new ArrayList<LogRecord>();
-      }
-      records.add(record);
-      perSessionRecords.put(sessionId, records);
-      
-      if (records.size() > capacity) {
-        perSessionRecords.put( sessionId, new ArrayList<LogRecord>());
-        // flush records to file;
-        try {
-          logFileRepository.flushRecordsToLogFile(sessionId, records);
-          // clear in memory session records
-          records.clear();
-        } catch (IOException ex) {
-          ex.printStackTrace();
+      append(perSessionRecords, sessionId, sessionId, record);
+    } else {
+      append(perThreadTempRecords, threadId, null, record);
+    }
+  }
+
+  /**
+   * Adds a record to the buffer of the given key, which is created if need be. A buffer which has
+   * been drained for good is no longer in the map, the record then goes to a new one.
+   *
+   * @param spillTo the session whose log file takes the records of a full buffer, or null.
+   */
+  private <K> void append(ConcurrentMap<K, RecordBuffer> buffers, K key, SessionId spillTo,
+      LogRecord record) {
+    while (true) {
+      RecordBuffer buffer = buffers.get(key);
+      if (buffer == null) {
+        RecordBuffer created = new RecordBuffer(capacity);
+        buffer = buffers.putIfAbsent(key, created);
+        if (buffer == null) {
+          buffer = created;
         }
       }
-    } else {
-      List<LogRecord> records = perThreadTempRecords.get(threadId);
-      if (records == null) {
-        records = new ArrayList<LogRecord>();
-        perThreadTempRecords.put(threadId, records);
+
+      synchronized (buffer) {
+        if (buffer.closed) {
+          continue;
+        }
+        if (buffer.isFull() && overflowPolicy == OverflowPolicy.SPILL && spillTo != null) {
+          try {
+            logFileRepository.flushRecordsToLogFile(spillTo, buffer.drain());
+          } catch (IOException e) {
+            reportError("Unable to write the logs of session " + spillTo, e,
+                ErrorManager.WRITE_FAILURE);
+          } catch (RuntimeException e) {
+            reportError("Unable to write the logs of session " + spillTo, e,
+                ErrorManager.WRITE_FAILURE);
+          }
+        }
+        buffer.add(record, overflowPolicy == OverflowPolicy.DROP_NEWEST);
+        return;
       }
-      records.add(record);
     }
   }
 
@@ -124,37 +211,62 @@ public class DefaultPerSessionLogHandler extends PerSessionLogHandler {
   }
 
   @Override
-  public synchronized void close() throws SecurityException {
+  public void close() throws SecurityException {
     perSessionRecords.clear();
     perThreadTempRecords.clear();
   }
 
-  private LogRecord[] records(SessionId sessionId) throws IOException {
-    List<LogRecord> logFileRecords = logFileRepository.getLogRecords(sessionId);
-    List<LogRecord> records = perSessionRecords.remove(sessionId);
-    if (records != null) {
-      logFileRecords.addAll(records);
+  /**
+   * Receives the records of a session, oldest first.
+   */
+  private interface RecordSink {
+    void add(LogRecord record);
+  }
+
+  /**
+   * Hands the records of the session at or above the given level to the sink, and forgets them.
+   * The log file is read a page at a time, so that only a page of it is in memory at once.
+   *
+   * @param minimumLevel the records of the log file below that level are not even read.
+   */
+  private void drainRecords(SessionId sessionId, Level minimumLevel, RecordSink sink)
+      throws IOException {
+    // The records in memory are drained first: whatever the buffer spilled is in the file by then.
+    List<LogRecord> records = drainForGood(perSessionRecords.remove(sessionId));
+    try {
+      int count = logFileRepository.getLogRecordCount(sessionId);
+      for (int from = 0; from < count; from += PAGE_SIZE) {
+        for (LogRecord record :
+            logFileRepository.getLogRecords(sessionId, minimumLevel, from, PAGE_SIZE)) {
+          sink.add(record);
+        }
+      }
+    } finally {
+      logFileRepository.removeLogFile(sessionId);
+    }
+    int minimum = minimumLevel.intValue();
+    for (LogRecord record : records) {
+      if (record.getLevel().intValue() >= minimum) {
+        sink.add(record);
+      }
     }
-    logFileRepository.removeLogFile(sessionId);
-    return logFileRecords.toArray(new LogRecord[logFileRecords.size()]);
   }
 
   private String formattedRecords(SessionId sessionId) throws IOException {
-    final StringWriter writer;
-
-    writer = new StringWriter();
-    for (LogRecord record : records(sessionId)) {
-      writer.append(formatter.format(record));
-    }
+    final StringWriter writer = new StringWriter();
+    drainRecords(sessionId, Level.ALL, new RecordSink() {
+      public void add(LogRecord record) {
+        writer.append(formatter.format(record));
+      }
+    });
     return writer.toString();
   }
 
   @Override
-  public synchronized void attachToCurrentThread(SessionId sessionId) {
-    ThreadKey threadId = new ThreadKey();
-    if (threadToSessionMap.get(threadId) == null
-        || threadToSessionMap.get(threadId).equals(sessionId)) {
-      threadToSessionMap.put(threadId, sessionId);
+  public void attachToCurrentThread(SessionId sessionId) {
+    Long threadId = Thread.currentThread().getId();
+    SessionId current = threadToSessionMap.putIfAbsent(threadId, sessionId);
+    if (current == null || current.equals(sessionId)) {
       sessionToThreadMap.put(sessionId, threadId);
     }
     transferThreadTempLogsToSessionLogs(sessionId);
@@ -162,27 +274,18 @@ public class DefaultPerSessionLogHandler extends PerSessionLogHandler {
 
   @Override
   public void transferThreadTempLogsToSessionLogs(SessionId sessionId) {
-    ThreadKey threadId = new ThreadKey();
-    List<LogRecord> threadRecords = perThreadTempRecords.get(threadId);
-    List<LogRecord> sessionRecords = perSessionRecords.get(sessionId);
-
-    if (threadRecords != null) {
-      if (sessionRecords == null) {
-        sessionRecords = new ArrayList<LogRecord>();
-        perSessionRecords.put(sessionId, sessionRecords);
-      }
-      sessionRecords.addAll(threadRecords);
+    Long threadId = Thread.currentThread().getId();
+    for (LogRecord record : drainForGood(perThreadTempRecords.remove(threadId))) {
+      append(perSessionRecords, sessionId, sessionId, record);
     }
-    clearThreadTempLogs();
   }
 
   @Override
-  public synchronized void detachFromCurrentThread() {
-    ThreadKey threadId = new ThreadKey();
-    SessionId sessionId = threadToSessionMap.get(threadId);
+  public void detachFromCurrentThread() {
+    Long threadId = Thread.currentThread().getId();
+    SessionId sessionId = threadToSessionMap.remove(threadId);
     if (sessionId != null) {
-      threadToSessionMap.remove(threadId);
-      sessionToThreadMap.remove(sessionId);
+      sessionToThreadMap.remove(sessionId, threadId);
       clearThreadTempLogs();
     }
   }
@@ -195,17 +298,15 @@ public class DefaultPerSessionLogHandler extends PerSessionLogHandler {
    * @param sessionId The session id to use.
    */
   @Override
-  public synchronized void removeSessionLogs(SessionId sessionId) {
+  public void removeSessionLogs(SessionId sessionId) {
     if (storeLogsOnSessionQuit) {
       return;
     }
-    ThreadKey threadId = sessionToThreadMap.get(sessionId);
-    SessionId sessionIdForThread = threadToSessionMap.get(threadId);
-    if (threadId != null && sessionIdForThread != null && sessionIdForThread.equals(sessionId)) {
-      threadToSessionMap.remove(threadId);
-      sessionToThreadMap.remove(sessionId);
+    Long threadId = sessionToThreadMap.get(sessionId);
+    if (threadId != null && threadToSessionMap.remove(threadId, sessionId)) {
+      sessionToThreadMap.remove(sessionId, threadId);
     }
-    perSessionRecords.remove(sessionId);
+    drainForGood(perSessionRecords.remove(sessionId));
     logFileRepository.removeLogFile(sessionId);
   }
 
@@ -222,9 +323,8 @@ public class DefaultPerSessionLogHandler extends PerSessionLogHandler {
    * small task.
    */
   @Override
-  public synchronized void clearThreadTempLogs() {
-    ThreadKey threadId = new ThreadKey();
-    perThreadTempRecords.remove(threadId);
+  public void clearThreadTempLogs() {
+    drainForGood(perThreadTempRecords.remove(Thread.currentThread().getId()));
   }
 
   /**
@@ -235,7 +335,7 @@ public class DefaultPerSessionLogHandler extends PerSessionLogHandler {
    * @throws IOException when the elves go bad
    */
   @Override
-  public synchronized String getLog(SessionId sessionId) throws IOException {
+  public String getLog(SessionId sessionId) throws IOException {
     // TODO(chandra): Provide option to clear logs after getLog()
     String logs = formattedRecords(sessionId);
     logs = "\n<RC_Logs RC_Session_ID=" + sessionId + ">\n" + logs
@@ -251,15 +351,13 @@ public class DefaultPerSessionLogHandler extends PerSessionLogHandler {
    * @throws IOException If there was a problem reading from file.
    */
   @Override
-  public synchronized LogEntries getSessionLog(SessionId sessionId) throws IOException {
-    List<LogEntry> entries = Lists.<LogEntry>newLinkedList();
-    LogRecord[] records = records(sessionId);
-    if (records != null) {
-      for (LogRecord record : records) {
-        if (record.getLevel().intValue() >= serverLogLevel.intValue())
-          entries.add(new LogEntry(record.getLevel(), record.getMillis(), record.getMessage()));
+  public LogEntries getSessionLog(SessionId sessionId) throws IOException {
+    final List<LogEntry> entries = Lists.<LogEntry>newLinkedList();
+    drainRecords(sessionId, serverLogLevel, new RecordSink() {
+      public void add(LogRecord record) {
+        entries.add(new LogEntry(record.getLevel(), record.getMillis(), record.getMessage()));
       }
-    }
+    });
     return new LogEntries(entries);
   }
 
@@ -272,7 +370,7 @@ public class DefaultPerSessionLogHandler extends PerSessionLogHandler {
    * @return The list of session IDs.
    */
   @Override
-  public synchronized List<SessionId> getLoggedSessions() {
+  public List<SessionId> getLoggedSessions() {
     // TODO: Find a solution that can handle large numbers of sessions, maybe by
     // reading them from disc.
     ImmutableList.Builder<SessionId> builder = new ImmutableList.Builder<SessionId>();
@@ -287,14 +385,13 @@ public class DefaultPerSessionLogHandler extends PerSessionLogHandler {
    * @return The logs for the session, ordered after log types in a session logs object. 
    */
   @Override
-  public synchronized SessionLogs getAllLogsForSession(SessionId sessionId) {
+  public SessionLogs getAllLogsForSession(SessionId sessionId) {
     SessionLogs sessionLogs = new SessionLogs();
-    if (perSessionDriverEntries.containsKey(sessionId)) {
-      Map<String, LogEntries> typeToEntriesMap = perSessionDriverEntries.get(sessionId);
+    Map<String, LogEntries> typeToEntriesMap = perSessionDriverEntries.remove(sessionId);
+    if (typeToEntriesMap != null) {
       for (String logType : typeToEntriesMap.keySet()) {
         sessionLogs.addLog(logType, typeToEntriesMap.get(logType));
       }
-      perSessionDriverEntries.remove(sessionId);
     }
     return sessionLogs;
   }
@@ -307,11 +404,10 @@ public class DefaultPerSessionLogHandler extends PerSessionLogHandler {
    *  @throws IOException If there was a problem reading from file.
    */
   @Override
-  public synchronized void fetchAndStoreLogsFromDriver(SessionId sessionId, WebDriver driver) 
+  public void fetchAndStoreLogsFromDriver(SessionId sessionId, WebDriver driver) 
       throws IOException {
-    if (!perSessionDriverEntries.containsKey(sessionId)) {
-      perSessionDriverEntries.put(sessionId, Maps.<String, LogEntries>newHashMap());
-    }
+    perSessionDriverEntries.putIfAbsent(sessionId,
+        Maps.<String, LogEntries>newConcurrentMap());
     Map<String, LogEntries> typeToEntriesMap = perSessionDriverEntries.get(sessionId);
     if (storeLogsOnSessionQuit) {
       typeToEntriesMap.put(LogType.SERVER, getSessionLog(sessionId));
@@ -337,40 +433,77 @@ public class DefaultPerSessionLogHandler extends PerSessionLogHandler {
     }
   }
 
-  private static class ThreadKey {
-
-    private final String name;
-    private final Long id;
-
-    ThreadKey() {
-      this.name = Thread.currentThread().toString();
-      this.id = Thread.currentThread().getId();
+  /**
+   * Drains a buffer removed from its map, so that a record published to it in the meantime goes
+   * to a new buffer rather than being lost.
+   *
+   * @return the records of the buffer, none if it is null.
+   */
+  private static List<LogRecord> drainForGood(RecordBuffer buffer) {
+    if (buffer == null) {
+      return Collections.emptyList();
+    }
+    synchronized (buffer) {
+      buffer.closed = true;
+      return buffer.drain();
     }
+  }
 
-    @Override
-    public boolean equals(Object o) {
-      if (this == o) {
-        return true;
-      }
-      if (o == null || getClass() != o.getClass()) {
-        return false;
-      }
+  /**
+   * Ring buffer of records, guarded by its own monitor.
+   */
+  private static class RecordBuffer {
 
-      ThreadKey threadKey = (ThreadKey) o;
+    private final LogRecord[] ring;
+    private int start;
+    private int size;
+    private int dropped;
+    private boolean closed;
 
-      return !(id != null ? !id.equals(threadKey.id) : threadKey.id != null);
+    RecordBuffer(int capacity) {
+      this.ring = new LogRecord[capacity];
+    }
 
+    boolean isFull() {
+      return size == ring.length;
     }
 
-    @Override
-    public int hashCode() {
-      return id != null ? id.hashCode() : 0;
+    /**
+     * @param dropNewest whether to drop the record rather than the oldest one when the buffer is
+     *     full.
+     */
+    void add(LogRecord record, boolean dropNewest) {
+      if (isFull()) {
+        dropped++;
+        if (dropNewest) {
+          return;
+        }
+        ring[start] = record;
+        start = (start + 1) % ring.length;
+        return;
+      }
+      ring[(start + size) % ring.length] = record;
+      size++;
     }
 
-    @Override
-    public String toString() {
-      return "id" + id + "," + name;
+    /**
+     * @return the records in the order they were added, after a warning if some were dropped.
+     */
+    List<LogRecord> drain() {
+      List<LogRecord> records = new ArrayList<LogRecord>(size + 1);
+      if (dropped > 0) {
+        records.add(new LogRecord(Level.WARNING,
+            dropped + " log records were dropped, the buffer of " + ring.length + " was full"));
+        dropped = 0;
+      }
+      for (int i = 0; i < size; i++) {
+        int index = (start + i) % ring.length;
+        records.add(ring[index]);
+        ring[index] = null;
+      }
+      start = 0;
+      size = 0;
+      return records;
     }
   }
-
 }
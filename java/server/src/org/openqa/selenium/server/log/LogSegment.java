@@ -0,0 +1,248 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.openqa.selenium.server.log;
+
+import com.google.common.base.Charsets;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Formatter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * The records of a session, appended to a file of their own. Each record is written as its
+ * length followed by its fields, and the offset and level of every record are kept in memory so
+ * that a page of the records, or the last ones, can be read with a level filter without reading
+ * the others.
+ */
+class LogSegment {
+
+  private static final int INITIAL_INDEX_SIZE = 64;
+
+  private final File file;
+  private long[] offsets = new long[INITIAL_INDEX_SIZE];
+  private int[] levels = new int[INITIAL_INDEX_SIZE];
+  private int count;
+  private long length;
+  private volatile long lastAccess = System.currentTimeMillis();
+
+  LogSegment(File file) {
+    this.file = file;
+  }
+
+  synchronized void append(List<LogRecord> records) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+    DataOutputStream record = new DataOutputStream(bytes);
+    DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(file, true)));
+    try {
+      for (LogRecord logRecord : records) {
+        bytes.reset();
+        write(logRecord, record);
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+        index(length, logRecord.getLevel().intValue());
+        length += 4 + bytes.size();
+      }
+    } finally {
+      out.close();
+      lastAccess = System.currentTimeMillis();
+    }
+  }
+
+  /**
+   * @param from the index of the first record of the page.
+   * @param max the number of records in the page, skipped ones included.
+   * @param minimumLevel records below that level are skipped, and not read at all.
+   */
+  synchronized List<LogRecord> read(int from, int max, Level minimumLevel) throws IOException {
+    lastAccess = System.currentTimeMillis();
+    int to = (int) Math.min((long) from + Math.max(0, max), count);
+    from = Math.max(0, from);
+    if (from >= to) {
+      return new ArrayList<LogRecord>();
+    }
+    int minimum = minimumLevel.intValue();
+    List<LogRecord> records = new ArrayList<LogRecord>(to - from);
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      ByteBuffer header = ByteBuffer.allocate(4);
+      for (int i = from; i < to; i++) {
+        if (levels[i] < minimum) {
+          continue;
+        }
+        header.clear();
+        readFully(channel, header, offsets[i]);
+        ByteBuffer body = ByteBuffer.allocate(header.getInt(0));
+        readFully(channel, body, offsets[i] + 4);
+        records.add(read(new DataInputStream(new ByteArrayInputStream(body.array()))));
+      }
+    } finally {
+      raf.close();
+    }
+    return records;
+  }
+
+  /**
+   * @return the last records at or above the given level, at most max of them.
+   */
+  synchronized List<LogRecord> tail(int max, Level minimumLevel) throws IOException {
+    int minimum = minimumLevel.intValue();
+    int from = count;
+    int found = 0;
+    while (from > 0 && found < max) {
+      from--;
+      if (levels[from] >= minimum) {
+        found++;
+      }
+    }
+    return read(from, count - from, minimumLevel);
+  }
+
+  synchronized int size() {
+    return count;
+  }
+
+  long getLastAccess() {
+    return lastAccess;
+  }
+
+  synchronized void delete() {
+    file.delete();
+  }
+
+  private void index(long offset, int level) {
+    if (count == offsets.length) {
+      offsets = Arrays.copyOf(offsets, count * 2);
+      levels = Arrays.copyOf(levels, count * 2);
+    }
+    offsets[count] = offset;
+    levels[count] = level;
+    count++;
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position + buffer.position());
+      if (read == -1) {
+        throw new EOFException("Truncated log segment");
+      }
+    }
+  }
+
+  private static void write(LogRecord record, DataOutputStream out) throws IOException {
+    out.writeInt(record.getLevel().intValue());
+    out.writeLong(record.getMillis());
+    out.writeLong(record.getSequenceNumber());
+    out.writeInt(record.getThreadID());
+    writeString(record.getLoggerName(), out);
+    writeString(message(record), out);
+    writeString(record.getSourceClassName(), out);
+    writeString(record.getSourceMethodName(), out);
+    if (record.getThrown() == null) {
+      out.writeInt(-1);
+    } else {
+      // rare enough to be worth keeping the stack trace as it is.
+      ByteArrayOutputStream thrown = new ByteArrayOutputStream();
+      ObjectOutputStream objects = new ObjectOutputStream(thrown);
+      objects.writeObject(record.getThrown());
+      objects.close();
+      out.writeInt(thrown.size());
+      thrown.writeTo(out);
+    }
+  }
+
+  private static LogRecord read(DataInputStream in) throws IOException {
+    LogRecord record = new LogRecord(Level.parse(String.valueOf(in.readInt())), null);
+    record.setMillis(in.readLong());
+    record.setSequenceNumber(in.readLong());
+    record.setThreadID(in.readInt());
+    record.setLoggerName(readString(in));
+    record.setMessage(readString(in));
+    record.setSourceClassName(readString(in));
+    record.setSourceMethodName(readString(in));
+    int thrownLength = in.readInt();
+    if (thrownLength >= 0) {
+      byte[] thrown = new byte[thrownLength];
+      in.readFully(thrown);
+      ObjectInputStream objects = new ObjectInputStream(new ByteArrayInputStream(thrown));
+      try {
+        record.setThrown((Throwable) objects.readObject());
+      } catch (ClassNotFoundException e) {
+        // the message is still worth returning.
+      } finally {
+        objects.close();
+      }
+    }
+    return record;
+  }
+
+  /**
+   * The message with its parameters, which are not kept.
+   */
+  private static String message(LogRecord record) {
+    if (record.getParameters() == null && record.getResourceBundle() == null) {
+      return record.getMessage();
+    }
+    return new Formatter() {
+      @Override
+      public String format(LogRecord record) {
+        return formatMessage(record);
+      }
+    }.format(record);
+  }
+
+  private static void writeString(String string, DataOutputStream out) throws IOException {
+    if (string == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] bytes = string.getBytes(Charsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, Charsets.UTF_8);
+  }
+}
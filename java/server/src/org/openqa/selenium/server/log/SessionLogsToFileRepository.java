@@ -18,78 +18,85 @@ limitations under the License.
 
 package org.openqa.selenium.server.log;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 import org.openqa.selenium.remote.SessionId;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.LogRecord;
 
-class LogFile {
-  private String logName;
-  private ObjectOutputStream logWriter;
-  private ObjectInputStream logReader;
-
-  public LogFile(String logName) {
-    this.logName = logName;
-  }
+/**
+ * Keeps the log records of the sessions which don't fit in memory, in a {@link LogSegment} per
+ * session. The files of the removed sessions are deleted in the background, as are the ones no
+ * longer written or read for the time set with the {@value #RETENTION_PROPERTY} system property,
+ * a day by default.
+ */
+public class SessionLogsToFileRepository {
 
-  public void openLogWriter() throws IOException {
-    logWriter = new ObjectOutputStream(new FileOutputStream(logName));
-  }
+  /**
+   * System property with the number of minutes the logs of a session are kept for once they are
+   * no longer written or read.
+   */
+  public static final String RETENTION_PROPERTY = "selenium.sessionLogs.retentionMinutes";
 
-  public void closeLogWriter() throws IOException {
-    if (logWriter != null) {
-      logWriter.close();
-    }
-  }
+  private static final long DEFAULT_RETENTION_MINUTES = 24 * 60;
+  private static final long SWEEP_PERIOD_MINUTES = 1;
 
-  public void openLogReader() throws IOException {
-    logReader = new ObjectInputStream(new FileInputStream(logName));
-  }
+  private static final ScheduledExecutorService cleaner = Executors.newSingleThreadScheduledExecutor(
+      new ThreadFactoryBuilder().setDaemon(true).setNameFormat("session-log-cleaner").build());
 
-  public void closeLogReader() throws IOException {
-    if (logReader != null) {
-      logReader.close();
-    }
-  }
+  private final Map<SessionId, LogSegment> sessionToLogFileMap;
+  private final long retentionMillis;
 
-  public ObjectOutputStream getLogWriter() {
-    return logWriter;
+  public SessionLogsToFileRepository() {
+    this(Long.getLong(RETENTION_PROPERTY, DEFAULT_RETENTION_MINUTES), TimeUnit.MINUTES);
   }
 
-  public ObjectInputStream getLogReader() {
-    return logReader;
+  @VisibleForTesting
+  SessionLogsToFileRepository(long retention, TimeUnit unit) {
+    sessionToLogFileMap = new ConcurrentHashMap<SessionId, LogSegment>();
+    retentionMillis = unit.toMillis(retention);
+    scheduleSweep(this);
   }
 
-  public void removeLogFile() throws IOException {
-    if (logName != null) {
-      closeLogReader();
-      closeLogWriter();
-      new File(logName).delete();
+  /**
+   * Sweeps the repository until it is garbage collected.
+   */
+  private static void scheduleSweep(SessionLogsToFileRepository repository) {
+    final WeakReference<SessionLogsToFileRepository> reference =
+        new WeakReference<SessionLogsToFileRepository>(repository);
+    final ScheduledFuture<?>[] sweep = new ScheduledFuture<?>[1];
+    synchronized (sweep) {
+      sweep[0] = cleaner.scheduleWithFixedDelay(new Runnable() {
+        public void run() {
+          SessionLogsToFileRepository repository = reference.get();
+          if (repository != null) {
+            repository.removeExpiredLogFiles();
+            return;
+          }
+          synchronized (sweep) {
+            sweep[0].cancel(false);
+          }
+        }
+      }, SWEEP_PERIOD_MINUTES, SWEEP_PERIOD_MINUTES, TimeUnit.MINUTES);
     }
   }
-}
-
-
-public class SessionLogsToFileRepository {
-  private Map<SessionId, LogFile> sessionToLogFileMap;
-
-  public SessionLogsToFileRepository() {
-    sessionToLogFileMap = new HashMap<SessionId, LogFile>();
-  }
 
   /**
-   * This creates log file object which represents logs in file form. This opens ObjectOutputStream
-   * which is used to write logRecords to log file and opens a ObjectInputStream which is used to
-   * read logRecords from the file.
+   * This creates the log file in which the records of the session will be appended.
    * 
    * @param sessionId session-id for the log file entry needs to be created.
    * @throws IOException
@@ -97,35 +104,36 @@ public class SessionLogsToFileRepository {
   public void createLogFileAndAddToMap(SessionId sessionId) throws IOException {
     File rcLogFile;
     // create logFile;
-    rcLogFile = File.createTempFile(sessionId.toString(), ".rclog");
+    // createTempFile wants a prefix of 3 characters at least, a session id may be shorter.
+    rcLogFile = File.createTempFile("session-" + sessionId, ".rclog");
     rcLogFile.deleteOnExit();
-    LogFile logFile = new LogFile(rcLogFile.getAbsolutePath());
-    sessionToLogFileMap.put(sessionId, logFile);
+    sessionToLogFileMap.put(sessionId, new LogSegment(rcLogFile));
   }
 
   /**
    * This creates a mapping between session and file representation of logs if doesnt exist already.
-   * Writes the log records to the log file. This does *NOT* flush the logs to file. This does *NOT*
-   * clear the records after writing to file.
+   * Appends the log records to the log file. This does *NOT* clear the records after writing to
+   * file.
    * 
    * @param sessionId session-id to which the log records belong
    * @param records logRecords that need to be stored
    * @throws IOException
    */
-  synchronized public void flushRecordsToLogFile(SessionId sessionId,
-      List<LogRecord> records) throws IOException {
-    LogFile logFile = sessionToLogFileMap.get(sessionId);
+  public void flushRecordsToLogFile(SessionId sessionId, List<LogRecord> records)
+      throws IOException {
+    LogSegment logFile = sessionToLogFileMap.get(sessionId);
 
     if (logFile == null) {
-      createLogFileAndAddToMap(sessionId);
-      logFile = sessionToLogFileMap.get(sessionId);
+      synchronized (this) {
+        logFile = sessionToLogFileMap.get(sessionId);
+        if (logFile == null) {
+          createLogFileAndAddToMap(sessionId);
+          logFile = sessionToLogFileMap.get(sessionId);
+        }
+      }
     }
 
-    logFile.openLogWriter();
-    for (LogRecord record : records) {
-      logFile.getLogWriter().writeObject(record);
-    }
-    logFile.closeLogWriter();
+    logFile.append(records);
   }
 
   /**
@@ -133,44 +141,86 @@ public class SessionLogsToFileRepository {
    * log records in the file.
    * 
    * @param sessionId session-id for which the file logs needs to be returned.
-   * @return A List of LogRecord objects, which can be <i>null</i>.
+   * @return A List of LogRecord objects, never null.
    * @throws IOException
    */
   public List<LogRecord> getLogRecords(SessionId sessionId) throws IOException {
-    LogFile logFile = sessionToLogFileMap.get(sessionId);
+    return getLogRecords(sessionId, Level.ALL, 0, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Reads a page of the log records of a session.
+   *
+   * @param sessionId session-id for which the file logs needs to be returned.
+   * @param minimumLevel the records below that level are skipped.
+   * @param from the index of the first record of the page, counting the skipped ones.
+   * @param max the number of records in the page, counting the skipped ones.
+   * @return A List of LogRecord objects, never null.
+   * @throws IOException
+   */
+  public List<LogRecord> getLogRecords(SessionId sessionId, Level minimumLevel, int from, int max)
+      throws IOException {
+    LogSegment logFile = sessionToLogFileMap.get(sessionId);
     if (logFile == null) {
       return new ArrayList<LogRecord>();
     }
-    logFile.openLogReader();
-    ObjectInputStream logObjInStream = logFile.getLogReader();
-    List<LogRecord> logRecords = new ArrayList<LogRecord>();
-    try {
-      LogRecord tmpLogRecord;
-      while (null != (tmpLogRecord = (LogRecord) logObjInStream
-          .readObject())) {
-        logRecords.add(tmpLogRecord);
-      }
-    } catch (IOException ex) {
-      logFile.closeLogReader();
-      return logRecords;
-    } catch (ClassNotFoundException e) {
-      logFile.closeLogReader();
-      return logRecords;
+    return logFile.read(from, max, minimumLevel);
+  }
+
+  /**
+   * Reads the last log records of a session.
+   *
+   * @param sessionId session-id for which the file logs needs to be returned.
+   * @param minimumLevel the records below that level are skipped.
+   * @param max the maximum number of records to return.
+   * @return A List of LogRecord objects, never null.
+   * @throws IOException
+   */
+  public List<LogRecord> getLastLogRecords(SessionId sessionId, Level minimumLevel, int max)
+      throws IOException {
+    LogSegment logFile = sessionToLogFileMap.get(sessionId);
+    if (logFile == null) {
+      return new ArrayList<LogRecord>();
     }
-    logFile.closeLogReader();
-    return logRecords;
+    return logFile.tail(max, minimumLevel);
+  }
+
+  /**
+   * @return the number of records in the log file of the session, whatever their level.
+   */
+  public int getLogRecordCount(SessionId sessionId) {
+    LogSegment logFile = sessionToLogFileMap.get(sessionId);
+    return logFile == null ? 0 : logFile.size();
   }
 
+  /**
+   * Forgets the log file of the session, which is deleted in the background.
+   */
   public void removeLogFile(SessionId sessionId) {
-    LogFile logFile = sessionToLogFileMap.get(sessionId);
-    sessionToLogFileMap.remove(sessionId);
+    delete(sessionToLogFileMap.remove(sessionId));
+  }
+
+  @VisibleForTesting
+  void removeExpiredLogFiles() {
+    long expired = System.currentTimeMillis() - retentionMillis;
+    Iterator<LogSegment> segments = sessionToLogFileMap.values().iterator();
+    while (segments.hasNext()) {
+      LogSegment segment = segments.next();
+      if (segment.getLastAccess() < expired) {
+        segments.remove();
+        segment.delete();
+      }
+    }
+  }
+
+  private static void delete(final LogSegment logFile) {
     if (logFile == null) {
       return;
     }
-    try {
-      logFile.removeLogFile();
-    } catch (IOException e) {
-      throw new RuntimeException(e);
-    }
+    cleaner.execute(new Runnable() {
+      public void run() {
+        logFile.delete();
+      }
+    });
   }
 }
@@ -0,0 +1,92 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package org.openqa.grid.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Lookup cost of the active sessions for 10, 1,000 and 10,000 concurrent sessions. Each run does
+ * a few warm up iterations before the measured ones, and reports the average time per lookup. Not
+ * part of the {@link GridInternalTestSuite}, run it on its own.
+ */
+public class ActiveTestSessionsBenchmark {
+
+  private static final Logger log = Logger.getLogger(ActiveTestSessionsBenchmark.class.getName());
+
+  private static final int WARMUP_ITERATIONS = 5;
+  private static final int MEASURED_ITERATIONS = 10;
+  private static final int LOOKUPS_PER_ITERATION = 100000;
+
+  @Test
+  public void lookup10Sessions() {
+    benchmark(10);
+  }
+
+  @Test
+  public void lookup1000Sessions() {
+    benchmark(1000);
+  }
+
+  @Test
+  public void lookup10000Sessions() {
+    benchmark(10000);
+  }
+
+  private void benchmark(int size) {
+    ActiveTestSessions sessions = new ActiveTestSessions();
+    List<TestSession> all = new ArrayList<TestSession>();
+    for (int i = 0; i < size; i++) {
+      TestSession session = new TestSession(null, new HashMap<String, Object>(),
+                                            new TestSessionTest.TestTimeSource());
+      sessions.add(session);
+      // the external key is assigned by the remote once the session is created.
+      session.setExternalKey(new ExternalSessionKey("session-" + i));
+      all.add(session);
+    }
+
+    log.info(String.format("%d sessions : %.1f ns per lookup by external key", size,
+                           measure(sessions, all, true)));
+    log.info(String.format("%d sessions : %.1f ns per lookup by internal key", size,
+                           measure(sessions, all, false)));
+  }
+
+  private double measure(ActiveTestSessions sessions, List<TestSession> all, boolean external) {
+    long elapsed = 0;
+    for (int iteration = 0; iteration < WARMUP_ITERATIONS + MEASURED_ITERATIONS; iteration++) {
+      long start = System.nanoTime();
+      for (int i = 0; i < LOOKUPS_PER_ITERATION; i++) {
+        TestSession expected = all.get(i % all.size());
+        TestSession found = external
+                            ? sessions.findSessionByExternalKey(expected.getExternalKey())
+                            : sessions.findSessionByInternalKey(expected.getInternalKey());
+        if (found != expected) {
+          Assert.fail("Wrong session found for " + expected);
+        }
+      }
+      if (iteration >= WARMUP_ITERATIONS) {
+        elapsed += System.nanoTime() - start;
+      }
+    }
+    return (double) elapsed / MEASURED_ITERATIONS / LOOKUPS_PER_ITERATION;
+  }
+}
@@ -86,6 +86,47 @@ public class ActiveTestSessionsTest {
                  activeTestSessions.findSessionByExternalKey(testSession.getExternalKey()));
   }
 
+  @Test
+  public void testFindSessionByExternalKeyAssignedAfterAdd() throws Exception {
+    TestSession testSession = createTestSession();
+    testSession.setExternalKey(null);
+    activeTestSessions.add(testSession);
+    testSession.setExternalKey(new ExternalSessionKey("later"));
+    assertEquals(testSession,
+                 activeTestSessions.findSessionByExternalKey(new ExternalSessionKey("later")));
+  }
+
+  @Test
+  public void testFindSessionByChangedExternalKey() throws Exception {
+    TestSession testSession = createTestSession();
+    activeTestSessions.add(testSession);
+    testSession.setExternalKey(new ExternalSessionKey("changed"));
+    assertNull(activeTestSessions.findSessionByExternalKey(new ExternalSessionKey("w00t!")));
+    assertEquals(testSession,
+                 activeTestSessions.findSessionByExternalKey(new ExternalSessionKey("changed")));
+
+    activeTestSessions.remove(testSession, SessionTerminationReason.CLIENT_STOPPED_SESSION);
+    assertNull(activeTestSessions.findSessionByExternalKey(new ExternalSessionKey("changed")));
+  }
+
+  @Test
+  public void testKeySetAfterRemoveIsNotIndexed() throws Exception {
+    TestSession testSession = createTestSession();
+    activeTestSessions.add(testSession);
+    activeTestSessions.remove(testSession, SessionTerminationReason.CLIENT_STOPPED_SESSION);
+    testSession.setExternalKey(new ExternalSessionKey("late"));
+    assertNull(activeTestSessions.findSessionByExternalKey(new ExternalSessionKey("late")));
+  }
+
+  @Test
+  public void testRemovedSessionIsNotFound() throws Exception {
+    TestSession testSession = createTestSession();
+    activeTestSessions.add(testSession);
+    activeTestSessions.remove(testSession, SessionTerminationReason.CLIENT_STOPPED_SESSION);
+    assertNull(activeTestSessions.findSessionByExternalKey(testSession.getExternalKey()));
+    assertNull(activeTestSessions.findSessionByInternalKey(testSession.getInternalKey()));
+  }
+
   private TestSession createTestSession() {
     final HashMap<String, Object> capabilities = new HashMap<String, Object>();
     final TestSessionTest.TestTimeSource timeSource = new TestSessionTest.TestTimeSource();
@@ -0,0 +1,270 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.openqa.grid.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.io.ByteStreams;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpEntityEnclosingRequest;
+import org.apache.http.message.BasicHttpRequest;
+import org.apache.http.util.EntityUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openqa.grid.common.exception.GridException;
+import org.openqa.grid.internal.mock.GridHelper;
+import org.openqa.grid.internal.utils.GridHubConfiguration;
+import org.openqa.grid.web.Hub;
+import org.openqa.grid.web.servlet.handler.RequestHandler;
+import org.openqa.selenium.net.PortProber;
+import org.openqa.selenium.remote.CapabilityType;
+import org.openqa.selenium.remote.internal.HttpClientFactory;
+import org.seleniumhq.jetty7.server.Server;
+import org.seleniumhq.jetty7.servlet.ServletContextHandler;
+import org.seleniumhq.jetty7.servlet.ServletHolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Forwards commands through a hub configured for asynchronous forwarding to a node answering with
+ * the path it was sent.
+ */
+public class AsyncForwardingTest {
+
+  private static final int LARGE_RESPONSE = 4 * TestSession.MAX_QUEUED_RESPONSE_CONTENT;
+  private static final CountDownLatch slowCommandReceived = new CountDownLatch(1);
+  private static final CountDownLatch releaseSlowCommand = new CountDownLatch(1);
+
+  private static Server node;
+  private static Hub hub;
+  private static Registry registry;
+  private static HttpClient client;
+  private static HttpHost host;
+
+  @BeforeClass
+  public static void setup() throws Exception {
+    node = new Server(PortProber.findFreePort());
+    ServletContextHandler context = new ServletContextHandler();
+    context.addServlet(new ServletHolder(new HttpServlet() {
+      @Override
+      protected void service(HttpServletRequest req, HttpServletResponse resp)
+          throws IOException {
+        if (req.getRequestURI().endsWith("/upload/file")) {
+          // large requests are streamed by a thread of the hub, blocked forwarding meanwhile.
+          long length = ByteStreams.toByteArray(req.getInputStream()).length;
+          resp.getWriter().print(length + " " + threadIsBlockedForwarding());
+          return;
+        }
+        if (req.getRequestURI().endsWith("/large/url")) {
+          resp.getOutputStream().write(new byte[LARGE_RESPONSE]);
+          return;
+        }
+        if (req.getRequestURI().endsWith("/slow/url")) {
+          slowCommandReceived.countDown();
+          try {
+            releaseSlowCommand.await(10, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+        resp.setContentType("application/json;charset=UTF-8");
+        resp.getWriter().print("{\"status\":0,\"value\":\"" + req.getRequestURI() + "\"}");
+      }
+    }), "/*");
+    node.setHandler(context);
+    node.start();
+
+    GridHubConfiguration config = new GridHubConfiguration();
+    config.setPort(PortProber.findFreePort());
+    config.setHost("localhost");
+    config.setAsyncForwarding(true);
+    hub = new Hub(config);
+    registry = hub.getRegistry();
+    hub.start();
+
+    List<Map<String, Object>> capabilities = new ArrayList<Map<String, Object>>();
+    for (String browser : new String[] {"slow", "stop", "hook", "upload", "large"}) {
+      capabilities.add(capability(browser));
+    }
+    registry.add(RemoteProxyFactory.getNewBasicRemoteProxy(capabilities,
+        "http://localhost:" + node.getConnectors()[0].getPort(), registry));
+    registry.add(RemoteProxyFactory.getNewBasicRemoteProxy("dead",
+        "http://localhost:" + PortProber.findFreePort(), registry));
+
+    client = new HttpClientFactory().getHttpClient();
+    host = new HttpHost(hub.getHost(), hub.getPort());
+  }
+
+  @AfterClass
+  public static void teardown() throws Exception {
+    releaseSlowCommand.countDown();
+    hub.stop();
+    node.stop();
+  }
+
+  @Test(timeout = 20000)
+  public void commandIsForwardedWithoutHoldingAContainerThread() throws Exception {
+    final TestSession session = newSession("slow");
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<HttpResponse> response = executor.submit(new Callable<HttpResponse>() {
+        public HttpResponse call() throws Exception {
+          return client.execute(host,
+              new BasicHttpRequest("GET", "/wd/hub/session/slow/url"));
+        }
+      });
+
+      assertTrue(slowCommandReceived.await(10, TimeUnit.SECONDS));
+      // the request is suspended: no thread of the hub waits for the node.
+      assertFalse(threadIsBlockedForwarding());
+      releaseSlowCommand.countDown();
+
+      HttpResponse completed = response.get(10, TimeUnit.SECONDS);
+      assertEquals(200, completed.getStatusLine().getStatusCode());
+      assertTrue(EntityUtils.toString(completed.getEntity()).contains("/session/slow/url"));
+      assertNotNull(registry.getSession(session.getExternalKey()));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test(timeout = 20000)
+  public void largeRequestIsStreamedToTheNode() throws Exception {
+    newSession("upload");
+    int length = TestSession.MAX_BUFFERED_REQUEST_BODY + 1;
+    BasicHttpEntityEnclosingRequest upload =
+        new BasicHttpEntityEnclosingRequest("POST", "/wd/hub/session/upload/file");
+    upload.setEntity(new ByteArrayEntity(new byte[length]));
+
+    HttpResponse response = client.execute(host, upload);
+    assertEquals(200, response.getStatusLine().getStatusCode());
+    assertEquals(length + " true", EntityUtils.toString(response.getEntity()));
+  }
+
+  @Test(timeout = 20000)
+  public void largeResponseIsCopiedEntirely() throws Exception {
+    newSession("large");
+
+    HttpResponse response =
+        client.execute(host, new BasicHttpRequest("GET", "/wd/hub/session/large/url"));
+    assertEquals(200, response.getStatusLine().getStatusCode());
+    assertEquals(LARGE_RESPONSE, EntityUtils.toByteArray(response.getEntity()).length);
+  }
+
+  @Test(timeout = 20000)
+  public void stopSessionTerminatesTheSession() throws Exception {
+    TestSession session = newSession("stop");
+
+    HttpResponse response =
+        client.execute(host, new BasicHttpRequest("DELETE", "/wd/hub/session/stop"));
+    assertEquals(200, response.getStatusLine().getStatusCode());
+    EntityUtils.consume(response.getEntity());
+
+    assertTerminated(session, SessionTerminationReason.CLIENT_STOPPED_SESSION);
+  }
+
+  @Test(timeout = 20000)
+  public void failureIsReportedToTheClientAndTerminatesTheSession() throws Exception {
+    TestSession session = newSession("dead");
+
+    HttpResponse response =
+        client.execute(host, new BasicHttpRequest("GET", "/wd/hub/session/dead/url"));
+    assertEquals(500, response.getStatusLine().getStatusCode());
+    assertTrue(EntityUtils.toString(response.getEntity()).contains("cannot forward the request"));
+
+    assertTerminated(session, SessionTerminationReason.FORWARDING_TO_NODE_FAILED);
+  }
+
+  @Test(timeout = 20000)
+  public void overriddenForwardRequestIsCalled() throws Exception {
+    TestSession session = newSession("hook");
+
+    // forwards nothing, and its mocked request would fail if asked for a continuation.
+    RequestHandler handler = GridHelper.createStopSessionHandler(registry, session);
+    handler.process();
+
+    assertTerminated(session, SessionTerminationReason.CLIENT_STOPPED_SESSION);
+  }
+
+  private static Map<String, Object> capability(String browser) {
+    Map<String, Object> capability = new HashMap<String, Object>();
+    capability.put(CapabilityType.BROWSER_NAME, browser);
+    return capability;
+  }
+
+  private static TestSession newSession(String browser) {
+    RequestHandler newSessionRequest =
+        GridHelper.createNewSessionHandler(registry, capability(browser));
+    newSessionRequest.process();
+    TestSession session = newSessionRequest.getSession();
+    session.setExternalKey(new ExternalSessionKey(browser));
+    return session;
+  }
+
+  private static boolean threadIsBlockedForwarding() {
+    for (StackTraceElement[] stack : Thread.getAllStackTraces().values()) {
+      for (StackTraceElement frame : stack) {
+        if (frame.getClassName().equals(TestSession.class.getName())
+            && frame.getMethodName().equals("forward")) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static void assertTerminated(TestSession session, SessionTerminationReason reason)
+      throws InterruptedException {
+    // the sessions are released in the background.
+    while (registry.getSession(session.getExternalKey()) != null) {
+      Thread.sleep(20);
+    }
+    try {
+      registry.getExistingSession(session.getExternalKey());
+      fail();
+    } catch (GridException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains(reason.toString()));
+    }
+    assertNull(registry.getSession(session.getExternalKey()));
+  }
+}
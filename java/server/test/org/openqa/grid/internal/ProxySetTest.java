@@ -17,10 +17,17 @@ limitations under the License.
 
 package org.openqa.grid.internal;
 
+import static org.openqa.grid.common.RegistrationRequest.APP;
+import static org.openqa.grid.common.RegistrationRequest.MAX_INSTANCES;
+import static org.openqa.grid.common.RegistrationRequest.MAX_SESSION;
+import static org.openqa.grid.common.RegistrationRequest.REMOTE_HOST;
+
 import org.junit.Assert;
 import org.junit.Test;
+import org.openqa.grid.common.RegistrationRequest;
 
 import java.util.HashMap;
+import java.util.Map;
 
 public class ProxySetTest {
 
@@ -50,4 +57,82 @@ public class ProxySetTest {
       registry.stop();
     }
   }
+
+  @Test
+  public void newSessionGoesToTheLessBusyProxy() {
+    Registry registry = Registry.newInstance();
+    try {
+      ProxySet set = new ProxySet(true);
+      RemoteProxy p1 = new BaseRemoteProxy(getRequest("http://machine1:4444"), registry);
+      RemoteProxy p2 = new BaseRemoteProxy(getRequest("http://machine2:4444"), registry);
+      set.add(p1);
+      set.add(p2);
+
+      Map<String, Object> cap = new HashMap<String, Object>();
+      cap.put(APP, "app1");
+
+      // ties go to the proxy registered first.
+      TestSession s1 = set.getNewSession(cap);
+      Assert.assertEquals(p1, s1.getSlot().getProxy());
+      Assert.assertEquals(p2, set.getNewSession(cap).getSlot().getProxy());
+      Assert.assertEquals(p1, set.getNewSession(cap).getSlot().getProxy());
+      Assert.assertEquals(p2, set.getNewSession(cap).getSlot().getProxy());
+      Assert.assertNull(set.getNewSession(cap));
+
+      s1.getSlot().doFinishRelease();
+      set.updateLoad(p1);
+      Assert.assertEquals(p1, set.getNewSession(cap).getSlot().getProxy());
+    } finally {
+      registry.stop();
+    }
+  }
+
+  @Test
+  public void proxiesWithTheirOwnOrderingAreSortedWithCompareTo() {
+    Registry registry = Registry.newInstance();
+    try {
+      ProxySet set = new ProxySet(true);
+      RemoteProxy p1 = new HighestPortFirstProxy(getRequest("http://machine1:4444"), registry);
+      RemoteProxy p2 = new HighestPortFirstProxy(getRequest("http://machine2:5555"), registry);
+      set.add(p1);
+      set.add(p2);
+
+      Map<String, Object> cap = new HashMap<String, Object>();
+      cap.put(APP, "app1");
+
+      Assert.assertEquals(p2, set.getNewSession(cap).getSlot().getProxy());
+      Assert.assertEquals(p2, set.getNewSession(cap).getSlot().getProxy());
+      Assert.assertEquals(p1, set.getNewSession(cap).getSlot().getProxy());
+    } finally {
+      registry.stop();
+    }
+  }
+
+  static class HighestPortFirstProxy extends BaseRemoteProxy {
+
+    public HighestPortFirstProxy(RegistrationRequest request, Registry registry) {
+      super(request, registry);
+    }
+
+    @Override
+    public int compareTo(RemoteProxy o) {
+      return o.getRemoteHost().getPort() - getRemoteHost().getPort();
+    }
+  }
+
+  private static RegistrationRequest getRequest(String url) {
+    RegistrationRequest request = new RegistrationRequest();
+
+    Map<String, Object> config = new HashMap<String, Object>();
+    config.put(MAX_SESSION, 2);
+    config.put(REMOTE_HOST, url);
+    request.setConfiguration(config);
+
+    Map<String, Object> cap = new HashMap<String, Object>();
+    cap.put(APP, "app1");
+    cap.put(MAX_INSTANCES, 2);
+    request.addDesiredCapability(cap);
+
+    return request;
+  }
 }
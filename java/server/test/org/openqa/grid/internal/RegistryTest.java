@@ -26,6 +26,7 @@ import java.util.Random;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.http.HttpHost;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -36,6 +37,7 @@ import org.openqa.grid.internal.listeners.RegistrationListener;
 import org.openqa.grid.internal.mock.GridHelper;
 import org.openqa.grid.web.servlet.handler.RequestHandler;
 import org.openqa.selenium.remote.CapabilityType;
+import org.openqa.selenium.remote.internal.HttpClientFactory;
 
 public class RegistryTest {
 
@@ -88,6 +90,57 @@ public class RegistryTest {
     }
   }
 
+  @Test
+  public void eachNodeGetsItsOwnConnectionLimit() {
+    Registry registry = Registry.newInstance();
+    RemoteProxy small =
+        RemoteProxyFactory.getNewBasicRemoteProxy("app1", "http://machine2:4444/", registry);
+    Map<String, Object> config = new HashMap<String, Object>();
+    config.put(REMOTE_HOST, "http://machine1:4444");
+    config.put(MAX_SESSION, small.getMaxNumberOfConcurrentTestSessions() + 5);
+    RegistrationRequest request = new RegistrationRequest();
+    request.addDesiredCapability(app1);
+    request.setConfiguration(config);
+    RemoteProxy big = new BaseRemoteProxy(request, registry);
+    try {
+      registry.add(small);
+      registry.add(big);
+      HttpClientFactory factory = registry.getHttpClientFactory();
+      HttpHost smallNode = new HttpHost("machine2", 4444);
+      HttpHost bigNode = new HttpHost("machine1", 4444);
+      int smallMax = small.getMaxNumberOfConcurrentTestSessions() * 2;
+      int bigMax = big.getMaxNumberOfConcurrentTestSessions() * 2;
+      Assert.assertEquals(smallMax, factory.getMaxGridConnectionsPerRoute(smallNode));
+      Assert.assertEquals(bigMax, factory.getMaxGridConnectionsPerRoute(bigNode));
+      // the grid clients route the requests with the schemes of the connection manager.
+      Assert.assertNotNull(
+          factory.getGridHttpClient(0).getConnectionManager().getSchemeRegistry().get("http"));
+
+      registry.removeIfPresent(big);
+      Assert.assertEquals(smallMax, factory.getMaxGridConnectionsPerRoute(smallNode));
+      Assert.assertTrue(factory.getMaxGridConnectionsPerRoute(bigNode) > bigMax);
+    } finally {
+      registry.stop();
+    }
+  }
+
+  @Test
+  public void nodeMetricsAreDroppedWithTheNode() {
+    Registry registry = Registry.newInstance();
+    RemoteProxy p1 =
+        RemoteProxyFactory.getNewBasicRemoteProxy("app1", "http://machine1:4444/", registry);
+    try {
+      registry.add(p1);
+      Assert.assertNotNull(registry.getMetrics().getNodeMetrics(p1.getId()));
+
+      registry.removeIfPresent(p1);
+      Assert.assertNull(registry.getMetrics().getNodeMetrics(p1.getId()));
+      Assert.assertTrue(registry.getMetrics().getAllNodeMetrics().isEmpty());
+    } finally {
+      registry.stop();
+    }
+  }
+
   static RegistrationRequest req = null;
   static Map<String, Object> app1 = new HashMap<String, Object>();
   static Map<String, Object> app2 = new HashMap<String, Object>();
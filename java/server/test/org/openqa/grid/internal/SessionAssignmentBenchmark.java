@@ -0,0 +1,124 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package org.openqa.grid.internal;
+
+import static org.openqa.grid.common.RegistrationRequest.APP;
+import static org.openqa.grid.common.RegistrationRequest.MAX_INSTANCES;
+import static org.openqa.grid.common.RegistrationRequest.MAX_SESSION;
+import static org.openqa.grid.common.RegistrationRequest.REMOTE_HOST;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openqa.grid.common.RegistrationRequest;
+import org.openqa.grid.internal.mock.GridHelper;
+import org.openqa.grid.web.servlet.handler.RequestHandler;
+
+/**
+ * Measures how long the matcher takes to assign sessions on grids of 100, 1,000 and 10,000 slots,
+ * while a backlog of requests that can't be served yet sits in the queue. Not part of the
+ * {@link GridInternalTestSuite}, run it on its own.
+ */
+public class SessionAssignmentBenchmark {
+
+  private static final Logger log = Logger.getLogger(SessionAssignmentBenchmark.class.getName());
+
+  private static final int SLOTS_PER_NODE = 10;
+  private static final int BACKLOG = 1000;
+
+  @Test(timeout = 120000)
+  public void assign100Slots() throws InterruptedException {
+    benchmark(100);
+  }
+
+  @Test(timeout = 120000)
+  public void assign1000Slots() throws InterruptedException {
+    benchmark(1000);
+  }
+
+  @Test(timeout = 120000)
+  public void assign10000Slots() throws InterruptedException {
+    benchmark(10000);
+  }
+
+  private void benchmark(int slots) throws InterruptedException {
+    Registry registry = Registry.newInstance();
+    try {
+      for (int i = 0; i < slots / SLOTS_PER_NODE; i++) {
+        registry.add(new BaseRemoteProxy(getRequest("firefox", SLOTS_PER_NODE, "node" + i), registry));
+      }
+      // a single busy chrome node, keeping a backlog of chrome requests in the queue.
+      registry.add(new BaseRemoteProxy(getRequest("chrome", 1, "chrome"), registry));
+      RequestHandler busy = GridHelper.createNewSessionHandler(registry, browser("chrome"));
+      busy.process();
+      Assert.assertNotNull(busy.getSession());
+      for (int i = 0; i < BACKLOG; i++) {
+        registry.addNewSessionRequest(GridHelper.createNewSessionHandler(registry, browser("chrome")));
+      }
+
+      List<RequestHandler> requests = new ArrayList<RequestHandler>();
+      for (int i = 0; i < slots; i++) {
+        requests.add(GridHelper.createNewSessionHandler(registry, browser("firefox")));
+      }
+
+      long start = System.nanoTime();
+      for (RequestHandler request : requests) {
+        registry.addNewSessionRequest(request);
+      }
+      while (registry.getNewSessionRequestCount() > BACKLOG) {
+        Thread.sleep(1);
+      }
+      long elapsed = System.nanoTime() - start;
+
+      for (RequestHandler request : requests) {
+        Assert.assertNotNull(request.getSession());
+      }
+      Assert.assertEquals(slots, registry.getActiveSessions().size() - 1);
+
+      log.info(String.format("%d slots, %d queued : %d ms total, %.1f us per session assigned",
+          slots, BACKLOG, elapsed / 1000000, elapsed / 1000.0 / slots));
+    } finally {
+      registry.stop();
+    }
+  }
+
+  private static Map<String, Object> browser(String name) {
+    Map<String, Object> cap = new HashMap<String, Object>();
+    cap.put(APP, name);
+    return cap;
+  }
+
+  private static RegistrationRequest getRequest(String browser, int slots, String name) {
+    RegistrationRequest request = new RegistrationRequest();
+
+    Map<String, Object> config = new HashMap<String, Object>();
+    config.put(MAX_SESSION, slots);
+    config.put(REMOTE_HOST, "http://" + name + ":4444");
+    request.setConfiguration(config);
+
+    Map<String, Object> cap = browser(browser);
+    cap.put(MAX_INSTANCES, slots);
+    request.addDesiredCapability(cap);
+
+    return request;
+  }
+}
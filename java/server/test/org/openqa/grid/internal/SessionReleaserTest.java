@@ -0,0 +1,124 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.openqa.grid.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.openqa.grid.common.RegistrationRequest.APP;
+import static org.openqa.grid.common.RegistrationRequest.MAX_INSTANCES;
+import static org.openqa.grid.common.RegistrationRequest.MAX_SESSION;
+import static org.openqa.grid.common.RegistrationRequest.REMOTE_HOST;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openqa.grid.common.RegistrationRequest;
+import org.openqa.grid.internal.mock.GridHelper;
+import org.openqa.grid.internal.utils.HubMetrics;
+import org.openqa.grid.web.servlet.handler.RequestHandler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class SessionReleaserTest {
+
+  private static final int NODES = 5;
+  private static final int SLOTS_PER_NODE = 10;
+
+  private Registry registry;
+  private List<TestSession> sessions;
+
+  @Before
+  public void setup() {
+    registry = Registry.newInstance();
+    for (int i = 0; i < NODES; i++) {
+      registry.add(new BaseRemoteProxy(getRequest("node" + i), registry));
+    }
+    sessions = new ArrayList<TestSession>();
+    for (int i = 0; i < NODES * SLOTS_PER_NODE; i++) {
+      RequestHandler request = GridHelper.createNewSessionHandler(registry, firefox());
+      request.process();
+      sessions.add(request.getSession());
+    }
+    assertEquals(NODES * SLOTS_PER_NODE, registry.getActiveSessions().size());
+  }
+
+  @After
+  public void teardown() {
+    registry.stop();
+  }
+
+  @Test(timeout = 10000)
+  public void releasesAreBatchedByProxy() throws InterruptedException {
+    for (TestSession session : sessions) {
+      registry.terminate(session, SessionTerminationReason.CLIENT_STOPPED_SESSION);
+    }
+    // the sessions are gone from the registry a little before the backlog is updated.
+    while (!registry.getActiveSessions().isEmpty() || registry.getSessionReleaseBacklog() != 0) {
+      Thread.sleep(10);
+    }
+    for (TestSession session : sessions) {
+      assertNull(session.getSlot().getSession());
+    }
+    HubMetrics metrics = registry.getMetrics();
+    assertEquals(sessions.size(), metrics.getSessionReleaseWait().getCount());
+    assertTrue(metrics.getSessionReleaseBatches() <= sessions.size());
+    assertEquals(0, metrics.getSessionReleasesInline());
+    assertEquals(0, registry.getSessionReleaseBacklog());
+  }
+
+  @Test
+  public void sessionsAreReleasedInlineWhenTheBacklogIsFull() {
+    HubMetrics metrics = new HubMetrics();
+    SessionReleaser releaser = new SessionReleaser(registry, metrics, 1, 0);
+    try {
+      TestSession session = sessions.get(0);
+      releaser.release(session.getSlot(), SessionTerminationReason.CLIENT_STOPPED_SESSION);
+
+      assertNull(session.getSlot().getSession());
+      assertEquals(1, metrics.getSessionReleasesInline());
+      assertEquals(0, metrics.getSessionReleaseBatches());
+    } finally {
+      releaser.stop();
+    }
+  }
+
+  private static Map<String, Object> firefox() {
+    Map<String, Object> cap = new HashMap<String, Object>();
+    cap.put(APP, "firefox");
+    return cap;
+  }
+
+  private static RegistrationRequest getRequest(String name) {
+    RegistrationRequest request = new RegistrationRequest();
+
+    Map<String, Object> config = new HashMap<String, Object>();
+    config.put(MAX_SESSION, SLOTS_PER_NODE);
+    config.put(REMOTE_HOST, "http://" + name + ":4444");
+    request.setConfiguration(config);
+
+    Map<String, Object> cap = firefox();
+    cap.put(MAX_INSTANCES, SLOTS_PER_NODE);
+    request.addDesiredCapability(cap);
+
+    return request;
+  }
+}
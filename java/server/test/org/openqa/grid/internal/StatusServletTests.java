@@ -31,6 +31,7 @@ import org.apache.http.client.HttpClient;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.message.BasicHttpEntityEnclosingRequest;
 import org.apache.http.message.BasicHttpRequest;
+import org.apache.http.util.EntityUtils;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -55,6 +56,7 @@ public class StatusServletTests {
 
   private static URL proxyApi;
   private static URL hubApi;
+  private static URL metricsApi;
   private static URL testSessionApi;
   private static HttpHost host;
   private static TestSession session;
@@ -69,6 +71,7 @@ public class StatusServletTests {
     Registry registry = hub.getRegistry();
     httpClientFactory = new HttpClientFactory();
     hubApi = new URL("http://" + hub.getHost() + ":" + hub.getPort() + "/grid/api/hub");
+    metricsApi = new URL("http://" + hub.getHost() + ":" + hub.getPort() + "/grid/api/metrics");
     proxyApi = new URL("http://" + hub.getHost() + ":" + hub.getPort() + "/grid/api/proxy");
     testSessionApi =
         new URL("http://" + hub.getHost() + ":" + hub.getPort() + "/grid/api/testsession");
@@ -317,6 +320,54 @@ public class StatusServletTests {
 
   }
 
+  @Test
+  public void testHubgetConnectionPools() throws IOException, JSONException {
+    HttpClient client = httpClientFactory.getHttpClient();
+
+    BasicHttpRequest r = new BasicHttpRequest("GET", hubApi.toExternalForm());
+
+    HttpResponse response = client.execute(host, r);
+    Assert.assertEquals(200, response.getStatusLine().getStatusCode());
+    JSONObject pools = extractObject(response).getJSONObject("connectionPools");
+
+    Assert.assertTrue(pools.has("total"));
+    JSONObject node = pools.getJSONObject(p1.getId());
+    Assert.assertEquals(p1.getMaxNumberOfConcurrentTestSessions() * 2, node.getInt("max"));
+    Assert.assertEquals(0, node.getInt("leased"));
+    Assert.assertEquals(0, node.getInt("pending"));
+  }
+
+  @Test
+  public void testMetrics() throws IOException, JSONException {
+    HttpClient client = httpClientFactory.getHttpClient();
+
+    BasicHttpRequest r = new BasicHttpRequest("GET", metricsApi.toExternalForm());
+
+    HttpResponse response = client.execute(host, r);
+    Assert.assertEquals(200, response.getStatusLine().getStatusCode());
+    JSONObject o = extractObject(response);
+
+    Assert.assertTrue(o.getBoolean("success"));
+    Assert.assertEquals(1, o.getJSONObject("newSessionQueue").getJSONObject("wait").getInt("count"));
+    Assert.assertTrue(o.getJSONObject("registryLock").getJSONObject("hold").getInt("count") > 0);
+    Assert.assertEquals(0, o.getJSONObject("sessionRelease").getInt("backlog"));
+  }
+
+  @Test
+  public void testMetricsPrometheus() throws IOException {
+    HttpClient client = httpClientFactory.getHttpClient();
+
+    BasicHttpRequest r =
+        new BasicHttpRequest("GET", metricsApi.toExternalForm() + "?format=prometheus");
+
+    HttpResponse response = client.execute(host, r);
+    Assert.assertEquals(200, response.getStatusLine().getStatusCode());
+    String text = EntityUtils.toString(response.getEntity());
+
+    Assert.assertTrue(text.contains("# TYPE grid_new_session_queue_wait_seconds histogram"));
+    Assert.assertTrue(text.contains("grid_new_session_queue_wait_seconds_count 1"));
+  }
+
   @Test
   public void testSessionApiNeg() throws IOException, JSONException {
     String s = "non-existing session";
@@ -0,0 +1,51 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.openqa.grid.internal.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class BufferPoolTest {
+
+  @Test
+  public void releasedBuffersAreReused() {
+    BufferPool pool = new BufferPool(8, 2);
+    byte[] buffer = pool.acquire();
+    assertEquals(8, buffer.length);
+    pool.release(buffer);
+    assertSame(buffer, pool.acquire());
+  }
+
+  @Test
+  public void poolIsBounded() {
+    BufferPool pool = new BufferPool(8, 2);
+    pool.release(new byte[8]);
+    pool.release(new byte[8]);
+    pool.release(new byte[8]);
+    assertEquals(2, pool.getPooledCount());
+  }
+
+  @Test
+  public void buffersOfAnotherSizeAreNotPooled() {
+    BufferPool pool = new BufferPool(8, 2);
+    pool.release(new byte[4]);
+    assertEquals(0, pool.getPooledCount());
+  }
+}
@@ -29,7 +29,9 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 import org.openqa.grid.common.RegistrationRequest;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 
@@ -113,5 +115,42 @@ public class DefaultCapabilityMatcherTest {
 
   }
 
+  @Test
+  public void compiledCapabilitiesMatchLikeTheMatcher() {
+    DefaultCapabilityMatcher matcher = new DefaultCapabilityMatcher();
+    List<Map<String, Object>> all = new ArrayList<Map<String, Object>>();
+    all.add(tl);
+    all.add(tl2);
+    all.add(firefox);
+    all.add(firefox2);
+    all.add(exotic);
+    for (Map<String, Object> requested : all) {
+      CompiledCapabilities compiled = matcher.compile(requested);
+      for (Map<String, Object> node : all) {
+        Assert.assertEquals(matcher.matches(node, requested), compiled.matches(node));
+      }
+    }
+  }
+
+  @Test
+  public void precompiledRequestRemembersTheMatches() {
+    DefaultCapabilityMatcher matcher = new DefaultCapabilityMatcher();
+
+    Map<String, Object> requested = new HashMap<String, Object>();
+    requested.put(CapabilityType.BROWSER_NAME, "firefox");
+    requested.put(CapabilityType.PLATFORM, "xp");
+    matcher.precompile(requested);
+
+    Map<String, Object> node = new HashMap<String, Object>();
+    node.put(CapabilityType.BROWSER_NAME, "firefox");
+    node.put(CapabilityType.PLATFORM, Platform.WINDOWS);
+    Assert.assertTrue(matcher.matches(node, requested));
+
+    // the node maps aren't supposed to change : the result is remembered for that very map.
+    node.put(CapabilityType.BROWSER_NAME, "chrome");
+    Assert.assertTrue(matcher.matches(node, requested));
+    Assert.assertFalse(matcher.matches(new HashMap<String, Object>(node), requested));
+  }
+
 
 }
@@ -0,0 +1,257 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.openqa.grid.internal.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.openqa.grid.common.RegistrationRequest.APP;
+
+import com.google.common.base.Predicate;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openqa.grid.internal.Registry;
+import org.openqa.grid.internal.TestSession;
+import org.openqa.grid.internal.TimeSource;
+import org.openqa.grid.internal.mock.GridHelper;
+import org.openqa.grid.web.servlet.handler.RequestHandler;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+/**
+ * Replays the new session requests recorded in new_session_arrivals.trace on a simulated grid of
+ * 10 slots, with a simulated clock, and reports how long each tenant waited with the different
+ * scheduler settings. The trace has a CI tenant sending bursts of 60 requests, and two teams
+ * sending requests steadily. Not part of the {@link org.openqa.grid.internal.GridInternalTestSuite},
+ * run it on its own.
+ */
+public class FairShareSchedulerSimulation {
+
+  private static final Logger log = Logger.getLogger(FairShareSchedulerSimulation.class.getName());
+
+  private static final String TRACE = "new_session_arrivals.trace";
+  private static final int SLOTS = 10;
+
+  private static Registry registry;
+  private static List<Arrival> trace;
+
+  @BeforeClass
+  public static void setup() throws IOException {
+    registry = Registry.newInstance();
+    trace = loadTrace();
+  }
+
+  @AfterClass
+  public static void teardown() {
+    registry.stop();
+  }
+
+  @Test
+  public void replayTrace() {
+    Map<String, Integer> none = Collections.emptyMap();
+    Map<String, Integer> weights = new HashMap<String, Integer>();
+    weights.put("teamA", 2);
+    weights.put("teamB", 2);
+    Map<String, Integer> max = new HashMap<String, Integer>();
+    max.put("ci", 6);
+
+    SimulatedClock clock = new SimulatedClock();
+    Map<String, Waits> fifo = replay(new FairShareScheduler(null, none, none, 0, clock), clock);
+    clock = new SimulatedClock();
+    Map<String, Waits> fair = replay(new FairShareScheduler("tenant", none, none, 0, clock), clock);
+    clock = new SimulatedClock();
+    Map<String, Waits> weighted =
+        replay(new FairShareScheduler("tenant", weights, max, 0, clock), clock);
+    clock = new SimulatedClock();
+    Map<String, Waits> aging =
+        replay(new FairShareScheduler("tenant", weights, max, 300000, clock), clock);
+
+    report("FIFO", fifo);
+    report("fair share", fair);
+    report("weighted, ci capped to 6", weighted);
+    report("weighted, ci capped to 6, 5min aging", aging);
+
+    // the teams don't wait behind the CI bursts anymore.
+    assertTrue(fair.get("teamA").mean() < fifo.get("teamA").mean());
+    assertTrue(weighted.get("teamA").mean() <= fair.get("teamA").mean());
+    // aging bounds how long the capped tenant waits behind the others.
+    assertTrue(aging.get("ci").max() <= weighted.get("ci").max());
+  }
+
+  /**
+   * @return the waits by tenant.
+   */
+  private Map<String, Waits> replay(NewSessionScheduler scheduler, final SimulatedClock clock) {
+    final Map<RequestHandler, Arrival> arrivals = new IdentityHashMap<RequestHandler, Arrival>();
+    final Map<String, Waits> waits = new TreeMap<String, Waits>();
+    // sessions running, by end time.
+    final PriorityQueue<Running> running = new PriorityQueue<Running>();
+
+    int next = 0;
+    while (next < trace.size() || !running.isEmpty() || scheduler.size() > 0) {
+      long nextArrival = next < trace.size() ? trace.get(next).time : Long.MAX_VALUE;
+      long nextEnd = running.isEmpty() ? Long.MAX_VALUE : running.peek().end;
+      clock.time = Math.min(nextArrival, nextEnd);
+
+      while (!running.isEmpty() && running.peek().end <= clock.time) {
+        scheduler.sessionEnded(running.poll().session);
+      }
+      while (next < trace.size() && trace.get(next).time <= clock.time) {
+        Arrival arrival = trace.get(next++);
+        RequestHandler request = GridHelper.createNewSessionHandler(registry, arrival.capabilities);
+        arrivals.put(request, arrival);
+        scheduler.add(request);
+      }
+      scheduler.process(new Predicate<RequestHandler>() {
+        public boolean apply(RequestHandler input) {
+          if (running.size() >= SLOTS) {
+            return false;
+          }
+          Arrival arrival = arrivals.remove(input);
+          TestSession session = new TestSession(null, arrival.capabilities, clock);
+          running.add(new Running(clock.time + arrival.duration, session));
+          String tenant = (String) arrival.capabilities.get("tenant");
+          if (!waits.containsKey(tenant)) {
+            waits.put(tenant, new Waits());
+          }
+          waits.get(tenant).add(clock.time - arrival.time);
+          return true;
+        }
+      }, null);
+    }
+    assertEquals(0, arrivals.size());
+    return waits;
+  }
+
+  private static void report(String name, Map<String, Waits> waits) {
+    StringBuilder b = new StringBuilder(name).append(" :");
+    for (Map.Entry<String, Waits> entry : waits.entrySet()) {
+      Waits w = entry.getValue();
+      b.append(String.format("\n  %-6s %3d sessions, wait mean %5ds, p90 %5ds, max %5ds",
+          entry.getKey(), w.count(), w.mean() / 1000, w.percentile(90) / 1000, w.max() / 1000));
+    }
+    log.info(b.toString());
+  }
+
+  private static List<Arrival> loadTrace() throws IOException {
+    InputStream in = Thread.currentThread().getContextClassLoader().getResourceAsStream(TRACE);
+    assertNotNull(TRACE + " not found", in);
+    List<Arrival> res = new ArrayList<Arrival>();
+    BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        if (line.length() == 0 || line.startsWith("#")) {
+          continue;
+        }
+        String[] fields = line.split("\\s+");
+        Map<String, Object> cap = new HashMap<String, Object>();
+        cap.put(APP, "firefox");
+        cap.put("tenant", fields[1]);
+        res.add(new Arrival(Long.parseLong(fields[0]) * 1000, cap,
+                            Long.parseLong(fields[2]) * 1000));
+      }
+    } finally {
+      reader.close();
+    }
+    return res;
+  }
+
+  private static class Arrival {
+
+    private final long time;
+    private final Map<String, Object> capabilities;
+    private final long duration;
+
+    Arrival(long time, Map<String, Object> capabilities, long duration) {
+      this.time = time;
+      this.capabilities = capabilities;
+      this.duration = duration;
+    }
+  }
+
+  private static class Running implements Comparable<Running> {
+
+    private final long end;
+    private final TestSession session;
+
+    Running(long end, TestSession session) {
+      this.end = end;
+      this.session = session;
+    }
+
+    public int compareTo(Running o) {
+      return end < o.end ? -1 : (end == o.end ? 0 : 1);
+    }
+  }
+
+  private static class Waits {
+
+    private final List<Long> values = new ArrayList<Long>();
+
+    void add(long wait) {
+      values.add(wait);
+    }
+
+    int count() {
+      return values.size();
+    }
+
+    long mean() {
+      long sum = 0;
+      for (long value : values) {
+        sum += value;
+      }
+      return sum / values.size();
+    }
+
+    long max() {
+      return Collections.max(values);
+    }
+
+    long percentile(int percentile) {
+      List<Long> sorted = new ArrayList<Long>(values);
+      Collections.sort(sorted);
+      return sorted.get((int) Math.ceil(sorted.size() * percentile / 100.0) - 1);
+    }
+  }
+
+  private static class SimulatedClock implements TimeSource {
+
+    private long time = 0;
+
+    public long currentTimeInMillis() {
+      return time;
+    }
+  }
+}
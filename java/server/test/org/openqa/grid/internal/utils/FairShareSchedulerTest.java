@@ -0,0 +1,234 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.openqa.grid.internal.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.openqa.grid.common.RegistrationRequest.APP;
+
+import com.google.common.base.Predicate;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openqa.grid.internal.Registry;
+import org.openqa.grid.internal.TestSession;
+import org.openqa.grid.internal.TestSessionTest.TestTimeSource;
+import org.openqa.grid.internal.listeners.Prioritizer;
+import org.openqa.grid.internal.mock.GridHelper;
+import org.openqa.grid.web.servlet.handler.RequestHandler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class FairShareSchedulerTest {
+
+  private static final Map<String, Integer> NONE = Collections.emptyMap();
+
+  private static final Prioritizer BY_PRIORITY = new Prioritizer() {
+    public int compareTo(Map<String, Object> a, Map<String, Object> b) {
+      return ((Integer) b.get("_priority")).compareTo((Integer) a.get("_priority"));
+    }
+  };
+
+  private static Registry registry;
+
+  @BeforeClass
+  public static void setup() {
+    registry = Registry.newInstance();
+  }
+
+  @AfterClass
+  public static void teardown() {
+    registry.stop();
+  }
+
+  @Test
+  public void firstInFirstOutByDefault() {
+    FairShareScheduler scheduler = new FairShareScheduler();
+    RequestHandler r1 = request("teamA", 1);
+    RequestHandler r2 = request("teamB", 1);
+    RequestHandler r3 = request("teamA", 1);
+    scheduler.add(r1);
+    scheduler.add(r2);
+    scheduler.add(r3);
+
+    assertEquals(Arrays.asList(r1, r2, r3), offered(scheduler, 0, null));
+    assertEquals(3, scheduler.size());
+    assertEquals(Arrays.asList(r1, r2, r3), scheduler.getRequests());
+  }
+
+  @Test
+  public void prioritizerOrdersTheRequests() {
+    FairShareScheduler scheduler = new FairShareScheduler();
+    RequestHandler low = request("teamA", 1);
+    RequestHandler high = request("teamA", 5);
+    scheduler.add(low);
+    scheduler.add(high);
+
+    assertEquals(Arrays.asList(high, low), offered(scheduler, 0, BY_PRIORITY));
+    // and back to arrival order without prioritizer.
+    assertEquals(Arrays.asList(low, high), offered(scheduler, 0, null));
+  }
+
+  @Test
+  public void tenantsShareTheSlotsByWeight() {
+    Map<String, Integer> weights = new HashMap<String, Integer>();
+    weights.put("teamA", 2);
+    FairShareScheduler scheduler =
+        new FairShareScheduler("team", weights, NONE, 0, new TestTimeSource());
+    for (int i = 0; i < 6; i++) {
+      scheduler.add(request("teamA", 1));
+    }
+    for (int i = 0; i < 6; i++) {
+      scheduler.add(request("teamB", 1));
+    }
+
+    offered(scheduler, 6, null);
+
+    assertEquals(4, scheduler.getRunningSessions("teamA"));
+    assertEquals(2, scheduler.getRunningSessions("teamB"));
+    assertEquals(6, scheduler.size());
+  }
+
+  @Test
+  public void tenantMaxSessionsIsEnforced() {
+    Map<String, Integer> max = new HashMap<String, Integer>();
+    max.put("teamA", 1);
+    FairShareScheduler scheduler = new FairShareScheduler("team", NONE, max, 0, new TestTimeSource());
+    RequestHandler r1 = request("teamA", 1);
+    RequestHandler r2 = request("teamA", 1);
+    scheduler.add(r1);
+    scheduler.add(r2);
+
+    assertEquals(Arrays.asList(r1), offered(scheduler, 10, null));
+    assertEquals(Collections.emptyList(), offered(scheduler, 10, null));
+
+    scheduler.sessionEnded(new TestSession(null, r1.getRequest().getDesiredCapabilities(),
+                                           new TestTimeSource()));
+    assertEquals(Arrays.asList(r2), offered(scheduler, 10, null));
+    assertEquals(0, scheduler.size());
+  }
+
+  @Test
+  public void agedRequestsGoFirst() {
+    TestTimeSource time = new TestTimeSource();
+    FairShareScheduler scheduler = new FairShareScheduler(null, NONE, NONE, 1000, time);
+    RequestHandler old = request("teamA", 1);
+    scheduler.add(old);
+    time.ensureElapsed(1000);
+    RequestHandler urgent = request("teamA", 5);
+    scheduler.add(urgent);
+
+    assertEquals(Arrays.asList(old, urgent), offered(scheduler, 0, BY_PRIORITY));
+  }
+
+  @Test
+  public void requestsYoungerThanTheAgingIntervalFollowThePriority() {
+    TestTimeSource time = new TestTimeSource();
+    FairShareScheduler scheduler = new FairShareScheduler(null, NONE, NONE, 1000, time);
+    time.ensureElapsed(980);
+    RequestHandler old = request("teamA", 1);
+    scheduler.add(old);
+    time.ensureElapsed(10);
+    RequestHandler urgent = request("teamA", 5);
+    scheduler.add(urgent);
+
+    assertEquals(Arrays.asList(urgent, old), offered(scheduler, 0, BY_PRIORITY));
+    time.ensureElapsed(990);
+    assertEquals(Arrays.asList(old, urgent), offered(scheduler, 0, BY_PRIORITY));
+  }
+
+  @Test
+  public void agedRequestsGoBeforeTheFairShare() {
+    TestTimeSource time = new TestTimeSource();
+    FairShareScheduler scheduler = new FairShareScheduler("team", NONE, NONE, 1000, time);
+    scheduler.add(request("teamA", 1));
+    offered(scheduler, 1, null);
+    RequestHandler old = request("teamA", 1);
+    scheduler.add(old);
+    time.ensureElapsed(1000);
+    RequestHandler recent = request("teamB", 1);
+    scheduler.add(recent);
+
+    assertEquals(Arrays.asList(old, recent), offered(scheduler, 0, null));
+  }
+
+  @Test
+  public void removeOnlyRemovesThatRequest() {
+    FairShareScheduler scheduler = new FairShareScheduler();
+    RequestHandler r1 = request("teamA", 1);
+    RequestHandler r2 = request("teamA", 1);
+    scheduler.add(r1);
+    scheduler.add(r2);
+
+    assertTrue(scheduler.remove(r2));
+    assertFalse(scheduler.remove(r2));
+    assertEquals(1, scheduler.size());
+    assertSame(r1, scheduler.getRequests().get(0));
+  }
+
+  @Test
+  public void configurationCreatesTheScheduler() {
+    GridHubConfiguration config = new GridHubConfiguration();
+    config.setTenantCapability("team");
+    config.setTenantMaxSessions(Collections.singletonMap("teamA", 1));
+    NewSessionScheduler scheduler = config.createNewSessionScheduler();
+    scheduler.add(request("teamA", 1));
+    scheduler.add(request("teamA", 1));
+
+    assertEquals(1, offered(scheduler, 10, null).size());
+  }
+
+  /**
+   * runs a pass on the scheduler, with that many free slots.
+   *
+   * @return the requests offered, in order.
+   */
+  private static List<RequestHandler> offered(NewSessionScheduler scheduler, final int slots,
+                                              Prioritizer prioritizer) {
+    final List<RequestHandler> res = new ArrayList<RequestHandler>();
+    scheduler.process(new Predicate<RequestHandler>() {
+      int free = slots;
+
+      public boolean apply(RequestHandler input) {
+        res.add(input);
+        if (free > 0) {
+          free--;
+          return true;
+        }
+        return false;
+      }
+    }, prioritizer);
+    return res;
+  }
+
+  private static RequestHandler request(String team, int priority) {
+    Map<String, Object> cap = new HashMap<String, Object>();
+    cap.put(APP, "firefox");
+    cap.put("team", team);
+    cap.put("_priority", priority);
+    return GridHelper.createNewSessionHandler(registry, cap);
+  }
+}
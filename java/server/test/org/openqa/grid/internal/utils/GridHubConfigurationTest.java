@@ -49,4 +49,24 @@ public class GridHubConfigurationTest {
     assertEquals(32123000, gridHubConfiguration.getTimeout());
     assertEquals(456000, gridHubConfiguration.getBrowserTimeout());
   }
+
+  @Test
+  public void asyncForwardingIsOptIn() throws Exception {
+    GridHubConfiguration gridHubConfiguration = new GridHubConfiguration();
+    assertEquals(false, gridHubConfiguration.isAsyncForwarding()); // From DefaultHub.json file
+    gridHubConfiguration.loadFromCommandLine("-asyncForwarding true".split(" "));
+    assertEquals(true, gridHubConfiguration.isAsyncForwarding());
+  }
+
+  @Test
+  public void tenantSettingsFromCommandLine() throws Exception {
+    GridHubConfiguration gridHubConfiguration = new GridHubConfiguration();
+    assertEquals(FairShareScheduler.class, gridHubConfiguration.getNewSessionScheduler());
+    assertEquals(null, gridHubConfiguration.getTenantCapability());
+    gridHubConfiguration.loadFromCommandLine(
+        "-tenantCapability team -tenantWeights ci:1,teamA:3 -tenantMaxSessions ci:5".split(" "));
+    assertEquals("team", gridHubConfiguration.getTenantCapability());
+    assertEquals(3, gridHubConfiguration.getTenantWeights().get("teamA").intValue());
+    assertEquals(5, gridHubConfiguration.getTenantMaxSessions().get("ci").intValue());
+  }
 }
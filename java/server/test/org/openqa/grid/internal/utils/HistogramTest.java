@@ -0,0 +1,65 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package org.openqa.grid.internal.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class HistogramTest {
+
+  @Test
+  public void emptyHistogram() {
+    Histogram histogram = new Histogram(new long[] {10, 100});
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getPercentile(99));
+  }
+
+  @Test
+  public void valuesGoToTheirBucket() {
+    Histogram histogram = new Histogram(new long[] {10, 100});
+    histogram.record(5);
+    histogram.record(10);
+    histogram.record(50);
+    histogram.record(500);
+
+    assertEquals(2, histogram.getBucketCount(0));
+    assertEquals(1, histogram.getBucketCount(1));
+    assertEquals(1, histogram.getBucketCount(2));
+    assertEquals(4, histogram.getCount());
+    assertEquals(565, histogram.getSum());
+    assertEquals(500, histogram.getMax());
+  }
+
+  @Test
+  public void percentilesAreTheBucketBounds() {
+    Histogram histogram = new Histogram(new long[] {10, 100});
+    for (int i = 0; i < 90; i++) {
+      histogram.record(1);
+    }
+    for (int i = 0; i < 9; i++) {
+      histogram.record(20);
+    }
+    histogram.record(1000);
+
+    assertEquals(10, histogram.getPercentile(50));
+    assertEquals(10, histogram.getPercentile(90));
+    assertEquals(100, histogram.getPercentile(99));
+    // above the last bucket, the max is the best estimate.
+    assertEquals(1000, histogram.getPercentile(100));
+  }
+}
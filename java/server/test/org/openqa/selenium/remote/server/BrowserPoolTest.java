@@ -0,0 +1,258 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.openqa.selenium.remote.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.After;
+import org.junit.Test;
+import org.openqa.selenium.Capabilities;
+import org.openqa.selenium.Cookie;
+import org.openqa.selenium.StubDriver;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.logging.Logs;
+import org.openqa.selenium.remote.DesiredCapabilities;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+public class BrowserPoolTest {
+
+  private final LaunchingFactory factory = new LaunchingFactory();
+  private BrowserPool pool;
+
+  @After
+  public void stopPool() {
+    if (pool != null) {
+      pool.stop();
+    }
+  }
+
+  @Test
+  public void onlyServesCapabilitiesAskingForNothingButABrowser() {
+    assertTrue(BrowserPool.isPlain(DesiredCapabilities.firefox()));
+    assertTrue(BrowserPool.isPlain(new DesiredCapabilities(ImmutableMap.of(
+        "browserName", "firefox", "version", "", "platform", "ANY", "javascriptEnabled", true))));
+
+    DesiredCapabilities withProfile = DesiredCapabilities.firefox();
+    withProfile.setCapability("firefox_profile", "UEsDBBQACAAIAA==");
+    assertFalse(BrowserPool.isPlain(withProfile));
+
+    DesiredCapabilities withVersion = DesiredCapabilities.firefox();
+    withVersion.setVersion("10");
+    assertFalse(BrowserPool.isPlain(withVersion));
+  }
+
+  @Test
+  public void handsOutReadyBrowsersAndLaunchesTheirReplacement() throws Exception {
+    pool = startPool(1);
+    waitForReady(1);
+    WebDriver ready = factory.launched.get(0);
+
+    assertSame(ready, pool.newInstance(DesiredCapabilities.firefox()));
+
+    waitForReady(1);
+    assertEquals(2, factory.launched.size());
+  }
+
+  @Test
+  public void launchesOtherBrowsersTheUsualWay() throws Exception {
+    pool = startPool(1);
+    waitForReady(1);
+
+    WebDriver driver = pool.newInstance(DesiredCapabilities.chrome());
+
+    assertNotSame(factory.launched.get(0), driver);
+    assertFalse(pool.release(driver));
+  }
+
+  @Test
+  public void resetsTheReleasedBrowsersAndHandsThemOutAgain() throws Exception {
+    factory.maxLaunches = 1;
+    pool = startPool(1);
+    waitForReady(1);
+    PooledDriver driver = (PooledDriver) pool.newInstance(DesiredCapabilities.firefox());
+    driver.get("http://www.example.com");
+
+    assertTrue(pool.release(driver));
+    waitForReady(1);
+
+    assertTrue(driver.cookiesDeleted);
+    assertEquals("about:blank", driver.url);
+    assertFalse(driver.quit);
+    assertSame(driver, pool.newInstance(DesiredCapabilities.firefox()));
+  }
+
+  @Test
+  public void quitsTheReleasedBrowsersWhenThePoolIsFull() throws Exception {
+    pool = startPool(1);
+    waitForReady(1);
+    PooledDriver driver = (PooledDriver) pool.newInstance(DesiredCapabilities.firefox());
+    waitForReady(1);
+
+    pool.release(driver);
+
+    waitFor(driver);
+    assertFalse(driver.cookiesDeleted);
+  }
+
+  @Test
+  public void quitsTheBrowsersWhichCannotBeReset() throws Exception {
+    factory.maxLaunches = 1;
+    pool = startPool(1);
+    waitForReady(1);
+    PooledDriver driver = (PooledDriver) pool.newInstance(DesiredCapabilities.firefox());
+    driver.broken = true;
+
+    pool.release(driver);
+
+    waitFor(driver);
+  }
+
+  @Test
+  public void quitsTheReadyBrowsersWhenStopped() throws Exception {
+    pool = startPool(2);
+    waitForReady(2);
+
+    pool.stop();
+
+    for (PooledDriver driver : factory.launched) {
+      assertTrue(driver.quit);
+    }
+  }
+
+  private BrowserPool startPool(int size) {
+    BrowserPool pool = new BrowserPool(factory, ImmutableMap.of("firefox", size));
+    pool.start();
+    return pool;
+  }
+
+  private void waitForReady(int count) throws InterruptedException {
+    long end = System.currentTimeMillis() + 5000;
+    while (pool.getReadyCount("firefox") != count && System.currentTimeMillis() < end) {
+      Thread.sleep(10);
+    }
+    assertEquals(count, pool.getReadyCount("firefox"));
+  }
+
+  private static void waitFor(PooledDriver driver) throws InterruptedException {
+    long end = System.currentTimeMillis() + 5000;
+    while (!driver.quit && System.currentTimeMillis() < end) {
+      Thread.sleep(10);
+    }
+    assertTrue("Should have been quit", driver.quit);
+  }
+
+  private static class LaunchingFactory extends StubDriverFactory {
+    private final List<PooledDriver> launched = new ArrayList<PooledDriver>();
+    private volatile int maxLaunches = Integer.MAX_VALUE;
+
+    @Override
+    public synchronized WebDriver newInstance(Capabilities capabilities) {
+      if (!"firefox".equals(capabilities.getBrowserName())) {
+        return super.newInstance(capabilities);
+      }
+      if (launched.size() >= maxLaunches) {
+        throw new WebDriverException("No more browsers");
+      }
+      PooledDriver driver = new PooledDriver();
+      launched.add(driver);
+      return driver;
+    }
+  }
+
+  private static class PooledDriver extends StubDriver {
+    private volatile String url;
+    private volatile boolean cookiesDeleted;
+    private volatile boolean quit;
+    private volatile boolean broken;
+
+    @Override
+    public void get(String url) {
+      this.url = url;
+    }
+
+    @Override
+    public Set<String> getWindowHandles() {
+      if (broken) {
+        throw new WebDriverException("The browser is gone");
+      }
+      return ImmutableSet.of("main");
+    }
+
+    @Override
+    public Options manage() {
+      return new Options() {
+        public void addCookie(Cookie cookie) {
+          throw new UnsupportedOperationException("addCookie");
+        }
+
+        public void deleteCookieNamed(String name) {
+          throw new UnsupportedOperationException("deleteCookieNamed");
+        }
+
+        public void deleteCookie(Cookie cookie) {
+          throw new UnsupportedOperationException("deleteCookie");
+        }
+
+        public void deleteAllCookies() {
+          cookiesDeleted = true;
+        }
+
+        public Set<Cookie> getCookies() {
+          throw new UnsupportedOperationException("getCookies");
+        }
+
+        public Cookie getCookieNamed(String name) {
+          throw new UnsupportedOperationException("getCookieNamed");
+        }
+
+        public Timeouts timeouts() {
+          throw new UnsupportedOperationException("timeouts");
+        }
+
+        public ImeHandler ime() {
+          throw new UnsupportedOperationException("ime");
+        }
+
+        public Window window() {
+          throw new UnsupportedOperationException("window");
+        }
+
+        public Logs logs() {
+          throw new UnsupportedOperationException("logs");
+        }
+      };
+    }
+
+    @Override
+    public void quit() {
+      quit = true;
+    }
+  }
+}
@@ -18,15 +18,20 @@ package org.openqa.selenium.remote.server;
 
 import com.google.common.base.Supplier;
 import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
 
 import junit.framework.Assert;
 
 import org.jmock.Expectations;
 import org.jmock.Mockery;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.junit.Before;
 import org.junit.Test;
+import org.openqa.selenium.By;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
 import org.openqa.selenium.remote.ErrorCodes;
 import org.openqa.selenium.remote.SessionId;
 import org.openqa.selenium.remote.server.testing.FakeHttpServletRequest;
@@ -175,6 +180,123 @@ public class DriverServletTest {
     assertTrue(value.getBoolean("version"));
   }
 
+  @Test
+  public void runsBatchedCommandsInOrderWithTheResultsOfThePreviousOnes()
+      throws IOException, ServletException, JSONException {
+    final SessionId sessionId = createSession();
+    final WebDriver driver = testSessions.get(sessionId).getDriver();
+    final WebElement first = mockery.mock(WebElement.class, "first");
+    final WebElement second = mockery.mock(WebElement.class, "second");
+
+    mockery.checking(new Expectations() {{
+      one(driver).get("http://www.google.com");
+      one(driver).findElements(By.tagName("td"));
+      will(returnValue(Lists.newArrayList(first, second)));
+      one(second).getText();
+      will(returnValue("cheese"));
+    }});
+
+    FakeHttpServletResponse response = sendCommand("POST",
+        String.format("/session/%s/batch", sessionId),
+        new JSONObject().put("commands", new JSONArray()
+            .put(batched("POST", "/session/%s/url", sessionId,
+                new JSONObject().put("url", "http://www.google.com")))
+            .put(batched("POST", "/session/%s/elements", sessionId,
+                new JSONObject().put("using", "tag name").put("value", "td")))
+            .put(batched("GET", "/session/%s/element/:id/text", sessionId,
+                new JSONObject().put("id", new JSONObject()
+                    .put("batchResult", 1)
+                    .put("select", new JSONArray().put(1)))))));
+
+    mockery.assertIsSatisfied();
+    assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+
+    JSONObject jsonResponse = new JSONObject(response.getBody());
+    assertEquals(ErrorCodes.SUCCESS, jsonResponse.getInt("status"));
+    JSONArray results = jsonResponse.getJSONArray("value");
+    assertEquals(3, results.length());
+    for (int i = 0; i < results.length(); i++) {
+      assertEquals(ErrorCodes.SUCCESS, results.getJSONObject(i).getInt("status"));
+    }
+    assertEquals(2, results.getJSONObject(1).getJSONArray("value").length());
+    assertEquals("cheese", results.getJSONObject(2).getString("value"));
+  }
+
+  @Test
+  public void stopsBatchAtTheFirstCommandWhichFails()
+      throws IOException, ServletException, JSONException {
+    final SessionId sessionId = createSession();
+
+    FakeHttpServletResponse response = sendCommand("POST",
+        String.format("/session/%s/batch", sessionId),
+        new JSONObject().put("commands", new JSONArray()
+            .put(batched("GET", "/session/%s/no_such_command", sessionId, new JSONObject()))
+            .put(batched("POST", "/session/%s/url", sessionId,
+                new JSONObject().put("url", "http://www.google.com")))));
+
+    mockery.assertIsSatisfied();
+    assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+
+    JSONArray results = new JSONObject(response.getBody()).getJSONArray("value");
+    assertEquals(1, results.length());
+    assertEquals(ErrorCodes.UNKNOWN_COMMAND, results.getJSONObject(0).getInt("status"));
+  }
+
+  @Test
+  public void reportsAMissingResultAsTheFailureOfTheCommandUsingIt()
+      throws IOException, ServletException, JSONException {
+    final SessionId sessionId = createSession();
+    final WebDriver driver = testSessions.get(sessionId).getDriver();
+
+    mockery.checking(new Expectations() {{
+      one(driver).findElements(By.tagName("td"));
+      will(returnValue(Lists.newArrayList()));
+    }});
+
+    FakeHttpServletResponse response = sendCommand("POST",
+        String.format("/session/%s/batch", sessionId),
+        new JSONObject().put("commands", new JSONArray()
+            .put(batched("POST", "/session/%s/elements", sessionId,
+                new JSONObject().put("using", "tag name").put("value", "td")))
+            .put(batched("GET", "/session/%s/element/:id/text", sessionId,
+                new JSONObject().put("id", new JSONObject()
+                    .put("batchResult", 0)
+                    .put("select", new JSONArray().put(0)))))));
+
+    mockery.assertIsSatisfied();
+    assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+
+    JSONArray results = new JSONObject(response.getBody()).getJSONArray("value");
+    assertEquals(2, results.length());
+    JSONObject failed = results.getJSONObject(1);
+    assertEquals(ErrorCodes.UNHANDLED_ERROR, failed.getInt("status"));
+    assertEquals(sessionId.toString(), failed.getString("sessionId"));
+    assertTrue(failed.getJSONObject("value").getString("message").contains("has nothing at"));
+  }
+
+  @Test
+  public void reportsBadRequestForBatchedCommandsUsingLaterResults()
+      throws IOException, ServletException, JSONException {
+    final SessionId sessionId = createSession();
+
+    FakeHttpServletResponse response = sendCommand("POST",
+        String.format("/session/%s/batch", sessionId),
+        new JSONObject().put("commands", new JSONArray()
+            .put(batched("GET", "/session/%s/element/:id/text", sessionId,
+                new JSONObject().put("id", new JSONObject().put("batchResult", 0))))));
+
+    mockery.assertIsSatisfied();
+    assertEquals(HttpServletResponse.SC_BAD_REQUEST, response.getStatus());
+  }
+
+  private static JSONObject batched(String method, String path, SessionId sessionId,
+      JSONObject parameters) throws JSONException {
+    return new JSONObject()
+        .put("method", method)
+        .put("path", String.format(path, sessionId))
+        .put("parameters", parameters);
+  }
+
   private SessionId createSession() throws IOException, ServletException {
     FakeHttpServletResponse response = sendCommand("POST", "/session", null);
 
@@ -0,0 +1,111 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.openqa.selenium.remote.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.jmock.integration.junit4.JUnit4Mockery;
+import org.junit.Test;
+import org.openqa.selenium.StaleElementReferenceException;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.remote.RemoteWebElement;
+
+public class KnownElementsTest {
+
+  private final JUnit4Mockery context = new JUnit4Mockery();
+
+  @Test
+  public void givesTheSameIdToTheSameElement() {
+    KnownElements known = new KnownElements();
+    WebElement element = context.mock(WebElement.class);
+
+    String id = known.add(element);
+
+    assertEquals(id, known.add(element));
+    assertEquals(1, known.size());
+  }
+
+  @Test
+  public void tellsRemoteElementsApartByTheirIdWithoutComparingThem() {
+    KnownElements known = new KnownElements();
+
+    String id = known.add(remoteElement("a"));
+
+    assertEquals(id, known.add(remoteElement("a")));
+    assertFalse(id.equals(known.add(remoteElement("b"))));
+  }
+
+  @Test
+  public void forgetsTheLeastRecentlyUsedElements() {
+    KnownElements known = new KnownElements(2);
+    String first = known.add(context.mock(WebElement.class, "first"));
+    String second = known.add(context.mock(WebElement.class, "second"));
+
+    known.get(first);
+    known.add(context.mock(WebElement.class, "third"));
+
+    assertEquals(2, known.size());
+    known.get(first);
+    assertStale(known, second);
+  }
+
+  @Test
+  public void reportsUnknownElementsAsStale() {
+    assertStale(new KnownElements(), "12");
+  }
+
+  @Test
+  public void returnsElementsWrappingTheOnesAdded() {
+    KnownElements known = new KnownElements();
+    WebElement element = context.mock(WebElement.class);
+
+    WebElement proxy = known.get(known.add(element));
+
+    assertTrue(proxy instanceof KnownElements.ProxiedElement);
+    assertEquals(element, ((KnownElements.ProxiedElement) proxy).getWrappedElement());
+  }
+
+  private static void assertStale(KnownElements known, String id) {
+    try {
+      known.get(id);
+      fail("Should have been stale: " + id);
+    } catch (StaleElementReferenceException expected) {
+    }
+  }
+
+  private static RemoteWebElement remoteElement(String id) {
+    RemoteWebElement element = new RemoteWebElement() {
+      @Override
+      public boolean equals(Object obj) {
+        fail("Remote elements should not be compared");
+        return false;
+      }
+
+      @Override
+      public int hashCode() {
+        return 0;
+      }
+    };
+    element.setId(id);
+    return element;
+  }
+}
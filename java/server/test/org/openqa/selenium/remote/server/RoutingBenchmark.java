@@ -0,0 +1,165 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.openqa.selenium.remote.server;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+import org.jmock.Mockery;
+import org.junit.Before;
+import org.junit.Test;
+import org.openqa.selenium.remote.DesiredCapabilities;
+import org.openqa.selenium.remote.SessionId;
+import org.openqa.selenium.remote.server.rest.ResultConfig;
+import org.openqa.selenium.remote.server.rest.UrlMapper;
+import org.openqa.selenium.remote.server.testing.TestSessions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Measures how long the server takes to find the config of a command and to build its handler,
+ * for every route of {@link JsonHttpRemoteConfig}. The lookup in the trie is compared with going
+ * through the configs one by one, the way it used to be done. Not part of the test suites, run it
+ * on its own.
+ */
+public class RoutingBenchmark {
+
+  private static final Logger log = Logger.getLogger(RoutingBenchmark.class.getName());
+
+  private static final int ROUNDS = 2000;
+
+  private final List<UrlMapper> mappers = new ArrayList<UrlMapper>();
+  private final List<String> paths = new ArrayList<String>();
+  private SessionId sessionId;
+
+  @Before
+  public void bindAllRoutes() throws Exception {
+    TestSessions sessions = new TestSessions(new Mockery());
+    sessionId = sessions.newSession(DesiredCapabilities.firefox());
+    JsonHttpRemoteConfig config = new JsonHttpRemoteConfig(sessions, log);
+
+    for (String method : new String[] {"GET", "POST", "DELETE"}) {
+      UrlMapper mapper = config.getUrlMapper(method);
+      for (ResultConfig route : mapper.getConfigs()) {
+        mappers.add(mapper);
+        paths.add(toPath(route.getUrl()));
+      }
+    }
+  }
+
+  @Test
+  public void findRoutes() {
+    for (int i = 0; i < paths.size(); i++) {
+      assertSame(findOneByOne(mappers.get(i), paths.get(i)),
+                 mappers.get(i).getConfig(paths.get(i)));
+    }
+
+    time("find the config", new Runnable() {
+      public void run() {
+        for (int i = 0; i < paths.size(); i++) {
+          mappers.get(i).getConfig(ResultConfig.splitPath(paths.get(i)));
+        }
+      }
+    }, new Runnable() {
+      public void run() {
+        for (int i = 0; i < paths.size(); i++) {
+          findOneByOne(mappers.get(i), paths.get(i));
+        }
+      }
+    });
+  }
+
+  @Test
+  public void buildHandlers() throws Exception {
+    final List<ResultConfig> configs = new ArrayList<ResultConfig>();
+    for (int i = 0; i < paths.size(); i++) {
+      configs.add(mappers.get(i).getConfig(paths.get(i)));
+      assertNotNull(paths.get(i), configs.get(i).getHandler(paths.get(i), sessionId));
+    }
+
+    time("build the handler", new Runnable() {
+      public void run() {
+        try {
+          for (int i = 0; i < paths.size(); i++) {
+            configs.get(i).getHandler(paths.get(i), sessionId);
+          }
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }
+    }, null);
+  }
+
+  private static ResultConfig findOneByOne(UrlMapper mapper, String path) {
+    for (ResultConfig config : mapper.getConfigs()) {
+      if (config.isFor(path)) {
+        return config;
+      }
+    }
+    return null;
+  }
+
+  private String toPath(String url) {
+    StringBuilder path = new StringBuilder();
+    for (String segment : ResultConfig.splitPath(url)) {
+      if (path.length() > 0 || segment.length() > 0) {
+        path.append("/");
+      }
+      if (":sessionId".equals(segment)) {
+        path.append(sessionId);
+      } else if (segment.startsWith(":")) {
+        path.append("1");
+      } else {
+        path.append(segment);
+      }
+    }
+    return path.length() == 0 ? "/" : path.toString();
+  }
+
+  private void time(String what, Runnable current, Runnable previous) {
+    for (int i = 0; i < ROUNDS / 10; i++) {
+      current.run();
+      if (previous != null) {
+        previous.run();
+      }
+    }
+
+    long start = System.nanoTime();
+    for (int i = 0; i < ROUNDS; i++) {
+      current.run();
+    }
+    double perRoute = (System.nanoTime() - start) / (double) ROUNDS / paths.size();
+
+    if (previous == null) {
+      log.info(String.format("%s of %d routes : %.0f ns per route", what, paths.size(), perRoute));
+      return;
+    }
+
+    start = System.nanoTime();
+    for (int i = 0; i < ROUNDS; i++) {
+      previous.run();
+    }
+    double perRouteBefore = (System.nanoTime() - start) / (double) ROUNDS / paths.size();
+    log.info(String.format(
+        "%s of %d routes : %.0f ns per route, %.0f ns one config after the other",
+        what, paths.size(), perRoute, perRouteBefore));
+  }
+}
@@ -20,6 +20,7 @@ package org.openqa.selenium.remote.server;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 import org.openqa.selenium.remote.server.handler.UploadFileTest;
+import org.openqa.selenium.remote.server.renderer.PngResultTest;
 import org.openqa.selenium.remote.server.rest.ResultConfigTest;
 import org.openqa.selenium.remote.server.rest.UrlMapperTest;
 import org.openqa.selenium.remote.server.xdrpc.CrossDomainRpcLoaderTest;
@@ -28,6 +29,7 @@ import org.openqa.selenium.remote.server.xdrpc.HttpServletRequestProxyTest;
 
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
+    BrowserPoolTest.class,
     CapabilitiesComparatorTest.class,
     CrossDomainRpcLoaderTest.class,
     CrossDomainRpcRendererTest.class,
@@ -36,6 +38,8 @@ import org.openqa.selenium.remote.server.xdrpc.HttpServletRequestProxyTest;
     DriverServletTest.class,
     DriverSessionTest.class,
     HttpServletRequestProxyTest.class,
+    KnownElementsTest.class,
+    PngResultTest.class,
     RemoteWebDriverScreenshotTest.class,
     RemoteWebDriverTest.class,
     ResultConfigTest.class,
@@ -17,6 +17,7 @@ limitations under the License.
 
 package org.openqa.selenium.remote.server.handler;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -35,6 +36,7 @@ import org.openqa.selenium.remote.SessionId;
 import org.openqa.selenium.remote.server.DefaultSession;
 import org.openqa.selenium.remote.server.Session;
 import org.openqa.selenium.remote.server.StubDriverFactory;
+import org.openqa.selenium.remote.server.UploadCache;
 
 import java.io.File;
 import java.io.IOException;
@@ -98,6 +100,37 @@ public class UploadFileTest {
     }
   }
 
+  @Test
+  public void shouldCopyAFileUploadedBeforeWhenSentByHash() throws Exception {
+    Session session = DefaultSession.createSession(driverFactory, tempFs, sessionId, DesiredCapabilities.firefox());
+    File tempFile = touch(null, "foo");
+    Files.append(tempFile.getName(), tempFile, Charsets.UTF_8);
+    String encoded = new Zip().zipFile(tempFile.getParentFile(), tempFile);
+
+    UploadFile uploadFile = new UploadFile(session);
+    uploadFile.setJsonParameters(ImmutableMap.of("file", (Object) encoded));
+    uploadFile.call();
+
+    UploadFile byHash = new UploadFile(session);
+    byHash.setJsonParameters(ImmutableMap.<String, Object>of(
+        "sha1", UploadCache.hash(tempFile), "name", "renamed.txt"));
+    byHash.call();
+    File uploaded = new File((String) byHash.getResponse().getValue());
+
+    assertEquals("renamed.txt", uploaded.getName());
+    assertEquals(Files.toString(tempFile, Charsets.UTF_8), Files.toString(uploaded, Charsets.UTF_8));
+  }
+
+  @Test(expected = WebDriverException.class)
+  public void shouldThrowAnExceptionIfTheFileSentByHashIsUnknown() throws Exception {
+    Session session = DefaultSession.createSession(driverFactory, tempFs, sessionId, DesiredCapabilities.firefox());
+
+    UploadFile uploadFile = new UploadFile(session);
+    uploadFile.setJsonParameters(ImmutableMap.<String, Object>of(
+        "sha1", "0123456789abcdef0123456789abcdef01234567", "name", "foo.txt"));
+    uploadFile.call();
+  }
+
   private File touch(File baseDir, String stem) throws IOException {
     File tempFile = File.createTempFile(stem, ".txt", baseDir);
     tempFile.deleteOnExit();
@@ -0,0 +1,65 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.openqa.selenium.remote.server.renderer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.openqa.selenium.internal.Base64Encoder;
+import org.openqa.selenium.remote.Response;
+import org.openqa.selenium.remote.server.FakeHttpRequest;
+import org.openqa.selenium.remote.server.FakeHttpResponse;
+
+public class PngResultTest {
+
+  private static final byte[] PNG = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n', 0, 0};
+
+  @Test
+  public void decodesTheBase64OfTheDriver() throws Exception {
+    FakeHttpResponse response = render(new Base64Encoder().encode(PNG));
+
+    assertArrayEquals(PNG, response.getContent());
+    assertEquals("image/png", response.getContentType());
+    assertTrue(response.isTerminated());
+  }
+
+  @Test
+  public void sendsBytesAsTheyAre() throws Exception {
+    assertArrayEquals(PNG, render(PNG).getContent());
+  }
+
+  @Test
+  public void sendsTheValueOfAResponse() throws Exception {
+    Response result = new Response();
+    result.setValue(new Base64Encoder().encode(PNG));
+
+    assertArrayEquals(PNG, render(result).getContent());
+  }
+
+  private FakeHttpResponse render(Object result) throws Exception {
+    FakeHttpRequest request = new FakeHttpRequest();
+    request.setAttribute("response", result);
+    FakeHttpResponse response = new FakeHttpResponse();
+
+    new PngResult(":response").render(request, response, null);
+    return response;
+  }
+}
@@ -35,6 +35,7 @@ import java.util.logging.Logger;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
@@ -101,6 +102,16 @@ public class ResultConfigTest {
     assertThat(handler.getBar(), is("fishy"));
   }
 
+  @Test
+  public void testSplitsPathsLikeStringSplit() {
+    String[] paths = {"", "/", "//", "fish", "/fish", "/fish/", "/foo//bar", "/foo/bar//",
+                      "foo/bar", "/session/1234/element/5/attribute/href"};
+    for (String path : paths) {
+      assertArrayEquals(path, path.split("/"), ResultConfig.splitPath(path));
+    }
+    assertEquals(0, ResultConfig.splitPath(null).length);
+  }
+
   @SuppressWarnings({"ThrowableResultOfMethodCallIgnored"})
   @Test
   public void testShouldGracefullyHandleNullInputs() {
@@ -223,6 +234,42 @@ public class ResultConfigTest {
     assertEquals(mockRenderer2, config.getRenderer(ResultType.SUCCESS, mockRequest));
   }
 
+  @Test
+  public void testSelectsPreferredRendererWhenItsMimeTypeIsAcceptedFirst() {
+    Renderer mockRenderer1 = context.mock(Renderer.class, "renderer1");
+    Renderer mockRenderer2 = context.mock(Renderer.class, "renderer2");
+    final HttpRequest mockRequest = context.mock(HttpRequest.class);
+
+    context.checking(new Expectations() {{
+      allowing(mockRequest).getHeader("Accept");
+      will(returnValue("image/png, application/json"));
+    }});
+
+    ResultConfig config = new ResultConfig("/foo/:bar", StubHandler.class, null, logger)
+        .on(ResultType.SUCCESS, mockRenderer1)
+        .on(ResultType.SUCCESS, new PreferredResult("image/png", mockRenderer2));
+
+    assertEquals(mockRenderer2, config.getRenderer(ResultType.SUCCESS, mockRequest));
+  }
+
+  @Test
+  public void testSkipsPreferredRendererWhenItsMimeTypeIsNotAcceptedFirst() {
+    Renderer mockRenderer1 = context.mock(Renderer.class, "renderer1");
+    Renderer mockRenderer2 = context.mock(Renderer.class, "renderer2");
+    final HttpRequest mockRequest = context.mock(HttpRequest.class);
+
+    context.checking(new Expectations() {{
+      allowing(mockRequest).getHeader("Accept");
+      will(returnValue("application/json,image/png"));
+    }});
+
+    ResultConfig config = new ResultConfig("/foo/:bar", StubHandler.class, null, logger)
+        .on(ResultType.SUCCESS, mockRenderer1)
+        .on(ResultType.SUCCESS, new PreferredResult("image/png", mockRenderer2));
+
+    assertEquals(mockRenderer1, config.getRenderer(ResultType.SUCCESS, mockRequest));
+  }
+
   private void exceptionWasExpected() {
   }
 
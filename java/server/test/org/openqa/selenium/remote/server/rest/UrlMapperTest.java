@@ -33,6 +33,7 @@ import java.util.logging.Logger;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 
 public class UrlMapperTest {
@@ -71,6 +72,26 @@ public class UrlMapperTest {
     assertThat(handler.getSessions(), is(notNullValue()));
   }
 
+  @Test
+  public void testPrefersTheConfigBoundFirstWhenSeveralMatch() throws Exception {
+    mapper.bind("/foo/baz", StubHandler.class);
+    mapper.bind("/foo/:bar", SessionHandler.class);
+
+    assertEquals("/foo/baz", mapper.getConfig("/foo/baz").getUrl());
+    assertEquals("/foo/:bar", mapper.getConfig("/foo/cheese").getUrl());
+    assertNull(mapper.getConfig("/foo/cheese/more"));
+  }
+
+  @Test
+  public void testReplacesTheConfigMatchingTheUrlBound() throws Exception {
+    mapper.bind("/foo/:bar", SessionHandler.class);
+    mapper.bind("/foo/baz", StubHandler.class);
+
+    assertEquals("/foo/baz", mapper.getConfig("/foo/baz").getUrl());
+    assertNull(mapper.getConfig("/foo/cheese"));
+    assertEquals(1, mapper.getConfigs().size());
+  }
+
   @Test
   public void testAppliesGlobalHandlersToNewConfigs() {
     Renderer renderer = new StubRenderer();
@@ -0,0 +1,162 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.openqa.selenium.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openqa.selenium.browserlaunchers.LauncherUtils;
+import org.openqa.selenium.security.CertificateGenerator;
+import org.openqa.selenium.security.KeyAndCert;
+import org.openqa.selenium.server.browserlaunchers.ResourceExtractor;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class CertificateCacheUnitTest {
+
+  private static final String CRL =
+      "http://127.0.0.1:4444/selenium-server/sslSupport/blank_crl.pem";
+
+  private static CertificateGenerator generator;
+
+  private final File root = Files.createTempDir();
+
+  @BeforeClass
+  public static void readSigningCertificate() throws Exception {
+    File sslSupport = Files.createTempDir();
+    try {
+      ResourceExtractor.extractResourcePath(CertificateCacheUnitTest.class, "/sslSupport",
+          sslSupport);
+      generator = new CertificateGenerator(sslSupport);
+    } finally {
+      LauncherUtils.recursivelyDeleteDir(sslSupport);
+    }
+  }
+
+  @After
+  public void deleteCache() {
+    LauncherUtils.recursivelyDeleteDir(root);
+  }
+
+  @Test
+  public void generatesACertificateOnceAndKeepsItOnDisk() throws Exception {
+    CertificateCache cache = new CertificateCache(root, generator, CRL, false);
+    KeyAndCert certificate = cache.getCertificate("www.example.com");
+    assertSame(certificate, cache.getCertificate("WWW.example.com"));
+    assertTrue(certificate.getCertificate().getSubjectX500Principal().getName()
+        .startsWith("CN=www.example.com,"));
+    assertEquals(generator.getSigningCertificate(), certificate.getCertificateChain()[1]);
+    assertTrue(cache.getFile("www.example.com").exists());
+
+    KeyAndCert read = new CertificateCache(root, generator, CRL, false)
+        .getCertificate("www.example.com");
+    assertArrayEquals(certificate.getCertificate().getEncoded(),
+        read.getCertificate().getEncoded());
+    assertArrayEquals(certificate.getPrivateKey().getEncoded(),
+        read.getPrivateKey().getEncoded());
+  }
+
+  @Test
+  public void theHostsOfADomainShareAWildcardCertificate() {
+    CertificateCache cache = new CertificateCache(root, generator, CRL, true);
+    assertEquals("*.example.com", cache.getAlias("www.example.com"));
+    assertEquals("example.com", cache.getAlias("example.com"));
+    assertEquals("192.168.0.1", cache.getAlias("192.168.0.1"));
+
+    KeyAndCert certificate = cache.getCertificate("www.example.com");
+    assertSame(certificate, cache.getCertificate("static.example.com"));
+    assertTrue(certificate.getCertificate().getSubjectX500Principal().getName()
+        .startsWith("CN=*.example.com,"));
+    assertTrue(cache.getFile("*.example.com").exists());
+    assertFalse(cache.getFile("*.example.com").equals(cache.getFile("_.example.com")));
+  }
+
+  @Test
+  public void replacesAFileItCannotRead() throws Exception {
+    CertificateCache cache = new CertificateCache(root, generator, CRL, false);
+    File file = cache.getFile("www.example.com");
+    Files.write("not a key store", file, Charsets.UTF_8);
+
+    KeyAndCert certificate = cache.getCertificate("www.example.com");
+
+    KeyAndCert read = new CertificateCache(root, generator, CRL, false)
+        .getCertificate("www.example.com");
+    assertArrayEquals(certificate.getCertificate().getEncoded(),
+        read.getCertificate().getEncoded());
+  }
+
+  @Test
+  public void keepsTheCertificatesOfAnotherRevocationListApart() throws Exception {
+    KeyAndCert certificate = new CertificateCache(root, generator, CRL, false)
+        .getCertificate("www.example.com");
+    KeyAndCert other = new CertificateCache(root, generator, CRL.replace("4444", "5555"), false)
+        .getCertificate("www.example.com");
+
+    assertFalse(certificate.getCertificate().equals(other.getCertificate()));
+    assertEquals(2, root.listFiles().length);
+  }
+
+  @Test
+  public void generatesACertificateOnceForConcurrentRequests() throws Exception {
+    final CertificateCache cache = new CertificateCache(root, generator, CRL, false);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<KeyAndCert>> certificates = new ArrayList<Future<KeyAndCert>>();
+      for (int i = 0; i < 8; i++) {
+        certificates.add(executor.submit(new Callable<KeyAndCert>() {
+          public KeyAndCert call() {
+            return cache.getCertificate("www.example.com");
+          }
+        }));
+      }
+      for (Future<KeyAndCert> certificate : certificates) {
+        assertSame(certificates.get(0).get(), certificate.get());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void generatesCertificatesInTheBackground() throws Exception {
+    CertificateCache cache = new CertificateCache(root, generator, CRL, false);
+    cache.generateInBackground(ImmutableList.of("one.example.com", "two.example.com"))
+        .get(1, TimeUnit.MINUTES);
+
+    assertTrue(cache.getFile("one.example.com").exists());
+    assertTrue(cache.getFile("two.example.com").exists());
+  }
+}
@@ -22,6 +22,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.openqa.selenium.server.log.LoggingManager;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -59,4 +60,31 @@ public class HtmlIdentifierTest {
     assertFalse("improper injection", result);
   }
 
+
+  @Test
+  public void testContentGivenAsBytesScoresTheSameAsText() {
+    String[] previews = {
+        "<HTML><Head><title>x</title></head></HTML>",
+        "var x = ''; someOtherJavaScript++; blahblahblah;",
+        "\u00e9t\u00e9 <!doctype HTML>",
+        ""};
+    for (String preview : previews) {
+      byte[] bytes = ("xx" + preview + "yy").getBytes();
+      int length = bytes.length - 4;
+      for (String path : new String[] {"/page", "/page.js", "/page.html"}) {
+        assertEquals(preview + " at " + path,
+            HtmlIdentifier.shouldBeInjected(path, "text/html", preview),
+            HtmlIdentifier.shouldBeInjected(path, "text/html", bytes, 2, length));
+      }
+    }
+  }
+
+  @Test
+  public void testLooksForTextInBytesIgnoringItsCase() {
+    byte[] bytes = "<html><HeAd>".getBytes();
+    assertEquals(6, HtmlIdentifier.indexOfIgnoreCase(bytes, 0, bytes.length, "<head>"));
+    assertEquals(-1, HtmlIdentifier.indexOfIgnoreCase(bytes, 0, bytes.length - 1, "<head>"));
+    assertEquals(-1, HtmlIdentifier.indexOfIgnoreCase(bytes, 7, bytes.length, "<head>"));
+    assertEquals(0, HtmlIdentifier.indexOfIgnoreCase(bytes, 0, bytes.length, "<HTML".toLowerCase()));
+  }
 }
@@ -0,0 +1,116 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.openqa.selenium.server;
+
+import com.google.common.io.Files;
+
+import org.junit.Test;
+import org.openqa.selenium.testing.InProject;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Throughput of the script injection over the pages of the web test suite, streamed as bytes or
+ * decoded and rebuilt as a String, the way every page was before and still is when there are user
+ * content transformations. Both look for the page's &lt;head&gt; in its first 100 KB. Not part of
+ * the test suites, run it on its own.
+ */
+public class InjectionBenchmark {
+
+  private static final Logger log = Logger.getLogger(InjectionBenchmark.class.getName());
+
+  private static final int PREVIEW = 102400;
+  private static final int WARMUP_ROUNDS = 20;
+  private static final int MEASURED_ROUNDS = 100;
+  private static final byte[] INJECTION = new byte[4096];
+
+  @Test
+  public void injectIntoTestPages() throws Exception {
+    File[] files = InProject.locate("common/src/web").listFiles(new FilenameFilter() {
+      public boolean accept(File dir, String name) {
+        return name.endsWith(".html");
+      }
+    });
+    List<byte[]> pages = new ArrayList<byte[]>();
+    long size = 0;
+    for (File file : files) {
+      byte[] page = Files.toByteArray(file);
+      pages.add(page);
+      size += page.length;
+    }
+
+    long streaming = 0;
+    long string = 0;
+    for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+      long start = System.nanoTime();
+      for (byte[] page : pages) {
+        inject(page, true);
+      }
+      long middle = System.nanoTime();
+      for (byte[] page : pages) {
+        inject(page, false);
+      }
+      if (round >= WARMUP_ROUNDS) {
+        streaming += middle - start;
+        string += System.nanoTime() - middle;
+      }
+    }
+
+    log.info(String.format("%d pages, %d KB : %.1f MB/s streamed, %.1f MB/s as a String",
+        pages.size(), size / 1024, throughput(size, streaming), throughput(size, string)));
+  }
+
+  private static double throughput(long size, long nanos) {
+    return (double) size * MEASURED_ROUNDS / (1024 * 1024) / (nanos / 1000000000.0);
+  }
+
+  private static void inject(byte[] page, boolean streaming) throws IOException {
+    ByteArrayInputStream in = new ByteArrayInputStream(page);
+    byte[] buffer = new byte[PREVIEW];
+    int length = in.read(buffer, 0, PREVIEW);
+    OutputStream out = new NullOutputStream();
+    if (streaming) {
+      if (HtmlIdentifier.shouldBeInjected("/page", "text/html", buffer, 0, length)) {
+        InjectionHelper.writeInjected(buffer, 0, length, INJECTION, true, in, out);
+      }
+    } else {
+      if (HtmlIdentifier.shouldBeInjected("/page", "text/html", new String(buffer, 0, length))) {
+        InjectionHelper.writeInjectedWithUserTransformations(buffer, 0, length, INJECTION, true,
+            in, out);
+      }
+    }
+  }
+
+  private static class NullOutputStream extends OutputStream {
+    @Override
+    public void write(int b) {
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+    }
+  }
+}
@@ -0,0 +1,94 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.openqa.selenium.server;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+public class InjectionHelperUnitTest {
+
+  private static final byte[] INJECTION = "<script>selenium</script>".getBytes();
+  private static final byte[] BOM = {(byte) 0xef, (byte) 0xbb, (byte) 0xbf};
+
+  @Test
+  public void injectsAtTheStartOfThePage() throws IOException {
+    assertEquals("<script>selenium</script><html><head></head><body>text</body></html>",
+        inject("<html><head></head>", "<body>text</body></html>", false, false));
+  }
+
+  @Test
+  public void injectsAfterTheHeadTagWhateverItsCase() throws IOException {
+    assertEquals("<html><HEAD><script>selenium</script></HEAD><body>text</body></html>",
+        inject("<html><HEAD></HEAD>", "<body>text</body></html>", true, false));
+  }
+
+  @Test
+  public void injectsAtTheStartWhenTheHeadTagIsNotInTheStartOfThePage() throws IOException {
+    assertEquals("<script>selenium</script><html><body>text<head></head></body></html>",
+        inject("<html><body>text", "<head></head></body></html>", true, false));
+  }
+
+  @Test
+  public void keepsTheByteOrderMarkBeforeTheHeadTag() throws IOException {
+    String page = inject("<html><head></head>", "</html>", true, true);
+    assertEquals(
+        new String(BOM, "ISO-8859-1") + "<html><head><script>selenium</script></head></html>",
+        page);
+  }
+
+  @Test
+  public void dropsTheByteOrderMarkWhenInjectingAtTheStart() throws IOException {
+    assertEquals("<script>selenium</script><html></html>",
+        inject("<html>", "</html>", false, true));
+  }
+
+  @Test
+  public void injectsTheSameWayWithTheUserContentTransformationsPath() throws IOException {
+    for (boolean inHead : new boolean[] {true, false}) {
+      byte[] buffer = "<html><HEAD></HEAD>".getBytes();
+      ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+      InjectionHelper.writeInjected(buffer, 0, buffer.length, INJECTION, inHead,
+          new ByteArrayInputStream("<body/></html>".getBytes()), streamed);
+      ByteArrayOutputStream transformed = new ByteArrayOutputStream();
+      InjectionHelper.writeInjectedWithUserTransformations(buffer, 0, buffer.length, INJECTION,
+          inHead, new ByteArrayInputStream("<body/></html>".getBytes()), transformed);
+      assertEquals(transformed.toString(), streamed.toString());
+    }
+  }
+
+  private static String inject(String start, String rest, boolean inHead, boolean withBom)
+      throws IOException {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    if (withBom) {
+      buffer.write(BOM);
+    }
+    buffer.write(start.getBytes("ISO-8859-1"));
+    byte[] bytes = buffer.toByteArray();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    long read = InjectionHelper.writeInjected(bytes, withBom ? BOM.length : 0, bytes.length,
+        INJECTION, inHead, new ByteArrayInputStream(rest.getBytes("ISO-8859-1")), out);
+    assertEquals(rest.length(), read);
+    return out.toString("ISO-8859-1");
+  }
+}
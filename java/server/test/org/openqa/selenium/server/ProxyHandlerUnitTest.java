@@ -17,18 +17,39 @@ limitations under the License.
 
 package org.openqa.selenium.server;
 
+import com.google.common.io.Files;
+
 import org.junit.Test;
 import org.openqa.jetty.http.HttpRequest;
 import org.openqa.jetty.http.HttpResponse;
+import org.openqa.jetty.http.HttpServer;
 import org.openqa.jetty.util.URI;
+import org.openqa.selenium.browserlaunchers.LauncherUtils;
+import org.openqa.selenium.net.PortProber;
+import org.openqa.selenium.security.CertificateGenerator;
+import org.openqa.selenium.server.browserlaunchers.ResourceExtractor;
+import org.seleniumhq.jetty7.server.Server;
+import org.seleniumhq.jetty7.servlet.ServletContextHandler;
+import org.seleniumhq.jetty7.servlet.ServletHolder;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URL;
+import java.security.cert.X509Certificate;
+
+import javax.net.ssl.SSLSocket;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import static org.easymock.EasyMock.expectLastCall;
 import static org.easymock.classextension.EasyMock.createMock;
 import static org.easymock.classextension.EasyMock.replay;
 import static org.easymock.classextension.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
@@ -117,6 +138,100 @@ public class ProxyHandlerUnitTest {
     assertTrue(responseText.contains("The site could be temporarily unavailable or too busy"));
   }
 
+  @Test
+  public void keepsTheConnectionToAHostAliveBetweenRequests() throws Exception {
+    Server upstream = new Server(PortProber.findFreePort());
+    ServletContextHandler context = new ServletContextHandler();
+    context.addServlet(new ServletHolder(new HttpServlet() {
+      @Override
+      protected void doGet(HttpServletRequest request, HttpServletResponse response)
+          throws IOException {
+        response.setContentType("text/plain");
+        response.getWriter().write("Hello from " + request.getRequestURI());
+      }
+    }), "/*");
+    upstream.setHandler(context);
+    upstream.start();
+
+    ProxyHandler proxyHandler = new ProxyHandler(true, "", "", false, false, port, new Object());
+    try {
+      int upstreamPort = upstream.getConnectors()[0].getLocalPort();
+      for (int i = 0; i < 3; i++) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HttpResponse response = new HttpResponse() {
+          @Override
+          public OutputStream getOutputStream() {
+            return out;
+          }
+        };
+        HttpRequest request = new HttpRequest();
+        request.setMethod("GET");
+        request.setURI(new URI("http://localhost:" + upstreamPort + "/page" + i));
+        proxyHandler.handle("foo", "bar", request, response);
+
+        assertEquals(200, response.getStatus());
+        assertEquals("Hello from /page" + i, new String(out.toByteArray(), "UTF-8"));
+      }
+
+      UpstreamHttpClient client = proxyHandler.getUpstreamHttpClient();
+      assertEquals(3, client.getRequestCount());
+      assertEquals(1, client.getPoolMisses());
+      assertEquals(2, client.getPoolHits());
+      assertEquals(1, client.getConnectionStats().getAvailable());
+    } finally {
+      proxyHandler.stop();
+      upstream.stop();
+    }
+  }
+
+  @Test
+  public void relaysTheTunnelsToSeveralHostsThroughOneListener() throws Exception {
+    File sslSupport = Files.createTempDir();
+    File cacheRoot = Files.createTempDir();
+    HttpServer server = new HttpServer();
+    try {
+      ResourceExtractor.extractResourcePath(getClass(), "/sslSupport", sslSupport);
+      CertificateCache certificates = new CertificateCache(cacheRoot,
+          new CertificateGenerator(sslSupport),
+          "http://127.0.0.1:" + port + "/selenium-server/sslSupport/blank_crl.pem", false);
+      server.start();
+      ProxyHandler.SslRelay relay = new ProxyHandler.SslRelay(certificates);
+      server.addListener(relay);
+      relay.start();
+
+      assertTrue(presentedCertificate(relay, "one.example.com").startsWith("CN=one.example.com,"));
+      assertTrue(presentedCertificate(relay, "two.example.com").startsWith("CN=two.example.com,"));
+    } finally {
+      server.stop();
+      LauncherUtils.recursivelyDeleteDir(sslSupport);
+      LauncherUtils.recursivelyDeleteDir(cacheRoot);
+    }
+  }
+
+  private String presentedCertificate(ProxyHandler.SslRelay relay, String host)
+      throws IOException {
+    Socket tunnel = new Socket("localhost", relay.getPort());
+    relay.register(tunnel, host, host, 443);
+    SSLSocket socket = (SSLSocket) TrustEverythingSSLTrustManager.getTrustingSSLSocketFactory()
+        .createSocket(tunnel, host, 443, true);
+    try {
+      socket.startHandshake();
+      X509Certificate certificate =
+          (X509Certificate) socket.getSession().getPeerCertificates()[0];
+      return certificate.getSubjectX500Principal().getName();
+    } finally {
+      socket.close();
+    }
+  }
+
+  @Test
+  public void escapesTheCharactersAUriDoesNotAllow() throws Exception {
+    assertEquals("http://localhost/a%20b?q=%7Cx%7C&r=%25",
+        ProxyHandler.toURI(new URL("http://localhost/a b?q=|x|&r=%25")).toString());
+    assertEquals("http://localhost/a%20b?q=1",
+        ProxyHandler.toURI(new URL("http://localhost/a%20b?q=1")).toString());
+  }
+
   @Test
   public void handleCallsSendNotFoundWhenAskingForNonExistentResource()
       throws Exception {
@@ -27,6 +27,7 @@ import org.openqa.selenium.server.browserlaunchers.MakeProxyPacUnitTest;
 import org.openqa.selenium.server.htmlrunner.HTMLSuiteResultUnitTest;
 import org.openqa.selenium.server.log.DefaultPerSessionLogHandlerUnitTest;
 import org.openqa.selenium.server.log.LoggingManagerUnitTest;
+import org.openqa.selenium.server.log.SessionLogsToFileRepositoryTest;
 import org.openqa.selenium.server.log.ShortTermMemoryHandlerUnitTest;
 import org.openqa.selenium.server.mock.MockPIFrameUnitTest;
 
@@ -37,6 +38,7 @@ import org.openqa.selenium.server.mock.MockPIFrameUnitTest;
     BrowserLauncherFactoryUnitTest.class,
     BrowserResponseSequencerUnitTest.class,
     BrowserSessionFactoryUnitTest.class,
+    CertificateCacheUnitTest.class,
     ClasspathResourceLocatorUnitTest.class,
     CommandHolderUnitTest.class,
     CommandQueueUnitTest.class,
@@ -47,6 +49,7 @@ import org.openqa.selenium.server.mock.MockPIFrameUnitTest;
     FrameGroupCommandQueueUnitTest.class,
     FsResourceLocatorUnitTest.class,
     HTMLSuiteResultUnitTest.class,
+    InjectionHelperUnitTest.class,
     LoggingManagerUnitTest.class,
     MakeProxyPacUnitTest.class,
     MockPIFrameUnitTest.class,
@@ -54,6 +57,7 @@ import org.openqa.selenium.server.mock.MockPIFrameUnitTest;
     RemoteControlConfigurationUnitTest.class,
     SeleniumDriverResourceHandlerUnitTest.class,
     SeleniumServerUnitTest.class,
+    SessionLogsToFileRepositoryTest.class,
     ShortTermMemoryHandlerUnitTest.class,
     SingleEntryAsyncQueueUnitTest.class,
     StaticContentHandlerUnitTest.class
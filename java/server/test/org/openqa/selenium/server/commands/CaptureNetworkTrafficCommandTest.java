@@ -18,6 +18,8 @@ limitations under the License.
 
 package org.openqa.selenium.server.commands;
 
+import org.json.JSONArray;
+import org.json.JSONObject;
 import org.junit.Test;
 import org.openqa.jetty.http.HttpRequest;
 import org.openqa.jetty.http.HttpResponse;
@@ -26,6 +28,7 @@ import org.openqa.selenium.server.ModifiedIO;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.StringWriter;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Collections;
@@ -35,6 +38,7 @@ import java.util.Map;
 import java.util.TreeMap;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 public class CaptureNetworkTrafficCommandTest {
@@ -57,6 +61,117 @@ public class CaptureNetworkTrafficCommandTest {
     check("plain", "plain.txt");
   }
 
+  @Test
+  public void testHar() throws Exception {
+    prepare();
+    SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+    String result = new CaptureNetworkTrafficCommand("har").execute();
+    assertTrue(result.startsWith("OK,"));
+
+    JSONObject log = new JSONObject(result.substring(3)).getJSONObject("log");
+    assertEquals("1.2", log.getString("version"));
+    JSONArray entries = log.getJSONArray("entries");
+    assertEquals(4, entries.length());
+
+    JSONObject entry = entries.getJSONObject(1);
+    String started = entry.getString("startedDateTime");
+    int zone = started.length() - 3;
+    assertEquals(':', started.charAt(zone));
+    assertEquals(sdf.parse("2009-04-15T09:22:41.000-0700"),
+        sdf.parse(started.substring(0, zone) + started.substring(zone + 1)));
+    assertEquals(102, entry.getInt("time"));
+    JSONObject request = entry.getJSONObject("request");
+    assertEquals("http://example.com/index2.html?foo=\"bar\"", request.getString("url"));
+    assertEquals("foo", request.getJSONArray("queryString").getJSONObject(0).getString("name"));
+    assertEquals("\"bar\"",
+        request.getJSONArray("queryString").getJSONObject(0).getString("value"));
+    assertEquals("baz", request.getJSONArray("headers").getJSONObject(0).getString("name"));
+    // "baz: blah\r\nfoo: bar\r\n\r\n"
+    assertEquals(23, request.getInt("headersSize"));
+    JSONObject response = entry.getJSONObject("response");
+    assertEquals(200, response.getInt("status"));
+    assertEquals(1234, response.getJSONObject("content").getInt("size"));
+
+    assertEquals("today's\ntest \"is\"\n<great>!", entries.getJSONObject(2)
+        .getJSONObject("request").getJSONArray("headers").getJSONObject(0).getString("value"));
+  }
+
+  @Test
+  public void testTrafficIsAttributedToTheOnlySessionOpen() throws Exception {
+    CaptureNetworkTrafficCommand.clear();
+    CaptureNetworkTrafficCommand.open("one");
+    CaptureNetworkTrafficCommand.capture(finished("http://example.com/one"));
+
+    assertEquals("OK,", new CaptureNetworkTrafficCommand("plain").execute());
+    assertTrue(new CaptureNetworkTrafficCommand("plain", "one").execute()
+        .contains("http://example.com/one"));
+
+    // reading the traffic doesn't consume it
+    assertTrue(new CaptureNetworkTrafficCommand("plain", "one").execute()
+        .contains("http://example.com/one"));
+
+    CaptureNetworkTrafficCommand.clear();
+    CaptureNetworkTrafficCommand.open("one");
+    assertEquals("OK,", new CaptureNetworkTrafficCommand("plain", "one").execute());
+  }
+
+  @Test
+  public void testTrafficOfConcurrentSessionsIsNotAttributedToEither() throws Exception {
+    CaptureNetworkTrafficCommand.clear();
+    CaptureNetworkTrafficCommand.open("one");
+    CaptureNetworkTrafficCommand.capture(finished("http://example.com/one"));
+    CaptureNetworkTrafficCommand.open("two");
+    CaptureNetworkTrafficCommand.capture(finished("http://example.com/both"));
+
+    String two = new CaptureNetworkTrafficCommand("plain", "two").execute();
+    assertFalse(two.contains("http://example.com/one"));
+    assertFalse(two.contains("http://example.com/both"));
+
+    String one = new CaptureNetworkTrafficCommand("plain", "one").execute();
+    assertTrue(one.contains("http://example.com/one"));
+    assertFalse(one.contains("http://example.com/both"));
+
+    String none = new CaptureNetworkTrafficCommand("plain").execute();
+    assertFalse(none.contains("http://example.com/one"));
+    assertTrue(none.contains("http://example.com/both"));
+  }
+
+  @Test
+  public void testTrafficOfAClosedSessionIsForgotten() throws Exception {
+    CaptureNetworkTrafficCommand.clear();
+    CaptureNetworkTrafficCommand.open("one");
+    CaptureNetworkTrafficCommand.capture(finished("http://example.com/one"));
+    CaptureNetworkTrafficCommand.close("one");
+
+    assertEquals("OK,", new CaptureNetworkTrafficCommand("plain", "one").execute());
+  }
+
+  @Test
+  public void testOnlyTheLastEntriesAreKept() throws Exception {
+    CaptureNetworkTrafficCommand.clear();
+    CaptureNetworkTrafficCommand.open("session");
+    int entries = CaptureNetworkTrafficCommand.DEFAULT_CAPACITY + 10;
+    for (int i = 0; i < entries; i++) {
+      CaptureNetworkTrafficCommand.capture(finished("http://example.com/" + i));
+    }
+
+    StringWriter out = new StringWriter();
+    new CaptureNetworkTrafficCommand("har", "session").execute(out);
+    JSONObject log = new JSONObject(out.toString().substring(3)).getJSONObject("log");
+    JSONArray captured = log.getJSONArray("entries");
+    assertEquals(CaptureNetworkTrafficCommand.DEFAULT_CAPACITY, captured.length());
+    assertEquals("http://example.com/10",
+        captured.getJSONObject(0).getJSONObject("request").getString("url"));
+    assertTrue(log.getString("comment").startsWith("10 entries were dropped"));
+  }
+
+  private CaptureNetworkTrafficCommand.Entry finished(String url) {
+    CaptureNetworkTrafficCommand.Entry entry = new CaptureNetworkTrafficCommand.Entry("GET", url);
+    entry.addRequestHeader("Accept", "*/*");
+    entry.finish(200, 10);
+    return entry;
+  }
+
   private void check(String type, String file) throws IOException {
     CaptureNetworkTrafficCommand c = new CaptureNetworkTrafficCommand(type);
 
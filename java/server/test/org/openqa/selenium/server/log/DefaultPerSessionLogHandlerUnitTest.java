@@ -23,11 +23,16 @@ import static org.junit.Assert.assertTrue;
 import org.junit.Test;
 
 import org.openqa.selenium.logging.LogEntries;
+import org.openqa.selenium.logging.LogEntry;
 import org.openqa.selenium.logging.LogType;
+import org.openqa.selenium.logging.LoggingPreferences;
 import org.openqa.selenium.logging.SessionLogs;
 import org.openqa.selenium.remote.SessionId;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.logging.Formatter;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
@@ -168,6 +173,152 @@ public class DefaultPerSessionLogHandlerUnitTest {
     assertNoMessageLoggedForSessionId(handler, sessionId);
   }
 
+  @Test
+  public void testSpilledRecordsAreReturnedBeforeTheOnesInMemory() throws IOException {
+    PerSessionLogHandler handler = new DefaultPerSessionLogHandler(2, Level.INFO,
+        new FormatterStub(), false, DefaultPerSessionLogHandler.OverflowPolicy.SPILL);
+    SessionId sessionId = new SessionId("session");
+
+    handler.attachToCurrentThread(sessionId);
+    handler.publish(new LogRecord(Level.INFO, "1"));
+    handler.publish(new LogRecord(Level.INFO, "2"));
+    handler.publish(new LogRecord(Level.INFO, "3"));
+
+    assertMessagesLoggedForSessionId(handler, sessionId, "1", "2", "3");
+  }
+
+  @Test
+  public void testRecordsSpilledManyTimesAreAllKept() throws IOException {
+    PerSessionLogHandler handler = new DefaultPerSessionLogHandler(2, Level.INFO,
+        new FormatterStub(), false, DefaultPerSessionLogHandler.OverflowPolicy.SPILL);
+    SessionId sessionId = new SessionId("session");
+
+    handler.attachToCurrentThread(sessionId);
+    for (int i = 1; i <= 7; i++) {
+      handler.publish(new LogRecord(Level.INFO, String.valueOf(i)));
+    }
+
+    assertMessagesLoggedForSessionId(handler, sessionId, "1", "2", "3", "4", "5", "6", "7");
+  }
+
+  @Test
+  public void testSessionLogReadsEveryPageOfTheLogFileAtTheServerLevel() throws IOException {
+    PerSessionLogHandler handler = new DefaultPerSessionLogHandler(2, Level.INFO,
+        new FormatterStub(), false, DefaultPerSessionLogHandler.OverflowPolicy.SPILL);
+    LoggingPreferences prefs = new LoggingPreferences();
+    prefs.enable(LogType.SERVER, Level.WARNING);
+    handler.configureLogging(prefs);
+    SessionId sessionId = new SessionId("session");
+
+    handler.attachToCurrentThread(sessionId);
+    for (int i = 0; i < 2500; i++) {
+      handler.publish(new LogRecord(i % 2 == 0 ? Level.INFO : Level.WARNING, String.valueOf(i)));
+    }
+
+    List<LogEntry> entries = handler.getSessionLog(sessionId).getAll();
+    assertEquals(1250, entries.size());
+    for (int i = 0; i < entries.size(); i++) {
+      assertEquals(String.valueOf(2 * i + 1), entries.get(i).getMessage());
+    }
+  }
+
+  @Test
+  public void testRecordsOfASessionWithAShortIdAreSpilled() throws IOException {
+    PerSessionLogHandler handler = new DefaultPerSessionLogHandler(1, Level.INFO,
+        new FormatterStub(), false, DefaultPerSessionLogHandler.OverflowPolicy.SPILL);
+    SessionId sessionId = new SessionId("0");
+
+    handler.publish(new LogRecord(Level.INFO, "1"));
+    handler.attachToCurrentThread(sessionId);
+    handler.publish(new LogRecord(Level.INFO, "2"));
+    handler.publish(new LogRecord(Level.INFO, "3"));
+
+    assertMessagesLoggedForSessionId(handler, sessionId, "1", "2", "3");
+  }
+
+  @Test
+  public void testOldestRecordsAreDroppedFromAFullBuffer() throws IOException {
+    PerSessionLogHandler handler = new DefaultPerSessionLogHandler(2, Level.INFO,
+        new FormatterStub(), false, DefaultPerSessionLogHandler.OverflowPolicy.DROP_OLDEST);
+    SessionId sessionId = new SessionId("session");
+
+    handler.attachToCurrentThread(sessionId);
+    for (int i = 1; i <= 5; i++) {
+      handler.publish(new LogRecord(Level.INFO, String.valueOf(i)));
+    }
+
+    assertMessagesLoggedForSessionId(handler, sessionId,
+        "3 log records were dropped, the buffer of 2 was full", "4", "5");
+  }
+
+  @Test
+  public void testNewRecordsAreDroppedFromAFullBuffer() throws IOException {
+    PerSessionLogHandler handler = new DefaultPerSessionLogHandler(2, Level.INFO,
+        new FormatterStub(), false, DefaultPerSessionLogHandler.OverflowPolicy.DROP_NEWEST);
+    SessionId sessionId = new SessionId("session");
+
+    handler.attachToCurrentThread(sessionId);
+    for (int i = 1; i <= 5; i++) {
+      handler.publish(new LogRecord(Level.INFO, String.valueOf(i)));
+    }
+
+    assertMessagesLoggedForSessionId(handler, sessionId,
+        "3 log records were dropped, the buffer of 2 was full", "1", "2");
+  }
+
+  @Test
+  public void testRecordsBelowTheMinimumLevelAreNotKept() throws IOException {
+    PerSessionLogHandler handler = createPerSessionLogHandler();
+    SessionId sessionId = new SessionId("session");
+
+    handler.attachToCurrentThread(sessionId);
+    handler.publish(new LogRecord(Level.FINE, "Fine Log Record"));
+
+    assertNoMessageLoggedForSessionId(handler, sessionId);
+  }
+
+  @Test
+  public void testRecordsPublishedConcurrentlyAreKeptPerSession() throws Exception {
+    final int threads = 8;
+    final int records = 500;
+    final PerSessionLogHandler handler = new DefaultPerSessionLogHandler(records, Level.INFO,
+        new FormatterStub(), false, DefaultPerSessionLogHandler.OverflowPolicy.DROP_NEWEST);
+    final CountDownLatch start = new CountDownLatch(1);
+    List<Thread> publishers = new ArrayList<Thread>();
+    for (int i = 0; i < threads; i++) {
+      final SessionId sessionId = new SessionId("session-" + i);
+      Thread publisher = new Thread() {
+        @Override
+        public void run() {
+          handler.attachToCurrentThread(sessionId);
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          for (int j = 0; j < records; j++) {
+            handler.publish(new LogRecord(Level.INFO, sessionId + " " + j));
+          }
+          handler.detachFromCurrentThread();
+        }
+      };
+      publisher.start();
+      publishers.add(publisher);
+    }
+    start.countDown();
+    for (Thread publisher : publishers) {
+      publisher.join();
+    }
+
+    for (int i = 0; i < threads; i++) {
+      List<LogEntry> entries = handler.getSessionLog(new SessionId("session-" + i)).getAll();
+      assertEquals(records, entries.size());
+      for (int j = 0; j < records; j++) {
+        assertEquals("session-" + i + " " + j, entries.get(j).getMessage());
+      }
+    }
+  }
+
   private void assertMessagesLoggedForSessionId(PerSessionLogHandler handler,
                                                 SessionId sessionId, String... expectedMessages)
       throws IOException {
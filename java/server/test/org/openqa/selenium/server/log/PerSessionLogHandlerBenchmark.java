@@ -0,0 +1,127 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.openqa.selenium.server.log;
+
+import org.junit.Test;
+import org.openqa.selenium.remote.SessionId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Publish throughput of the {@link DefaultPerSessionLogHandler} with 1 to 64 threads, each one
+ * attached to a session of its own, as the threads serving the requests of the sessions are. The
+ * handler is compared with the same one behind a lock shared by all the threads, the way
+ * publish used to be synchronized. Not part of the test suites, run it on its own.
+ */
+public class PerSessionLogHandlerBenchmark {
+
+  private static final Logger log =
+      Logger.getLogger(PerSessionLogHandlerBenchmark.class.getName());
+
+  private static final int CAPACITY = 1000;
+  private static final int WARMUP_ITERATIONS = 3;
+  private static final int MEASURED_ITERATIONS = 5;
+  private static final int RECORDS_PER_THREAD = 50000;
+
+  @Test
+  public void publish() throws Exception {
+    for (int threads = 1; threads <= 64; threads *= 2) {
+      double perSession = measure(threads, new DefaultPerSessionLogHandler(
+          CAPACITY, Level.INFO, new DefaultPerSessionLogHandlerUnitTest.FormatterStub(), false,
+          DefaultPerSessionLogHandler.OverflowPolicy.DROP_OLDEST));
+      double globalLock = measure(threads, new GloballySynchronizedHandler());
+      log.info(String.format(
+          "%d threads : %.0f records/ms with a buffer per session, %.0f records/ms behind one lock",
+          threads, perSession, globalLock));
+    }
+  }
+
+  /**
+   * @return the number of records published per millisecond, all threads together.
+   */
+  private double measure(int threads, PerSessionLogHandler handler) throws Exception {
+    long elapsed = 0;
+    for (int iteration = 0; iteration < WARMUP_ITERATIONS + MEASURED_ITERATIONS; iteration++) {
+      long time = run(threads, handler);
+      if (iteration >= WARMUP_ITERATIONS) {
+        elapsed += time;
+      }
+    }
+    return (double) threads * RECORDS_PER_THREAD * MEASURED_ITERATIONS / (elapsed / 1000000.0);
+  }
+
+  private long run(int threads, final PerSessionLogHandler handler) throws Exception {
+    final CountDownLatch ready = new CountDownLatch(threads);
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(threads);
+    List<Thread> publishers = new ArrayList<Thread>();
+    for (int i = 0; i < threads; i++) {
+      final SessionId sessionId = new SessionId("session-" + i);
+      final LogRecord record = new LogRecord(Level.INFO, "Command request: getTitle on " + i);
+      Thread publisher = new Thread() {
+        @Override
+        public void run() {
+          handler.attachToCurrentThread(sessionId);
+          ready.countDown();
+          try {
+            start.await();
+            for (int j = 0; j < RECORDS_PER_THREAD; j++) {
+              handler.publish(record);
+            }
+          } catch (InterruptedException e) {
+            // measured anyway
+          } finally {
+            handler.removeSessionLogs(sessionId);
+            done.countDown();
+          }
+        }
+      };
+      publisher.start();
+      publishers.add(publisher);
+    }
+
+    ready.await();
+    long begin = System.nanoTime();
+    start.countDown();
+    done.await();
+    long elapsed = System.nanoTime() - begin;
+    for (Thread publisher : publishers) {
+      publisher.join();
+    }
+    return elapsed;
+  }
+
+  private static class GloballySynchronizedHandler extends DefaultPerSessionLogHandler {
+
+    GloballySynchronizedHandler() {
+      super(CAPACITY, Level.INFO, new DefaultPerSessionLogHandlerUnitTest.FormatterStub(), false,
+          OverflowPolicy.DROP_OLDEST);
+    }
+
+    @Override
+    public synchronized void publish(LogRecord record) {
+      super.publish(record);
+    }
+  }
+}
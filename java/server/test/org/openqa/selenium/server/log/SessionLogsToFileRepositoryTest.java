@@ -0,0 +1,143 @@
+/*
+Copyright 2012 Selenium committers
+Copyright 2012 Software Freedom Conservancy
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.openqa.selenium.server.log;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.Lists;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openqa.selenium.remote.SessionId;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+public class SessionLogsToFileRepositoryTest {
+
+  private SessionLogsToFileRepository repository;
+  private SessionId sessionId;
+
+  @Before
+  public void setUp() {
+    repository = new SessionLogsToFileRepository();
+    sessionId = new SessionId("session");
+  }
+
+  @After
+  public void tearDown() {
+    repository.removeLogFile(sessionId);
+  }
+
+  @Test
+  public void keepsTheFieldsOfTheRecords() throws IOException {
+    LogRecord record = new LogRecord(Level.WARNING, "Waited {0} ms for {1}");
+    record.setParameters(new Object[] {500, "the page"});
+    record.setLoggerName("org.openqa.selenium.server");
+    record.setSourceClassName("SeleniumServer");
+    record.setSourceMethodName("start");
+    record.setThrown(new IOException("Boom"));
+    repository.flushRecordsToLogFile(sessionId, Lists.newArrayList(record));
+
+    LogRecord read = repository.getLogRecords(sessionId).get(0);
+    assertEquals(Level.WARNING, read.getLevel());
+    assertEquals(record.getMillis(), read.getMillis());
+    assertEquals(record.getSequenceNumber(), read.getSequenceNumber());
+    assertEquals(record.getThreadID(), read.getThreadID());
+    assertEquals("Waited 500 ms for the page", read.getMessage());
+    assertNull(read.getParameters());
+    assertEquals("org.openqa.selenium.server", read.getLoggerName());
+    assertEquals("SeleniumServer", read.getSourceClassName());
+    assertEquals("start", read.getSourceMethodName());
+    assertTrue(read.getThrown() instanceof IOException);
+    assertEquals("Boom", read.getThrown().getMessage());
+  }
+
+  @Test
+  public void appendsTheRecordsOfEachFlush() throws IOException {
+    repository.flushRecordsToLogFile(sessionId, records(0, 3));
+    repository.flushRecordsToLogFile(sessionId, records(3, 3));
+
+    assertMessages(repository.getLogRecords(sessionId), "0", "1", "2", "3", "4", "5");
+  }
+
+  @Test
+  public void readsAPageOfTheRecordsAtOrAboveALevel() throws IOException {
+    repository.flushRecordsToLogFile(sessionId, records(0, 10));
+
+    assertMessages(repository.getLogRecords(sessionId, Level.ALL, 4, 3), "4", "5", "6");
+    // every other record is a warning
+    assertMessages(repository.getLogRecords(sessionId, Level.WARNING, 3, 4), "3", "5");
+    assertMessages(repository.getLogRecords(sessionId, Level.ALL, 8, 5), "8", "9");
+    assertEquals(10, repository.getLogRecordCount(sessionId));
+  }
+
+  @Test
+  public void readsTheLastRecordsAtOrAboveALevel() throws IOException {
+    repository.flushRecordsToLogFile(sessionId, records(0, 10));
+
+    assertMessages(repository.getLastLogRecords(sessionId, Level.ALL, 2), "8", "9");
+    assertMessages(repository.getLastLogRecords(sessionId, Level.WARNING, 3), "5", "7", "9");
+    assertMessages(repository.getLastLogRecords(sessionId, Level.ALL, 20),
+        "0", "1", "2", "3", "4", "5", "6", "7", "8", "9");
+    assertTrue(repository.getLastLogRecords(new SessionId("unknown"), Level.ALL, 2).isEmpty());
+  }
+
+  @Test
+  public void hasNoRecordsForAnUnknownSession() throws IOException {
+    assertTrue(repository.getLogRecords(new SessionId("unknown")).isEmpty());
+    assertEquals(0, repository.getLogRecordCount(new SessionId("unknown")));
+  }
+
+  @Test
+  public void forgetsTheRecordsNotReadOrWrittenForTheRetentionTime() throws Exception {
+    repository = new SessionLogsToFileRepository(50, TimeUnit.MILLISECONDS);
+    repository.flushRecordsToLogFile(sessionId, records(0, 1));
+
+    repository.removeExpiredLogFiles();
+    assertEquals(1, repository.getLogRecordCount(sessionId));
+
+    Thread.sleep(100);
+    repository.removeExpiredLogFiles();
+    assertEquals(0, repository.getLogRecordCount(sessionId));
+  }
+
+  private static List<LogRecord> records(int from, int count) {
+    List<LogRecord> records = new ArrayList<LogRecord>();
+    for (int i = from; i < from + count; i++) {
+      records.add(new LogRecord(i % 2 == 0 ? Level.INFO : Level.WARNING, String.valueOf(i)));
+    }
+    return records;
+  }
+
+  private static void assertMessages(List<LogRecord> records, String... messages) {
+    List<String> actual = new ArrayList<String>();
+    for (LogRecord record : records) {
+      actual.add(record.getMessage());
+    }
+    assertEquals(Lists.newArrayList(messages), actual);
+  }
+}